@@ -0,0 +1,139 @@
+package examples.benchmark;
+
+import gov.nist.core.LazyParseException;
+import gov.nist.javax.sip.header.*;
+import gov.nist.javax.sip.message.*;
+import gov.nist.javax.sip.parser.*;
+import java.text.ParseException;
+
+/**
+ * Compares the cost of rejecting malformed messages with the cost of
+ * parsing a good one. Each message is parsed with
+ * StringMsgParser.tryParseSIPMessage (what the UDP channel does) and with
+ * parseSIPMessage and a ParseExceptionListener that throws for the
+ * mandatory headers (what the channels used to do), the latter once with
+ * and once without stack traces in the parse exceptions. Run with
+ * <pre>
+ * java examples.benchmark.BadMessages
+ * </pre>
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class BadMessages implements ParseExceptionListener {
+
+	private static final int ROUNDS = 20000;
+
+	private static final String headers =
+		"Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: Bob <sip:bob@biloxi.com>\r\n"
+			+ "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Contact: <sip:alice@pc33.atlanta.com>\r\n"
+			+ "Content-Length: 0\r\n\r\n";
+
+	private static final String[] names = {
+		"good message",
+		"bad request line",
+		"bad Via",
+		"bad CSeq",
+		"bad Contact (kept unparsed)",
+		"garbage",
+	};
+
+	private static final String[] messages = {
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n" + headers,
+		"INVITE sip:bob@biloxi.com SIP/3.0 junk\r\n" + headers,
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP pc33.atlanta.com;;branch=\r\n"
+			+ headers.substring(headers.indexOf("Max-Forwards")),
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ headers.replaceFirst("314159 INVITE", "x INVITE"),
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ headers.replaceFirst("<sip:alice@pc33", "<sip:alice@@pc33"),
+		"\u0016\u0003\u0001\u0000\u00a1\u0001\u0000\u0000\u009d\u0003"
+			+ "\u0001GET / HTTP/1.0\r\n\r\n",
+	};
+
+	/**
+	 * The policy of the message channels.
+	 */
+	public void handleException(
+		ParseException ex,
+		SIPMessage sipMessage,
+		Class hdrClass,
+		String header,
+		String message)
+		throws ParseException {
+		if (hdrClass != null
+			&& (hdrClass.equals(From.class)
+				|| hdrClass.equals(To.class)
+				|| hdrClass.equals(CSeq.class)
+				|| hdrClass.equals(Via.class)
+				|| hdrClass.equals(CallID.class)
+				|| hdrClass.equals(RequestLine.class)
+				|| hdrClass.equals(StatusLine.class)))
+			throw ex;
+		else
+			sipMessage.addUnparsed(header);
+	}
+
+	private double timeTry(StringMsgParser parser, byte[] msg) {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < ROUNDS; i++)
+			parser.tryParseSIPMessage(msg);
+		long elapsed = System.currentTimeMillis() - start;
+		return elapsed * 1000.0 / ROUNDS;
+	}
+
+	private double timeThrow(StringMsgParser parser, byte[] msg) {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < ROUNDS; i++) {
+			try {
+				parser.parseSIPMessage(msg);
+			} catch (ParseException ex) {
+				// The channels log the message of the exception.
+				ex.getMessage();
+			}
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		return elapsed * 1000.0 / ROUNDS;
+	}
+
+	public void run() throws Exception {
+		StringMsgParser parser = new StringMsgParser(this);
+		// The first pass warms up the JIT.
+		for (int pass = 0; pass < 2; pass++) {
+			if (pass == 1)
+				System.out.println(
+					"usec/message\ttry\tthrow\tthrow+stack\tstatus");
+			for (int i = 0; i < messages.length; i++) {
+				byte[] msg = messages[i].getBytes("ISO-8859-1");
+				double tried = timeTry(parser, msg);
+				int status = parser.getErrorStatus();
+				double thrown = timeThrow(parser, msg);
+				LazyParseException.setStackTraces(true);
+				double traced = timeThrow(parser, msg);
+				LazyParseException.setStackTraces(false);
+				if (pass == 1)
+					System.out.println(
+						names[i]
+							+ "\n\t\t"
+							+ tried
+							+ "\t"
+							+ thrown
+							+ "\t"
+							+ traced
+							+ "\t"
+							+ status);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new BadMessages().run();
+	}
+}
@@ -0,0 +1,232 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.parser.MessageFramer;
+import javax.sip.*;
+import javax.sip.address.*;
+import javax.sip.header.*;
+import javax.sip.message.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Sends requests over TCP to a destination that drops the connection
+ * requests (a listening socket with a full backlog, which is what a
+ * black holed host looks like to the stack) and, while the connections
+ * to it are pending, to a peer that answers the connection. Prints how
+ * long the sends to the black hole took to fail and how long the sends
+ * to the other peer took. Run with
+ * <pre>
+ * java examples.benchmark.BlackHole [-nio] [connect timeout in ms]
+ * </pre>
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class BlackHole implements SipListener {
+
+	private static final String myAddress = "127.0.0.1";
+
+	private static final int myPort = 5080;
+
+	private static final int REQUESTS = 100;
+
+	private SipProvider sipProvider;
+
+	private MessageFactory messageFactory;
+
+	private HeaderFactory headerFactory;
+
+	private AddressFactory addressFactory;
+
+	public void processRequest(RequestEvent requestEvent) {
+	}
+
+	public void processResponse(ResponseEvent responseEvent) {
+	}
+
+	public void processTimeout(TimeoutEvent timeoutEvent) {
+	}
+
+	/**
+	 * Reads the connection of the good peer and counts the messages.
+	 */
+	class Reader implements Runnable {
+
+		private ServerSocket serverSocket;
+
+		private int received;
+
+		Reader(ServerSocket serverSocket) {
+			this.serverSocket = serverSocket;
+		}
+
+		public void run() {
+			try {
+				Socket socket = serverSocket.accept();
+				InputStream in = socket.getInputStream();
+				MessageFramer framer = new MessageFramer(0);
+				byte[] buffer = new byte[8192];
+				int nbytes;
+				while ((nbytes = in.read(buffer)) != -1) {
+					framer.addBytes(buffer, 0, nbytes);
+					while (framer.nextMessage() != null)
+						count();
+				}
+			} catch (IOException ex) {
+			}
+		}
+
+		private synchronized void count() {
+			received++;
+			notifyAll();
+		}
+
+		synchronized int waitFor(int n, long timeout)
+			throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			while (received < n && System.currentTimeMillis() < end)
+				wait(100);
+			return received;
+		}
+	}
+
+	/**
+	 * Sends a request to the black hole and records how long it took to
+	 * fail.
+	 */
+	class Sender implements Runnable {
+
+		private int port;
+
+		private long elapsed;
+
+		private String outcome;
+
+		Sender(int port) {
+			this.port = port;
+		}
+
+		public void run() {
+			long start = System.currentTimeMillis();
+			try {
+				sipProvider.getNewClientTransaction(createRequest(port))
+					.sendRequest();
+				outcome = "sent";
+			} catch (Exception ex) {
+				outcome = ex.getMessage();
+			}
+			elapsed = System.currentTimeMillis() - start;
+		}
+	}
+
+	private Request createRequest(int port) throws Exception {
+		SipURI uri = addressFactory.createSipURI("peer", myAddress);
+		uri.setPort(port);
+		uri.setTransportParam("tcp");
+		Address from = addressFactory.createAddress(
+			addressFactory.createSipURI("blackhole", myAddress));
+		ArrayList vias = new ArrayList();
+		vias.add(headerFactory.createViaHeader(myAddress, myPort, "tcp", null));
+		return messageFactory.createRequest(
+			uri,
+			Request.MESSAGE,
+			sipProvider.getNewCallId(),
+			headerFactory.createCSeqHeader(1, Request.MESSAGE),
+			headerFactory.createFromHeader(from, "blackhole"),
+			headerFactory.createToHeader(addressFactory.createAddress(uri), null),
+			vias,
+			headerFactory.createMaxForwardsHeader(70),
+			headerFactory.createContentTypeHeader("text", "plain"),
+			"hello");
+	}
+
+	public void run(boolean nio, String connectTimeout) throws Exception {
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", myAddress);
+		properties.setProperty("javax.sip.STACK_NAME", "blackhole");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		properties.setProperty(
+			"gov.nist.javax.sip.CONNECT_TIMEOUT", connectTimeout);
+		if (nio)
+			properties.setProperty("gov.nist.javax.sip.USE_NIO_TCP", "true");
+		SipStack sipStack = sipFactory.createSipStack(properties);
+		messageFactory = sipFactory.createMessageFactory();
+		headerFactory = sipFactory.createHeaderFactory();
+		addressFactory = sipFactory.createAddressFactory();
+		ListeningPoint lp = sipStack.createListeningPoint(myPort, "tcp");
+		sipProvider = sipStack.createSipProvider(lp);
+		sipProvider.addSipListener(this);
+
+		// Fill the backlog of a socket that never accepts: the system
+		// drops the connection requests that come after.
+		ServerSocket blackHole =
+			new ServerSocket(0, 1, InetAddress.getByName(myAddress));
+		ArrayList fillers = new ArrayList();
+		while (true) {
+			Socket filler = new Socket();
+			try {
+				filler.connect(
+					new InetSocketAddress(myAddress, blackHole.getLocalPort()),
+					200);
+				fillers.add(filler);
+			} catch (SocketTimeoutException ex) {
+				filler.close();
+				break;
+			}
+		}
+		ServerSocket good = new ServerSocket(0, 50, InetAddress.getByName(myAddress));
+		Reader reader = new Reader(good);
+		new Thread(reader).start();
+
+		Sender[] senders = new Sender[2];
+		Thread[] threads = new Thread[senders.length];
+		for (int i = 0; i < senders.length; i++) {
+			senders[i] = new Sender(blackHole.getLocalPort());
+			threads[i] = new Thread(senders[i]);
+			threads[i].start();
+		}
+		// Let the black hole connects start.
+		Thread.sleep(200);
+		long start = System.currentTimeMillis();
+		int failed = 0;
+		for (int n = 0; n < REQUESTS; n++) {
+			try {
+				sipProvider.getNewClientTransaction(
+					createRequest(good.getLocalPort())).sendRequest();
+			} catch (SipException ex) {
+				failed++;
+			}
+		}
+		int received = reader.waitFor(REQUESTS, 5000);
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println(
+			(nio ? "nio" : "thread per connection")
+				+ ", connect timeout " + connectTimeout + " ms: "
+				+ REQUESTS + " requests to the good peer in " + elapsed
+				+ " ms (" + received + " received, " + failed + " failed)");
+		for (int i = 0; i < senders.length; i++) {
+			threads[i].join();
+			System.out.println(
+				"send to the black hole " + i + ": " + senders[i].outcome
+					+ " after " + senders[i].elapsed + " ms");
+		}
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean nio = false;
+		String connectTimeout = "2000";
+		int arg = 0;
+		if (args.length > arg && args[arg].equals("-nio")) {
+			nio = true;
+			arg++;
+		}
+		if (args.length > arg)
+			connectTimeout = args[arg];
+		new BlackHole().run(nio, connectTimeout);
+	}
+}
@@ -0,0 +1,127 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.message.*;
+import gov.nist.javax.sip.parser.*;
+import gov.nist.javax.sip.stack.*;
+import javax.sip.*;
+import java.util.*;
+
+/**
+ * Measures how long the stack takes to find the INVITE server transaction
+ * that an incoming CANCEL refers to, for an increasing number of open INVITE
+ * transactions. The lookup time should not depend on the number of
+ * transactions. Run with
+ * <pre>
+ * java examples.benchmark.CancelLookup [-rfc2543]
+ * </pre>
+ * The -rfc2543 flag makes the requests look like they come from an old
+ * peer (no magic cookie in the via branch).
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class CancelLookup {
+
+	private static final String myAddress = "127.0.0.1";
+
+	private static final int myPort = 5080;
+
+	// Nothing listens on the peer port; the 100 Trying that the stack sends
+	// for the INVITEs goes nowhere.
+	private static final int peerPort = 5081;
+
+	private static final int[] transactionCounts =
+		{ 1000, 2000, 4000, 8000, 16000 };
+
+	private static final int LOOKUPS = 100000;
+
+	private SipStackImpl sipStack;
+
+	private StringMsgParser parser;
+
+	private boolean rfc2543;
+
+	private int requestCount;
+
+	public CancelLookup(boolean rfc2543) throws Exception {
+		this.rfc2543 = rfc2543;
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", myAddress);
+		properties.setProperty("javax.sip.STACK_NAME", "cancellookup");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		sipStack = (SipStackImpl) sipFactory.createSipStack(properties);
+		sipStack.createListeningPoint(myPort, "udp");
+		parser = new StringMsgParser();
+	}
+
+	private SIPRequest createRequest(String method, int n) throws Exception {
+		String branch = rfc2543 ? "" : ";branch=z9hG4bK" + n + "bench";
+		String request = method + " sip:bob@" + myAddress + ":" + myPort
+				+ " SIP/2.0\r\n"
+				+ "Via: SIP/2.0/UDP " + myAddress + ":" + peerPort + branch + "\r\n"
+				+ "From: <sip:alice@" + myAddress + ">;tag=" + n + "\r\n"
+				+ "To: <sip:bob@" + myAddress + ">\r\n"
+				+ "Call-ID: " + n + "@" + myAddress + "\r\n"
+				+ "CSeq: 1 " + method + "\r\n"
+				+ "Max-Forwards: 70\r\n"
+				+ "Content-Length: 0\r\n\r\n";
+		return (SIPRequest) parser.parseSIPMessage(request);
+	}
+
+	/**
+	 * Open INVITE server transactions until there are count of them.
+	 */
+	private void openTransactions(int count) throws Exception {
+		MessageChannel channel = sipStack.createRawMessageChannel(myPort,
+				new HopImpl(myAddress, myPort, "udp"));
+		while (requestCount < count) {
+			SIPRequest invite = createRequest("INVITE", requestCount++);
+			SIPServerTransaction transaction = sipStack
+					.createServerTransaction(channel);
+			transaction.setOriginalRequest(invite);
+			sipStack.addTransaction(transaction);
+		}
+	}
+
+	/**
+	 * Return the mean time in microseconds of a CANCEL lookup.
+	 */
+	private double measure() throws Exception {
+		SIPRequest[] cancels = new SIPRequest[256];
+		Random random = new Random(requestCount);
+		for (int i = 0; i < cancels.length; i++)
+			cancels[i] = createRequest("CANCEL", random.nextInt(requestCount));
+		// Warm up.
+		for (int i = 0; i < LOOKUPS; i++)
+			lookup(cancels[i % cancels.length]);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < LOOKUPS; i++)
+			lookup(cancels[i % cancels.length]);
+		long elapsed = System.currentTimeMillis() - start;
+		return elapsed * 1000.0 / LOOKUPS;
+	}
+
+	private void lookup(SIPRequest cancel) {
+		if (sipStack.findCancelTransaction(cancel, true) == null)
+			throw new RuntimeException("No transaction for " + cancel);
+	}
+
+	public void run() throws Exception {
+		System.out.println("transactions\tusec/CANCEL");
+		for (int i = 0; i < transactionCounts.length; i++) {
+			openTransactions(transactionCounts[i]);
+			System.out.println(requestCount + "\t\t" + measure());
+		}
+		sipStack.stopStack();
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean rfc2543 = args.length > 0 && args[0].equals("-rfc2543");
+		new CancelLookup(rfc2543).run();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,344 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.header.*;
+import gov.nist.javax.sip.message.*;
+import gov.nist.javax.sip.parser.*;
+import java.net.*;
+import java.util.*;
+import javax.sip.*;
+import javax.sip.header.ContactHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.SubjectHeader;
+import javax.sip.header.ViaHeader;
+
+/**
+ * Checks that a clone of a message and the message it was cloned from
+ * stay apart although they share their headers until one of them hands a
+ * header out or changes it. A parsed request (parsed lazily and eagerly)
+ * is cloned and each of a list of changes is made to the clone, and then
+ * to the original: the encoding of the other message must not move. The
+ * same is checked for a change made through a header that was handed out
+ * before the clone was made, and for a clone of a clone. Then the time
+ * of a clone, and of a clone that is changed and encoded (a request that
+ * is forwarded), is printed: for a request that was just parsed, and for
+ * the same request received by a stack, after the channel, the
+ * transaction layer and the listener (which creates a server transaction
+ * and so a dialog, which keeps the From, To and Call-ID headers) have
+ * looked at it. Run with
+ * <pre>
+ * java examples.benchmark.CloneCheck [rounds]
+ * </pre>
+ * The exit status is 1 if a change to one message shows in the other.
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class CloneCheck {
+
+	private static final String message =
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "Route: <sip:p1.example.com;lr>, <sip:p2.example.com;lr>\r\n"
+			+ "Record-Route: <sip:p3.example.com;lr>\r\n"
+			+ "To: Bob <sip:bob@biloxi.com>\r\n"
+			+ "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Contact: <sip:alice@pc33.atlanta.com>\r\n"
+			+ "Subject: Need more boxes\r\n"
+			+ "X-Account: 12345\r\n"
+			+ "Content-Type: application/sdp\r\n"
+			+ "Content-Length: 4\r\n\r\n"
+			+ "v=0\n";
+
+	private static final int CHANGES = 19;
+
+	private StringMsgParser parser = new StringMsgParser();
+
+	private int checked;
+
+	private int leaked;
+
+	private SIPRequest parse(boolean lazy) throws Exception {
+		parser.setLazyParsing(lazy);
+		return (SIPRequest) parser.parseSIPMessage(message.getBytes());
+	}
+
+	private static Via newVia() throws Exception {
+		return (Via) ((ViaList) new ViaParser(
+			"Via: SIP/2.0/UDP p1.example.com;branch=z9hG4bKp1\n").parse())
+			.getFirst();
+	}
+
+	/**
+	 * Make change i to a request and describe it.
+	 */
+	private static String change(SIPRequest request, int i) throws Exception {
+		switch (i) {
+		case 0:
+			request.setFromTag("other");
+			return "the From tag";
+		case 1:
+			request.setToTag("other");
+			return "the To tag";
+		case 2:
+			request.getFrom().getAddress().setDisplayName("Carol");
+			return "the display name of From";
+		case 3:
+			request.getTopmostVia().setBranch("z9hG4bKother");
+			return "the branch of the top Via";
+		case 4:
+			request.getTopmostVia().getSentBy().setPort(5070);
+			return "the port of the top Via";
+		case 5:
+			request.getViaHeaders().add(0, newVia());
+			return "a Via added to the Via list";
+		case 6:
+			request.addHeader(newVia());
+			return "an added Via header";
+		case 7:
+			request.removeHeader(ViaHeader.NAME, true);
+			return "the top Via removed";
+		case 8:
+			request.setMethod("OPTIONS");
+			return "the method";
+		case 9:
+			request.getCSeq().setSequenceNumber(2);
+			return "the CSeq number";
+		case 10:
+			request.getMaxForwards().decrementMaxForwards();
+			return "Max-Forwards decremented";
+		case 11:
+			request.setCallId("other@pc33.atlanta.com");
+			return "the Call-ID";
+		case 12:
+			request.setMessageContent("v=0\nc=IN IP4 10.0.0.1\n");
+			return "the content (and Content-Length)";
+		case 13:
+			((Contact) request.getHeader(ContactHeader.NAME))
+				.setParameter("expires", "60");
+			return "a parameter of Contact";
+		case 14:
+			request.getRouteHeaders().removeFirst();
+			return "the top Route removed from the Route list";
+		case 15:
+			for (ListIterator li = request.getHeaders(); li.hasNext(); ) {
+				SIPHeader header = (SIPHeader) li.next();
+				if (header instanceof RecordRouteList)
+					((RecordRoute) ((RecordRouteList) header).getFirst())
+						.setParameter("foo", "bar");
+			}
+			return "Record-Route through getHeaders()";
+		case 16:
+			((Contact) request.getHeaders(ContactHeader.NAME).next())
+				.setQValue(0.5f);
+			return "Contact through getHeaders(name)";
+		case 17:
+			((ExtensionHeaderImpl) request.getHeader("X-Account"))
+				.setValue("67890");
+			return "an extension header";
+		default:
+			((Subject) request.getHeader(SubjectHeader.NAME))
+				.setSubject("Fewer boxes");
+			return "the Subject";
+		}
+	}
+
+	/**
+	 * Change one message and check that the other one encodes as it did.
+	 */
+	private void check(String what, SIPRequest changed, SIPRequest other,
+		int i) throws Exception {
+		String before = other.encode();
+		String changedBefore = changed.encode();
+		String description = change(changed, i);
+		checked++;
+		String after = other.encode();
+		boolean ok = after.equals(before)
+			&& new String(other.encodeAsSharedBytes(), "UTF-8").equals(before)
+			&& !changed.encode().equals(changedBefore);
+		if (!ok) {
+			leaked++;
+			System.out.println(what + ": " + description
+				+ (after.equals(before) ? " did not change the message"
+					: " shows in the other message"));
+		}
+	}
+
+	private void checkAll(boolean lazy) throws Exception {
+		String mode = lazy ? "lazy" : "eager";
+		for (int i = 0; i < CHANGES; i++) {
+			// The original is looked at by the stack before it is cloned.
+			SIPRequest original = parse(lazy);
+			original.getTransactionId();
+			original.encodeAsSharedBytes();
+			SIPRequest clone = (SIPRequest) original.clone();
+			check(mode + ", clone changed", clone, original, i);
+
+			original = parse(lazy);
+			clone = (SIPRequest) original.clone();
+			check(mode + ", original changed", original, clone, i);
+
+			// The clone changed first, then the original.
+			original = parse(lazy);
+			clone = (SIPRequest) original.clone();
+			change(clone, i);
+			check(mode + ", original changed after the clone", original,
+				clone, i);
+
+			original = parse(lazy);
+			SIPRequest first = (SIPRequest) original.clone();
+			SIPRequest second = (SIPRequest) first.clone();
+			check(mode + ", clone of a clone changed", second, first, i);
+			check(mode + ", clone changed after its clone", first, original,
+				i);
+		}
+
+		// Headers handed out before the clone was made.
+		SIPRequest original = parse(lazy);
+		FromHeader from = original.getFrom();
+		Via via = original.getTopmostVia();
+		Contact contact = (Contact) original.getHeader(ContactHeader.NAME);
+		SIPRequest clone = (SIPRequest) original.clone();
+		String before = clone.encode();
+		from.setTag("other");
+		via.setBranch("z9hG4bKother");
+		contact.setParameter("expires", "60");
+		checked++;
+		if (!clone.encode().equals(before)) {
+			leaked++;
+			System.out.println(mode
+				+ ": headers handed out before the clone changed it");
+		}
+	}
+
+	private static final int stackPort = 5093;
+
+	/**
+	 * Keeps the first request it gets, after it has made a server
+	 * transaction for it.
+	 */
+	class Receiver implements SipListener {
+
+		private SipProvider sipProvider;
+
+		SIPRequest request;
+
+		public void processRequest(RequestEvent requestEvent) {
+			try {
+				SIPRequest received = (SIPRequest) requestEvent.getRequest();
+				if (requestEvent.getServerTransaction() == null)
+					sipProvider.getNewServerTransaction(received);
+				synchronized (this) {
+					if (request == null)
+						request = received;
+					this.notifyAll();
+				}
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		public void processResponse(ResponseEvent responseEvent) {
+		}
+
+		public void processTimeout(TimeoutEvent timeoutEvent) {
+		}
+	}
+
+	/**
+	 * Send the request to a stack and return it as the listener got it.
+	 */
+	private SIPRequest receive(boolean lazy) throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", "127.0.0.1");
+		properties.setProperty("javax.sip.STACK_NAME", "clonecheck" + lazy);
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		properties.setProperty("gov.nist.javax.sip.LAZY_HEADER_PARSING",
+			"" + lazy);
+		// A stack of its own for each mode (the factory keeps one stack).
+		SipStack sipStack = new SipStackImpl(properties);
+		int port = stackPort + (lazy ? 1 : 0);
+		Receiver receiver = new Receiver();
+		receiver.sipProvider = sipStack.createSipProvider(
+			sipStack.createListeningPoint(port, "udp"));
+		receiver.sipProvider.addSipListener(receiver);
+
+		DatagramSocket socket =
+			new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		String request = message
+			.replaceFirst("UDP pc33.atlanta.com",
+				"UDP 127.0.0.1:" + socket.getLocalPort())
+			.replaceFirst("sip:bob@biloxi.com SIP",
+				"sip:bob@127.0.0.1:" + port + " SIP");
+		byte[] bytes = request.getBytes();
+		socket.send(new DatagramPacket(bytes, bytes.length,
+			InetAddress.getByName("127.0.0.1"), port));
+		socket.close();
+		synchronized (receiver) {
+			if (receiver.request == null)
+				receiver.wait(2000);
+			if (receiver.request == null)
+				throw new Exception("the stack did not get the request");
+			return receiver.request;
+		}
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private void time(String what, SIPRequest request, int rounds)
+		throws Exception {
+		for (int pass = 0; pass < 2; pass++) {
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < rounds; i++)
+				request.clone();
+			long cloneTime = System.currentTimeMillis() - start;
+			start = System.currentTimeMillis();
+			for (int i = 0; i < rounds; i++) {
+				SIPRequest forwarded = (SIPRequest) request.clone();
+				forwarded.getMaxForwards().decrementMaxForwards();
+				forwarded.getViaHeaders().add(0, newVia());
+				forwarded.encodeAsSharedBytes();
+			}
+			long forwardTime = System.currentTimeMillis() - start;
+			if (pass == 1)
+				System.out.println(what + ", clone: "
+					+ cloneTime * 1000000 / rounds
+					+ " ns, clone, change and encode: "
+					+ forwardTime * 1000000 / rounds + " ns");
+		}
+		Object[] clones = new Object[10000];
+		long before = usedMemory();
+		for (int i = 0; i < clones.length; i++)
+			clones[i] = request.clone();
+		long used = usedMemory() - before;
+		System.out.println("	" + used / clones.length + " bytes per clone");
+	}
+
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		CloneCheck check = new CloneCheck();
+		check.checkAll(true);
+		check.checkAll(false);
+		System.out.println(check.checked + " changes checked, " + check.leaked
+			+ " showed in the other message");
+		for (int i = 0; i < 2; i++) {
+			boolean lazy = i == 0;
+			String mode = lazy ? "lazy" : "eager";
+			SIPRequest parsed = check.parse(lazy);
+			parsed.getTransactionId();
+			check.time(mode + " parse", parsed, rounds);
+			check.time(mode + " parse, received by a stack",
+				check.receive(lazy), rounds);
+		}
+		System.exit(check.leaked == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,714 @@
+package examples.benchmark;
+
+import gov.nist.core.*;
+import gov.nist.javax.sip.header.*;
+import gov.nist.javax.sip.message.*;
+import gov.nist.javax.sip.parser.*;
+import java.lang.reflect.*;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.*;
+import javax.sip.*;
+import javax.sip.message.MessageFactory;
+
+/**
+ * Checks that a header never gives an encoding that it kept from before it
+ * changed. For a header line of every kind, each public mutator of the
+ * header (and of the first header of a header list, and of the list
+ * itself) is called on a freshly parsed header whose encoding was kept,
+ * with each of a few arguments; the kept encoding (and its bytes) must
+ * then be what encode() gives. The parts of a header that a getter hands
+ * out or that were handed in to a setter are then changed through their
+ * own setters and the encoding is checked again. The bytes that a message
+ * keeps are checked the same way, after changes to its first line, its
+ * headers and its content (also in place, in the array it was set from).
+ * Last, a request is sent to a stack (twice, the second time as a
+ * retransmission) and answered by a server transaction: the top Via of
+ * the request and of the response must still keep their encodings, as
+ * the stack only reads them. Run with
+ * <pre>
+ * java examples.benchmark.EncodingCacheCheck
+ * </pre>
+ * The exit status is 1 if any kept encoding is stale.
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class EncodingCacheCheck {
+
+	private static final String[] samples = {
+		"Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK1;received=10.0.0.2;maddr=224.2.0.1;ttl=1",
+		"Via: SIP/2.0/UDP a.example.com;branch=z9hG4bK2, SIP/2.0/TCP b.example.com:5070;branch=z9hG4bK3",
+		"From: \"Alice\" <sip:alice@atlanta.com>;tag=1928301774",
+		"To: <sip:bob@biloxi.com>;tag=a6c85cf",
+		"To: sip:carol@chicago.com",
+		"Call-ID: a84b4c76e66710@pc33.atlanta.com",
+		"CSeq: 314159 INVITE",
+		"Max-Forwards: 70",
+		"Contact: <sip:alice@pc33.atlanta.com>;expires=3600;q=0.7",
+		"Contact: *",
+		"Route: <sip:p1.example.com;lr>, <sip:p2.example.com;lr>",
+		"Record-Route: <sip:p3.example.com;lr>",
+		"Content-Type: application/sdp;charset=utf-8",
+		"Content-Length: 10",
+		"Content-Disposition: session;handling=optional",
+		"Content-Encoding: gzip",
+		"Content-Language: fr",
+		"Accept: application/sdp;q=0.5",
+		"Accept-Encoding: gzip;q=0.5",
+		"Accept-Language: da;q=0.5",
+		"Allow: INVITE, ACK",
+		"Allow-Events: presence",
+		"Authorization: Digest username=\"bob\", realm=\"biloxi.com\", nonce=\"dcd98b\", uri=\"sip:bob@biloxi.com\", response=\"6629fae4\"",
+		"Proxy-Authorization: Digest username=\"bob\", realm=\"biloxi.com\", nonce=\"dcd98b\", uri=\"sip:bob@biloxi.com\", response=\"6629fae4\"",
+		"WWW-Authenticate: Digest realm=\"biloxi.com\", nonce=\"dcd98b\", opaque=\"5ccc\", algorithm=MD5, qop=\"auth\"",
+		"Proxy-Authenticate: Digest realm=\"biloxi.com\", nonce=\"dcd98b\", stale=FALSE",
+		"Authentication-Info: nextnonce=\"47364c23432d2e131a5fb210812c\"",
+		"Alert-Info: <http://www.example.com/sounds/moo.wav>",
+		"Call-Info: <http://www.example.com/alice/photo.jpg>;purpose=icon",
+		"Error-Info: <sip:not-in-service-recording@atlanta.com>",
+		"Date: Sat, 13 Nov 2010 23:29:00 GMT",
+		"Event: presence;id=1",
+		"Expires: 5",
+		"In-Reply-To: 70710@saturn.bell-tel.com",
+		"MIME-Version: 1.0",
+		"Min-Expires: 60",
+		"Organization: Boxes by Bob",
+		"Priority: emergency",
+		"Proxy-Require: foo",
+		"RAck: 776656 1 INVITE",
+		"RSeq: 988789",
+		"Reason: SIP;cause=200;text=\"Call completed elsewhere\"",
+		"Reply-To: Bob <sip:bob@biloxi.com>",
+		"Require: 100rel",
+		"Retry-After: 18000;duration=3600",
+		"Server: HomeServer v2",
+		"Subject: Need more boxes",
+		"Subscription-State: active;expires=60",
+		"Supported: 100rel",
+		"Timestamp: 54.1 0.5",
+		"Unsupported: foo",
+		"User-Agent: Softphone Beta1.5",
+		"Warning: 307 isi.edu \"Session parameter foo not understood\"",
+		"X-Extension: something",
+	};
+
+	// Arguments tried for the parameters of each type.
+	private static final String[] strings = { "x9", "INVITE", "10.1.2.3", "tcp" };
+
+	private static final int[] ints = { 7, 0 };
+
+	// The mutators are the public methods whose names start with these.
+	private static final String[] mutatorPrefixes = {
+		"set", "add", "remove", "decrement", "clear", "concatenate",
+	};
+
+	// Mutators that are not about the encoding.
+	private static final String[] ignored = { "setMatcher" };
+
+	private int mutators;
+
+	private int changed;
+
+	private int stale;
+
+	private StringMsgParser parser = new StringMsgParser();
+
+	private SIPHeader parse(String line) throws Exception {
+		return parser.parseSIPHeader(line);
+	}
+
+	private static boolean isMutator(Method method) {
+		String name = method.getName();
+		// The methods that java.util.List adds are made of the others.
+		if (Modifier.isStatic(method.getModifiers())
+			|| method.getDeclaringClass().getName().startsWith("java."))
+			return false;
+		for (int i = 0; i < ignored.length; i++) {
+			if (name.equals(ignored[i]))
+				return false;
+		}
+		for (int i = 0; i < mutatorPrefixes.length; i++) {
+			if (name.startsWith(mutatorPrefixes[i]))
+				return true;
+		}
+		return false;
+	}
+
+	// Types whose values cannot change.
+	private static boolean isImmutable(Class type) {
+		return type.isPrimitive()
+			|| type == String.class
+			|| type == Locale.class
+			|| type == Class.class
+			|| Number.class.isAssignableFrom(type)
+			|| type == Boolean.class
+			|| type == Character.class;
+	}
+
+	/**
+	 * Keep the encoding of a header (and of the list it is in).
+	 */
+	private static void encode(SIPHeader header, SIPHeaderList list) {
+		header.encodeCached();
+		header.encodeAsBytes();
+		if (list != null) {
+			list.encodeCached();
+			list.encodeAsBytes();
+		}
+	}
+
+	/**
+	 * Check that the kept encodings of a header (and of the list it is in)
+	 * are what it encodes to.
+	 */
+	private boolean check(SIPHeader header, SIPHeaderList list, String what)
+		throws Exception {
+		boolean ok = isFresh(header) && (list == null || isFresh(list));
+		if (!ok) {
+			stale++;
+			System.out.println("stale encoding after " + what);
+		}
+		return ok;
+	}
+
+	private static boolean isFresh(SIPHeader header) throws Exception {
+		String encoding;
+		try {
+			encoding = header.encode();
+		} catch (RuntimeException ex) {
+			// A header left in a state that cannot be encoded must not
+			// give its old encoding either.
+			try {
+				header.encodeCached();
+				return false;
+			} catch (RuntimeException ex1) {
+				return true;
+			}
+		}
+		return encoding.equals(header.encodeCached())
+			&& encoding.equals(new String(header.encodeAsBytes(), "UTF-8"));
+	}
+
+	/**
+	 * Get the header to work on in a fresh parse of the sample: the header
+	 * itself or the first header of the list.
+	 */
+	private SIPHeader target(SIPHeader parsed, boolean member) {
+		if (member)
+			return (SIPHeader) ((SIPHeaderList) parsed).getFirst();
+		return parsed;
+	}
+
+	/**
+	 * Get an argument of the given type, taken if need be from another
+	 * parse of the sample (a part of it, or the header itself).
+	 */
+	private Object[] arguments(Class type, String sample, boolean member)
+		throws Exception {
+		if (type == String.class)
+			return strings;
+		if (type == Integer.TYPE) {
+			Object[] retval = new Object[ints.length];
+			for (int i = 0; i < ints.length; i++)
+				retval[i] = new Integer(ints[i]);
+			return retval;
+		}
+		if (type == Float.TYPE)
+			return new Object[] { new Float(0.3f) };
+		if (type == Boolean.TYPE)
+			return new Object[] { Boolean.TRUE, Boolean.FALSE };
+		if (type == Locale.class)
+			return new Object[] { Locale.FRENCH };
+		if (type == Calendar.class)
+			return new Object[] { Calendar.getInstance() };
+		if (type == Class.class)
+			return new Object[] { target(parse(sample), member).getClass() };
+		if (type == List.class || type == Collection.class) {
+			List list = new LinkedList();
+			SIPHeader other = parse(sample);
+			list.add(other instanceof SIPHeaderList
+				? ((SIPHeaderList) other).getFirst() : "x9");
+			return new Object[] { list };
+		}
+		SIPHeader other = parse(sample);
+		if (other instanceof SIPHeaderList) {
+			Object first = ((SIPHeaderList) other).getFirst();
+			if (type.isInstance(first))
+				return new Object[] { first };
+		}
+		if (type.isInstance(other))
+			return new Object[] { other };
+		// A part of the same type in another parse of the header (or of
+		// its first header).
+		Object[] wholes = { other, target(other, other instanceof SIPHeaderList) };
+		for (int k = 0; k < wholes.length; k++) {
+			Method[] methods = wholes[k].getClass().getMethods();
+			for (int i = 0; i < methods.length; i++) {
+				Method method = methods[i];
+				if (method.getName().startsWith("get")
+					&& method.getParameterTypes().length == 0
+					&& type.isAssignableFrom(method.getReturnType())) {
+					try {
+						Object value = method.invoke(wholes[k], null);
+						if (value != null)
+							return new Object[] { value };
+					} catch (InvocationTargetException ex) {
+					}
+				}
+			}
+		}
+		if (type == NameValue.class)
+			return new Object[] { new NameValue("x9", "y8") };
+		if (type == Host.class)
+			return new Object[] { new Host("10.9.8.7") };
+		if (type == SIPDate.class)
+			return new Object[] { new SIPDate(System.currentTimeMillis()) };
+		if (type == javax.sip.address.URI.class)
+			return new Object[] {
+				new gov.nist.javax.sip.address.AddressFactoryImpl().createURI(
+					"sip:x9@10.9.8.7") };
+		if (type == Challenge.class) {
+			Challenge challenge = new Challenge();
+			challenge.setScheme("Digest");
+			challenge.setParameter(new NameValue("realm", "x9"));
+			return new Object[] { challenge };
+		}
+		if (type == NameValueList.class) {
+			NameValueList list = new NameValueList();
+			list.add(new NameValue("x9", "y8"));
+			return new Object[] { list };
+		}
+		return null;
+	}
+
+	/**
+	 * Change an object that a header may keep through its own setters (and
+	 * those of its parts), checking the encoding of the header after each.
+	 */
+	private void changeThrough(
+		Object object,
+		SIPHeader header,
+		SIPHeaderList list,
+		String what,
+		int depth)
+		throws Exception {
+		if (object instanceof List) {
+			List other = (List) object;
+			Object element;
+			if (!other.isEmpty() && other.get(0) instanceof GenericObject)
+				element = ((GenericObject) other.get(0)).clone();
+			else if (other instanceof NameValueList)
+				element = new NameValue("z7", "w6");
+			else
+				element = "z7";
+			other.add(element);
+			check(header, list, what + " then add to it");
+			return;
+		}
+		if (object instanceof ListIterator) {
+			ListIterator it = (ListIterator) object;
+			if (it.hasNext()) {
+				it.next();
+				it.set("z7");
+				check(header, list, what + " then set through it");
+			}
+			return;
+		}
+		if (depth == 0 || object == null || isImmutable(object.getClass()))
+			return;
+		Method[] methods = object.getClass().getMethods();
+		for (int i = 0; i < methods.length; i++) {
+			Method method = methods[i];
+			Class[] types = method.getParameterTypes();
+			if (isMutator(method)
+				&& types.length == 1
+				&& (types[0] == String.class || types[0] == Integer.TYPE)) {
+				Object argument =
+					types[0] == String.class ? (Object) "z7" : new Integer(9);
+				try {
+					method.invoke(object, new Object[] { argument });
+				} catch (InvocationTargetException ex) {
+				}
+				check(header, list, what + " then " + method.getName());
+			} else if (method.getName().startsWith("get")
+				&& types.length == 0
+				&& !isImmutable(method.getReturnType())
+				&& method.getDeclaringClass() != Object.class) {
+				Object part = null;
+				try {
+					part = method.invoke(object, null);
+				} catch (InvocationTargetException ex) {
+				}
+				if (part instanceof GenericObject)
+					changeThrough(part, header, list,
+						what + " then " + method.getName(), depth - 1);
+			}
+		}
+	}
+
+	/**
+	 * Call every mutator of the header (or of the first header of the
+	 * list) with every argument tried for it.
+	 */
+	private void checkMutators(String sample, boolean member)
+		throws Exception {
+		Method[] methods = target(parse(sample), member).getClass().getMethods();
+		for (int i = 0; i < methods.length; i++) {
+			Method method = methods[i];
+			if (!isMutator(method))
+				continue;
+			Class[] types = method.getParameterTypes();
+			Object[][] choices = new Object[types.length][];
+			int tries = 1;
+			boolean possible = true;
+			for (int j = 0; j < types.length; j++) {
+				choices[j] = arguments(types[j], sample, member);
+				if (choices[j] == null) {
+					possible = false;
+					break;
+				}
+				tries = Math.max(tries, choices[j].length);
+			}
+			if (!possible) {
+				System.out.println("not checked: " + method);
+				continue;
+			}
+			mutators++;
+			for (int k = 0; k < tries; k++) {
+				// The same argument index for every parameter (the last
+				// one for a parameter that has fewer).
+				Object[] args = new Object[types.length];
+				StringBuffer what = new StringBuffer();
+				for (int j = 0; j < types.length; j++) {
+					int index = Math.min(k, choices[j].length - 1);
+					// An object is used for one call only.
+					if (isImmutable(types[j]))
+						args[j] = choices[j][index];
+					else
+						args[j] = arguments(types[j], sample, member)[index];
+					what.append(j > 0 ? ", " : "").append(
+						args[j] instanceof String ? args[j] : types[j].getName());
+				}
+				SIPHeader parsed = parse(sample);
+				SIPHeader header = target(parsed, member);
+				SIPHeaderList list = member ? (SIPHeaderList) parsed : null;
+				encode(header, list);
+				String before = list != null ? list.encode() : header.encode();
+				String name = (member ? "member of " : "")
+					+ header.getClass().getName().substring(
+						header.getClass().getName().lastIndexOf('.') + 1)
+					+ "." + method.getName() + "(" + what + ")";
+				try {
+					method.invoke(header, args);
+				} catch (InvocationTargetException ex) {
+				} catch (IllegalArgumentException ex) {
+					continue;
+				}
+				if (check(header, list, name)) {
+					String after = list != null ? list.encode() : header.encode();
+					if (!after.equals(before))
+						changed++;
+				}
+				// The arguments may now be parts of the header.
+				for (int j = 0; j < args.length; j++) {
+					if (!isImmutable(types[j])) {
+						encode(header, list);
+						changeThrough(args[j], header, list,
+							name + " with argument " + j, 2);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hand out every part of the header that a getter gives, then change
+	 * the part.
+	 */
+	private void checkGetters(String sample, boolean member) throws Exception {
+		Method[] methods = target(parse(sample), member).getClass().getMethods();
+		for (int i = 0; i < methods.length; i++) {
+			Method method = methods[i];
+			Class[] types = method.getParameterTypes();
+			if (!method.getName().startsWith("get")
+				|| isImmutable(method.getReturnType())
+				|| method.getDeclaringClass() == Object.class
+				|| types.length > 1
+				|| (types.length == 1 && types[0] != String.class))
+				continue;
+			String[] names =
+				types.length == 0 ? new String[] { null } : new String[] {
+					"maddr", "tag", "q", "expires", "purpose", "handling",
+					"nextnonce", "id", "duration", "cause", "branch" };
+			for (int k = 0; k < names.length; k++) {
+				SIPHeader parsed = parse(sample);
+				SIPHeader header = target(parsed, member);
+				SIPHeaderList list = member ? (SIPHeaderList) parsed : null;
+				encode(header, list);
+				Object part;
+				try {
+					part = method.invoke(header,
+						types.length == 0 ? null : new Object[] { names[k] });
+				} catch (InvocationTargetException ex) {
+					continue;
+				}
+				if (part == null || isImmutable(part.getClass()))
+					continue;
+				encode(header, list);
+				String name = (member ? "member of " : "")
+					+ header.getClass().getName().substring(
+						header.getClass().getName().lastIndexOf('.') + 1)
+					+ "." + method.getName() + "("
+					+ (names[k] == null ? "" : names[k]) + ")";
+				changeThrough(part, header, list, name, 2);
+			}
+		}
+	}
+
+	private static final String message =
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: Bob <sip:bob@biloxi.com>\r\n"
+			+ "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Contact: <sip:alice@pc33.atlanta.com>\r\n"
+			+ "Content-Type: application/sdp\r\n"
+			+ "Content-Length: 4\r\n\r\n"
+			+ "v=0\n";
+
+	/**
+	 * Check the bytes that a message keeps: the same array while the
+	 * message does not change, and the new encoding after each change.
+	 * The bytes that encodeAsBytes gives are a copy, which the caller
+	 * can change.
+	 */
+	private void checkMessage() throws Exception {
+		SIPRequest request =
+			(SIPRequest) parser.parseSIPMessage(message.getBytes());
+		for (int i = 0; i < 13; i++) {
+			byte[] kept = request.encodeAsSharedBytes();
+			String what;
+			switch (i) {
+			case 0:
+				what = "nothing";
+				break;
+			case 1:
+				what = "the user of the Request-URI";
+				((javax.sip.address.SipURI) request.getRequestURI())
+					.setUser("carol");
+				break;
+			case 2:
+				what = "the method";
+				request.setMethod("OPTIONS");
+				break;
+			case 3:
+				what = "the display name of From";
+				request.getFrom().getAddress().setDisplayName("Carol");
+				break;
+			case 4:
+				what = "the branch of the top Via";
+				((Via) request.getViaHeaders().getFirst())
+					.setBranch("z9hG4bKother");
+				break;
+			case 5:
+				what = "the port of the top Via";
+				((Via) request.getViaHeaders().getFirst()).getSentBy()
+					.setPort(5070);
+				break;
+			case 6:
+				what = "an added Via";
+				request.getViaHeaders().add(0,
+					((ViaList) parse("Via: SIP/2.0/UDP p1.example.com"))
+						.getFirst());
+				break;
+			case 7:
+				what = "a removed header";
+				request.removeHeader("Contact");
+				break;
+			case 8:
+				what = "an extension header";
+				request.addHeader("X-Account: 12345");
+				break;
+			case 9:
+				what = "the content";
+				request.setContent("v=1\n",
+					(ContentType) request.getHeader("Content-Type"));
+				break;
+			case 10:
+				what = "the content, as bytes";
+				request.setMessageContent("v=2\n".getBytes());
+				break;
+			case 11:
+				what = "the content bytes, in place";
+				request.getRawContent()[2] = (byte) '3';
+				break;
+			default:
+				what = "a clone";
+				request = (SIPRequest) request.clone();
+				((CSeq) request.getCSeq()).setSequenceNumber(2);
+				break;
+			}
+			mutators++;
+			byte[] bytes = request.encodeAsSharedBytes();
+			String encoding = request.encode();
+			byte[] copy = request.encodeAsBytes();
+			boolean copied = copy != bytes && Arrays.equals(copy, bytes);
+			copy[0] = (byte) '#';
+			// The kept bytes come back only if the encoding is the same.
+			// encodeInto gives the same bytes, after what the buffer held
+			// (in a larger buffer if need be).
+			java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(16);
+			buffer.put((byte) '#');
+			buffer = request.encodeInto(buffer);
+			boolean ok = new String(bytes, "UTF-8").equals(encoding)
+				&& (bytes == kept)
+					== encoding.equals(new String(kept, "UTF-8"))
+				&& request.encodeAsSharedBytes() == bytes
+				&& copied
+				&& new String(bytes, "UTF-8").equals(encoding)
+				&& new String(buffer.array(), 0, buffer.position(), "UTF-8")
+					.equals("#" + encoding);
+			if (bytes != kept)
+				changed++;
+			if (!ok) {
+				stale++;
+				System.out.println("stale message encoding after " + what);
+			}
+		}
+	}
+
+	/**
+	 * Answers the first request with a server transaction and keeps the
+	 * request and the response.
+	 */
+	class Answerer implements SipListener {
+
+		private SipProvider sipProvider;
+
+		private MessageFactory messageFactory;
+
+		SIPRequest request;
+
+		SIPResponse response;
+
+		public void processRequest(RequestEvent requestEvent) {
+			try {
+				synchronized (this) {
+					if (request != null)
+						return;
+					request = (SIPRequest) requestEvent.getRequest();
+				}
+				ServerTransaction transaction =
+					sipProvider.getNewServerTransaction(request);
+				SIPResponse answer = (SIPResponse)
+					messageFactory.createResponse(486, request);
+				transaction.sendResponse(answer);
+				synchronized (this) {
+					response = answer;
+				}
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		public void processResponse(ResponseEvent responseEvent) {
+		}
+
+		public void processTimeout(TimeoutEvent timeoutEvent) {
+		}
+	}
+
+	private static final int stackPort = 5095;
+
+	/**
+	 * Send a request to a stack, then the same request again (which the
+	 * server transaction matches and answers), and check that the top Via
+	 * of the request and of the response keep their encodings.
+	 */
+	private void checkStack() throws Exception {
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", "127.0.0.1");
+		properties.setProperty("javax.sip.STACK_NAME", "encodingcache");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		SipStack sipStack = sipFactory.createSipStack(properties);
+		Answerer answerer = new Answerer();
+		answerer.messageFactory = sipFactory.createMessageFactory();
+		answerer.sipProvider = sipStack.createSipProvider(
+			sipStack.createListeningPoint(stackPort, "udp"));
+		answerer.sipProvider.addSipListener(answerer);
+
+		DatagramSocket socket =
+			new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		socket.setSoTimeout(2000);
+		String request = message
+			.replaceFirst("UDP pc33.atlanta.com",
+				"UDP 127.0.0.1:" + socket.getLocalPort())
+			.replaceFirst("sip:bob@biloxi.com SIP",
+				"sip:bob@127.0.0.1:" + stackPort + " SIP");
+		byte[] bytes = request.getBytes();
+		int answers = 0;
+		for (int i = 0; i < 2; i++) {
+			socket.send(new DatagramPacket(bytes, bytes.length,
+				InetAddress.getByName("127.0.0.1"), stackPort));
+			byte[] buffer = new byte[4096];
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				socket.receive(packet);
+				if (new String(buffer, 0, packet.getLength()).startsWith(
+					"SIP/2.0 486"))
+					answers++;
+			} catch (java.io.IOException ex) {
+			}
+		}
+		socket.close();
+		mutators++;
+		String problem = null;
+		synchronized (answerer) {
+			if (answers != 2 || answerer.response == null)
+				problem = "the request was answered " + answers + " times";
+			else if (answerer.request.getTopmostVia().isShared())
+				problem = "the top Via of the request does not keep its"
+					+ " encoding";
+			else if (answerer.response.getTopmostVia().isShared())
+				problem = "the top Via of the response does not keep its"
+					+ " encoding";
+		}
+		if (problem != null) {
+			stale++;
+			System.out.println("through a stack: " + problem);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		EncodingCacheCheck check = new EncodingCacheCheck();
+		for (int i = 0; i < samples.length; i++) {
+			SIPHeader parsed;
+			try {
+				parsed = check.parse(samples[i]);
+			} catch (Exception ex) {
+				System.out.println("not parsed: " + samples[i] + ": " + ex);
+				continue;
+			}
+			check.checkMutators(samples[i], false);
+			check.checkGetters(samples[i], false);
+			if (parsed instanceof SIPHeaderList) {
+				check.checkMutators(samples[i], true);
+				check.checkGetters(samples[i], true);
+			}
+		}
+		check.checkMessage();
+		check.checkStack();
+		System.out.println(
+			check.mutators + " mutators checked, " + check.changed
+				+ " calls changed the encoding, " + check.stale
+				+ " stale encodings");
+		System.exit(check.stale == 0 ? 0 : 1);
+	}
+}
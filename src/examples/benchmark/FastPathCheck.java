@@ -0,0 +1,309 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.header.*;
+import gov.nist.javax.sip.parser.*;
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Checks that the fast paths of the parsers of the Via, From, To, Call-ID,
+ * CSeq, Max-Forwards, Content-Length and Contact headers build the same
+ * headers as the general parsers, and times both. Every header line of the
+ * corpus is parsed with the fast paths on and off; the two results must
+ * encode the same, be equal and have the same fields all the way down
+ * (compared with reflection), or both parses must fail with the same
+ * message.
+ * The corpus is the lines below (taken from traces of a number of user
+ * agents and proxies, plus the odd cases that the fast paths must hand
+ * back) and the header lines of any message files given on the command
+ * line:
+ * <pre>
+ * java examples.benchmark.FastPathCheck [file ...]
+ * </pre>
+ * The exit status is 1 if any header differs.
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class FastPathCheck {
+
+	private static final int ROUNDS = 20000;
+
+	private static final String[] corpus = {
+		// RFC 3261 and RFC 3665 examples.
+		"Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds",
+		"Via: SIP/2.0/UDP bigbox3.site3.atlanta.com;branch=z9hG4bK77ef4c2312983.1",
+		"Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bKnashds8;received=192.0.2.1",
+		"Via: SIP/2.0/UDP server10.biloxi.com;branch=z9hG4bK4b43c2ff8.1, SIP/2.0/UDP bigbox3.site3.atlanta.com;branch=z9hG4bK77ef4c2312983.1;received=192.0.2.2",
+		"Via: SIP/2.0/TCP client.biloxi.example.com:5060;branch=z9hG4bK74bf9",
+		"Via: SIP/2.0/TLS client.atlanta.example.com:5061;branch=z9hG4bK74bf9;received=192.0.2.101",
+		"v: SIP/2.0/UDP erlang.bell-telephone.com:5060;branch=z9hG4bK87asdks7",
+		"Max-Forwards: 70",
+		"To: Bob <sip:bob@biloxi.com>",
+		"To: Bob <sip:bob@biloxi.com>;tag=a6c85cf",
+		"From: Alice <sip:alice@atlanta.com>;tag=1928301774",
+		"To: <sip:bob@biloxi.example.com>",
+		"From: Bob <sips:bob@biloxi.example.com>;tag=a73kszlfl",
+		"To: sip:carol@chicago.com",
+		"From: sip:+12125551212@phone2net.com;tag=887s",
+		"To: \"Big Guy\" <sip:UserB@there.com>;tag=8321234356",
+		"From: \"BigGuy\" <sip:UserA@here.com>;tag=9fxced76sl",
+		"f: Alice <sip:alice@atlanta.com>;tag=88sja8x",
+		"t: sip:+12125551212@server.phone2net.com;tag=887s",
+		"Call-ID: a84b4c76e66710@pc33.atlanta.com",
+		"i: f81d4fae-7dec-11d0-a765-00a0c91e6bf6@foo.bar.com",
+		"CSeq: 314159 INVITE",
+		"CSeq: 1 ACK",
+		"CSeq: 4711 BYE",
+		"CSeq: 1826 REGISTER",
+		"CSeq: 63104 OPTIONS",
+		"CSeq: 2 CANCEL",
+		"CSeq: 20 SUBSCRIBE",
+		"CSeq: 21 NOTIFY",
+		"CSeq: 102 PRACK",
+		"CSeq: 3 MESSAGE",
+		"CSeq: 10 invite",
+		"Contact: <sip:alice@pc33.atlanta.com>",
+		"Contact: <sip:bob@192.0.2.4>",
+		"Contact: <sip:carol@cube2214a.chicago.com>;expires=3600",
+		"Contact: <sip:bob@192.0.2.4>;expires=7200, <mailto:bob@biloxi.com>;q=0.1",
+		"Contact: \"Mr. Watson\" <sip:watson@worcester.bell-telephone.com>;q=0.7; expires=3600, \"Mr. Watson\" <mailto:watson@bell-telephone.com> ;q=0.1",
+		"Contact: *",
+		"m: <sips:bob@192.0.2.4>;expires=60",
+		"Content-Length: 0",
+		"Content-Length: 142",
+		"l: 131",
+		// User agents and proxies.
+		"Via: SIP/2.0/UDP 192.168.1.10:5060;branch=z9hG4bK-d8754z-1f3b5c6e7d8a9b0c-1---d8754z-;rport",
+		"Via: SIP/2.0/UDP 10.0.0.5:5060;rport=5060;received=203.0.113.7;branch=z9hG4bK3a1b2c3d",
+		"Via: SIP/2.0/UDP 172.16.0.20:5060;branch=z9hG4bK2d4790.1",
+		"Via: SIP/2.0/UDP 129.6.55.182:14826",
+		"Via: SIP/2.0/TCP [2001:db8::10]:5060;branch=z9hG4bK-524287-1",
+		"Via: SIP/2.0/UDP 10.1.1.1;branch=z9hG4bKabc;received=[2001:db8::1]",
+		"Via: SIP/2.0/UDP 10.1.1.1:5060;maddr=224.2.0.1;ttl=16;branch=z9hG4bKa1",
+		"Via: SIP/2.0/UDP 10.1.1.1 ( a comment )",
+		"Via:SIP/2.0/UDP   10.1.1.1 : 5070 ; branch = z9hG4bKsp",
+		"Via: SIP / 2.0 / UDP 10.1.1.1;BRANCH=z9hG4bKUP",
+		"Via: SIP/2.0/UDP 10.1.1.1;branch=\"quoted\"",
+		"Via: SIP/2.0/UDP 10.1.1.1;branch=z9hG4bK1,SIP/2.0/TCP 10.1.1.2;branch=z9hG4bK2",
+		"From: \"1001\" <sip:1001@192.168.1.1>;tag=as58f4201b",
+		"To: <sip:1002@192.168.1.1;user=phone>",
+		"From: <sip:1001@pbx.example.com:5060;transport=udp>;tag=1c1402410237",
+		"From: \"Anonymous\" <sip:anonymous@anonymous.invalid>;tag=hyh8",
+		"From: <sip:mranga@nist.gov>;tag=6fc;epid=0d4",
+		"From: Test User <sip:test%20user@example.com>;tag=x",
+		"From: <sip:user:secret@example.com>;tag=pw",
+		"From: <tel:+1-201-555-0123>;tag=tel",
+		"From: \"Polycom\" <sip:2001@10.0.0.2>;tag=A5D4BB5B-6CF02F4B",
+		"From: \"snom\" <sip:300@voip.example.net>;tag=q6e8k2k9zs",
+		"To: \"Quoted \\\"escape\\\"\" <sip:q@example.com>",
+		"To: sip:bob@biloxi.com;tag=addr-spec",
+		"To: <sip:bob@biloxi.com?subject=project>",
+		"To: <SIP:Bob@Biloxi.COM>",
+		"To: <sip:[2001:db8::5]:5070>",
+		"To: Bob<sip:bob@biloxi.com>;tag=nospace",
+		"To: <sip:bob@biloxi.com>;TAG=up;foo",
+		"To: <sip:bob@biloxi.com> ; tag = spaced",
+		"To: <sip:bob@biloxi.com>;tag=\"quoted\"",
+		"To: <sip:bob@biloxi.com>;tag=",
+		"To: <sip:bob@biloxi.com",
+		"Call-ID: 3848276298220188511@atlanta.example.com",
+		"Call-ID: 0ba2cf53-9a78d706-2f4b6b8e@10.0.0.2",
+		"Call-ID:   spaced@host   ",
+		"CSeq: 102 INVITE ",
+		"CSeq:102 INVITE",
+		"CSeq: 4294967296 INVITE",
+		"CSeq: 1 TO",
+		"Max-Forwards: 69",
+		"Max-Forwards: 0",
+		"Max-Forwards: 007",
+		"Max-Forwards: 9999999999",
+		"Max-Forwards: -1",
+		"Content-Length: 1500 ",
+		"Content-Length:  42",
+		"Contact: <sip:192.168.1.10:5060;transport=udp>;expires=3600",
+		"Contact: <sip:alice@10.0.0.5:5060;ob>;reg-id=1;+sip.instance=\"<urn:uuid:00000000-0000-1000-8000-000A95A0E128>\"",
+		"Contact: <sip:1001@192.168.1.20:5060;line=fbdj2m8k>;q=1.0",
+		"Contact: sip:mranga@129.6.55.182:14826",
+		"Contact: \"Alice\" <sip:alice@pc33.atlanta.com;transport=tcp>;methods=\"INVITE, MESSAGE\"",
+		"Contact: <sip:a@b>, <sip:c@d>;q=0.5,<sip:e@f>",
+		"Contact: *displayname* <sip:a@b>",
+		"Contact: <sip:a@b> garbage",
+	};
+
+	private static final String[] names = {
+		"via", "v", "from", "f", "to", "t", "call-id", "i", "cseq",
+		"max-forwards", "content-length", "l", "contact", "m",
+	};
+
+	private Vector lines = new Vector();
+
+	private int different;
+
+	private static boolean isChecked(String line) {
+		int colon = line.indexOf(':');
+		if (colon <= 0)
+			return false;
+		String name = line.substring(0, colon).trim().toLowerCase();
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name))
+				return true;
+		}
+		return false;
+	}
+
+	// Add the header lines of a message file (continuation lines are
+	// folded into the header they continue).
+	private void addMessageFile(String fileName) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		String header = null;
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (header != null
+				&& line.length() > 0
+				&& (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+				header = header + " " + line.trim();
+				continue;
+			}
+			if (header != null && isChecked(header))
+				lines.addElement(header);
+			header = line.length() > 0 ? line : null;
+		}
+		if (header != null && isChecked(header))
+			lines.addElement(header);
+		in.close();
+	}
+
+	// Parse a header line and describe the result so that two results can
+	// be compared.
+	private static Object parse(String line, boolean fastPath) {
+		HeaderParser.setFastPath(fastPath);
+		try {
+			return ParserFactory.createParser(line + "\n").parse();
+		} catch (Exception ex) {
+			return ex.getClass().getName() + ": " + ex.getMessage();
+		}
+	}
+
+	private void check(String line) {
+		Object fast = parse(line, true);
+		Object general = parse(line, false);
+		boolean same;
+		if (fast instanceof SIPHeader && general instanceof SIPHeader) {
+			SIPHeader f = (SIPHeader) fast;
+			SIPHeader g = (SIPHeader) general;
+			same = f.encode().equals(g.encode())
+				&& f.equals(g)
+				&& dump(f).equals(dump(g));
+		} else {
+			same = fast.equals(general);
+		}
+		if (!same) {
+			different++;
+			System.out.println("DIFFERENT: " + line);
+			System.out.println("  fast:    " + describe(fast));
+			System.out.println("  general: " + describe(general));
+		}
+	}
+
+	// Dump all the fields of a parsed header and of the objects it holds.
+	private static String dump(Object object) {
+		StringBuffer buffer = new StringBuffer();
+		dump(object, buffer, new IdentityHashMap());
+		return buffer.toString();
+	}
+
+	private static void dump(Object object, StringBuffer buffer, Map seen) {
+		if (object == null
+			|| !object.getClass().getName().startsWith("gov.nist.")) {
+			buffer.append(object);
+			return;
+		}
+		if (seen.containsKey(object)) {
+			buffer.append("<cycle>");
+			return;
+		}
+		seen.put(object, object);
+		buffer.append(object.getClass().getName()).append('{');
+		if (object instanceof Collection) {
+			Iterator it = ((Collection) object).iterator();
+			while (it.hasNext()) {
+				dump(it.next(), buffer, seen);
+				buffer.append(',');
+			}
+		}
+		for (Class c = object.getClass();
+			c.getName().startsWith("gov.nist.");
+			c = c.getSuperclass()) {
+			Field[] fields = c.getDeclaredFields();
+			for (int i = 0; i < fields.length; i++) {
+				Field field = fields[i];
+				// The transient fields only keep encodings.
+				if (Modifier.isStatic(field.getModifiers())
+					|| Modifier.isTransient(field.getModifiers())
+					|| field.getName().equals("stringRepresentation")
+					|| field.getName().equals("indentation"))
+					continue;
+				field.setAccessible(true);
+				buffer.append(field.getName()).append('=');
+				try {
+					dump(field.get(object), buffer, seen);
+				} catch (IllegalAccessException ex) {
+					buffer.append(ex);
+				}
+				buffer.append(';');
+			}
+		}
+		buffer.append('}');
+		seen.remove(object);
+	}
+
+	private static String describe(Object result) {
+		if (result instanceof SIPHeader)
+			return ((SIPHeader) result).encode().trim();
+		return result.toString();
+	}
+
+	private double time(boolean fastPath) throws Exception {
+		HeaderParser.setFastPath(fastPath);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < ROUNDS; i++) {
+			for (int j = 0; j < corpus.length; j++) {
+				try {
+					ParserFactory.createParser(corpus[j] + "\n").parse();
+				} catch (java.text.ParseException ex) {
+				}
+			}
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		return elapsed * 1000.0 / (ROUNDS * corpus.length);
+	}
+
+	public void run(String[] files) throws Exception {
+		for (int i = 0; i < corpus.length; i++)
+			lines.addElement(corpus[i]);
+		for (int i = 0; i < files.length; i++)
+			addMessageFile(files[i]);
+		for (int i = 0; i < lines.size(); i++)
+			check((String) lines.elementAt(i));
+		System.out.println(
+			lines.size() + " headers checked, " + different + " different");
+		// The first pass warms up the JIT.
+		for (int pass = 0; pass < 2; pass++) {
+			double general = time(false);
+			double fast = time(true);
+			if (pass == 0)
+				continue;
+			System.out.println("usec/header general parsers:\t" + general);
+			System.out.println("usec/header fast paths:\t\t" + fast);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		FastPathCheck check = new FastPathCheck();
+		check.run(args);
+		System.exit(check.different == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,157 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.parser.MessageFramer;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Checks that the MessageFramer (used by the NIO TCP transport) splits a
+ * stream into the same messages whatever the sizes of the chunks that
+ * the stream is read in. The stream holds messages with and without
+ * bodies, compact and lower case Content-Length headers and keep alives
+ * (double CRLFs) and single line ends between the messages. It is fed to
+ * the framer in random chunks (down to a byte at a time), so a keep alive
+ * can be split across chunks or come in the chunk of a message. The
+ * messages that come out are compared with the messages that went in and
+ * the keep alives that the framer found are counted. Run with
+ * <pre>
+ * java examples.benchmark.FramerCheck
+ * </pre>
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class FramerCheck {
+
+	private static final int ROUNDS = 2000;
+
+	private static final String headers =
+		"Via: SIP/2.0/TCP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: Bob <sip:bob@biloxi.com>\r\n"
+			+ "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+			+ "CSeq: 314159 INVITE\r\n";
+
+	private static final String body =
+		"v=0\r\n"
+			+ "o=alice 2890844526 2890844526 IN IP4 pc33.atlanta.com\r\n"
+			+ "s=-\r\n"
+			+ "c=IN IP4 pc33.atlanta.com\r\n"
+			+ "t=0 0\r\n"
+			+ "m=audio 49172 RTP/AVP 0\r\n"
+			+ "\r\n"
+			+ "a=rtpmap:0 PCMU/8000\r\n";
+
+	private static final String[] messages = {
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ headers
+			+ "Content-Type: application/sdp\r\n"
+			+ "Content-Length: " + body.length() + "\r\n\r\n"
+			+ body,
+		"SIP/2.0 180 Ringing\r\n" + headers + "Content-Length: 0\r\n\r\n",
+		"ACK sip:bob@biloxi.com SIP/2.0\r\n" + headers + "\r\n",
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ headers
+			+ "l:" + body.length() + "\r\n\r\n"
+			+ body,
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ headers
+			+ "content-length  :  " + body.length() + " \r\n"
+			+ "\r\n"
+			+ body,
+		"BYE sip:bob@biloxi.com SIP/2.0\n"
+			+ headers.replaceAll("\r\n", "\n")
+			+ "Content-Length: 0\n\n",
+	};
+
+	private int checked;
+
+	private int different;
+
+	/**
+	 * Frame the stream in random chunks and count the messages that
+	 * differ from the expected ones (a wrong number of keep alives counts
+	 * as one).
+	 */
+	private void check(Random random, int[] order, int keepAlives,
+		byte[] stream) throws IOException {
+		MessageFramer framer = new MessageFramer(0);
+		int found = 0;
+		int next = 0;
+		int offset = 0;
+		while (offset < stream.length) {
+			int length = 1 + random.nextInt(random.nextBoolean() ? 8 : 400);
+			length = Math.min(length, stream.length - offset);
+			framer.addBytes(stream, offset, length);
+			offset += length;
+			byte[] msg;
+			while ((msg = framer.nextMessage()) != null) {
+				if (next == order.length
+					|| !new String(msg).equals(messages[order[next]]))
+					different++;
+				next++;
+				checked++;
+			}
+			found += framer.takeKeepAlives();
+		}
+		if (next != order.length || framer.hasPartialMessage())
+			different++;
+		if (found != keepAlives) {
+			System.out.println(
+				found + " keep alives found instead of " + keepAlives);
+			different++;
+		}
+	}
+
+	/**
+	 * Check that an oversized message is cut off after its headers.
+	 */
+	private void checkTooLarge() throws IOException {
+		MessageFramer framer = new MessageFramer(200);
+		byte[] stream = (messages[0] + messages[1]).getBytes();
+		framer.addBytes(stream, 0, stream.length);
+		byte[] msg = framer.nextMessage();
+		String expected =
+			messages[0].substring(0, messages[0].indexOf("\r\n\r\n") + 4);
+		if (msg == null
+			|| !new String(msg).equals(expected)
+			|| !framer.isTooLarge()
+			|| framer.nextMessage() != null)
+			different++;
+		checked++;
+	}
+
+	public void run() throws Exception {
+		Random random = new Random(1);
+		for (int round = 0; round < ROUNDS; round++) {
+			int[] order = new int[1 + random.nextInt(20)];
+			StringBuffer stream = new StringBuffer();
+			int keepAlives = 0;
+			for (int i = 0; i <= order.length; i++) {
+				// Keep alives or a single line end (an answer to a keep
+				// alive) between the messages and after the last one.
+				int gap = random.nextInt(8);
+				if (gap == 0)
+					stream.append("\r\n");
+				for (int k = 0; gap < 3 && k < gap; k++)
+					stream.append("\r\n\r\n");
+				if (gap < 3)
+					keepAlives += gap;
+				if (i < order.length) {
+					order[i] = random.nextInt(messages.length);
+					stream.append(messages[order[i]]);
+				}
+			}
+			check(random, order, keepAlives, stream.toString().getBytes());
+		}
+		checkTooLarge();
+		System.out.println(
+			checked + " messages framed, " + different + " different");
+	}
+
+	public static void main(String[] args) throws Exception {
+		new FramerCheck().run();
+	}
+}
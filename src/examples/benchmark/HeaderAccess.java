@@ -0,0 +1,162 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.message.*;
+import gov.nist.javax.sip.parser.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Measures what the headers of a message cost: the heap that a parsed
+ * INVITE takes once its headers are parsed, and the time to look headers
+ * up by name (the standard ones, in any case, and an extension header),
+ * to test for a header that is not there, to clone the message and to
+ * encode it (as it is, as for a retransmission, and with two of its
+ * headers changed, into a new array and into a buffer). Run with
+ * <pre>
+ * java examples.benchmark.HeaderAccess [messages] [rounds]
+ * </pre>
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class HeaderAccess {
+
+	private static final String message =
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: Bob <sip:bob@biloxi.com>\r\n"
+			+ "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Contact: <sip:alice@pc33.atlanta.com>\r\n"
+			+ "Record-Route: <sip:p1.example.com;lr>\r\n"
+			+ "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE\r\n"
+			+ "Supported: timer\r\n"
+			+ "User-Agent: Foo/1.0\r\n"
+			+ "X-Account: 12345\r\n"
+			+ "Content-Type: application/sdp\r\n"
+			+ "Content-Length: 0\r\n\r\n";
+
+	// Names looked up, as an application would write them.
+	private static final String[] names = {
+		"Via", "From", "To", "Call-ID", "CSeq", "Max-Forwards", "Contact",
+		"call-id", "cseq", "X-Account",
+	};
+
+	private static long usedMemory() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	// Parse the message and all its headers.
+	private static SIPMessage parse(StringMsgParser parser) throws Exception {
+		SIPMessage sipMessage = parser.parseSIPMessage(message.getBytes());
+		for (int i = 0; i < names.length; i++)
+			sipMessage.getHeader(names[i]);
+		return sipMessage;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int messages = 20000;
+		int rounds = 200000;
+		if (args.length > 0)
+			messages = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			rounds = Integer.parseInt(args[1]);
+		StringMsgParser parser = new StringMsgParser();
+
+		// Warm up.
+		SIPMessage sipMessage = null;
+		for (int i = 0; i < 5000; i++)
+			sipMessage = parse(parser);
+
+		SIPMessage[] kept = new SIPMessage[messages];
+		long before = usedMemory();
+		for (int i = 0; i < messages; i++)
+			kept[i] = parse(parser);
+		long after = usedMemory();
+		System.out.println(
+			"memory: " + ((after - before) / messages) + " bytes per message ("
+				+ messages + " messages kept)");
+		kept = null;
+
+		for (int pass = 0; pass < 2; pass++) {
+			int found = 0;
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < rounds; i++) {
+				for (int j = 0; j < names.length; j++) {
+					if (sipMessage.getHeader(names[j]) != null)
+						found++;
+				}
+			}
+			long lookups = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			for (int i = 0; i < rounds; i++) {
+				if (sipMessage.hasHeader("Subject"))
+					found++;
+				if (sipMessage.getViaHeaders() != null)
+					found++;
+			}
+			long tests = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			for (int i = 0; i < rounds / 20; i++) {
+				if (sipMessage.clone() != null)
+					found++;
+			}
+			long clones = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			for (int i = 0; i < rounds / 2; i++)
+				found += sipMessage.encodeAsSharedBytes().length;
+			long encodes = System.currentTimeMillis() - start;
+
+			// As when a message is forwarded: one hop less and a new
+			// sequence number, the other headers unchanged.
+			start = System.currentTimeMillis();
+			for (int i = 0; i < rounds / 2; i++) {
+				sipMessage.getMaxForwards().setMaxForwards(70 - (i & 1));
+				sipMessage.getCSeq().setSequenceNumber(i + 1);
+				found += sipMessage.encodeAsSharedBytes().length;
+			}
+			long changedEncodes = System.currentTimeMillis() - start;
+
+			// The same, into a buffer that is used again and again.
+			ByteBuffer buffer = ByteBuffer.allocate(1024);
+			start = System.currentTimeMillis();
+			for (int i = 0; i < rounds / 2; i++) {
+				sipMessage.getMaxForwards().setMaxForwards(70 - (i & 1));
+				sipMessage.getCSeq().setSequenceNumber(i + 1);
+				buffer.clear();
+				buffer = sipMessage.encodeInto(buffer);
+				found += buffer.position();
+			}
+			long bufferEncodes = System.currentTimeMillis() - start;
+			if (pass == 0)
+				continue;
+			System.out.println(
+				"getHeader: " + (lookups * 1000000L / ((long) rounds * names.length))
+					+ " ns per call");
+			System.out.println(
+				"hasHeader (absent) + getViaHeaders: "
+					+ (tests * 1000000L / rounds) + " ns per pair");
+			System.out.println(
+				"clone: " + (clones * 1000000L / (rounds / 20)) + " ns per message");
+			System.out.println(
+				"encodeAsSharedBytes: " + (encodes * 1000000L / (rounds / 2))
+					+ " ns per message, "
+					+ (changedEncodes * 1000000L / (rounds / 2))
+					+ " ns with two headers changed");
+			System.out.println(
+				"encodeInto: " + (bufferEncodes * 1000000L / (rounds / 2))
+					+ " ns per message with two headers changed ("
+					+ found + ")");
+		}
+	}
+}
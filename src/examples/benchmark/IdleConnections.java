@@ -0,0 +1,256 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.stack.SIPMessageStack;
+import javax.sip.*;
+import javax.sip.address.*;
+import javax.sip.header.*;
+import javax.sip.message.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Opens many TCP connections to the stack that never send anything, one
+ * that sends a keep alive (a double CRLF) every half second and has the
+ * stack send a request to a peer (so that the stack has a connection of
+ * its own). Prints the connection statistics of the stack every second
+ * while the connection manager closes the idle connections, then how
+ * many of the idle connections were closed, how many answers the keep
+ * alive connection got and how many keep alives the peer got. Run with
+ * <pre>
+ * java examples.benchmark.IdleConnections [-nio] [connections]
+ *     [idle timeout in ms] [keep alive interval in ms]
+ * </pre>
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class IdleConnections implements SipListener {
+
+	private static final String myAddress = "127.0.0.1";
+
+	private static final int myPort = 5080;
+
+	public void processRequest(RequestEvent requestEvent) {
+	}
+
+	public void processResponse(ResponseEvent responseEvent) {
+	}
+
+	public void processTimeout(TimeoutEvent timeoutEvent) {
+	}
+
+	/**
+	 * Counts the double CRLFs that come after the first message on the
+	 * connection of the peer.
+	 */
+	class Peer implements Runnable {
+
+		private ServerSocket serverSocket;
+
+		private int keepAlives;
+
+		Peer(ServerSocket serverSocket) {
+			this.serverSocket = serverSocket;
+		}
+
+		public void run() {
+			try {
+				Socket socket = serverSocket.accept();
+				InputStream in = socket.getInputStream();
+				int state = 0;
+				int b;
+				// The message ends with the first double CRLF (it has
+				// no body), the rest are keep alives.
+				while ((b = in.read()) != -1) {
+					if (b == (state % 2 == 0 ? '\r' : '\n'))
+						state++;
+					else
+						state = 0;
+					if (state == 4) {
+						count();
+						state = 0;
+					}
+				}
+			} catch (IOException ex) {
+			}
+		}
+
+		private synchronized void count() {
+			keepAlives++;
+		}
+
+		synchronized int getKeepAlives() {
+			return keepAlives - 1;
+		}
+	}
+
+	/**
+	 * Sends keep alives to the stack and counts the answers.
+	 */
+	class Pinger implements Runnable {
+
+		private Socket socket;
+
+		private int pongs;
+
+		private boolean closed;
+
+		Pinger(Socket socket) {
+			this.socket = socket;
+		}
+
+		public void run() {
+			try {
+				final OutputStream out = socket.getOutputStream();
+				Thread reader = new Thread() {
+					public void run() {
+						try {
+							InputStream in = socket.getInputStream();
+							int b;
+							while ((b = in.read()) != -1)
+								if (b == '\n')
+									pong();
+						} catch (IOException ex) {
+						}
+						setClosed();
+					}
+				};
+				reader.setDaemon(true);
+				reader.start();
+				while (!isClosed()) {
+					out.write(new byte[] { '\r', '\n', '\r', '\n' });
+					out.flush();
+					Thread.sleep(500);
+				}
+			} catch (Exception ex) {
+				setClosed();
+			}
+		}
+
+		private synchronized void pong() {
+			pongs++;
+		}
+
+		private synchronized void setClosed() {
+			closed = true;
+		}
+
+		synchronized boolean isClosed() {
+			return closed;
+		}
+
+		synchronized int getPongs() {
+			return pongs;
+		}
+	}
+
+	public void run(boolean nio, int connections, int idleTimeout,
+		int keepAliveInterval) throws Exception {
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", myAddress);
+		properties.setProperty("javax.sip.STACK_NAME", "idleconnections");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		properties.setProperty(
+			"gov.nist.javax.sip.CONNECTION_IDLE_TIMEOUT", "" + idleTimeout);
+		properties.setProperty(
+			"gov.nist.javax.sip.KEEP_ALIVE_INTERVAL", "" + keepAliveInterval);
+		if (nio)
+			properties.setProperty("gov.nist.javax.sip.USE_NIO_TCP", "true");
+		SipStack sipStack = sipFactory.createSipStack(properties);
+		MessageFactory messageFactory = sipFactory.createMessageFactory();
+		HeaderFactory headerFactory = sipFactory.createHeaderFactory();
+		AddressFactory addressFactory = sipFactory.createAddressFactory();
+		ListeningPoint lp = sipStack.createListeningPoint(myPort, "tcp");
+		SipProvider sipProvider = sipStack.createSipProvider(lp);
+		sipProvider.addSipListener(this);
+		SIPMessageStack stack = (SIPMessageStack) sipStack;
+
+		long openStart = System.currentTimeMillis();
+		Socket[] idle = new Socket[connections];
+		for (int i = 0; i < connections; i++)
+			idle[i] = new Socket(myAddress, myPort);
+		System.out.println(
+			"opened " + connections + " idle connections in "
+				+ (System.currentTimeMillis() - openStart) + " ms");
+		Pinger pinger = new Pinger(new Socket(myAddress, myPort));
+		new Thread(pinger).start();
+
+		ServerSocket peerSocket =
+			new ServerSocket(0, 50, InetAddress.getByName(myAddress));
+		Peer peer = new Peer(peerSocket);
+		new Thread(peer).start();
+		SipURI uri = addressFactory.createSipURI("peer", myAddress);
+		uri.setPort(peerSocket.getLocalPort());
+		uri.setTransportParam("tcp");
+		Address from = addressFactory.createAddress(
+			addressFactory.createSipURI("idle", myAddress));
+		ArrayList vias = new ArrayList();
+		vias.add(headerFactory.createViaHeader(myAddress, myPort, "tcp", null));
+		Request request = messageFactory.createRequest(
+			uri,
+			Request.OPTIONS,
+			sipProvider.getNewCallId(),
+			headerFactory.createCSeqHeader(1, Request.OPTIONS),
+			headerFactory.createFromHeader(from, "idle"),
+			headerFactory.createToHeader(addressFactory.createAddress(uri), null),
+			vias,
+			headerFactory.createMaxForwardsHeader(70));
+		sipProvider.sendRequest(request);
+
+		long start = System.currentTimeMillis();
+		int seconds = idleTimeout / 1000 + 3;
+		for (int s = 1; s <= seconds; s++) {
+			Thread.sleep(1000);
+			System.out.println(
+				(System.currentTimeMillis() - start) + " ms: "
+					+ stack.getConnectionCount() + " connections, oldest "
+					+ stack.getOldestConnectionAge() + " ms, mean age "
+					+ stack.getMeanConnectionAge() + " ms, "
+					+ stack.getEvictedConnections() + " evicted, "
+					+ stack.getKeepAlivesSent() + " keep alives sent");
+		}
+
+		int closed = 0;
+		for (int i = 0; i < connections; i++) {
+			idle[i].setSoTimeout(100);
+			try {
+				if (idle[i].getInputStream().read() == -1)
+					closed++;
+			} catch (SocketTimeoutException ex) {
+			} catch (IOException ex) {
+				closed++;
+			}
+		}
+		System.out.println(
+			(nio ? "nio" : "thread per connection") + ": " + closed + " of "
+				+ connections + " idle connections closed, keep alive connection "
+				+ (pinger.isClosed() ? "closed" : "open") + " ("
+				+ pinger.getPongs() + " answers), the peer got "
+				+ peer.getKeepAlives() + " keep alives");
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean nio = false;
+		int arg = 0;
+		if (args.length > arg && args[arg].equals("-nio")) {
+			nio = true;
+			arg++;
+		}
+		int connections = 500;
+		int idleTimeout = 3000;
+		int keepAliveInterval = 1000;
+		if (args.length > arg)
+			connections = Integer.parseInt(args[arg++]);
+		if (args.length > arg)
+			idleTimeout = Integer.parseInt(args[arg++]);
+		if (args.length > arg)
+			keepAliveInterval = Integer.parseInt(args[arg++]);
+		new IdleConnections().run(
+			nio, connections, idleTimeout, keepAliveInterval);
+	}
+}
@@ -0,0 +1,155 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.header.*;
+import gov.nist.javax.sip.parser.*;
+import java.lang.reflect.Constructor;
+import java.util.Hashtable;
+
+/**
+ * Compares the ways of getting a header parsed:
+ * <ul>
+ * <li> looking the parser class up by header name and building the parser
+ * with java.lang.reflect (which is what ParserFactory used to do),
+ * <li> ParserFactory.createParser,
+ * </ul>
+ * and the ways of parsing a whole message: a new StringMsgParser for every
+ * message (what the UDP channel used to do) against one StringMsgParser
+ * reused for all of them (so that its lexer and header parsers are reused
+ * too). Run with
+ * <pre>
+ * java examples.benchmark.ParserReuse
+ * </pre>
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class ParserReuse {
+
+	private static final int ROUNDS = 20000;
+
+	private static final String[] headers = {
+		"Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\n",
+		"Max-Forwards: 70\n",
+		"To: Bob <sip:bob@biloxi.com>\n",
+		"From: Alice <sip:alice@atlanta.com>;tag=1928301774\n",
+		"Call-ID: a84b4c76e66710@pc33.atlanta.com\n",
+		"CSeq: 314159 INVITE\n",
+		"Contact: <sip:alice@pc33.atlanta.com>\n",
+		"Record-Route: <sip:p1.example.com;lr>\n",
+		"Route: <sip:p2.example.com;lr>\n",
+		"Allow: INVITE, ACK, CANCEL, OPTIONS, BYE\n",
+		"Supported: timer\n",
+		"User-Agent: Foo/1.0\n",
+		"Subject: hello\n",
+		"Content-Type: application/sdp\n",
+		"Content-Length: 0\n",
+	};
+
+	private static final Class[] parserClasses = {
+		ViaParser.class,
+		MaxForwardsParser.class,
+		ToParser.class,
+		FromParser.class,
+		CallIDParser.class,
+		CSeqParser.class,
+		ContactParser.class,
+		RecordRouteParser.class,
+		RouteParser.class,
+		AllowParser.class,
+		SupportedParser.class,
+		UserAgentParser.class,
+		SubjectParser.class,
+		ContentTypeParser.class,
+		ContentLengthParser.class,
+	};
+
+	private static final String message =
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: Bob <sip:bob@biloxi.com>\r\n"
+			+ "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Contact: <sip:alice@pc33.atlanta.com>\r\n"
+			+ "Content-Length: 0\r\n\r\n";
+
+	// Header name to parser class, as in the old ParserFactory.
+	private Hashtable parserTable = new Hashtable();
+
+	public ParserReuse() {
+		for (int i = 0; i < headers.length; i++) {
+			String name = headers[i].substring(0, headers[i].indexOf(':'));
+			parserTable.put(name.toLowerCase(), parserClasses[i]);
+		}
+	}
+
+	private SIPHeader parseWithReflection(String line) throws Exception {
+		String name = line.substring(0, line.indexOf(':')).trim();
+		Class parserClass = (Class) parserTable.get(name.toLowerCase());
+		Constructor cons =
+			parserClass.getConstructor(new Class[] { String.class });
+		HeaderParser parser =
+			(HeaderParser) cons.newInstance(new Object[] { line });
+		return parser.parse();
+	}
+
+	private double timeReflection() throws Exception {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < ROUNDS; i++) {
+			for (int j = 0; j < headers.length; j++)
+				parseWithReflection(headers[j]);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		return elapsed * 1000.0 / (ROUNDS * headers.length);
+	}
+
+	private double timeFactory() throws Exception {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < ROUNDS; i++) {
+			for (int j = 0; j < headers.length; j++)
+				ParserFactory.createParser(headers[j]).parse();
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		return elapsed * 1000.0 / (ROUNDS * headers.length);
+	}
+
+	private double timeNewMessageParser(byte[] msg) throws Exception {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < ROUNDS; i++)
+			new StringMsgParser().parseSIPMessage(msg);
+		long elapsed = System.currentTimeMillis() - start;
+		return elapsed * 1000.0 / ROUNDS;
+	}
+
+	private double timeReusedMessageParser(byte[] msg) throws Exception {
+		StringMsgParser parser = new StringMsgParser();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < ROUNDS; i++)
+			parser.parseSIPMessage(msg);
+		long elapsed = System.currentTimeMillis() - start;
+		return elapsed * 1000.0 / ROUNDS;
+	}
+
+	public void run() throws Exception {
+		byte[] msg = message.getBytes("UTF-8");
+		// The first pass warms up the JIT.
+		for (int pass = 0; pass < 2; pass++) {
+			double reflection = timeReflection();
+			double factory = timeFactory();
+			double newParser = timeNewMessageParser(msg);
+			double reusedParser = timeReusedMessageParser(msg);
+			if (pass == 0)
+				continue;
+			System.out.println("usec/header reflection:\t\t" + reflection);
+			System.out.println("usec/header ParserFactory:\t" + factory);
+			System.out.println("usec/message new parser:\t" + newParser);
+			System.out.println("usec/message reused parser:\t" + reusedParser);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new ParserReuse().run();
+	}
+}
@@ -0,0 +1,188 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.parser.MessageFramer;
+import gov.nist.javax.sip.stack.SIPMessageStack;
+import javax.sip.*;
+import javax.sip.address.*;
+import javax.sip.header.*;
+import javax.sip.message.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Sends MESSAGE requests over TCP to two peers, one of which accepts
+ * the connection and never reads from it. The sends to the stuck peer
+ * fill its outbound queue and then overflow (with the policy given on
+ * the command line) while the sends to the other peer go on. Prints
+ * the number of requests the good peer got, the longest time a send
+ * took and the outbound queue metrics of the stack. Each round waits
+ * for the good peer to get its request, so the sends to it never find
+ * a full queue. Run with
+ * <pre>
+ * java examples.benchmark.SlowPeer [drop | fail | close] [requests]
+ * </pre>
+ * The outbound queues are bounded to 64 KB for the run.
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class SlowPeer implements SipListener {
+
+	private static final String myAddress = "127.0.0.1";
+
+	private static final int myPort = 5080;
+
+	private static final int BODY_SIZE = 2048;
+
+	public void processRequest(RequestEvent requestEvent) {
+	}
+
+	public void processResponse(ResponseEvent responseEvent) {
+	}
+
+	public void processTimeout(TimeoutEvent timeoutEvent) {
+	}
+
+	/**
+	 * Reads the connections of the good peer and counts the messages.
+	 */
+	class Reader implements Runnable {
+
+		private ServerSocket serverSocket;
+
+		private int received;
+
+		Reader(ServerSocket serverSocket) {
+			this.serverSocket = serverSocket;
+		}
+
+		public void run() {
+			try {
+				Socket socket = serverSocket.accept();
+				InputStream in = socket.getInputStream();
+				MessageFramer framer = new MessageFramer(0);
+				byte[] buffer = new byte[8192];
+				int nbytes;
+				while ((nbytes = in.read(buffer)) != -1) {
+					framer.addBytes(buffer, 0, nbytes);
+					while (framer.nextMessage() != null)
+						count();
+				}
+			} catch (IOException ex) {
+			}
+		}
+
+		private synchronized void count() {
+			received++;
+			notifyAll();
+		}
+
+		synchronized int waitFor(int n, long timeout)
+			throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			while (received < n && System.currentTimeMillis() < end)
+				wait(100);
+			return received;
+		}
+	}
+
+	public void run(String policy, int requests) throws Exception {
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", myAddress);
+		properties.setProperty("javax.sip.STACK_NAME", "slowpeer");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		properties.setProperty(
+			"gov.nist.javax.sip.MAX_OUTBOUND_QUEUE_SIZE", "65536");
+		properties.setProperty(
+			"gov.nist.javax.sip.OUTBOUND_QUEUE_OVERFLOW", policy);
+		SipStack sipStack = sipFactory.createSipStack(properties);
+		MessageFactory messageFactory = sipFactory.createMessageFactory();
+		HeaderFactory headerFactory = sipFactory.createHeaderFactory();
+		AddressFactory addressFactory = sipFactory.createAddressFactory();
+		ListeningPoint lp = sipStack.createListeningPoint(myPort, "tcp");
+		SipProvider sipProvider = sipStack.createSipProvider(lp);
+		sipProvider.addSipListener(this);
+
+		// The stuck peer: a small receive window and nobody reading.
+		ServerSocket stuck = new ServerSocket();
+		stuck.setReceiveBufferSize(4096);
+		stuck.bind(new InetSocketAddress(myAddress, 0));
+		ServerSocket good = new ServerSocket(0, 50, InetAddress.getByName(myAddress));
+		Reader reader = new Reader(good);
+		new Thread(reader).start();
+
+		byte[] body = new byte[BODY_SIZE];
+		Arrays.fill(body, (byte) 'x');
+		ContentTypeHeader contentType =
+			headerFactory.createContentTypeHeader("text", "plain");
+		int[] ports = { stuck.getLocalPort(), good.getLocalPort() };
+		int failed = 0;
+		long maxSendTime = 0;
+		long start = System.currentTimeMillis();
+		for (int n = 0; n < requests; n++) {
+			for (int p = 0; p < ports.length; p++) {
+				SipURI uri =
+					addressFactory.createSipURI("peer", myAddress);
+				uri.setPort(ports[p]);
+				uri.setTransportParam("tcp");
+				Address from = addressFactory.createAddress(
+					addressFactory.createSipURI("slow", myAddress));
+				ArrayList vias = new ArrayList();
+				vias.add(
+					headerFactory.createViaHeader(myAddress, myPort, "tcp", null));
+				Request request = messageFactory.createRequest(
+					uri,
+					Request.MESSAGE,
+					sipProvider.getNewCallId(),
+					headerFactory.createCSeqHeader(1, Request.MESSAGE),
+					headerFactory.createFromHeader(from, "slow"),
+					headerFactory.createToHeader(
+						addressFactory.createAddress(uri), null),
+					vias,
+					headerFactory.createMaxForwardsHeader(70),
+					contentType,
+					body);
+				long sendStart = System.currentTimeMillis();
+				try {
+					sipProvider.sendRequest(request);
+				} catch (SipException ex) {
+					failed++;
+				}
+				maxSendTime = Math.max(
+					maxSendTime, System.currentTimeMillis() - sendStart);
+			}
+			if (reader.waitFor(n + 1, 5000) <= n)
+				break;
+		}
+		int received = reader.waitFor(requests, 0);
+		long elapsed = System.currentTimeMillis() - start;
+		SIPMessageStack stack = (SIPMessageStack) sipStack;
+		System.out.println(
+			policy + ": " + requests + " requests to each peer in "
+				+ elapsed + " ms, the good peer got " + received
+				+ ", " + failed + " sends failed, longest send "
+				+ maxSendTime + " ms");
+		System.out.println(
+			"outbound queues: " + stack.getOutboundQueuedMessages()
+				+ " messages (" + stack.getOutboundQueuedBytes()
+				+ " bytes) waiting, high water mark "
+				+ stack.getOutboundQueueHighWaterMark()
+				+ " bytes, " + stack.getOutboundQueueOverflows()
+				+ " overflows");
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		String policy = "fail";
+		int requests = 2000;
+		if (args.length > 0)
+			policy = args[0];
+		if (args.length > 1)
+			requests = Integer.parseInt(args[1]);
+		new SlowPeer().run(policy, requests);
+	}
+}
@@ -0,0 +1,122 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.message.*;
+import gov.nist.javax.sip.parser.*;
+import java.io.*;
+import java.text.ParseException;
+import java.util.Timer;
+
+/**
+ * Times the stream parser of the blocking TCP transport: a stream of
+ * pipelined messages is written into a Pipeline in 4096 byte chunks
+ * (what TCPMessageChannel does with what it reads from the socket) and
+ * a PipelinedMsgParser splits it into messages and parses them. Prints
+ * the number of messages and bytes per second that one connection can
+ * take. Run with
+ * <pre>
+ * java examples.benchmark.StreamParse
+ * </pre>
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class StreamParse implements SIPMessageListener {
+
+	private static final int MESSAGES = 50000;
+
+	private static final int CHUNK = 4096;
+
+	private static final String body =
+		"v=0\r\n"
+			+ "o=alice 2890844526 2890844526 IN IP4 pc33.atlanta.com\r\n"
+			+ "s=-\r\n"
+			+ "c=IN IP4 pc33.atlanta.com\r\n"
+			+ "t=0 0\r\n"
+			+ "m=audio 49172 RTP/AVP 0\r\n"
+			+ "a=rtpmap:0 PCMU/8000\r\n";
+
+	private static final String message =
+		"INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/TCP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: Bob <sip:bob@biloxi.com>\r\n"
+			+ "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Contact: <sip:alice@pc33.atlanta.com>\r\n"
+			+ "Content-Type: application/sdp\r\n"
+			+ "Content-Length: " + body.length() + "\r\n\r\n"
+			+ body;
+
+	private int received;
+
+	private int bodies;
+
+	public synchronized void processMessage(SIPMessage sipMessage) {
+		if (sipMessage.getRawContent() != null
+			&& sipMessage.getRawContent().length == body.length())
+			bodies++;
+		received++;
+		if (received == MESSAGES)
+			notifyAll();
+	}
+
+	public void handleException(
+		ParseException ex,
+		SIPMessage sipMessage,
+		Class headerClass,
+		String headerText,
+		String messageText)
+		throws ParseException {
+		throw ex;
+	}
+
+	private synchronized void waitForMessages() throws InterruptedException {
+		while (received < MESSAGES)
+			wait();
+	}
+
+	private long run(byte[] stream) throws Exception {
+		received = 0;
+		bodies = 0;
+		Pipeline pipeline =
+			new Pipeline(new ByteArrayInputStream(new byte[0]), -1, new Timer(true));
+		PipelinedMsgParser parser = new PipelinedMsgParser(this, pipeline, 0);
+		long start = System.currentTimeMillis();
+		parser.processInput();
+		for (int offset = 0; offset < stream.length; offset += CHUNK) {
+			int length = Math.min(CHUNK, stream.length - offset);
+			// The channel hands a fresh buffer to the pipeline per read.
+			byte[] chunk = new byte[length];
+			System.arraycopy(stream, offset, chunk, 0, length);
+			pipeline.write(chunk, 0, length);
+		}
+		waitForMessages();
+		long elapsed = System.currentTimeMillis() - start;
+		pipeline.close();
+		return elapsed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		byte[] one = message.getBytes("ISO-8859-1");
+		byte[] stream = new byte[one.length * MESSAGES];
+		for (int i = 0; i < MESSAGES; i++)
+			System.arraycopy(one, 0, stream, i * one.length, one.length);
+		StreamParse benchmark = new StreamParse();
+		// The first run warms up the JIT.
+		benchmark.run(stream);
+		long elapsed = benchmark.run(stream);
+		System.out.println(
+			MESSAGES
+				+ " messages ("
+				+ benchmark.bodies
+				+ " with their body) in "
+				+ elapsed
+				+ " ms: "
+				+ (MESSAGES * 1000L / Math.max(elapsed, 1))
+				+ " messages/s, "
+				+ (stream.length / 1024 * 1000L / Math.max(elapsed, 1))
+				+ " KB/s");
+	}
+}
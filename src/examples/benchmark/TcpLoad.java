@@ -0,0 +1,223 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.parser.MessageFramer;
+import javax.sip.*;
+import javax.sip.message.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Loads the TCP transport of the stack with many connections that send
+ * OPTIONS requests, which the stack answers statelessly on the same
+ * connection (the Via of the requests has the port of the connection). Prints the rate
+ * of requests and the number of threads of the stack while the
+ * connections are open. Run with
+ * <pre>
+ * java examples.benchmark.TcpLoad [-nio] [connections] [requests]
+ * </pre>
+ * The -nio flag turns on the NIO TCP processor (the
+ * gov.nist.javax.sip.USE_NIO_TCP property). Each connection sends its
+ * requests in windows of 10 and reads the responses to a window before
+ * it sends the next one. The requests of a window go out in a single
+ * write, so the stack sees several messages in a read.
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class TcpLoad implements SipListener {
+
+	private static final String myAddress = "127.0.0.1";
+
+	private static final int myPort = 5080;
+
+	private static final int WINDOW = 10;
+
+	private SipProvider sipProvider;
+
+	private MessageFactory messageFactory;
+
+	private int stackThreads;
+
+	public void processRequest(RequestEvent requestEvent) {
+		try {
+			Response response =
+				messageFactory.createResponse(200, requestEvent.getRequest());
+			sipProvider.sendResponse(response);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	public void processResponse(ResponseEvent responseEvent) {
+	}
+
+	public void processTimeout(TimeoutEvent timeoutEvent) {
+	}
+
+	private static String request(int connection, int localPort, int n) {
+		return "OPTIONS sip:load@" + myAddress + ":" + myPort + " SIP/2.0\r\n"
+			+ "Via: SIP/2.0/TCP " + myAddress
+			+ ":" + localPort + ";branch=z9hG4bK" + connection + "x" + n + "\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: <sip:load@" + myAddress + ">\r\n"
+			+ "From: <sip:client@" + myAddress + ">;tag=" + connection + "\r\n"
+			+ "Call-ID: " + connection + "-" + n + "@" + myAddress + "\r\n"
+			+ "CSeq: 1 OPTIONS\r\n"
+			+ "Content-Length: 0\r\n\r\n";
+	}
+
+	/**
+	 * Count the threads that do not belong to the clients.
+	 */
+	private static int countStackThreads() {
+		Thread[] threads = new Thread[Thread.activeCount() * 2];
+		int n = Thread.enumerate(threads);
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if (!threads[i].getName().startsWith("client"))
+				count++;
+		}
+		return count;
+	}
+
+	class Client implements Runnable {
+
+		private int connection;
+
+		private int requests;
+
+		private int answered;
+
+		private Exception failure;
+
+		Client(int connection, int requests) {
+			this.connection = connection;
+			this.requests = requests;
+		}
+
+		public void run() {
+			try {
+				Socket socket = new Socket(myAddress, myPort);
+				OutputStream out = socket.getOutputStream();
+				InputStream in = socket.getInputStream();
+				MessageFramer framer = new MessageFramer(0);
+				byte[] buffer = new byte[4096];
+				for (int n = 0; n < requests; n += WINDOW) {
+					StringBuffer window = new StringBuffer();
+					for (int k = 0; k < WINDOW; k++)
+						window.append(
+							request(connection, socket.getLocalPort(), n + k));
+					out.write(window.toString().getBytes());
+					out.flush();
+					int received = 0;
+					while (received < WINDOW) {
+						byte[] msg = framer.nextMessage();
+						if (msg != null) {
+							received++;
+							continue;
+						}
+						int nbytes = in.read(buffer);
+						if (nbytes == -1)
+							throw new IOException("connection closed");
+						framer.addBytes(buffer, 0, nbytes);
+					}
+					answered += received;
+					if (n == 0)
+						waitForConnections();
+				}
+				socket.close();
+			} catch (Exception ex) {
+				failure = ex;
+			}
+		}
+	}
+
+	private int connected;
+
+	private int connections;
+
+	/**
+	 * Wait until every client has had a window answered, count the
+	 * threads once that is the case.
+	 */
+	private synchronized void waitForConnections() throws InterruptedException {
+		connected++;
+		if (connected == connections) {
+			stackThreads = countStackThreads();
+			notifyAll();
+		}
+		while (connected < connections)
+			wait();
+	}
+
+	public void run(boolean nio, int connections, int requests)
+		throws Exception {
+		this.connections = connections;
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", myAddress);
+		properties.setProperty("javax.sip.STACK_NAME", "tcpload");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		if (nio)
+			properties.setProperty("gov.nist.javax.sip.USE_NIO_TCP", "true");
+		SipStack sipStack = sipFactory.createSipStack(properties);
+		messageFactory = sipFactory.createMessageFactory();
+		ListeningPoint lp = sipStack.createListeningPoint(myPort, "tcp");
+		sipProvider = sipStack.createSipProvider(lp);
+		sipProvider.addSipListener(this);
+		int idleThreads = countStackThreads();
+
+		Client[] clients = new Client[connections];
+		Thread[] threads = new Thread[connections];
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < connections; i++) {
+			clients[i] = new Client(i, requests);
+			threads[i] = new Thread(clients[i]);
+			threads[i].setName("client-" + i);
+			threads[i].start();
+		}
+		int answered = 0;
+		for (int i = 0; i < connections; i++) {
+			threads[i].join();
+			if (clients[i].failure != null)
+				System.out.println(
+					"connection " + i + ": " + clients[i].failure);
+			answered += clients[i].answered;
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println(
+			(nio ? "nio" : "thread per connection")
+				+ ": "
+				+ connections
+				+ " connections, "
+				+ answered
+				+ " requests answered in "
+				+ elapsed
+				+ " ms ("
+				+ (answered * 1000L / Math.max(elapsed, 1))
+				+ " requests/s)");
+		System.out.println(
+			"stack threads: " + idleThreads + " idle, "
+				+ stackThreads + " with the connections open");
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean nio = false;
+		int connections = 100;
+		int requests = 200;
+		int arg = 0;
+		if (args.length > arg && args[arg].equals("-nio")) {
+			nio = true;
+			arg++;
+		}
+		if (args.length > arg)
+			connections = Integer.parseInt(args[arg++]);
+		if (args.length > arg)
+			requests = Integer.parseInt(args[arg++]);
+		new TcpLoad().run(nio, connections, requests);
+	}
+}
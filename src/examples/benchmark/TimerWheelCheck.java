@@ -0,0 +1,251 @@
+package examples.benchmark;
+
+import gov.nist.core.LogWriter;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.*;
+import java.util.*;
+
+/**
+ * Checks the timing wheel of the transaction layer: a task cancelled
+ * before it fires never runs and leaves the wheel, cancelling a task that
+ * has fired does nothing, a periodic task is linked back into the wheel
+ * each time it runs (and can cancel itself from its run method), and
+ * delays of more than one turn of the wheel fire neither early nor a turn
+ * late. The check of the long delays uses a wheel of a few buckets so
+ * that a turn takes a fraction of a second; the 512 buckets of the stack
+ * go through the same code. Last, the same tasks are scheduled through
+ * the stack with and without gov.nist.javax.sip.USE_TIMER_WHEEL and must
+ * fire in the same order. Run with
+ * <pre>
+ * java examples.benchmark.TimerWheelCheck
+ * </pre>
+ * The exit status is 1 if a check fails.
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class TimerWheelCheck {
+
+	// Tick and size of the small wheel.
+	private static final int TICK = 10;
+
+	private static final int BUCKETS = 8;
+
+	// Tasks scheduled through the stacks, their delays two ticks of the
+	// stack wheel apart in a shuffled order.
+	private static final int TASKS = 30;
+
+	private static final int SPACING = 2 * TimerWheel.DEFAULT_TICK_INTERVAL;
+
+	private int checks;
+
+	private int failures;
+
+	/**
+	 * Counts its runs, and records when and in which order it ran.
+	 */
+	static class CountingTask extends SIPStackTimerTask {
+
+		private int id;
+
+		private List order;
+
+		private int cancelAfter;
+
+		int runs;
+
+		long firstRun;
+
+		CountingTask(int id, List order, int cancelAfter) {
+			this.id = id;
+			this.order = order;
+			this.cancelAfter = cancelAfter;
+		}
+
+		public void run() {
+			synchronized (this) {
+				runs++;
+				if (runs == 1)
+					firstRun = System.currentTimeMillis();
+			}
+			if (order != null) {
+				synchronized (order) {
+					order.add(new Integer(id));
+				}
+			}
+			if (cancelAfter > 0 && runs == cancelAfter)
+				this.cancel();
+		}
+
+		synchronized int getRuns() {
+			return runs;
+		}
+	}
+
+	/**
+	 * A stack that lets the check schedule its own timer tasks.
+	 */
+	static class CheckStack extends SipStackImpl {
+
+		CheckStack(Properties properties) throws Exception {
+			super(properties);
+		}
+
+		void schedule(SIPStackTimerTask task, long delay) {
+			this.scheduleTimer(task, delay);
+		}
+	}
+
+	private void check(boolean ok, String what) {
+		checks++;
+		if (!ok) {
+			failures++;
+			System.out.println("failed: " + what);
+		}
+	}
+
+	private void checkCancel(TimerWheel wheel) throws Exception {
+		CountingTask task = new CountingTask(0, null, 0);
+		wheel.schedule(task, 5 * TICK);
+		check(wheel.getTaskCount() == 1, "a scheduled task is in the wheel");
+		check(task.cancel(), "cancel before firing returns true");
+		check(wheel.getTaskCount() == 0,
+			"a task cancelled before firing leaves the wheel");
+		Thread.sleep(10 * TICK);
+		check(task.getRuns() == 0, "a task cancelled before firing runs");
+
+		task = new CountingTask(0, null, 0);
+		wheel.schedule(task, 2 * TICK);
+		Thread.sleep(10 * TICK);
+		check(task.getRuns() == 1, "a one shot task runs once");
+		check(!task.cancel(), "cancel after firing returns false");
+		check(wheel.getTaskCount() == 0, "a fired task leaves the wheel");
+		boolean rejected = false;
+		try {
+			wheel.schedule(task, TICK);
+		} catch (IllegalStateException ex) {
+			rejected = true;
+		}
+		check(rejected, "a cancelled task cannot be scheduled again");
+	}
+
+	private void checkPeriodic(TimerWheel wheel) throws Exception {
+		// Cancelled from outside.
+		CountingTask task = new CountingTask(0, null, 0);
+		wheel.schedule(task, 3 * TICK, 3 * TICK);
+		Thread.sleep(3 * TICK * 10 + TICK);
+		check(wheel.getTaskCount() == 1,
+			"a periodic task is linked back into the wheel");
+		int runs = task.getRuns();
+		check(runs >= 7 && runs <= 11,
+			"a periodic task of period 3 ticks ran " + runs
+				+ " times in 31 ticks");
+		check(task.cancel(), "cancel of a periodic task returns true");
+		check(wheel.getTaskCount() == 0,
+			"a cancelled periodic task leaves the wheel");
+		runs = task.getRuns();
+		Thread.sleep(10 * TICK);
+		check(task.getRuns() == runs, "a cancelled periodic task runs");
+
+		// Cancelled from its own run method: the wheel has linked it
+		// back before it runs, the cancel unlinks it again.
+		task = new CountingTask(0, null, 5);
+		wheel.schedule(task, TICK, TICK);
+		Thread.sleep(20 * TICK);
+		check(task.getRuns() == 5,
+			"a periodic task that cancels itself on its fifth run ran "
+				+ task.getRuns() + " times");
+		check(wheel.getTaskCount() == 0,
+			"a periodic task that cancelled itself leaves the wheel");
+	}
+
+	private void checkLongDelays(TimerWheel wheel) throws Exception {
+		int turn = TICK * BUCKETS;
+		long[] delays = {
+			turn - TICK, turn, turn + TICK, 2 * turn, 2 * turn + 3 * TICK,
+			5 * turn + TICK };
+		CountingTask[] tasks = new CountingTask[delays.length];
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < delays.length; i++) {
+			tasks[i] = new CountingTask(i, null, 0);
+			wheel.schedule(tasks[i], delays[i]);
+		}
+		Thread.sleep(delays[delays.length - 1] + 10 * TICK);
+		for (int i = 0; i < delays.length; i++) {
+			long late = tasks[i].firstRun - start - delays[i];
+			// The wheel may run a task up to a tick early (the delay is
+			// counted from the last tick) and a little late, but never a
+			// turn early or late.
+			check(tasks[i].getRuns() == 1 && late >= -TICK - 2
+				&& late < 3 * TICK + 20,
+				"a delay of " + delays[i] + " ms (" + delays[i] / turn
+					+ " turns of the wheel) fired " + late + " ms late");
+		}
+	}
+
+	// Schedule the same tasks through a stack and return the order they
+	// fired in.
+	private List fireThroughStack(boolean useWheel, int[] slots)
+		throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", "127.0.0.1");
+		properties.setProperty("javax.sip.STACK_NAME",
+			"timerwheel" + useWheel);
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		properties.setProperty("gov.nist.javax.sip.USE_TIMER_WHEEL",
+			"" + useWheel);
+		CheckStack stack = new CheckStack(properties);
+		boolean wheelThread = false;
+		Thread[] threads = new Thread[Thread.activeCount() + 16];
+		int count = Thread.enumerate(threads);
+		for (int i = 0; i < count; i++) {
+			if (threads[i] != null
+				&& threads[i].getName().equals("TimerWheel"))
+				wheelThread = true;
+		}
+		check(wheelThread == useWheel,
+			"USE_TIMER_WHEEL=" + useWheel + " selects "
+				+ (useWheel ? "the wheel" : "java.util.Timer"));
+		List order = new ArrayList();
+		for (int i = 0; i < slots.length; i++)
+			stack.schedule(new CountingTask(i, order, 0),
+				(slots[i] + 1) * SPACING);
+		Thread.sleep((slots.length + 3) * SPACING);
+		return order;
+	}
+
+	private void checkOrder() throws Exception {
+		int[] slots = new int[TASKS];
+		for (int i = 0; i < TASKS; i++)
+			slots[i] = i;
+		Random random = new Random(17);
+		for (int i = TASKS - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int slot = slots[i];
+			slots[i] = slots[j];
+			slots[j] = slot;
+		}
+		List timerOrder = fireThroughStack(false, slots);
+		List wheelOrder = fireThroughStack(true, slots);
+		check(timerOrder.size() == TASKS, "java.util.Timer ran "
+			+ timerOrder.size() + " of " + TASKS + " tasks");
+		check(wheelOrder.equals(timerOrder),
+			"the wheel fired in the order of java.util.Timer: " + wheelOrder
+				+ " against " + timerOrder);
+	}
+
+	public static void main(String[] args) throws Exception {
+		TimerWheelCheck check = new TimerWheelCheck();
+		TimerWheel wheel = new TimerWheel(new LogWriter(), TICK, BUCKETS);
+		wheel.start();
+		check.checkCancel(wheel);
+		check.checkPeriodic(wheel);
+		check.checkLongDelays(wheel);
+		wheel.stop();
+		check.checkOrder();
+		System.out.println(check.checks + " checks, " + check.failures
+			+ " failed");
+		System.exit(check.failures == 0 ? 0 : 1);
+	}
+}
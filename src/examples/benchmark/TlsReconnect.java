@@ -0,0 +1,188 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.parser.MessageFramer;
+import gov.nist.javax.sip.stack.SIPMessageStack;
+import javax.net.ssl.*;
+import javax.sip.*;
+import javax.sip.address.*;
+import javax.sip.header.*;
+import javax.sip.message.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Sends requests over TLS to a peer that closes the connection after
+ * each request, so every request reconnects. Prints how long the
+ * requests took to get to the peer and how many of the handshakes
+ * resumed a cached session. With -full the peer invalidates the
+ * sessions, so every handshake is a full one (a JVM that also resumes
+ * sessions with tickets needs
+ * -Djdk.tls.server.enableSessionTicketExtension=false for that). Run with
+ * <pre>
+ * java -Djavax.net.ssl.keyStore=testKeyStore
+ *     -Djavax.net.ssl.keyStorePassword=testPass
+ *     -Djavax.net.ssl.trustStore=testKeyStore
+ *     examples.benchmark.TlsReconnect [-full] [requests]
+ * </pre>
+ * (any key store will do, see examples/tls/README.txt).
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class TlsReconnect implements SipListener {
+
+	private static final String myAddress = "127.0.0.1";
+
+	private static final int myPort = 5081;
+
+	public void processRequest(RequestEvent requestEvent) {
+	}
+
+	public void processResponse(ResponseEvent responseEvent) {
+	}
+
+	public void processTimeout(TimeoutEvent timeoutEvent) {
+	}
+
+	/**
+	 * Reads one message from each connection, then closes it.
+	 */
+	class Peer implements Runnable {
+
+		private ServerSocket serverSocket;
+
+		private boolean invalidate;
+
+		private int received;
+
+		Peer(ServerSocket serverSocket, boolean invalidate) {
+			this.serverSocket = serverSocket;
+			this.invalidate = invalidate;
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					SSLSocket socket = (SSLSocket) serverSocket.accept();
+					InputStream in = socket.getInputStream();
+					MessageFramer framer = new MessageFramer(0);
+					byte[] buffer = new byte[8192];
+					int nbytes;
+					while ((nbytes = in.read(buffer)) != -1) {
+						framer.addBytes(buffer, 0, nbytes);
+						if (framer.nextMessage() != null)
+							break;
+					}
+					if (invalidate)
+						socket.getSession().invalidate();
+					socket.close();
+					count();
+				} catch (IOException ex) {
+					return;
+				}
+			}
+		}
+
+		private synchronized void count() {
+			received++;
+			notifyAll();
+		}
+
+		synchronized int waitFor(int n, long timeout)
+			throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			while (received < n && System.currentTimeMillis() < end)
+				wait(100);
+			return received;
+		}
+	}
+
+	public void run(boolean full, int requests) throws Exception {
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", myAddress);
+		properties.setProperty("javax.sip.STACK_NAME", "tlsreconnect");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		SipStack sipStack = sipFactory.createSipStack(properties);
+		MessageFactory messageFactory = sipFactory.createMessageFactory();
+		HeaderFactory headerFactory = sipFactory.createHeaderFactory();
+		AddressFactory addressFactory = sipFactory.createAddressFactory();
+		ListeningPoint lp = sipStack.createListeningPoint(myPort, "tls");
+		SipProvider sipProvider = sipStack.createSipProvider(lp);
+		sipProvider.addSipListener(this);
+		SIPMessageStack stack = (SIPMessageStack) sipStack;
+
+		ServerSocket serverSocket = SSLServerSocketFactory.getDefault()
+			.createServerSocket(0, 50, InetAddress.getByName(myAddress));
+		Peer peer = new Peer(serverSocket, full);
+		new Thread(peer).start();
+
+		SipURI uri = addressFactory.createSipURI("peer", myAddress);
+		uri.setPort(serverSocket.getLocalPort());
+		uri.setTransportParam("tls");
+		Address from = addressFactory.createAddress(
+			addressFactory.createSipURI("tls", myAddress));
+		long total = 0;
+		long max = 0;
+		int failed = 0;
+		for (int n = 0; n < requests; n++) {
+			ArrayList vias = new ArrayList();
+			vias.add(
+				headerFactory.createViaHeader(myAddress, myPort, "tls", null));
+			Request request = messageFactory.createRequest(
+				uri,
+				Request.MESSAGE,
+				sipProvider.getNewCallId(),
+				headerFactory.createCSeqHeader(1, Request.MESSAGE),
+				headerFactory.createFromHeader(from, "tls"),
+				headerFactory.createToHeader(addressFactory.createAddress(uri), null),
+				vias,
+				headerFactory.createMaxForwardsHeader(70),
+				headerFactory.createContentTypeHeader("text", "plain"),
+				"hello");
+			long start = System.currentTimeMillis();
+			try {
+				sipProvider.sendRequest(request);
+			} catch (SipException ex) {
+				failed++;
+				continue;
+			}
+			if (peer.waitFor(n + 1 - failed, 5000) <= n - failed)
+				break;
+			long elapsed = System.currentTimeMillis() - start;
+			// The first one has no session to resume.
+			if (n > 0) {
+				total += elapsed;
+				max = Math.max(max, elapsed);
+			}
+			// Let the stack see that the peer closed the connection.
+			Thread.sleep(20);
+		}
+		System.out.println(
+			(full ? "full handshakes" : "resumed sessions") + ": "
+				+ requests + " reconnects, " + failed + " failed, mean "
+				+ (requests > 1 ? total / (requests - 1) : 0)
+				+ " ms, longest " + max + " ms");
+		System.out.println(
+			"handshakes: " + stack.getTlsFullHandshakes() + " full, "
+				+ stack.getTlsResumedHandshakes() + " resumed, "
+				+ stack.getTlsFailedHandshakes() + " failed");
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean full = false;
+		int arg = 0;
+		if (args.length > arg && args[arg].equals("-full")) {
+			full = true;
+			arg++;
+		}
+		int requests = 200;
+		if (args.length > arg)
+			requests = Integer.parseInt(args[arg]);
+		new TlsReconnect().run(full, requests);
+	}
+}
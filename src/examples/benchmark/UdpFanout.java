@@ -0,0 +1,196 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.stack.SIPMessageStack;
+import javax.sip.*;
+import javax.sip.address.*;
+import javax.sip.header.*;
+import javax.sip.message.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Fans out OPTIONS requests over UDP: several threads send requests
+ * statelessly, as fast as they can, to a peer that only counts them.
+ * Prints the rate of the sends, how many requests got to the peer and,
+ * with a send queue (the gov.nist.javax.sip.UDP_SEND_QUEUE_SIZE
+ * property), how many datagrams the sender thread sent per wake up. Run
+ * with
+ * <pre>
+ * java examples.benchmark.UdpFanout [send queue size] [threads] [requests]
+ * </pre>
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class UdpFanout implements SipListener {
+
+	private static final String myAddress = "127.0.0.1";
+
+	private static final int myPort = 5080;
+
+	private SipProvider sipProvider;
+
+	private MessageFactory messageFactory;
+
+	private HeaderFactory headerFactory;
+
+	private AddressFactory addressFactory;
+
+	public void processRequest(RequestEvent requestEvent) {
+	}
+
+	public void processResponse(ResponseEvent responseEvent) {
+	}
+
+	public void processTimeout(TimeoutEvent timeoutEvent) {
+	}
+
+	/**
+	 * Counts the datagrams that come in.
+	 */
+	class Peer implements Runnable {
+
+		private DatagramSocket socket;
+
+		private int received;
+
+		Peer(DatagramSocket socket) {
+			this.socket = socket;
+		}
+
+		public void run() {
+			byte[] buffer = new byte[8192];
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			while (true) {
+				try {
+					packet.setLength(buffer.length);
+					socket.receive(packet);
+				} catch (IOException ex) {
+					return;
+				}
+				count();
+			}
+		}
+
+		private synchronized void count() {
+			received++;
+		}
+
+		synchronized int getReceived() {
+			return received;
+		}
+	}
+
+	class Sender implements Runnable {
+
+		private SipURI uri;
+
+		private int requests;
+
+		private Exception failure;
+
+		Sender(SipURI uri, int requests) {
+			this.uri = uri;
+			this.requests = requests;
+		}
+
+		public void run() {
+			try {
+				Address from = addressFactory.createAddress(
+					addressFactory.createSipURI("fanout", myAddress));
+				for (int n = 0; n < requests; n++) {
+					ArrayList vias = new ArrayList();
+					vias.add(headerFactory.createViaHeader(
+						myAddress, myPort, "udp", null));
+					Request request = messageFactory.createRequest(
+						uri,
+						Request.OPTIONS,
+						sipProvider.getNewCallId(),
+						headerFactory.createCSeqHeader(1, Request.OPTIONS),
+						headerFactory.createFromHeader(from, "fanout"),
+						headerFactory.createToHeader(
+							addressFactory.createAddress(uri), null),
+						vias,
+						headerFactory.createMaxForwardsHeader(70));
+					sipProvider.sendRequest(request);
+				}
+			} catch (Exception ex) {
+				failure = ex;
+			}
+		}
+	}
+
+	public void run(int sendQueueSize, int threads, int requests)
+		throws Exception {
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", myAddress);
+		properties.setProperty("javax.sip.STACK_NAME", "udpfanout");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		properties.setProperty(
+			"gov.nist.javax.sip.UDP_SEND_QUEUE_SIZE", "" + sendQueueSize);
+		SipStack sipStack = sipFactory.createSipStack(properties);
+		messageFactory = sipFactory.createMessageFactory();
+		headerFactory = sipFactory.createHeaderFactory();
+		addressFactory = sipFactory.createAddressFactory();
+		ListeningPoint lp = sipStack.createListeningPoint(myPort, "udp");
+		sipProvider = sipStack.createSipProvider(lp);
+		sipProvider.addSipListener(this);
+		SIPMessageStack stack = (SIPMessageStack) sipStack;
+
+		DatagramSocket peerSocket =
+			new DatagramSocket(0, InetAddress.getByName(myAddress));
+		peerSocket.setReceiveBufferSize(4 * 1024 * 1024);
+		Peer peer = new Peer(peerSocket);
+		Thread peerThread = new Thread(peer);
+		peerThread.setDaemon(true);
+		peerThread.start();
+		SipURI uri = addressFactory.createSipURI("peer", myAddress);
+		uri.setPort(peerSocket.getLocalPort());
+
+		Sender[] senders = new Sender[threads];
+		Thread[] senderThreads = new Thread[threads];
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < threads; i++) {
+			senders[i] = new Sender(uri, requests);
+			senderThreads[i] = new Thread(senders[i]);
+			senderThreads[i].start();
+		}
+		for (int i = 0; i < threads; i++) {
+			senderThreads[i].join();
+			if (senders[i].failure != null)
+				System.out.println("sender " + i + ": " + senders[i].failure);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		// Let the sender thread and the peer catch up.
+		Thread.sleep(500);
+		long sent = stack.getUdpDatagramsSent();
+		long batches = stack.getUdpSendBatches();
+		System.out.println(
+			(sendQueueSize > 0 ? "send queue of " + sendQueueSize : "no send queue")
+				+ ": " + threads + " threads sent " + threads * requests
+				+ " requests in " + elapsed + " ms ("
+				+ (threads * requests * 1000L / Math.max(elapsed, 1))
+				+ " requests/s), " + peer.getReceived() + " received, "
+				+ sent + " datagrams sent"
+				+ (batches > 0 ? " in " + batches + " wake ups ("
+					+ (sent / batches) + " per wake up)" : ""));
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int sendQueueSize = 0;
+		int threads = 8;
+		int requests = 5000;
+		if (args.length > 0)
+			sendQueueSize = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			threads = Integer.parseInt(args[1]);
+		if (args.length > 2)
+			requests = Integer.parseInt(args[2]);
+		new UdpFanout().run(sendQueueSize, threads, requests);
+	}
+}
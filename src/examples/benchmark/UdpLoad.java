@@ -0,0 +1,221 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.stack.SIPMessageStack;
+import javax.sip.*;
+import javax.sip.header.*;
+import javax.sip.message.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Loads the UDP transport of the stack (with a thread pool and a re-entrant
+ * listener) with clients that send OPTIONS requests, one at a time, which
+ * the listener answers statelessly. Each client spreads its requests
+ * over a few calls and the listener checks that the requests of a call
+ * come in CSeq order. Prints the rate of requests, the retransmissions
+ * (for the requests or responses that were lost) and the requests seen
+ * out of order, then how many receive buffers the stack allocated and how
+ * many datagrams it received into a reused one. Run with
+ * <pre>
+ * java examples.benchmark.UdpLoad [-sharded] [receive threads]
+ *     [clients] [requests]
+ * </pre>
+ * The -sharded flag gives each pool thread a queue of its own (the
+ * gov.nist.javax.sip.UDP_SHARDED_QUEUES property).
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class UdpLoad implements SipListener {
+
+	private static final String myAddress = "127.0.0.1";
+
+	private static final int myPort = 5080;
+
+	private static final int POOL_SIZE = 8;
+
+	private static final int CALLS_PER_CLIENT = 4;
+
+	private static final int RETRANSMIT_TIME = 200;
+
+	private SipProvider sipProvider;
+
+	private MessageFactory messageFactory;
+
+	// The last CSeq seen for each call.
+	private Hashtable lastCSeq = new Hashtable();
+
+	private int outOfOrder;
+
+	public void processRequest(RequestEvent requestEvent) {
+		Request request = requestEvent.getRequest();
+		String callId =
+			((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId();
+		long cseq =
+			((CSeqHeader) request.getHeader(CSeqHeader.NAME)).getSequenceNumber();
+		synchronized (lastCSeq) {
+			Long last = (Long) lastCSeq.get(callId);
+			if (last != null && cseq < last.longValue())
+				outOfOrder++;
+			else
+				lastCSeq.put(callId, new Long(cseq));
+		}
+		try {
+			Response response = messageFactory.createResponse(200, request);
+			sipProvider.sendResponse(response);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	public void processResponse(ResponseEvent responseEvent) {
+	}
+
+	public void processTimeout(TimeoutEvent timeoutEvent) {
+	}
+
+	private static String request(int client, int localPort, int n) {
+		return "OPTIONS sip:load@" + myAddress + ":" + myPort + " SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP " + myAddress
+			+ ":" + localPort + ";branch=z9hG4bK" + client + "x" + n + "\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: <sip:load@" + myAddress + ">\r\n"
+			+ "From: <sip:client@" + myAddress + ">;tag=" + client + "\r\n"
+			+ "Call-ID: " + client + "-" + (n % CALLS_PER_CLIENT) + "@"
+			+ myAddress + "\r\n"
+			+ "CSeq: " + (n / CALLS_PER_CLIENT + 1) + " OPTIONS\r\n"
+			+ "Content-Length: 0\r\n\r\n";
+	}
+
+	class Client implements Runnable {
+
+		private int client;
+
+		private int requests;
+
+		private int answered;
+
+		private int retransmissions;
+
+		private Exception failure;
+
+		Client(int client, int requests) {
+			this.client = client;
+			this.requests = requests;
+		}
+
+		public void run() {
+			try {
+				DatagramSocket socket = new DatagramSocket(0,
+					InetAddress.getByName(myAddress));
+				socket.setSoTimeout(RETRANSMIT_TIME);
+				InetAddress stackAddress = InetAddress.getByName(myAddress);
+				byte[] buffer = new byte[4096];
+				for (int n = 0; n < requests; n++) {
+					byte[] msg =
+						request(client, socket.getLocalPort(), n).getBytes();
+					String branch = "branch=z9hG4bK" + client + "x" + n + "\r";
+					boolean done = false;
+					for (int tries = 0; !done && tries < 10; tries++) {
+						if (tries > 0)
+							retransmissions++;
+						socket.send(new DatagramPacket(
+							msg, msg.length, stackAddress, myPort));
+						try {
+							while (!done) {
+								DatagramPacket packet =
+									new DatagramPacket(buffer, buffer.length);
+								socket.receive(packet);
+								// Skip the answers to retransmissions.
+								done = new String(buffer, 0, packet.getLength())
+									.indexOf(branch) != -1;
+							}
+						} catch (SocketTimeoutException ex) {
+						}
+					}
+					if (!done)
+						throw new IOException("no answer to request " + n);
+					answered++;
+				}
+				socket.close();
+			} catch (Exception ex) {
+				failure = ex;
+			}
+		}
+	}
+
+	public void run(boolean sharded, int receiveThreads, int clients,
+		int requests) throws Exception {
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", myAddress);
+		properties.setProperty("javax.sip.STACK_NAME", "udpload");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		properties.setProperty(
+			"gov.nist.javax.sip.THREAD_POOL_SIZE", "" + POOL_SIZE);
+		properties.setProperty("gov.nist.javax.sip.REENTRANT_LISTENER", "true");
+		properties.setProperty(
+			"gov.nist.javax.sip.UDP_SHARDED_QUEUES", "" + sharded);
+		properties.setProperty(
+			"gov.nist.javax.sip.UDP_RECEIVE_THREADS", "" + receiveThreads);
+		SipStack sipStack = sipFactory.createSipStack(properties);
+		messageFactory = sipFactory.createMessageFactory();
+		ListeningPoint lp = sipStack.createListeningPoint(myPort, "udp");
+		sipProvider = sipStack.createSipProvider(lp);
+		sipProvider.addSipListener(this);
+
+		Client[] clientList = new Client[clients];
+		Thread[] threads = new Thread[clients];
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < clients; i++) {
+			clientList[i] = new Client(i, requests);
+			threads[i] = new Thread(clientList[i]);
+			threads[i].start();
+		}
+		int answered = 0;
+		int retransmissions = 0;
+		for (int i = 0; i < clients; i++) {
+			threads[i].join();
+			if (clientList[i].failure != null)
+				System.out.println("client " + i + ": " + clientList[i].failure);
+			answered += clientList[i].answered;
+			retransmissions += clientList[i].retransmissions;
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println(
+			(sharded ? "sharded queues" : "one queue") + ", "
+				+ receiveThreads + " receive threads: " + clients
+				+ " clients, " + answered + " requests answered in "
+				+ elapsed + " ms ("
+				+ (answered * 1000L / Math.max(elapsed, 1))
+				+ " requests/s), " + retransmissions + " retransmissions, "
+				+ outOfOrder + " out of order");
+		SIPMessageStack stack = (SIPMessageStack) sipStack;
+		System.out.println(
+			"receive buffers: " + stack.getUdpBuffersAllocated()
+				+ " allocated, " + stack.getUdpBuffersReused() + " reused");
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean sharded = false;
+		int receiveThreads = 1;
+		int clients = 32;
+		int requests = 500;
+		int arg = 0;
+		if (args.length > arg && args[arg].equals("-sharded")) {
+			sharded = true;
+			arg++;
+		}
+		if (args.length > arg)
+			receiveThreads = Integer.parseInt(args[arg++]);
+		if (args.length > arg)
+			clients = Integer.parseInt(args[arg++]);
+		if (args.length > arg)
+			requests = Integer.parseInt(args[arg++]);
+		new UdpLoad().run(sharded, receiveThreads, clients, requests);
+	}
+}
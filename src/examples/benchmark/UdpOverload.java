@@ -0,0 +1,266 @@
+package examples.benchmark;
+
+import gov.nist.javax.sip.stack.SIPMessageStack;
+import javax.sip.*;
+import javax.sip.header.*;
+import javax.sip.message.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Sends the stack (a small thread pool with a slow listener) more new
+ * INVITEs than it can handle, with a re-INVITE (an INVITE with a To tag,
+ * which belongs to a dialog) after every few of them. Some of the new
+ * INVITEs are retransmitted a little later if they have no answer yet
+ * (the first one may still be queued). Prints how the new INVITEs and the re-INVITEs were
+ * answered (by the listener, with a 503 from the stack or not at all) and
+ * how many INVITEs got two different final responses (which must not
+ * happen), then the overload statistics of the
+ * stack: the INVITEs it rejected, the packets it dropped and how long
+ * the packets waited for the pool. (The unanswered requests were dropped
+ * by the stack or, when the receiving thread falls behind, by the socket.)
+ * Run with
+ * <pre>
+ * java examples.benchmark.UdpOverload [INVITEs] [INVITEs per second]
+ *     [queue size] [high water mark]
+ * </pre>
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class UdpOverload implements SipListener {
+
+	private static final String myAddress = "127.0.0.1";
+
+	private static final int myPort = 5080;
+
+	private static final int POOL_SIZE = 4;
+
+	// How long the listener takes for a request (ms).
+	private static final int SERVICE_TIME = 5;
+
+	// A re-INVITE after this many new INVITEs.
+	private static final int REINVITE_EVERY = 10;
+
+	// Every so many new INVITEs one is retransmitted, so many INVITEs
+	// later, unless it has been answered.
+	private static final int RETRANSMIT_EVERY = 7;
+
+	private static final int RETRANSMIT_AFTER = 50;
+
+	private SipProvider sipProvider;
+
+	private MessageFactory messageFactory;
+
+	public void processRequest(RequestEvent requestEvent) {
+		try {
+			Thread.sleep(SERVICE_TIME);
+			Response response =
+				messageFactory.createResponse(486, requestEvent.getRequest());
+			sipProvider.sendResponse(response);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	public void processResponse(ResponseEvent responseEvent) {
+	}
+
+	public void processTimeout(TimeoutEvent timeoutEvent) {
+	}
+
+	private static String invite(int localPort, int n, boolean reinvite) {
+		String branch = (reinvite ? "z9hG4bKre" : "z9hG4bKnew") + n;
+		return "INVITE sip:load@" + myAddress + ":" + myPort + " SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP " + myAddress + ":" + localPort
+			+ ";branch=" + branch + "\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: <sip:load@" + myAddress + ">"
+			+ (reinvite ? ";tag=dialog" + n : "") + "\r\n"
+			+ "From: <sip:client@" + myAddress + ">;tag=" + n + "\r\n"
+			+ "Call-ID: " + branch + "@" + myAddress + "\r\n"
+			+ "CSeq: " + (reinvite ? 2 : 1) + " INVITE\r\n"
+			+ "Contact: <sip:client@" + myAddress + ":" + localPort + ">\r\n"
+			+ "Content-Length: 0\r\n\r\n";
+	}
+
+	/**
+	 * Reads the responses and keeps the first final response of each
+	 * branch, and counts the branches that get a different one later.
+	 */
+	class Reader implements Runnable {
+
+		private DatagramSocket socket;
+
+		private Hashtable answers = new Hashtable();
+
+		private int retryAfter = -1;
+
+		private Hashtable conflicts = new Hashtable();
+
+		Reader(DatagramSocket socket) {
+			this.socket = socket;
+		}
+
+		public void run() {
+			byte[] buffer = new byte[4096];
+			while (true) {
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				try {
+					socket.receive(packet);
+				} catch (IOException ex) {
+					return;
+				}
+				String response = new String(buffer, 0, packet.getLength());
+				int start = response.indexOf("branch=");
+				if (start == -1)
+					continue;
+				int end = start;
+				while (end < response.length()
+					&& Character.isLetterOrDigit(response.charAt(end + 7)))
+					end++;
+				String branch = response.substring(start + 7, end + 7);
+				String status = response.substring(8, 11);
+				synchronized (this) {
+					if (!answers.containsKey(branch))
+						answers.put(branch, status);
+					else if (!answers.get(branch).equals(status))
+						conflicts.put(branch, status);
+					int k = response.indexOf("Retry-After: ");
+					if (k != -1 && retryAfter == -1) {
+						int eol = response.indexOf('\r', k);
+						retryAfter = Integer.parseInt(
+							response.substring(k + 13, eol).trim());
+					}
+				}
+			}
+		}
+
+		synchronized boolean isAnswered(String branch) {
+			return answers.containsKey(branch);
+		}
+
+		synchronized int conflicts() {
+			return conflicts.size();
+		}
+
+		// Count the answers with the given status for the given prefix.
+		synchronized int count(String prefix, String status) {
+			int count = 0;
+			for (Iterator it = answers.keySet().iterator(); it.hasNext();) {
+				String branch = (String) it.next();
+				if (branch.startsWith(prefix)
+					&& (status == null || status.equals(answers.get(branch))))
+					count++;
+			}
+			return count;
+		}
+	}
+
+	public void run(int invites, int rate, int queueSize, int highWaterMark)
+		throws Exception {
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("gov.nist");
+		Properties properties = new Properties();
+		properties.setProperty("javax.sip.IP_ADDRESS", myAddress);
+		properties.setProperty("javax.sip.STACK_NAME", "udpoverload");
+		properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+		properties.setProperty(
+			"gov.nist.javax.sip.THREAD_POOL_SIZE", "" + POOL_SIZE);
+		properties.setProperty("gov.nist.javax.sip.REENTRANT_LISTENER", "true");
+		properties.setProperty(
+			"gov.nist.javax.sip.UDP_QUEUE_SIZE", "" + queueSize);
+		properties.setProperty(
+			"gov.nist.javax.sip.UDP_QUEUE_HIGH_WATER_MARK", "" + highWaterMark);
+		SipStack sipStack = sipFactory.createSipStack(properties);
+		messageFactory = sipFactory.createMessageFactory();
+		ListeningPoint lp = sipStack.createListeningPoint(myPort, "udp");
+		sipProvider = sipStack.createSipProvider(lp);
+		sipProvider.addSipListener(this);
+		SIPMessageStack stack = (SIPMessageStack) sipStack;
+
+		DatagramSocket socket =
+			new DatagramSocket(0, InetAddress.getByName(myAddress));
+		socket.setReceiveBufferSize(1024 * 1024);
+		Reader reader = new Reader(socket);
+		Thread readerThread = new Thread(reader);
+		readerThread.setDaemon(true);
+		readerThread.start();
+		InetAddress stackAddress = InetAddress.getByName(myAddress);
+
+		// Send in bursts of 10 at the given rate.
+		long start = System.currentTimeMillis();
+		int reinvites = 0;
+		int retransmissions = 0;
+		int maxQueueLength = 0;
+		for (int n = 0; n < invites; n++) {
+			byte[] msg = invite(socket.getLocalPort(), n, false).getBytes();
+			socket.send(
+				new DatagramPacket(msg, msg.length, stackAddress, myPort));
+			int old = n - RETRANSMIT_AFTER;
+			if (old >= 0 && old % RETRANSMIT_EVERY == 0
+				&& !reader.isAnswered("z9hG4bKnew" + old)) {
+				msg = invite(socket.getLocalPort(), old, false).getBytes();
+				socket.send(
+					new DatagramPacket(msg, msg.length, stackAddress, myPort));
+				retransmissions++;
+			}
+			if (n % REINVITE_EVERY == 0) {
+				msg = invite(socket.getLocalPort(), n, true).getBytes();
+				socket.send(
+					new DatagramPacket(msg, msg.length, stackAddress, myPort));
+				reinvites++;
+			}
+			if (n % 10 == 9) {
+				maxQueueLength = Math.max(maxQueueLength, stack.getUdpQueueLength());
+				long due = start + (n + 1) * 1000L / rate;
+				long now = System.currentTimeMillis();
+				if (due > now)
+					Thread.sleep(due - now);
+			}
+		}
+		// Let the pool drain the queue.
+		while (stack.getUdpQueueLength() > 0)
+			Thread.sleep(100);
+		Thread.sleep(500);
+
+		System.out.println(
+			"new INVITEs: " + invites + " sent, " + reader.count("z9hG4bKnew", "486")
+				+ " answered by the listener, " + reader.count("z9hG4bKnew", "503")
+				+ " rejected with 503 (Retry-After " + reader.retryAfter + "), "
+				+ (invites - reader.count("z9hG4bKnew", null)) + " unanswered");
+		System.out.println(
+			"re-INVITEs: " + reinvites + " sent, " + reader.count("z9hG4bKre", "486")
+				+ " answered by the listener, " + reader.count("z9hG4bKre", "503")
+				+ " rejected with 503, "
+				+ (reinvites - reader.count("z9hG4bKre", null)) + " unanswered");
+		System.out.println("retransmitted INVITEs: " + retransmissions
+			+ ", INVITEs with two different final responses: "
+			+ reader.conflicts());
+		System.out.println(
+			"stack: " + stack.getUdpShedRequests() + " INVITEs shed, "
+				+ stack.getUdpDroppedMessages() + " packets dropped, queue up to "
+				+ maxQueueLength + " packets, wait mean "
+				+ stack.getUdpQueueMeanWaitTime() + " ms, longest "
+				+ stack.getUdpQueueMaxWaitTime() + " ms");
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int invites = 2000;
+		int rate = 1000;
+		int queueSize = 400;
+		int highWaterMark = 100;
+		if (args.length > 0)
+			invites = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			rate = Integer.parseInt(args[1]);
+		if (args.length > 2)
+			queueSize = Integer.parseInt(args[2]);
+		if (args.length > 3)
+			highWaterMark = Integer.parseInt(args[3]);
+		new UdpOverload().run(invites, rate, queueSize, highWaterMark);
+	}
+}
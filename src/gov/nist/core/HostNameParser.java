@@ -80,8 +80,10 @@ public class HostNameParser extends ParserCore {
 					break;
 			}
 
-			throw new ParseException(
-				lexer.getBuffer() + ": Illegal Host name ",
+			throw new LazyParseException(
+				lexer.getBuffer(),
+				": ",
+				"Illegal Host name ",
 				lexer.getPtr());
 		} finally {
 			if (debug)
@@ -93,34 +95,38 @@ public class HostNameParser extends ParserCore {
 		if (debug)
 			dbg_enter("host");
 		try {
-			StringBuffer hname = new StringBuffer();
+			String hostname;
 
 			//IPv6 referene
 			if (lexer.lookAhead(0) == '[') {
-				hname.append(ipv6Reference());
+				hostname = ipv6Reference();
 			}
 			//IPv4 address or hostname
 			else {
-				String nextTok = domainLabel();
-				hname.append(nextTok);
-				// Bug reported by Stuart Woodsford (used to barf on
-				// more than 4 components to the name).
+				// Domain labels separated by dots (any number of them -
+				// bug reported by Stuart Woodsford). The name is the text
+				// scanned.
+				int start = lexer.getPtr();
 				while (lexer.hasMoreChars()) {
-					// Reached the end of the buffer.
-					if (lexer.lookAhead(0) == '.') {
+					char la = lexer.lookAhead(0);
+					if (LexerCore.isAlpha(la)
+						|| LexerCore.isDigit(la)
+						|| la == '-'
+						|| la == '.')
 						lexer.consume(1);
-						nextTok = domainLabel();
-						hname.append(".");
-						hname.append(nextTok);
-					} else
+					else
 						break;
 				}
+				hostname = lexer.getPtr() > start
+					? lexer.getBuffer().substring(start, lexer.getPtr())
+					: "";
 			}
 
-			String hostname = hname.toString();
 			if (hostname.equals(""))
-				throw new ParseException(
-					lexer.getBuffer() + ": Illegal Host name ",
+				throw new LazyParseException(
+					lexer.getBuffer(),
+					": ",
+					"Illegal Host name ",
 					lexer.getPtr());
 			else
 				return new Host(hostname);
@@ -146,8 +152,10 @@ public class HostNameParser extends ParserCore {
 					String port = lexer.number();
 					hp.setPort(Integer.parseInt(port));
 				} catch (NumberFormatException nfe) {
-					throw new ParseException(
-						lexer.getBuffer() + " :Error parsing port ",
+					throw new LazyParseException(
+						lexer.getBuffer(),
+						" :",
+						"Error parsing port ",
 						lexer.getPtr());
 				}
 			}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+* Product of NIST/ITL Advanced Networking Technologies Division (ANTD).        *
+*******************************************************************************/
+package gov.nist.core;
+
+/**
+ * A case insensitive table of keywords for the lexer. Keywords are looked
+ * up directly over a range of the lexer buffer: the hash is computed on the
+ * case folded characters so neither a substring nor an upper case copy of
+ * the token is needed. Keywords are plain ASCII so only ASCII letters are
+ * folded (unlike String.toUpperCase the result does not depend on the
+ * default locale).
+ *
+ * The table is filled while the lexer class is initialized and is only
+ * read after that, so any number of lexers (one per parser thread) can use
+ * the same table without locking.
+ *
+ *@version  JAIN-SIP-1.1
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ *
+ */
+public class KeywordTable {
+
+	/** Returned by lookup when the token is not a keyword.
+	 */
+	public static final int NOT_FOUND = -1;
+
+	// Keywords (upper case) and their token types in the order they were
+	// added.
+	private char[][] keywords;
+	private int[] types;
+	private int count;
+
+	// Open addressed hash table of (index into keywords + 1); 0 is empty.
+	private int[] slots;
+	private int mask;
+
+	public KeywordTable() {
+		this.keywords = new char[8][];
+		this.types = new int[8];
+		this.slots = new int[16];
+		this.mask = 15;
+	}
+
+	private static char fold(char ch) {
+		return (ch >= 'a' && ch <= 'z') ? (char) (ch - ('a' - 'A')) : ch;
+	}
+
+	private static int hash(String buffer, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++)
+			h = 31 * h + fold(buffer.charAt(i));
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(char[] keyword) {
+		int h = 0;
+		for (int i = 0; i < keyword.length; i++)
+			h = 31 * h + keyword[i];
+		return h ^ (h >>> 16);
+	}
+
+	/** Add a keyword. Only to be called while the table is built; a
+	 * keyword that is already in the table keeps its first type.
+	 */
+	public void add(String keyword, int type) {
+		if (lookup(keyword, 0, keyword.length()) != NOT_FOUND)
+			return;
+		if (count == keywords.length) {
+			char[][] newKeywords = new char[count * 2][];
+			int[] newTypes = new int[count * 2];
+			System.arraycopy(keywords, 0, newKeywords, 0, count);
+			System.arraycopy(types, 0, newTypes, 0, count);
+			keywords = newKeywords;
+			types = newTypes;
+		}
+		char[] chars = new char[keyword.length()];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = fold(keyword.charAt(i));
+		keywords[count] = chars;
+		types[count] = type;
+		count++;
+		// Keep the table at most half full.
+		if (count * 2 > slots.length) {
+			slots = new int[slots.length * 2];
+			mask = slots.length - 1;
+			for (int i = 0; i < count; i++)
+				insert(i);
+		} else {
+			insert(count - 1);
+		}
+	}
+
+	private void insert(int index) {
+		int slot = hash(keywords[index]) & mask;
+		while (slots[slot] != 0)
+			slot = (slot + 1) & mask;
+		slots[slot] = index + 1;
+	}
+
+	/** Look up the characters buffer[start, end) ignoring case.
+	 *@return the token type of the keyword or NOT_FOUND.
+	 */
+	public int lookup(String buffer, int start, int end) {
+		int length = end - start;
+		int slot = hash(buffer, start, end) & mask;
+		while (true) {
+			int entry = slots[slot];
+			if (entry == 0)
+				return NOT_FOUND;
+			char[] keyword = keywords[entry - 1];
+			if (keyword.length == length) {
+				int i = 0;
+				while (i < length && keyword[i] == fold(buffer.charAt(start + i)))
+					i++;
+				if (i == length)
+					return types[entry - 1];
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/** Get the number of keywords in the table.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/** Get a keyword (upper case) by the order it was added in.
+	 */
+	public String getKeyword(int index) {
+		return new String(keywords[index]);
+	}
+
+	/** Get the token type of a keyword by the order it was added in.
+	 */
+	public int getType(int index) {
+		return types[index];
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+* Product of NIST/ITL Advanced Networking Technologies Division (ANTD).        *
+*******************************************************************************/
+package gov.nist.core;
+
+import java.text.ParseException;
+
+/**
+ * A parse exception for an error in the text being parsed. The parsers
+ * throw these for every malformed header, so they are made cheap to
+ * create: the message (the text being parsed followed by what was
+ * expected) is only put together when it is asked for, and the stack
+ * trace is not filled in (the offset into the text tells where the error
+ * is, the stack of the recursive descent parser adds nothing to that).
+ * Stack traces can be turned back on with setStackTraces for debugging
+ * the parsers.
+ *
+ *@version  JAIN-SIP-1.1
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ *
+ */
+public class LazyParseException extends ParseException {
+
+	private static boolean stackTraces = false;
+
+	// The parts of the message until it is built.
+	private transient String text;
+	private transient String separator;
+	private transient String detail;
+
+	private String message;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param text -- text being parsed.
+	 * @param separator -- separator between the text and the detail.
+	 * @param detail -- what went wrong.
+	 * @param errorOffset -- position of the error in the text.
+	 */
+	public LazyParseException(
+		String text,
+		String separator,
+		String detail,
+		int errorOffset) {
+		super(null, errorOffset);
+		this.text = text;
+		this.separator = separator;
+		this.detail = detail;
+	}
+
+	/**
+	 * Turn the filling in of stack traces on or off (off by default).
+	 */
+	public static void setStackTraces(boolean flag) {
+		stackTraces = flag;
+	}
+
+	public synchronized Throwable fillInStackTrace() {
+		return stackTraces ? super.fillInStackTrace() : this;
+	}
+
+	/**
+	 * Build the message (the first time it is asked for).
+	 */
+	public synchronized String getMessage() {
+		if (message == null && text != null) {
+			message = text + separator + detail;
+			text = null;
+			separator = null;
+			detail = null;
+		}
+		return message;
+	}
+
+	private void writeObject(java.io.ObjectOutputStream out)
+		throws java.io.IOException {
+		getMessage();
+		out.defaultWriteObject();
+	}
+}
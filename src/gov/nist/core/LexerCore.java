@@ -57,41 +57,41 @@ public class LexerCore extends StringTokenizer {
 	public static final int UNDERSCORE = (int) '_';
 
 	protected static Hashtable globalSymbolTable;
-	protected static Hashtable lexerTables;
-	protected Hashtable currentLexer;
+	protected KeywordTable currentLexer;
 	protected String currentLexerName;
 	protected Token currentMatch;
 
+	// Keyword table of the lexers that have no keywords.
+	protected static final KeywordTable emptyTable = new KeywordTable();
+
+	// Single character token values so that matching a character does not
+	// build a new string every time.
+	private static final String[] charStrings = new String[128];
+
 	static {
 		globalSymbolTable = new Hashtable();
-		lexerTables = new Hashtable();
+		for (int i = 0; i < charStrings.length; i++)
+			charStrings[i] = String.valueOf((char) i);
 	}
 
-	protected void addKeyword(String name, int value) {
-		// System.out.println("addKeyword " + name + " value = " + value);
-		// new Exception().printStackTrace();
-		Integer val = new Integer(value);
-		currentLexer.put(name, val);
-		if (!globalSymbolTable.containsKey(val))
-			globalSymbolTable.put(val, name);
+	/** Record the names of the keywords of a table so that lookupToken
+	 * can find them. Only to be called while the lexer class is
+	 * initialized.
+	 */
+	protected static void addSymbols(KeywordTable table) {
+		for (int i = 0; i < table.size(); i++) {
+			Integer val = new Integer(table.getType(i));
+			if (!globalSymbolTable.containsKey(val))
+				globalSymbolTable.put(val, table.getKeyword(i));
+		}
 	}
 
 	public String lookupToken(int value) {
 		if (value > START) {
 			return (String) globalSymbolTable.get(new Integer(value));
 		} else {
-			Character ch = new Character((char) value);
-			return ch.toString();
-		}
-	}
-
-	protected Hashtable addLexer(String lexerName) {
-		currentLexer = (Hashtable) lexerTables.get(lexerName);
-		if (currentLexer == null) {
-			currentLexer = new Hashtable();
-			lexerTables.put(lexerName, currentLexer);
+			return charAsString((char) value);
 		}
-		return currentLexer;
 	}
 
 	//public abstract void selectLexer(String lexerName);
@@ -101,7 +101,7 @@ public class LexerCore extends StringTokenizer {
 	}
 
 	protected LexerCore() {
-		this.currentLexer = new Hashtable();
+		this.currentLexer = emptyTable;
 		this.currentLexerName = "charLexer";
 	}
 
@@ -117,6 +117,16 @@ public class LexerCore extends StringTokenizer {
 		this.buffer = buffer;
 	}
 
+	/** Reuse this lexer for a new buffer (the lexer to use for the
+	 * buffer must be selected separately).
+	 */
+	public void reset(String buffer) {
+		this.buffer = buffer;
+		this.ptr = 0;
+		this.savedPtr = 0;
+		this.currentMatch = null;
+	}
+
 	/** Peek the next id but dont move the buffer pointer forward.
 	 */
 
@@ -143,39 +153,65 @@ public class LexerCore extends StringTokenizer {
 	/** Look ahead for one token.
 	 */
 	public Token peekNextToken() throws ParseException {
-		return (Token) peekNextToken(1).elementAt(0);
+		int old = ptr;
+		Token retval = scanToken();
+		savedPtr = ptr;
+		ptr = old;
+		return retval;
 	}
 
 	public Vector peekNextToken(int ntokens) throws ParseException {
 		int old = ptr;
-		Vector retval = new Vector();
-		for (int i = 0; i < ntokens; i++) {
-			Token tok = new Token();
-			if (startsId()) {
-				String id = ttoken();
-				tok.tokenValue = id;
-				if (currentLexer.containsKey(id.toUpperCase())) {
-					Integer type = (Integer) currentLexer.get(id.toUpperCase());
-					tok.tokenType = type.intValue();
-				} else
-					tok.tokenType = ID;
-			} else {
-				char nextChar = getNextChar();
-				tok.tokenValue = new StringBuffer().append(nextChar).toString();
-				if (isAlpha(nextChar)) {
-					tok.tokenType = ALPHA;
-				} else if (isDigit(nextChar)) {
-					tok.tokenType = DIGIT;
-				} else
-					tok.tokenType = (int) nextChar;
-			}
-			retval.addElement(tok);
-		}
+		Vector retval = new Vector(ntokens);
+		for (int i = 0; i < ntokens; i++)
+			retval.addElement(scanToken());
+		savedPtr = ptr;
+		ptr = old;
+		return retval;
+	}
+
+	/** Look ahead for the type of the k'th token (0 is the next token)
+	 * without building the tokens. As with peekNextToken, consume() moves
+	 * the buffer pointer past the tokens that were looked at.
+	 */
+	public int peekNextTokenType(int k) throws ParseException {
+		int old = ptr;
+		int retval = 0;
+		for (int i = 0; i <= k; i++)
+			retval = scanTokenType();
 		savedPtr = ptr;
 		ptr = old;
 		return retval;
 	}
 
+	private Token scanToken() throws ParseException {
+		int start = ptr;
+		Token tok = new Token();
+		tok.tokenType = scanTokenType();
+		if (ptr - start == 1)
+			tok.tokenValue = charAsString(buffer.charAt(start));
+		else
+			tok.tokenValue = buffer.substring(start, ptr);
+		return tok;
+	}
+
+	private int scanTokenType() throws ParseException {
+		if (startsId()) {
+			int start = ptr;
+			ptr = idEnd(ptr);
+			int type = currentLexer.lookup(buffer, start, ptr);
+			return type == KeywordTable.NOT_FOUND ? ID : type;
+		} else {
+			char nextChar = getNextChar();
+			if (isAlpha(nextChar)) {
+				return ALPHA;
+			} else if (isDigit(nextChar)) {
+				return DIGIT;
+			} else
+				return (int) nextChar;
+		}
+	}
+
 	/** Match the given token or throw an exception if no such token
 	 * can be matched.
 	 */
@@ -187,25 +223,28 @@ public class LexerCore extends StringTokenizer {
 			if (tok == ID) {
 				// Generic ID sought.
 				if (!startsId())
-					throw new ParseException(buffer + "\nID expected", ptr);
+					throw new LazyParseException(buffer, "\n", "ID expected", ptr);
 				String id = getNextId();
 				this.currentMatch = new Token();
 				this.currentMatch.tokenValue = id;
 				this.currentMatch.tokenType = ID;
 			} else if (tok == SAFE) {
 				if (!startsSafeToken())
-					throw new ParseException(buffer + "\nID expected", ptr);
+					throw new LazyParseException(buffer, "\n", "ID expected", ptr);
 				String id = ttokenSafe();
 				this.currentMatch = new Token();
 				this.currentMatch.tokenValue = id;
 				this.currentMatch.tokenType = SAFE;
 			} else {
+				int start = ptr;
 				String nexttok = getNextId();
-				Integer cur = (Integer) currentLexer.get(nexttok.toUpperCase());
-
-				if (cur == null || cur.intValue() != tok)
-					throw new ParseException(
-						buffer + "\nUnexpected Token : " + nexttok,
+				int type =
+					currentLexer.lookup(buffer, start, start + nexttok.length());
+				if (type != tok)
+					throw new LazyParseException(
+						buffer,
+						"\nUnexpected Token : ",
+						nexttok,
 						ptr);
 				this.currentMatch = new Token();
 				this.currentMatch.tokenValue = nexttok;
@@ -216,19 +255,17 @@ public class LexerCore extends StringTokenizer {
 			char next = lookAhead(0);
 			if (tok == DIGIT) {
 				if (!isDigit(next))
-					throw new ParseException(buffer + "\nExpecting DIGIT", ptr);
+					throw new LazyParseException(buffer, "\n", "Expecting DIGIT", ptr);
 				this.currentMatch = new Token();
-				this.currentMatch.tokenValue =
-					new StringBuffer().append(next).toString();
+				this.currentMatch.tokenValue = charAsString(next);
 				this.currentMatch.tokenType = tok;
 				consume(1);
 
 			} else if (tok == ALPHA) {
 				if (!isAlpha(next))
-					throw new ParseException(buffer + "\nExpecting ALPHA", ptr);
+					throw new LazyParseException(buffer, "\n", "Expecting ALPHA", ptr);
 				this.currentMatch = new Token();
-				this.currentMatch.tokenValue =
-					new StringBuffer().append(next).toString();
+				this.currentMatch.tokenValue = charAsString(next);
 				this.currentMatch.tokenType = tok;
 				consume(1);
 
@@ -236,18 +273,19 @@ public class LexerCore extends StringTokenizer {
 
 		} else {
 			// This is a direct character spec.
-			Character ch = new Character((char) tok);
+			char ch = (char) tok;
 			char next = lookAhead(0);
-			if (next == ch.charValue()) {
+			if (next == ch) {
 				this.currentMatch = new Token();
-				this.currentMatch.tokenValue =
-					new StringBuffer().append(ch.charValue()).toString();
+				this.currentMatch.tokenValue = charAsString(ch);
 				this.currentMatch.tokenType = tok;
 				consume(1);
 			} else
-				throw new ParseException(
-					buffer + "\nExpecting  >>>" + ch.charValue() + "<<< got >>>" 
-					+ next + "<<<", ptr);
+				throw new LazyParseException(
+					buffer,
+					"\nExpecting  >>>",
+					ch + "<<< got >>>" + next + "<<<",
+					ptr);
 		}
 		return this.currentMatch;
 	}
@@ -260,25 +298,35 @@ public class LexerCore extends StringTokenizer {
 			// Ignore
 		}
 	}
+	/** Return true if the character can be part of an id (the tokens that
+	 * ttoken returns).
+	 */
+	public static boolean isIdChar(char nextChar) {
+		return (
+			isAlpha(nextChar)
+				|| isDigit(nextChar)
+				|| nextChar == '_'
+				|| nextChar == '+'
+				|| nextChar == '-'
+				|| nextChar == '!'
+				|| nextChar == '`'
+				|| nextChar == '\''
+				|| nextChar == '~'
+				|| nextChar == '%' // bug fix by Bruno Konik
+				|| nextChar == '.'
+				|| nextChar == '*');
+	}
+
+	// Get the end of the id that starts at the given position.
+	private int idEnd(int pos) {
+		int length = buffer.length();
+		while (pos < length && isIdChar(buffer.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
 	public boolean startsId() {
-		try {
-			char nextChar = lookAhead(0);
-			return (
-				isAlpha(nextChar)
-					|| isDigit(nextChar)
-					|| nextChar == '_'
-					|| nextChar == '+'
-					|| nextChar == '-'
-					|| nextChar == '!'
-					|| nextChar == '`'
-					|| nextChar == '\''
-					|| nextChar == '~'
-					|| nextChar == '%' // bug fix by Bruno Konik
-					|| nextChar == '.'
-					|| nextChar == '*');
-		} catch (ParseException ex) {
-			return false;
-		}
+		return ptr < buffer.length() && isIdChar(buffer.charAt(ptr));
 	}
 
 	public boolean startsSafeToken() {
@@ -316,33 +364,11 @@ public class LexerCore extends StringTokenizer {
 	}
 
 	public String ttoken() {
-		StringBuffer nextId = new StringBuffer();
-		try {
-			while (hasMoreChars()) {
-				char nextChar = lookAhead(0);
-				//Debug.println("nextChar = " + nextChar);
-				if (isAlpha(nextChar)
-					|| isDigit(nextChar)
-					|| nextChar == '_'
-					|| nextChar == '+'
-					|| nextChar == '-'
-					|| nextChar == '!'
-					|| nextChar == '`'
-					|| nextChar == '\''
-					|| nextChar == '~'
-					|| nextChar == '%' // bug fix by Bruno Konik
-					|| nextChar == '.'
-					|| nextChar == '*') {
-					consume(1);
-					nextId.append(nextChar);
-				} else
-					break;
-
-			}
-			return nextId.toString();
-		} catch (ParseException ex) {
-			return nextId.toString();
-		}
+		if (ptr >= buffer.length())
+			return "";
+		int start = ptr;
+		ptr = idEnd(ptr);
+		return buffer.substring(start, ptr);
 	}
 
 	public String ttokenAllowSpace() {
@@ -434,8 +460,10 @@ public class LexerCore extends StringTokenizer {
 				// Got to the terminating quote.
 				break;
 			} else if (next == '\0') {
-				throw new ParseException(
-					this.buffer + " :unexpected EOL",
+				throw new LazyParseException(
+					this.buffer,
+					" :",
+					"unexpected EOL",
 					this.ptr);
 			} else if (next == '\\') {
 				retval.append(next);
@@ -462,15 +490,19 @@ public class LexerCore extends StringTokenizer {
 			if (next == ')') {
 				break;
 			} else if (next == '\0') {
-				throw new ParseException(
-					this.buffer + " :unexpected EOL",
+				throw new LazyParseException(
+					this.buffer,
+					" :",
+					"unexpected EOL",
 					this.ptr);
 			} else if (next == '\\') {
 				retval.append(next);
 				next = getNextChar();
 				if (next == '\0')
-					throw new ParseException(
-						this.buffer + " : unexpected EOL",
+					throw new LazyParseException(
+						this.buffer,
+						" : ",
+						"unexpected EOL",
 						this.ptr);
 				retval.append(next);
 			} else {
@@ -524,7 +556,9 @@ public class LexerCore extends StringTokenizer {
 	}
 
 	public static String charAsString(char ch) {
-		return new Character(ch).toString();
+		if (ch < charStrings.length)
+			return charStrings[ch];
+		return String.valueOf(ch);
 	}
 
 	/** Lookahead in the inputBuffer for n chars and return as a string.
@@ -549,28 +583,12 @@ public class LexerCore extends StringTokenizer {
 	 *(i.e. sequence of digits).
 	 */
 	public String number() throws ParseException {
-
-		StringBuffer retval = new StringBuffer();
-		try {
-			if (!isDigit(lookAhead(0))) {
-				throw new ParseException(
-					buffer + ": Unexpected token at " + lookAhead(0),
-					ptr);
-			}
-			retval.append(lookAhead(0));
+		// No digit gives an empty string (which the callers reject when
+		// they convert it).
+		int start = ptr;
+		while (isDigit(lookAhead(0)))
 			consume(1);
-			while (true) {
-				char next = lookAhead(0);
-				if (isDigit(next)) {
-					retval.append(next);
-					consume(1);
-				} else
-					break;
-			}
-			return retval.toString();
-		} catch (ParseException ex) {
-			return retval.toString();
-		}
+		return buffer.substring(start, ptr);
 	}
 
 	/** Mark the position for backtracking.
@@ -609,8 +627,10 @@ public class LexerCore extends StringTokenizer {
 			//System.out.println(next == '\0');
 
 			if (next == '\0') {
-				throw new ParseException(
-					this.buffer + "unexpected EOL",
+				throw new LazyParseException(
+					this.buffer,
+					"",
+					"unexpected EOL",
 					this.ptr);
 			} else if (next == c) {
 				consume(1);
@@ -619,8 +639,10 @@ public class LexerCore extends StringTokenizer {
 				consume(1);
 				char nextchar = lookAhead(0);
 				if (nextchar == '\0') {
-					throw new ParseException(
-						this.buffer + "unexpected EOL",
+					throw new LazyParseException(
+						this.buffer,
+						"",
+						"unexpected EOL",
 						this.ptr);
 				} else {
 					consume(1);
@@ -649,7 +671,7 @@ public class LexerCore extends StringTokenizer {
 	/** Create a parse exception. 
 	 */
 	public ParseException createParseException() {
-		return new ParseException(this.buffer, this.ptr);
+		return new LazyParseException(this.buffer, "", "", this.ptr);
 	}
 }
 /*
@@ -108,8 +108,10 @@ public class StringTokenizer {
 
 	public char getNextChar() throws ParseException {
 		if (ptr >= buffer.length())
-			throw new ParseException(
-				buffer + " getNextChar: End of buffer",
+			throw new LazyParseException(
+				buffer,
+				" getNextChar: ",
+				"End of buffer",
 				ptr);
 		else
 			return buffer.charAt(ptr++);
@@ -0,0 +1,181 @@
+/*******************************************************************************
+* Product of NIST/ITL Advanced Networking Technologies Division (ANTD).        *
+*******************************************************************************/
+package gov.nist.core;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+* A thread safe hash table that is split into a number of segments, each
+* segment being guarded by its own lock. Threads that operate on keys that
+* fall in different segments do not contend with each other, unlike a
+* java.util.Hashtable where every access takes the same monitor.
+* The table can either compare keys with equals() or by identity (in which
+* case it can be used as a concurrent set of objects whose hashCode changes
+* over their life time, such as transactions).
+*
+*@version  JAIN-SIP-1.1
+*
+*@author M. Ranganathan <mranga@nist.gov>  <br/>
+*
+*<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+*
+*/
+
+public class StripedHashtable {
+
+	/**
+	* Default number of segments.
+	*/
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 32;
+
+	private Map[] segments;
+
+	private int mask;
+
+	private boolean identity;
+
+	public StripedHashtable() {
+		this(DEFAULT_CONCURRENCY_LEVEL, false);
+	}
+
+	/**
+	* Constructor.
+	*
+	*@param concurrencyLevel -- number of segments (rounded up to a
+	*	power of 2).
+	*@param identity -- compare keys by identity rather than with equals.
+	*/
+	public StripedHashtable(int concurrencyLevel, boolean identity) {
+		int size = 1;
+		while (size < concurrencyLevel)
+			size <<= 1;
+		this.segments = new Map[size];
+		for (int i = 0; i < size; i++) {
+			this.segments[i] =
+				identity ? (Map) new IdentityHashMap() : (Map) new HashMap();
+		}
+		this.mask = size - 1;
+		this.identity = identity;
+	}
+
+	private Map segmentFor(Object key) {
+		int h = identity ? System.identityHashCode(key) : key.hashCode();
+		// Spread the bits so that keys that differ only in the high
+		// bits do not all land in the same segment.
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return segments[h & mask];
+	}
+
+	public Object get(Object key) {
+		Map segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	public boolean containsKey(Object key) {
+		Map segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.containsKey(key);
+		}
+	}
+
+	public Object put(Object key, Object value) {
+		if (key == null || value == null)
+			throw new NullPointerException("null key or value");
+		Map segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.put(key, value);
+		}
+	}
+
+	/**
+	* Put a value in the table unless the key is already mapped.
+	*
+	*@return the value currently mapped to the key or null if the new
+	*	value was inserted.
+	*/
+	public Object putIfAbsent(Object key, Object value) {
+		if (key == null || value == null)
+			throw new NullPointerException("null key or value");
+		Map segment = segmentFor(key);
+		synchronized (segment) {
+			Object old = segment.get(key);
+			if (old == null)
+				segment.put(key, value);
+			return old;
+		}
+	}
+
+	public Object remove(Object key) {
+		Map segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+
+	/**
+	* Remove the mapping for a key only if it is currently mapped to the
+	* given value (compared by identity).
+	*
+	*@return true if the mapping was removed.
+	*/
+	public boolean remove(Object key, Object value) {
+		Map segment = segmentFor(key);
+		synchronized (segment) {
+			if (segment.get(key) != value)
+				return false;
+			segment.remove(key);
+			return true;
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				size += segments[i].size();
+			}
+		}
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public void clear() {
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				segments[i].clear();
+			}
+		}
+	}
+
+	/**
+	* Get a snapshot of the values of the table. The snapshot is taken one
+	* segment at a time so concurrent updates to other segments may or may
+	* not be reflected in it.
+	*/
+	public ArrayList values() {
+		ArrayList retval = new ArrayList();
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				retval.addAll(segments[i].values());
+			}
+		}
+		return retval;
+	}
+
+	/**
+	* Get an iterator over a snapshot of the values of the table.
+	*/
+	public Iterator iterator() {
+		return values().iterator();
+	}
+}
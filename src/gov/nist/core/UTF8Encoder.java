@@ -0,0 +1,112 @@
+/*******************************************************************************
+* Product of NIST/ITL Advanced Networking Technologies Division (ANTD).        *
+*******************************************************************************/
+package gov.nist.core;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts strings to UTF-8 bytes. SIP messages are almost all ASCII:
+ * the characters of an ASCII string are copied straight to the bytes,
+ * without going through a charset encoder, and only the strings that
+ * have other characters in them are given to String.getBytes. The
+ * length of the encoding of a string can be had without encoding it.
+ *
+ *@version  JAIN-SIP-1.1
+ *
+ *@author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ *<a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ *
+ */
+public class UTF8Encoder {
+
+	private UTF8Encoder() {
+	}
+
+	/**
+	 * Get the number of bytes of the UTF-8 encoding of a string (as
+	 * String.getBytes("UTF-8") gives it: a surrogate that is not part of a
+	 * pair is encoded as a '?').
+	 */
+	public static int length(String string) {
+		int length = string.length();
+		int retval = length;
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800)
+				retval += 1;
+			else if (c >= 0xd800 && c <= 0xdbff) {
+				// A surrogate pair is 4 bytes for 2 characters.
+				if (i + 1 < length) {
+					char d = string.charAt(i + 1);
+					if (d >= 0xdc00 && d <= 0xdfff) {
+						retval += 2;
+						i++;
+					}
+				}
+			} else if (c < 0xdc00 || c > 0xdfff)
+				retval += 2;
+		}
+		return retval;
+	}
+
+	// True if the string is all ASCII.
+	private static boolean isAscii(String string) {
+		int length = string.length();
+		for (int i = 0; i < length; i++) {
+			if (string.charAt(i) >= 0x80)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the UTF-8 encoding of a string.
+	 */
+	public static byte[] encode(String string) {
+		if (!isAscii(string))
+			return getBytes(string);
+		int length = string.length();
+		byte[] retval = new byte[length];
+		for (int i = 0; i < length; i++)
+			retval[i] = (byte) string.charAt(i);
+		return retval;
+	}
+
+	/**
+	 * Put the UTF-8 encoding of a string in a buffer (which must have
+	 * room for it).
+	 */
+	public static void encode(String string, ByteBuffer buffer) {
+		if (!isAscii(string)) {
+			buffer.put(getBytes(string));
+			return;
+		}
+		int length = string.length();
+		if (buffer.hasArray()) {
+			byte[] array = buffer.array();
+			int offset = buffer.arrayOffset() + buffer.position();
+			if (buffer.remaining() < length)
+				throw new java.nio.BufferOverflowException();
+			for (int i = 0; i < length; i++)
+				array[offset + i] = (byte) string.charAt(i);
+			buffer.position(buffer.position() + length);
+		} else {
+			for (int i = 0; i < length; i++)
+				buffer.put((byte) string.charAt(i));
+		}
+	}
+
+	private static byte[] getBytes(String string) {
+		try {
+			return string.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			InternalErrorHandler.handleException(ex);
+			return null;
+		}
+	}
+}
@@ -3,6 +3,7 @@ package gov.nist.core.net;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
@@ -75,5 +76,24 @@ public class DefaultNetworkLayer implements NetworkLayer {
 	return new Socket(address, port, myAddress, 0 );
    }
 
+    public Socket connectSocket(InetAddress address, int port, InetAddress myAddress, int timeout)
+            throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.bind(new InetSocketAddress(myAddress, 0));
+            socket.connect(new InetSocketAddress(address, port), timeout);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+        return socket;
+    }
+
+    public SSLSocket connectSSLSocket(InetAddress address, int port, InetAddress myAddress, int timeout)
+            throws IOException {
+        Socket socket = connectSocket(address, port, myAddress, timeout);
+        return (SSLSocket) sslSocketFactory.createSocket(socket, address.getHostAddress(), port, true);
+    }
+
    
 }
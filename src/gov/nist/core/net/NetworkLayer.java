@@ -86,6 +86,34 @@ public interface NetworkLayer {
      */
     public SSLSocket createSSLSocket(InetAddress address, int port, InetAddress localAddress) throws IOException;
 
+    /**
+     * Creates a stream socket bound to the local address and connects it to the specified port number
+     * at the specified IP address, giving up when the connection is not made within the timeout.
+     * comparable to "socket.bind(new InetSocketAddress(localAddress, 0));
+     * socket.connect(new InetSocketAddress(address, port), timeout);"
+     *
+     * @param address
+     * @param port
+     * @param localAddress -- my address.
+     * @param timeout -- connect timeout in milliseconds (0 waits as long as the system does).
+     * @return the socket
+     */
+    public Socket connectSocket(InetAddress address, int port, InetAddress localAddress, int timeout)
+            throws IOException;
+
+    /**
+     * Creates a stream SSL socket like connectSocket does (the handshake is done when the socket
+     * is first used).
+     *
+     * @param address
+     * @param port
+     * @param localAddress -- my address.
+     * @param timeout -- connect timeout in milliseconds (0 waits as long as the system does).
+     * @return the socket
+     */
+    public SSLSocket connectSSLSocket(InetAddress address, int port, InetAddress localAddress, int timeout)
+            throws IOException;
+
     /**
      * Constructs a datagram socket and binds it to any available port on the local host machine.
      * comparable to "new java.net.DatagramSocket();"
@@ -87,9 +87,9 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
         // may wish to extract some information from it. Thus
         // a new configuration parameter was added.
 
-        if (sipRequest.getHeader(Route.NAME) != null
+        if (sipRequest.peekHeader(Route.NAME) != null
                 && sipStackImpl.stripRouteHeader) {
-            RouteList routes = sipRequest.getRouteHeaders();
+            RouteList routes = (RouteList) sipRequest.peekHeader(Route.NAME);
             Route route = (Route) routes.getFirst();
             SipUri uri = (SipUri) route.getAddress().getURI();
             int port;
@@ -104,7 +104,7 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
                 if (routes.size() == 1)
                     sipRequest.removeHeader(Route.NAME);
                 else
-                    routes.removeFirst();
+                    sipRequest.getRouteHeaders().removeFirst();
             }
         }
 
@@ -132,7 +132,7 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
                 transaction = sipStackImpl.findTransaction(sipRequest, true);
             } else if (dialog.isAckSeen() &&
                 dialog.getRemoteSequenceNumber() == 
-		sipRequest.getCSeq().getSequenceNumber()) {
+		sipRequest.peekCSeq().getSequenceNumber()) {
                 if (sipStackImpl.isRetransmissionFilterActive()) {
                     if (LogWriter.needsLogging) {
                         sipStackImpl
@@ -161,10 +161,10 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
                 if (tr != null
                         && sipResponse != null
                         && sipResponse.getStatusCode() / 100 == 2
-                        && sipResponse.getCSeq().getMethod().equals(
+                        && sipResponse.peekCSeq().getMethod().equals(
                                 Request.INVITE)
-                        && sipResponse.getCSeq().getSequenceNumber() == sipRequest
-                                .getCSeq().getSequenceNumber()) {
+                        && sipResponse.peekCSeq().getSequenceNumber() == sipRequest
+                                .peekCSeq().getSequenceNumber()) {
 
                     transaction.setDialog(dialog);
                     // record that we already saw an ACK for
@@ -286,7 +286,7 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
             if (dialog != null
                     && transaction != null
                     && lastTransaction != null
-                    && sipRequest.getCSeq().getSequenceNumber() > dialog
+                    && sipRequest.peekCSeq().getSequenceNumber() > dialog
                             .getRemoteSequenceNumber()
                     && lastTransaction instanceof SIPServerTransaction
                     && lastTransaction.isInviteTransaction()
@@ -328,8 +328,8 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
                     && lastTransaction instanceof SIPClientTransaction
                     && lastTransaction.getState() != TransactionState.COMPLETED
                     && lastTransaction.getState() != TransactionState.TERMINATED) {
-                if ( dialog.getRemoteSequenceNumber() +1 == sipRequest.getCSeq().getSequenceNumber()) {
-                    dialog.setRemoteSequenceNumber( sipRequest.getCSeq().getSequenceNumber());
+                if ( dialog.getRemoteSequenceNumber() +1 == sipRequest.peekCSeq().getSequenceNumber()) {
+                    dialog.setRemoteSequenceNumber( sipRequest.peekCSeq().getSequenceNumber());
                     if (LogWriter.needsLogging)
                         sipStackImpl
                             .logMessage("Sending 491 response for out of sequence message");
@@ -366,12 +366,12 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
                 && !sipRequest.getMethod().equals(Request.BYE)
                 && !sipRequest.getMethod().equals(Request.CANCEL)
                 && !sipRequest.getMethod().equals(Request.ACK)) {
-            if (dialog.getRemoteSequenceNumber() >= sipRequest.getCSeq()
+            if (dialog.getRemoteSequenceNumber() >= sipRequest.peekCSeq()
                     .getSequenceNumber()) {
                 if (LogWriter.needsLogging) {
                     sipStackImpl.logMessage("Dropping out of sequence message "
                             + dialog.getRemoteSequenceNumber() + " "
-                            + sipRequest.getCSeq());
+                            + sipRequest.peekCSeq());
                 }
                 // "UAS Behavior" section (12.2.2):
                 // If the remote sequence number was not empty, but the sequence
@@ -384,7 +384,7 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
                 // This is rather strange because the error is on the side of
                 // the
                 // client and not the server but thats what the spec says....
-                if (dialog.getRemoteSequenceNumber() > sipRequest.getCSeq()
+                if (dialog.getRemoteSequenceNumber() > sipRequest.peekCSeq()
                         .getSequenceNumber()) {
                     if (LogWriter.needsLogging)
                         sipStackImpl
@@ -418,7 +418,7 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
                             .logMessage("sequence number is too large - putting pending!");
                 this.pendingRequest = sipRequest;
                 this.pendingMessageChannel = incomingMessageChannel;
-                dialog.putPending(this, sipRequest.getCSeq()
+                dialog.putPending(this, sipRequest.peekCSeq()
                         .getSequenceNumber());
                */
                 return;
@@ -518,9 +518,9 @@ public class NistSipMessageHandlerImpl implements ServerRequestInterface,
                     return;
                 } else if (sipStackImpl.isRetransmissionFilterActive()) {
                     // 200 retransmission for the final response.
-                    if (sipResponse.getCSeq().getSequenceNumber() == ((SIPTransaction) dialog
+                    if (sipResponse.peekCSeq().getSequenceNumber() == ((SIPTransaction) dialog
                             .getFirstTransaction()).getCSeq()
-                            && sipResponse.getCSeq().getMethod()
+                            && sipResponse.peekCSeq().getMethod()
                                     .equals(
                                             ((SIPTransaction) dialog
                                                     .getFirstTransaction())
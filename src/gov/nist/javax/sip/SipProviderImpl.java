@@ -201,8 +201,9 @@ public final class SipProviderImpl implements javax.sip.SipProvider,
                     "Transaction already assigned to request");
         // Prune illegal requests early.
         if (sipRequest.getTopmostVia() != null) {
-            HostPort hp = sipRequest.getTopmostVia().getSentBy();
-            int port = hp.getPort() == -1 ? 5060 : hp.getPort();
+            int port = sipRequest.getTopmostVia().getPort();
+            if (port == -1)
+                port = 5060;
 
             Iterator it = sipStack.getListeningPoints();
             boolean found = false;
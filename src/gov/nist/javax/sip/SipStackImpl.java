@@ -110,6 +110,48 @@ import gov.nist.core.net.NetworkLayer;
  * </li>
  *</ul>
  *
+ *<li> <b>gov.nist.javax.sip.UDP_SHARDED_QUEUES = true|false </b> <br/>
+ *  Default is false: the UDP messages wait for the thread pool in one
+ *  queue. Set to true to give each pool thread a queue of its own. A
+ *  message goes to the queue picked by the hash of its Call-ID, so the
+ *  messages of a call are handled in order while the calls are spread
+ *  over the pool threads. Needs THREAD_POOL_SIZE.
+ *</li>
+ *
+ *<li> <b>gov.nist.javax.sip.UDP_RECEIVE_THREADS = integer </b> <br/>
+ *  Number of threads receiving from each UDP listening point (default
+ *  1). With more than one, two messages of a call that arrive together
+ *  may be queued in either order.
+ *</li>
+ *
+ *<li> <b>gov.nist.javax.sip.UDP_QUEUE_SIZE = integer </b> <br/>
+ *  Number of UDP messages that each queue of the thread pool holds
+ *  (default 2000). The messages that arrive when their queue is full
+ *  are dropped (and retransmitted by the sender). Needs THREAD_POOL_SIZE.
+ *</li>
+ *
+ *<li> <b>gov.nist.javax.sip.UDP_QUEUE_HIGH_WATER_MARK = integer </b> <br/>
+ *  Length of a UDP queue above which the stack sheds load (default half
+ *  of UDP_QUEUE_SIZE): new INVITEs get a 503 (Service Unavailable)
+ *  response right away, without a transaction, while the requests and
+ *  responses of the dialogs and transactions that the stack already has
+ *  are queued as usual.
+ *</li>
+ *
+ *<li> <b>gov.nist.javax.sip.OVERLOAD_RETRY_AFTER = integer </b> <br/>
+ *  The Retry-After (in seconds) of the 503 responses sent when shedding
+ *  load (default 5).
+ *</li>
+ *
+ *<li> <b>gov.nist.javax.sip.UDP_SEND_QUEUE_SIZE = integer </b> <br/>
+ *  Default is 0: the thread that sends a UDP message writes it to the
+ *  socket itself. With a size, the messages are queued (up to that many
+ *  per listening point) for a sender thread, which sends all the queued
+ *  messages each time it wakes up. This helps when many transactions
+ *  send at once (fanning out NOTIFY or OPTIONS requests, for instance).
+ *  A message that does not fit is sent by the thread that sends it.
+ *</li>
+ *
  *<li> <b>gov.nist.javax.sip.REENTRANT_LISTENER = true|false </b> <br/>
  *  Default is false. Set to true if the listener is re-entrant. 
  * If the listener is re-entrant then the stack manages a thread pool
@@ -164,6 +206,88 @@ import gov.nist.core.net.NetworkLayer;
  *
  * </li>
  *
+ * <li> <b> gov.nist.javax.sip.USE_TIMER_WHEEL = [ true | false ] </b>
+ * Default is false. If set to true, the transaction, linger and dialog
+ * retransmission timers are run from a hashed timing wheel instead of
+ * a java.util.Timer. Scheduling and cancelling a timer is then a constant
+ * time operation, which matters when the stack handles tens of
+ * thousands of concurrent transactions.
+ * </li>
+ *
+ * <li> <b> gov.nist.javax.sip.LAZY_HEADER_PARSING = [ true | false ] </b>
+ * Default is false. If set to true, only the Via, From, To, Call-ID,
+ * CSeq, Content-Length and Max-Forwards headers of an incoming message
+ * are parsed when it is read. The other headers are kept as text and are
+ * parsed the first time the application asks for them; headers that are
+ * never looked at are forwarded exactly as they were received. Note that
+ * a badly formatted header is then only detected when it is accessed
+ * (it is moved to the unrecognized headers of the message at that point).
+ * </li>
+ *
+ * <li> <b> gov.nist.javax.sip.USE_NIO_TCP = [ true | false ] </b>
+ * Default is false. If set to true, TCP connections are served by a
+ * few selector threads and a pool of worker threads instead of two
+ * threads per connection. The selector threads read the connections
+ * and split what they read into messages, the workers parse and process
+ * the messages (those of a connection one at a time, in order).
+ * The number of threads is set with
+ * <b> gov.nist.javax.sip.NIO_SELECTOR_THREADS = integer </b> (default 2)
+ * and <b> gov.nist.javax.sip.NIO_WORKER_THREADS = integer </b>
+ * (default 8). The NIO sockets do not go through the NetworkLayer.
+ * </li>
+ *
+ * <li> <b> gov.nist.javax.sip.MAX_OUTBOUND_QUEUE_SIZE = integer </b>
+ * Messages sent over TCP and TLS are queued for the connection and
+ * written by the I/O layer, so a peer that does not read does not
+ * hold up the threads that send. This is the max number of bytes
+ * that can wait for a connection (default 1048576, 0 for no limit).
+ * <b> gov.nist.javax.sip.OUTBOUND_QUEUE_OVERFLOW = [ drop | fail | close ]
+ * </b> says what happens to a message that does not fit: it is dropped,
+ * the send fails with an IOException (the default) or the connection
+ * is closed and the send fails. The queue depths and the number of
+ * overflows can be read from the stack (getOutboundQueuedBytes etc.).
+ * </li>
+ *
+ * <li> <b> gov.nist.javax.sip.CONNECT_TIMEOUT = integer </b>
+ * How long (in milliseconds) to wait for an outgoing TCP or TLS
+ * connection to be made before the messages for it fail (default 10000,
+ * 0 to wait as long as the operating system does). Only the sends to the
+ * destination being connected to wait for the connection.
+ * </li>
+ *
+ * <li> <b> gov.nist.javax.sip.CONNECTION_IDLE_TIMEOUT = integer </b>
+ * Close the TCP and TLS connections on which nothing was sent or
+ * received for this many milliseconds (default 0: idle connections are
+ * kept). The connections are checked once a second.
+ * </li>
+ *
+ * <li> <b> gov.nist.javax.sip.KEEP_ALIVE_INTERVAL = integer </b>
+ * Send a keep alive (a double CRLF, RFC 5626) on the TCP and TLS
+ * connections opened by the stack when nothing was sent on them for this
+ * many milliseconds (default 0: no keep alives). The stack answers the
+ * keep alives it gets with a single CRLF. The number and ages of the
+ * connections can be read from the stack (getConnectionCount etc.).
+ * </li>
+ *
+ * <li> <b> gov.nist.javax.sip.MAX_TLS_HANDSHAKES = integer </b>
+ * The TLS handshake of a connection is done when it is opened or
+ * accepted, by the thread that opens it or by its reader. This is the
+ * max number of handshakes done at a time, the others wait for their
+ * turn (within the connect timeout). Default twice the number of
+ * processors, 0 for no limit.
+ * </li>
+ *
+ * <li> <b> gov.nist.javax.sip.TLS_SESSION_CACHE_SIZE = integer </b>
+ * <b> gov.nist.javax.sip.TLS_SESSION_TIMEOUT = integer </b>
+ * The number of TLS sessions kept for resumption (default 1000) and how
+ * many seconds they are kept (default 86400), 0 for no limit. A
+ * reconnect to a peer whose session is cached does an abbreviated
+ * handshake. The caches are those of the SSL contexts of the network
+ * layer (with the default network layer, the default SSL context of the
+ * JVM). The number of full and resumed handshakes can be read from the
+ * stack (getTlsFullHandshakes etc.).
+ * </li>
+ *
  *</ul>
  * 
  * @version JAIN-SIP-1.1 $Revision: 1.40 $ $Date: 2005/04/04 09:29:02 $
@@ -382,6 +506,93 @@ public class SipStackImpl
 			}
 		}
 
+		this.udpShardedQueues =
+			"true".equalsIgnoreCase(
+				configurationProperties.getProperty(
+					"gov.nist.javax.sip.UDP_SHARDED_QUEUES"));
+
+		String udpReceiveThreadsStr =
+			configurationProperties.getProperty(
+				"gov.nist.javax.sip.UDP_RECEIVE_THREADS");
+		if (udpReceiveThreadsStr != null) {
+			try {
+				int n = Integer.parseInt(udpReceiveThreadsStr.trim());
+				if (n >= 1)
+					this.udpReceiveThreads = n;
+				else
+					System.out.println("udp receive threads - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"udp receive threads - bad value " + ex.getMessage());
+			}
+		}
+
+		String udpQueueSizeStr =
+			configurationProperties.getProperty(
+				"gov.nist.javax.sip.UDP_QUEUE_SIZE");
+		if (udpQueueSizeStr != null) {
+			try {
+				int n = Integer.parseInt(udpQueueSizeStr.trim());
+				if (n >= 1) {
+					this.udpQueueSize = n;
+					this.udpQueueHighWaterMark = (n + 1) / 2;
+				} else
+					System.out.println("udp queue size - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"udp queue size - bad value " + ex.getMessage());
+			}
+		}
+
+		String highWaterMarkStr =
+			configurationProperties.getProperty(
+				"gov.nist.javax.sip.UDP_QUEUE_HIGH_WATER_MARK");
+		if (highWaterMarkStr != null) {
+			try {
+				int n = Integer.parseInt(highWaterMarkStr.trim());
+				if (n >= 0)
+					this.udpQueueHighWaterMark = n;
+				else
+					System.out.println("udp queue high water mark - bad value "
+						+ n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"udp queue high water mark - bad value " + ex.getMessage());
+			}
+		}
+
+		String retryAfterStr =
+			configurationProperties.getProperty(
+				"gov.nist.javax.sip.OVERLOAD_RETRY_AFTER");
+		if (retryAfterStr != null) {
+			try {
+				int n = Integer.parseInt(retryAfterStr.trim());
+				if (n >= 0)
+					this.overloadRetryAfter = n;
+				else
+					System.out.println("overload retry after - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"overload retry after - bad value " + ex.getMessage());
+			}
+		}
+
+		String udpSendQueueSizeStr =
+			configurationProperties.getProperty(
+				"gov.nist.javax.sip.UDP_SEND_QUEUE_SIZE");
+		if (udpSendQueueSizeStr != null) {
+			try {
+				int n = Integer.parseInt(udpSendQueueSizeStr.trim());
+				if (n >= 0)
+					this.udpSendQueueSize = n;
+				else
+					System.out.println("udp send queue size - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"udp send queue size - bad value " + ex.getMessage());
+			}
+		}
+
 		String transactionTableSize =
 			configurationProperties.getProperty(
 				"gov.nist.javax.sip.MAX_SERVER_TRANSACTIONS");
@@ -482,6 +693,155 @@ public class SipStackImpl
 		
 		this.dialogSupport = (dialogSupportStr == null ? true : !("false".equals(dialogSupportStr)));
 
+		String timerWheelStr = configurationProperties.getProperty("gov.nist.javax.sip.USE_TIMER_WHEEL");
+		if (timerWheelStr != null && "true".equalsIgnoreCase(timerWheelStr.trim()))
+			super.useTimerWheel();
+
+		String lazyStr = configurationProperties.getProperty("gov.nist.javax.sip.LAZY_HEADER_PARSING");
+		this.lazyHeaderParsing = (lazyStr != null && "true".equalsIgnoreCase(lazyStr.trim()));
+
+		String nioStr = configurationProperties.getProperty("gov.nist.javax.sip.USE_NIO_TCP");
+		this.useNioTcp = (nioStr != null && "true".equalsIgnoreCase(nioStr.trim()));
+
+		String selectorThreads = configurationProperties.getProperty("gov.nist.javax.sip.NIO_SELECTOR_THREADS");
+		if (selectorThreads != null) {
+			try {
+				int n = Integer.parseInt(selectorThreads.trim());
+				if (n > 0)
+					this.nioSelectorThreads = n;
+				else
+					System.out.println("nio selector threads - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"nio selector threads - bad value " + ex.getMessage());
+			}
+		}
+
+		String workerThreads = configurationProperties.getProperty("gov.nist.javax.sip.NIO_WORKER_THREADS");
+		if (workerThreads != null) {
+			try {
+				int n = Integer.parseInt(workerThreads.trim());
+				if (n > 0)
+					this.nioWorkerThreads = n;
+				else
+					System.out.println("nio worker threads - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"nio worker threads - bad value " + ex.getMessage());
+			}
+		}
+
+		String maxQueueSize = configurationProperties.getProperty("gov.nist.javax.sip.MAX_OUTBOUND_QUEUE_SIZE");
+		if (maxQueueSize != null) {
+			try {
+				int n = Integer.parseInt(maxQueueSize.trim());
+				if (n >= 0)
+					this.maxOutboundQueueSize = n;
+				else
+					System.out.println("max outbound queue size - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"max outbound queue size - bad value " + ex.getMessage());
+			}
+		}
+
+		String overflowStr = configurationProperties.getProperty("gov.nist.javax.sip.OUTBOUND_QUEUE_OVERFLOW");
+		if (overflowStr != null) {
+			overflowStr = overflowStr.trim();
+			if ("drop".equalsIgnoreCase(overflowStr))
+				this.outboundQueueOverflow = OUTBOUND_QUEUE_DROP;
+			else if ("fail".equalsIgnoreCase(overflowStr))
+				this.outboundQueueOverflow = OUTBOUND_QUEUE_FAIL;
+			else if ("close".equalsIgnoreCase(overflowStr))
+				this.outboundQueueOverflow = OUTBOUND_QUEUE_CLOSE;
+			else
+				System.out.println("outbound queue overflow - bad value " + overflowStr);
+		}
+
+		String connectTimeoutStr = configurationProperties.getProperty("gov.nist.javax.sip.CONNECT_TIMEOUT");
+		if (connectTimeoutStr != null) {
+			try {
+				int n = Integer.parseInt(connectTimeoutStr.trim());
+				if (n >= 0)
+					this.connectTimeout = n;
+				else
+					System.out.println("connect timeout - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"connect timeout - bad value " + ex.getMessage());
+			}
+		}
+
+		String idleTimeoutStr = configurationProperties.getProperty("gov.nist.javax.sip.CONNECTION_IDLE_TIMEOUT");
+		if (idleTimeoutStr != null) {
+			try {
+				int n = Integer.parseInt(idleTimeoutStr.trim());
+				if (n >= 0)
+					this.connectionIdleTimeout = n;
+				else
+					System.out.println("connection idle timeout - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"connection idle timeout - bad value " + ex.getMessage());
+			}
+		}
+
+		String keepAliveStr = configurationProperties.getProperty("gov.nist.javax.sip.KEEP_ALIVE_INTERVAL");
+		if (keepAliveStr != null) {
+			try {
+				int n = Integer.parseInt(keepAliveStr.trim());
+				if (n >= 0)
+					this.keepAliveInterval = n;
+				else
+					System.out.println("keep alive interval - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"keep alive interval - bad value " + ex.getMessage());
+			}
+		}
+
+		String maxHandshakesStr = configurationProperties.getProperty("gov.nist.javax.sip.MAX_TLS_HANDSHAKES");
+		if (maxHandshakesStr != null) {
+			try {
+				int n = Integer.parseInt(maxHandshakesStr.trim());
+				if (n >= 0)
+					this.maxTlsHandshakes = n;
+				else
+					System.out.println("max tls handshakes - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"max tls handshakes - bad value " + ex.getMessage());
+			}
+		}
+
+		String cacheSizeStr = configurationProperties.getProperty("gov.nist.javax.sip.TLS_SESSION_CACHE_SIZE");
+		if (cacheSizeStr != null) {
+			try {
+				int n = Integer.parseInt(cacheSizeStr.trim());
+				if (n >= 0)
+					this.tlsSessionCacheSize = n;
+				else
+					System.out.println("tls session cache size - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"tls session cache size - bad value " + ex.getMessage());
+			}
+		}
+
+		String sessionTimeoutStr = configurationProperties.getProperty("gov.nist.javax.sip.TLS_SESSION_TIMEOUT");
+		if (sessionTimeoutStr != null) {
+			try {
+				int n = Integer.parseInt(sessionTimeoutStr.trim());
+				if (n >= 0)
+					this.tlsSessionTimeout = n;
+				else
+					System.out.println("tls session timeout - bad value " + n);
+			} catch (NumberFormatException ex) {
+				System.out.println(
+					"tls session timeout - bad value " + ex.getMessage());
+			}
+		}
+
 		
 
 	}
@@ -118,6 +118,16 @@ public class Utils {
 		return new Integer((int) (Math.random() * 10000)).toString();
 	}
 
+    /**
+     * Return true if a branch identifier starts with the magic cookie of
+     * RFC 3261. The branch is not case sensitive, so neither is the test.
+     */
+    public static boolean hasMagicCookie(String branch) {
+	return branch != null
+	    && branch.regionMatches(true, 0, SIPConstants.BRANCH_MAGIC_COOKIE,
+		0, SIPConstants.BRANCH_MAGIC_COOKIE.length());
+    }
+
 	/** Generate a cryptographically random identifier that can be used
 	* to generate a branch identifier.
 	*
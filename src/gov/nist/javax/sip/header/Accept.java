@@ -69,6 +69,7 @@ public class Accept
 	 * @return MediaRange
 	 */
 	public MediaRange getMediaRange() {
+		markShared();
 		return mediaRange;
 	}
 
@@ -113,6 +114,7 @@ public class Accept
 	 *Remove the q value.
 	 */
 	public void removeQValue() {
+		invalidateEncoding();
 		super.removeParameter(ParameterNames.Q);
 	}
 
@@ -120,6 +122,7 @@ public class Accept
 	 * @param subtype String to set
 	 */
 	public void setContentSubType(String subtype) {
+		invalidateEncoding();
 		if (mediaRange == null)
 			mediaRange = new MediaRange();
 		mediaRange.setSubtype(subtype);
@@ -129,6 +132,7 @@ public class Accept
 	 * @param type String to set
 	 */
 	public void setContentType(String type) {
+		invalidateEncoding();
 		if (mediaRange == null)
 			mediaRange = new MediaRange();
 		mediaRange.setType(type);
@@ -140,6 +144,7 @@ public class Accept
 	 * @throws IllegalArgumentException if qValue is <0.0 or >1.0
 	 */
 	public void setQValue(float qValue) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (qValue == -1)
 			super.removeParameter(ParameterNames.Q);
 		super.setParameter(ParameterNames.Q, qValue);
@@ -151,6 +156,7 @@ public class Accept
 	     * @param m MediaRange field
 	     */
 	public void setMediaRange(MediaRange m) {
+		markShared();
 		mediaRange = m;
 	}
 
@@ -86,6 +86,7 @@ public class AcceptEncoding
 	     * @param q double to set
 	     */
 	public void setQValue(float q) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (q < 0.0 || q > 1.0)
 			throw new InvalidArgumentException("qvalue out of range!");
 		super.setParameter("q", q);
@@ -100,6 +101,7 @@ public class AcceptEncoding
 	 */
 
 	public void setEncoding(String encoding) throws ParseException {
+		invalidateEncoding();
 		if (encoding == null)
 			throw new NullPointerException(" encoding parameter is null");
 		contentCoding = encoding;
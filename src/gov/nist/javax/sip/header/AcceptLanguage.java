@@ -84,6 +84,7 @@ public class AcceptLanguage
 	 * @since 1.0
 	 */
 	public void removeQValue() {
+		invalidateEncoding();
 		removeParameter("q");
 	}
 
@@ -94,6 +95,7 @@ public class AcceptLanguage
 	 *
 	 */
 	public void setLanguageRange(String languageRange) {
+		invalidateEncoding();
 		this.languageRange = languageRange.trim();
 	}
 
@@ -117,6 +119,7 @@ public class AcceptLanguage
 	 *
 	 */
 	public void setQValue(float q) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (q < 0.0 || q > 1.0)
 			throw new InvalidArgumentException("qvalue out of range!");
 		if (q == -1)
@@ -154,6 +157,7 @@ public class AcceptLanguage
 	 *
 	 */
 	public void setAcceptLanguage(Locale language) {
+		invalidateEncoding();
 		this.languageRange = language.getLanguage();
 	}
 
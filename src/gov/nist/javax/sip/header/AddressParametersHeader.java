@@ -20,6 +20,7 @@ public abstract class AddressParametersHeader extends ParametersHeader {
 	 * @return the imbedded  Address
 	 */
 	public Address getAddress() {
+		markShared();
 		return address;
 	}
 
@@ -28,6 +29,7 @@ public abstract class AddressParametersHeader extends ParametersHeader {
 	 * @param address Address to set
 	 */
 	public void setAddress(Address address) {
+		markShared();
 		this.address = (AddressImpl) address;
 	}
 
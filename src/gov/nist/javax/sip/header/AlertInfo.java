@@ -46,6 +46,7 @@ public class AlertInfo
 	 * @param uri URI to set
 	 */
 	public void setAlertInfo(URI uri) {
+		markShared();
 		this.uri = (GenericURI) uri;
 	}
 
@@ -57,6 +58,7 @@ public class AlertInfo
 	 *
 	 */
 	public URI getAlertInfo() {
+		markShared();
 		return (URI) this.uri;
 	}
 
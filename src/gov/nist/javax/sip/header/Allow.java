@@ -45,6 +45,7 @@ public class Allow extends SIPHeader implements javax.sip.header.AllowHeader {
 	 * @param method method to set.
 	 */
 	public void setMethod(String method) throws ParseException {
+		invalidateEncoding();
 		if (method == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception"
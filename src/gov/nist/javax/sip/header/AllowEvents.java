@@ -45,6 +45,7 @@ public class AllowEvents
 	 * unexpectedly while parsing the Strings defining the eventType supported
 	 */
 	public void setEventType(String eventType) throws ParseException {
+		invalidateEncoding();
 		if (eventType == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception,"
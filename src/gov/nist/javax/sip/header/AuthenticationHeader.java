@@ -71,6 +71,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 *            value of the parameter.
 	 */
 	public void setParameter(String name, String value) throws ParseException {
+		invalidateEncoding();
 		NameValue nv = super.parameters.getNameValue(name.toLowerCase());
 		if (nv == null) {
 			nv = new NameValue(name, value);
@@ -109,6 +110,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 *            the challenge from which the parameters are extracted.
 	 */
 	public void setChallenge(Challenge challenge) {
+		markShared();
 		this.scheme = challenge.scheme;
 		super.parameters = challenge.authParams;
 	}
@@ -132,6 +134,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * @since v1.1
 	 */
 	public void setScheme(String scheme) {
+		invalidateEncoding();
 		this.scheme = scheme;
 	}
 
@@ -161,6 +164,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * @since v1.1
 	 */
 	public void setRealm(String realm) throws ParseException {
+		invalidateEncoding();
 		if (realm == null)
 			throw new NullPointerException(
 					"JAIN-SIP Exception, "
@@ -192,6 +196,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * @since v1.1
 	 */
 	public void setNonce(String nonce) throws ParseException {
+		invalidateEncoding();
 		if (nonce == null)
 			throw new NullPointerException(
 					"JAIN-SIP Exception, "
@@ -223,6 +228,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * @since v1.1
 	 */
 	public void setURI(javax.sip.address.URI uri) {
+		markShared();
 		if (uri != null) {
 			NameValue nv = new NameValue(ParameterNames.URI, uri);
 			nv.setQuotedValue();
@@ -243,6 +249,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 *             hence implementation swill always return null.
 	 */
 	public javax.sip.address.URI getURI() {
+		markShared();
 		return getParameterAsURI(ParameterNames.URI);
 	}
 
@@ -258,6 +265,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * @since v1.1
 	 */
 	public void setAlgorithm(String algorithm) throws ParseException {
+		invalidateEncoding();
 		if (algorithm == null)
 			throw new NullPointerException("null arg");
 		setParameter(ParameterNames.ALGORITHM, algorithm);
@@ -286,6 +294,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * @since v1.1
 	 */
 	public void setQop(String qop) throws ParseException {
+		invalidateEncoding();
 		if (qop == null)
 			throw new NullPointerException("null arg");
 		setParameter(ParameterNames.QOP, qop);
@@ -314,6 +323,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * @since v1.1
 	 */
 	public void setOpaque(String opaque) throws ParseException {
+		invalidateEncoding();
 		if (opaque == null)
 			throw new NullPointerException("null arg");
 		setParameter(ParameterNames.OPAQUE, opaque);
@@ -342,6 +352,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * @since v1.1
 	 */
 	public void setDomain(String domain) throws ParseException {
+		invalidateEncoding();
 		if (domain == null)
 			throw new NullPointerException("null arg");
 		setParameter(ParameterNames.DOMAIN, domain);
@@ -367,6 +378,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * @since v1.1
 	 */
 	public void setStale(boolean stale) {
+		invalidateEncoding();
 		setParameter(new NameValue(ParameterNames.STALE, new Boolean(stale)));
 	}
 
@@ -388,6 +400,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 *            a nonce string.
 	 */
 	public void setCNonce(String cnonce) throws ParseException {
+		invalidateEncoding();
 		this.setParameter(ParameterNames.CNONCE, cnonce);
 	}
 
@@ -410,6 +423,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 */
 
 	public void setNonceCount(int param) throws java.text.ParseException {
+		invalidateEncoding();
 		if (param < 0)
 			throw new ParseException("bad value", 0);
 
@@ -437,6 +451,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 *            to set.
 	 */
 	public void setResponse(String response) throws ParseException {
+		invalidateEncoding();
 		if (response == null)
 			throw new NullPointerException("Null parameter");
 		// Bug fix from Andreas Bystrm
@@ -473,6 +488,7 @@ public abstract class AuthenticationHeader extends ParametersHeader {
 	 * 
 	 */
 	public void setUsername(String username) throws ParseException {
+		invalidateEncoding();
 		this.setParameter(ParameterNames.USERNAME, username);
 	}
 }
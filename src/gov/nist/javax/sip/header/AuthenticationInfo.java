@@ -23,6 +23,7 @@ public class AuthenticationInfo
 	}
 
 	public void add(NameValue nv) {
+		markShared();
 		parameters.add(nv);
 	}
 
@@ -41,6 +42,7 @@ public class AuthenticationInfo
 	 */
 
 	public NameValue getAuthInfo(String name) {
+		markShared();
 		return parameters.getNameValue(name);
 	}
 
@@ -116,6 +118,7 @@ public class AuthenticationInfo
 	 * @since v1.1
 	 */
 	public void setCNonce(String cNonce) throws ParseException {
+		invalidateEncoding();
 		this.setParameter(ParameterNames.CNONCE, cNonce);
 	}
 
@@ -128,6 +131,7 @@ public class AuthenticationInfo
 	 * @since v1.1
 	 */
 	public void setNextNonce(String nextNonce) throws ParseException {
+		invalidateEncoding();
 		this.setParameter(ParameterNames.NEXT_NONCE, nextNonce);
 	}
 
@@ -140,6 +144,7 @@ public class AuthenticationInfo
 	 * @since v1.1
 	 */
 	public void setNonceCount(int nonceCount) throws ParseException {
+		invalidateEncoding();
 		if (nonceCount < 0)
 			throw new ParseException("bad value", 0);
 		String nc = Integer.toHexString(nonceCount);
@@ -158,6 +163,7 @@ public class AuthenticationInfo
 	 * @since v1.1
 	 */
 	public void setQop(String qop) throws ParseException {
+		invalidateEncoding();
 		this.setParameter(ParameterNames.QOP, qop);
 	}
 
@@ -172,10 +178,12 @@ public class AuthenticationInfo
 	 * @since v1.1
 	 */
 	public void setResponse(String response) throws ParseException {
+		invalidateEncoding();
 		this.setParameter(ParameterNames.RESPONSE_AUTH, response);
 	}
 
 	public void setParameter(String name, String value) throws ParseException {
+		invalidateEncoding();
 		if (name == null)
 			throw new NullPointerException("null name");
 		NameValue nv = super.parameters.getNameValue(name.toLowerCase());
@@ -105,6 +105,7 @@ public class CSeq extends SIPHeader implements javax.sip.header.CSeqHeader {
 	 */
 	public void setSequenceNumber(int sequenceNumber)
 		throws InvalidArgumentException {
+		invalidateEncoding();
 		if (sequenceNumber < 0)
 			throw new InvalidArgumentException(
 				"JAIN-SIP Exception, CSeq, setSequenceNumber(), "
@@ -118,6 +119,7 @@ public class CSeq extends SIPHeader implements javax.sip.header.CSeqHeader {
 	 * @param meth -- String to set
 	 */
 	public void setMethod(String meth) throws ParseException {
+		invalidateEncoding();
 		if (meth == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, CSeq"
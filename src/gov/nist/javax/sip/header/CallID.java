@@ -67,6 +67,7 @@ public class CallID
 	 * @return CallIdentifier
 	 */
 	public CallIdentifier getCallIdentifer() {
+		markShared();
 		return callIdentifier;
 	}
 
@@ -78,6 +79,7 @@ public class CallID
 	 * not a token@token.
 	 */
 	public void setCallId(String cid) throws ParseException {
+		invalidateEncoding();
 		try {
 			callIdentifier = new CallIdentifier(cid);
 		} catch (IllegalArgumentException ex) {
@@ -90,6 +92,7 @@ public class CallID
 	 * @param cid CallIdentifier to set (localId@host).
 	 */
 	public void setCallIdentifier(CallIdentifier cid) {
+		markShared();
 		callIdentifier = cid;
 	}
 
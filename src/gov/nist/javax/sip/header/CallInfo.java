@@ -54,6 +54,7 @@ public final class CallInfo
 	 * @return URI
 	 */
 	public javax.sip.address.URI getInfo() {
+		markShared();
 		return info;
 	}
 
@@ -62,6 +63,7 @@ public final class CallInfo
 	 * @param purpose is the purpose field.
 	 */
 	public void setPurpose(String purpose) {
+		invalidateEncoding();
 		if (purpose == null)
 			throw new NullPointerException("null arg");
 		try {
@@ -75,6 +77,7 @@ public final class CallInfo
 	 * @param info is the URI to set.
 	 */
 	public void setInfo(javax.sip.address.URI info) {
+		markShared();
 		this.info = (GenericURI) info;
 	}
 
@@ -48,6 +48,7 @@ public final class Contact
 	/** Set a parameter.
 	*/
 	public void setParameter(String name, String value) throws ParseException {
+		invalidateEncoding();
 		NameValue nv = parameters.getNameValue(name);
 		if (nv != null) {
 			nv.setValue(value);
@@ -100,6 +101,7 @@ public final class Contact
 	 * @return Address
 	 */
 	public javax.sip.address.Address getAddress() {
+		markShared();
 		// JAIN-SIP stores the wild card as an address!
 		return address;
 	}
@@ -108,6 +110,7 @@ public final class Contact
 	 * @return NameValueList
 	 */
 	public NameValueList getContactParms() {
+		markShared();
 		return parameters;
 	}
 
@@ -123,6 +126,7 @@ public final class Contact
 	*/
 
 	public void setExpires(int expiryDeltaSeconds) {
+		invalidateEncoding();
 		Integer deltaSeconds = new Integer(expiryDeltaSeconds);
 		this.parameters.set(EXPIRES, deltaSeconds);
 	}
@@ -146,6 +150,7 @@ public final class Contact
 	 * @param w boolean to set
 	 */
 	public void setWildCardFlag(boolean w) {
+		invalidateEncoding();
 		this.wildCardFlag = true;
 		this.address = new AddressImpl();
 		this.address.setWildCardFlag();
@@ -157,6 +162,7 @@ public final class Contact
 	 * @param address Address to set
 	 */
 	public void setAddress(javax.sip.address.Address address) {
+		markShared();
 		// Canonical form must have <> around the address.
 		if (address == null)
 			throw new NullPointerException("null address");
@@ -169,6 +175,7 @@ public final class Contact
 	 * @param qValue float to set
 	 */
 	public void setQValue(float qValue) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (qValue != -1 && (qValue < 0 || qValue > 1))
 			throw new InvalidArgumentException(
 				"JAIN-SIP Exception, Contact, setQValue(), "
@@ -48,6 +48,7 @@ public final class ContentDisposition
 	 */
 	public void setDispositionType(String dispositionType)
 		throws ParseException {
+		invalidateEncoding();
 		if (dispositionType == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception"
@@ -75,6 +76,7 @@ public final class ContentDisposition
 	 * @param handling String to set.
 	 */
 	public void setHandling(String handling) throws ParseException {
+		invalidateEncoding();
 		if (handling == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception"
@@ -93,6 +93,7 @@ public class ContentLanguage
 	 * @param languageTag -- language tag to set.
 	 */
 	public void setLanguageTag(String languageTag) {
+		invalidateEncoding();
 		this.locale = new Locale(languageTag,
 				Locale.getDefault().getCountry());
 	}
@@ -118,6 +119,7 @@ public class ContentLanguage
 	 *
 	 */
 	public void setContentLanguage(Locale language) {
+		invalidateEncoding();
 		this.locale = language;
 	}
 
@@ -83,6 +83,7 @@ public class ContentLength
 	 */
 	public void setContentLength(int contentLength)
 		throws InvalidArgumentException {
+		invalidateEncoding();
 		if (contentLength < 0)
 			throw new InvalidArgumentException(
 				"JAIN-SIP Exception"
@@ -86,6 +86,7 @@ public class ContentType
 	 * @return MediaRange.
 	 */
 	public MediaRange getMediaRange() {
+		markShared();
 		return mediaRange;
 	}
 
@@ -129,6 +130,7 @@ public class ContentType
 	 * @param m mediaRange field.
 	 */
 	public void setMediaRange(MediaRange m) {
+		markShared();
 		mediaRange = m;
 	}
 
@@ -138,6 +140,7 @@ public class ContentType
 	*@param contentSubType content subtype string
 	*/
 	public void setContentType(String contentType, String contentSubType) {
+		invalidateEncoding();
 		if (mediaRange == null)
 			mediaRange = new MediaRange();
 		mediaRange.setType(contentType);
@@ -150,6 +153,7 @@ public class ContentType
 	*/
 
 	public void setContentType(String contentType) throws ParseException {
+		invalidateEncoding();
 		if (contentType == null)
 			throw new NullPointerException("null arg");
 		if (mediaRange == null)
@@ -162,6 +166,7 @@ public class ContentType
 	     * @param contentType String to set
 	     */
 	public void setContentSubType(String contentType) throws ParseException {
+		invalidateEncoding();
 		if (contentType == null)
 			throw new NullPointerException("null arg");
 		if (mediaRange == null)
@@ -37,6 +37,7 @@ public final class ErrorInfo
 	public ErrorInfo(GenericURI errorInfo) {
 		this();
 		this.errorInfo = errorInfo;
+		markShared();
 	}
 
 	/**
@@ -60,6 +61,7 @@ public final class ErrorInfo
 	 * @param errorInfo the new ErrorInfo of this ErrorInfoHeader.
 	 */
 	public void setErrorInfo(javax.sip.address.URI errorInfo) {
+		markShared();
 		this.errorInfo = (GenericURI) errorInfo;
 
 	}
@@ -71,6 +73,7 @@ public final class ErrorInfo
 	 * @return the URI representing the ErrorInfo.
 	 */
 	public URI getErrorInfo() {
+		markShared();
 		return errorInfo;
 	}
 
@@ -83,6 +86,7 @@ public final class ErrorInfo
 	 * unexpectedly while parsing the error message.
 	 */
 	public void setErrorMessage(String message) throws ParseException {
+		invalidateEncoding();
 		if (message == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception "
@@ -36,6 +36,7 @@ public class Event extends ParametersHeader implements EventHeader {
 	* unexpectedly while parsing the eventType value.
 	*/
 	public void setEventType(String eventType) throws ParseException {
+		invalidateEncoding();
 		if (eventType == null)
 			throw new NullPointerException(" the eventType is null");
 		this.eventType = eventType;
@@ -58,6 +59,7 @@ public class Event extends ParametersHeader implements EventHeader {
 	 * unexpectedly while parsing the eventId value.
 	 */
 	public void setEventId(String eventId) throws ParseException {
+		invalidateEncoding();
 		if (eventId == null)
 			throw new NullPointerException(" the eventId parameter is null");
 		setParameter(ParameterNames.ID, eventId);
@@ -65,6 +65,7 @@ public class Expires
 	 *
 	 */
 	public void setExpires(int expires) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (expires < 0)
 			throw new InvalidArgumentException("bad argument " + expires);
 		this.expires = expires;
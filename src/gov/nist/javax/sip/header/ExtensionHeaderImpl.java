@@ -35,6 +35,7 @@ public class ExtensionHeaderImpl
 	 */
 
 	public void setName(String headerName) {
+		invalidateEncoding();
 		this.headerName = headerName;
 	}
 
@@ -42,6 +43,7 @@ public class ExtensionHeaderImpl
 	 * Set the value of the header.
 	 */
 	public void setValue(String value) {
+		invalidateEncoding();
 		this.value = value;
 	}
 
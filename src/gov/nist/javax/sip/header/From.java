@@ -32,6 +32,9 @@ public final class From
 		super(NAME);
 		address = to.address;
 		parameters = to.parameters;
+		// Both headers now change when one of them does.
+		markShared();
+		to.markShared();
 	}
 
 	/**
@@ -46,7 +49,7 @@ public final class From
 			}
 
 			From otherTo = (From) otherHeader;
-			if (!otherTo.getAddress().equals(address)) {
+			if (!otherTo.address.equals(address)) {
 				return false;
 			}
 			return true;
@@ -91,6 +94,7 @@ public final class From
 	 * @return hostport field
 	 */
 	public HostPort getHostPort() {
+		markShared();
 		return address.getHostPort();
 	}
 
@@ -122,6 +126,7 @@ public final class From
 	/** remove Tag member
 	 */
 	public void removeTag() {
+		invalidateEncoding();
 		parameters.delete(ParameterNames.TAG);
 	}
 
@@ -130,6 +135,7 @@ public final class From
 	 * @param address Address to set
 	 */
 	public void setAddress(javax.sip.address.Address address) {
+		markShared();
 		this.address = (AddressImpl) address;
 	}
 
@@ -138,6 +144,7 @@ public final class From
 	 * @param t tag to set. From tags are mandatory.
 	 */
 	public void setTag(String t) throws ParseException {
+		invalidateEncoding();
 		if (t == null)
 			throw new NullPointerException("null tag ");
 		else if (t.trim().equals(""))
@@ -32,6 +32,7 @@ public class InReplyTo extends SIPHeader implements InReplyToHeader {
 	public InReplyTo(CallIdentifier cid) {
 		super(IN_REPLY_TO);
 		callId = cid;
+		markShared();
 	}
 
 	/**
@@ -43,6 +44,7 @@ public class InReplyTo extends SIPHeader implements InReplyToHeader {
 	 * unexpectedly while parsing the callId value.
 	 */
 	public void setCallId(String callId) throws ParseException {
+		invalidateEncoding();
 		try {
 			this.callId = new CallIdentifier(callId);
 		} catch (Exception e) {
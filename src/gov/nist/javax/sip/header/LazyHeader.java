@@ -0,0 +1,141 @@
+/*******************************************************************************
+* Product of NIST/ITL Advanced Networking Technologies Division (ANTD).        *
+*******************************************************************************/
+package gov.nist.javax.sip.header;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * Place holder for a header that was received but has not been parsed yet.
+ * When the message parser is in lazy mode it only parses the headers that
+ * the stack needs to route the message and keeps the text of the others in
+ * one of these. The SIPMessage replaces the place holder with the parsed
+ * header the first time the header is asked for. All the lines of a message
+ * that carry the same header name are kept in the same place holder (as a
+ * SIPHeaderList would group them) and are encoded exactly as they were
+ * received.
+ *
+ * @version JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class LazyHeader extends SIPHeader {
+
+	private static Hashtable compactNames;
+
+	static {
+		compactNames = new Hashtable();
+		compactNames.put("t", TO);
+		compactNames.put("f", FROM);
+		compactNames.put("v", VIA);
+		compactNames.put("m", CONTACT);
+		compactNames.put("c", CONTENT_TYPE);
+		compactNames.put("l", CONTENT_LENGTH);
+		compactNames.put("i", CALL_ID);
+		compactNames.put("k", SUPPORTED);
+		compactNames.put("s", SUBJECT);
+		compactNames.put("o", EVENT);
+		compactNames.put("e", CONTENT_ENCODING);
+		compactNames.put("u", ALLOW_EVENTS);
+		compactNames.put("r", javax.sip.header.ReferToHeader.NAME);
+	}
+
+	// The header lines (without the terminating newline).
+	private ArrayList lines;
+
+	/**
+	 * Get the full form of a header name (the name itself if it is
+	 * not a compact form).
+	 *
+	 * @param headerName -- header name as it appears in the message.
+	 */
+	public static String getFullName(String headerName) {
+		if (headerName.length() == 1) {
+			String fullName =
+				(String) compactNames.get(headerName.toLowerCase());
+			if (fullName != null)
+				return fullName;
+		}
+		return headerName;
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param headerName -- full name of the header.
+	 * @param line -- header line (without the newline).
+	 */
+	public LazyHeader(String headerName, String line) {
+		super(headerName);
+		this.lines = new ArrayList(2);
+		this.lines.add(line);
+	}
+
+	/**
+	 * Add another line that carries the same header name.
+	 */
+	public void addLine(String line) {
+		invalidateEncoding();
+		this.lines.add(line);
+	}
+
+	/**
+	 * Get the number of header lines.
+	 */
+	public int getLineCount() {
+		return this.lines.size();
+	}
+
+	/**
+	 * Get a header line (without the newline).
+	 */
+	public String getLine(int index) {
+		return (String) this.lines.get(index);
+	}
+
+	/**
+	 * Encode the header lines as they were received.
+	 */
+	public String encode() {
+		if (lines.size() == 1)
+			return (String) lines.get(0) + NEWLINE;
+		StringBuffer encoding = new StringBuffer();
+		for (int i = 0; i < lines.size(); i++)
+			encoding.append((String) lines.get(i)).append(NEWLINE);
+		return encoding.toString();
+	}
+
+	/**
+	 * Return the values of the header lines separated by commas.
+	 */
+	protected String encodeBody() {
+		StringBuffer encoding = new StringBuffer();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = (String) lines.get(i);
+			if (i > 0)
+				encoding.append(COMMA).append(SP);
+			encoding.append(line.substring(line.indexOf(':') + 1).trim());
+		}
+		return encoding.toString();
+	}
+
+	/**
+	 * Place holders are only equal to themselves.
+	 */
+	public boolean equals(Object other) {
+		return this == other;
+	}
+
+	public int hashCode() {
+		return System.identityHashCode(this);
+	}
+
+	public Object clone() {
+		LazyHeader retval = (LazyHeader) super.clone();
+		retval.lines = (ArrayList) this.lines.clone();
+		return retval;
+	}
+}
@@ -39,6 +39,7 @@ public class MaxForwards extends SIPHeader implements MaxForwardsHeader {
 	     */
 	public void setMaxForwards(int maxForwards)
 		throws InvalidArgumentException {
+		invalidateEncoding();
 		if (maxForwards < 0 || maxForwards > 255)
 			throw new InvalidArgumentException(
 				"bad max forwards value " + maxForwards);
@@ -64,6 +65,7 @@ public class MaxForwards extends SIPHeader implements MaxForwardsHeader {
 	/** decrement MaxForwards field one by one.
 	 */
 	public void decrementMaxForwards() throws TooManyHopsException {
+		invalidateEncoding();
 		if (maxForwards > 0)
 			maxForwards--;
 		else throw new TooManyHopsException ("has already reached 0!");
@@ -62,6 +62,7 @@ public class MimeVersion extends SIPHeader implements MimeVersionHeader {
 	 */
 	public void setMinorVersion(int minorVersion)
 		throws InvalidArgumentException {
+		invalidateEncoding();
 		if (minorVersion < 0)
 			throw new InvalidArgumentException(
 				"JAIN-SIP Exception"
@@ -78,6 +79,7 @@ public class MimeVersion extends SIPHeader implements MimeVersionHeader {
 	 */
 	public void setMajorVersion(int majorVersion)
 		throws InvalidArgumentException {
+		invalidateEncoding();
 		if (majorVersion < 0)
 			throw new InvalidArgumentException(
 				"JAIN-SIP Exception"
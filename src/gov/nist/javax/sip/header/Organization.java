@@ -53,6 +53,7 @@ public class Organization extends SIPHeader implements OrganizationHeader {
 	 * @param o String to set
 	 */
 	public void setOrganization(String o) throws ParseException {
+		invalidateEncoding();
 		if (o == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception,"
@@ -52,7 +52,11 @@ public abstract class ParametersHeader
 	 * @return the object associated with the name.
 	 */
 	public Object getParameterValue(String name) {
-		return this.parameters.getValue(name);
+		Object value = this.parameters.getValue(name);
+		// Some values (an maddr host...) are objects that can be changed.
+		if (value instanceof GenericObject)
+			markShared();
+		return value;
 	}
 
 	/**
@@ -84,6 +88,7 @@ public abstract class ParametersHeader
 	*/
 
 	public void removeParameter(String name) {
+		invalidateEncoding();
 		this.parameters.delete(name);
 	}
 
@@ -106,6 +111,7 @@ public abstract class ParametersHeader
 	 *
 	 */
 	public void setParameter(String name, String value) throws ParseException {
+		invalidateEncoding();
 		NameValue nv = parameters.getNameValue(name);
 		if (nv != null) {
 			nv.setValue(value);
@@ -135,6 +141,7 @@ public abstract class ParametersHeader
 	 */
 	public void setQuotedParameter(String name, String value)
 		throws ParseException {
+		invalidateEncoding();
 		NameValue nv = parameters.getNameValue(name);
 		if (nv != null) {
 			nv.setValue(value);
@@ -266,6 +273,7 @@ public abstract class ParametersHeader
 	 *Remove all parameters.
 	 */
 	public void removeParameters() {
+		invalidateEncoding();
 		this.parameters = new NameValueList();
 	}
 
@@ -274,6 +282,7 @@ public abstract class ParametersHeader
 	 * @return parameter list
 	 */
 	public NameValueList getParameters() {
+		markShared();
 		return parameters;
 	}
 
@@ -282,6 +291,7 @@ public abstract class ParametersHeader
 	 * @param nameValue - the name value of the parameter to set.
 	 */
 	public void setParameter(NameValue nameValue) {
+		markShared();
 		//System.out.println("setParameter " + this + " nbv = " + nameValue);
 		this.parameters.set(nameValue);
 	}
@@ -292,6 +302,7 @@ public abstract class ParametersHeader
 	 * @param parameters The name value list to set as the parameter list.
 	 */
 	public void setParameters(NameValueList parameters) {
+		markShared();
 		this.parameters = parameters;
 	}
 
@@ -434,6 +445,7 @@ public abstract class ParametersHeader
 	 * @return the name value pair for the given parameter name.
 	 */
 	public NameValue getNameValue(String parameterName) {
+		markShared();
 		return parameters.getNameValue(parameterName);
 	}
 
@@ -63,6 +63,7 @@ public class Priority extends SIPHeader implements PriorityHeader {
 	 * @param p String to set
 	 */
 	public void setPriority(String p) throws ParseException {
+		invalidateEncoding();
 		if (p == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception,"
@@ -56,6 +56,7 @@ public class ProxyRequire extends SIPHeader implements ProxyRequireHeader {
 	 * unexpectedly while parsing the optionTag value.
 	 */
 	public void setOptionTag(String optionTag) throws ParseException {
+		invalidateEncoding();
 		if (optionTag == null)
 			throw new NullPointerException("JAIN-SIP Exception, ProxyRequire, setOptionTag(), the optionTag parameter is null");
 		this.optionTag = optionTag;
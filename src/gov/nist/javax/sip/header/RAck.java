@@ -81,6 +81,7 @@ public class RAck extends SIPHeader implements javax.sip.header.RAckHeader {
 	 * @throws InvalidArgumentException if supplied value is less than zero.
 	 */
 	public void setCSeqNumber(int cSeqNumber) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (cSeqNumber <= 0)
 			throw new InvalidArgumentException("Bad CSeq # " + cSeqNumber);
 		this.cSeqNumber = cSeqNumber;
@@ -95,6 +96,7 @@ public class RAck extends SIPHeader implements javax.sip.header.RAckHeader {
 	 * unexpectedly while parsing the method value.
 	 */
 	public void setMethod(String method) throws ParseException {
+		invalidateEncoding();
 		this.method = method;
 	}
 
@@ -107,6 +109,7 @@ public class RAck extends SIPHeader implements javax.sip.header.RAckHeader {
 	 * @throws InvalidArgumentException if supplied value is less than zero.
 	 */
 	public void setRSeqNumber(int rSeqNumber) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (rSeqNumber <= 0)
 			throw new InvalidArgumentException("Bad rSeq # " + rSeqNumber);
 		this.rSeqNumber = rSeqNumber;
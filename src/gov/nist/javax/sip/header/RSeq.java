@@ -35,6 +35,7 @@ public class RSeq extends SIPHeader implements javax.sip.header.RSeqHeader {
 	 */
 	public void setSequenceNumber(int sequenceNumber)
 		throws InvalidArgumentException {
+		invalidateEncoding();
 		if (sequenceNumber <= 0)
 			throw new InvalidArgumentException(
 				"Bad seq number " + sequenceNumber);
@@ -47,6 +47,7 @@ public class Reason
 	 *@param cause - cause to set.
 	 */
 	public void setCause(int cause) throws javax.sip.InvalidArgumentException {
+		invalidateEncoding();
 		this.parameters.set(new NameValue("cause", new Integer(cause)));
 	}
 
@@ -56,6 +57,7 @@ public class Reason
 	 */
 
 	public void setProtocol(String protocol) throws ParseException {
+		invalidateEncoding();
 		this.protocol = protocol;
 	}
 
@@ -72,6 +74,7 @@ public class Reason
 	 *@param text -- string text to set.
 	 */
 	public void setText(String text) throws ParseException {
+		invalidateEncoding();
 		this.parameters.set("text", text);
 	}
 
@@ -27,6 +27,7 @@ public class RecordRoute
 	public RecordRoute(AddressImpl address) {
 		super(NAME);
 		this.address = address;
+		markShared();
 	}
 
 	/**
@@ -36,6 +36,7 @@ public final class ReplyTo
 	public ReplyTo(AddressImpl address) {
 		super(NAME);
 		this.address = address;
+		markShared();
 	}
 
 	/**
@@ -70,6 +71,7 @@ public final class ReplyTo
 	 * @return HostPort
 	 */
 	public HostPort getHostPort() {
+		markShared();
 		return address.getHostPort();
 	}
 
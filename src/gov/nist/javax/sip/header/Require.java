@@ -54,6 +54,7 @@ public class Require extends SIPHeader implements RequireHeader {
 	 * unexpectedly while parsing the optionTag value.
 	 */
 	public void setOptionTag(String optionTag) throws ParseException {
+		invalidateEncoding();
 		if (optionTag == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, Require, "
@@ -67,12 +67,14 @@ public class RetryAfter extends ParametersHeader implements RetryAfterHeader {
 	/** remove comment field
 	 */
 	public void removeComment() {
+		invalidateEncoding();
 		comment = null;
 	}
 
 	/** remove duration field
 	 */
 	public void removeDuration() {
+		invalidateEncoding();
 		super.removeParameter(DURATION);
 	}
 
@@ -87,6 +89,7 @@ public class RetryAfter extends ParametersHeader implements RetryAfterHeader {
 	 */
 
 	public void setRetryAfter(int retryAfter) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (retryAfter < 0)
 			throw new InvalidArgumentException(
 				"invalid parameter " + retryAfter);
@@ -125,6 +128,7 @@ public class RetryAfter extends ParametersHeader implements RetryAfterHeader {
 	 */
 
 	public void setComment(String comment) throws ParseException {
+		invalidateEncoding();
 		if (comment == null)
 			throw new NullPointerException("the comment parameter is null");
 		this.comment = comment;
@@ -140,6 +144,7 @@ public class RetryAfter extends ParametersHeader implements RetryAfterHeader {
 	 */
 
 	public void setDuration(int duration) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (duration < 0)
 			throw new InvalidArgumentException("the duration parameter is <0");
 		super.setParameter(DURATION, new Integer(duration));
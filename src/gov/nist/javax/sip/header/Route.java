@@ -33,6 +33,7 @@ public class Route
 	public Route(AddressImpl address) {
 		super(NAME);
 		this.address = address;
+		markShared();
 	}
 
 	/**
@@ -40,6 +40,7 @@ public class SIPDateHeader extends SIPHeader implements DateHeader {
 	 * @param d SIPDate to set
 	 */
 	public void setDate(SIPDate d) {
+		markShared();
 		date = d;
 
 	}
@@ -50,6 +51,7 @@ public class SIPDateHeader extends SIPHeader implements DateHeader {
 	 * @param dat the Calendar object date of this header.
 	 */
 	public void setDate(Calendar dat) {
+		invalidateEncoding();
 		if (dat != null)
 			date = new SIPDate(dat.getTime().getTime());
 	}
@@ -61,6 +63,7 @@ public class SIPDateHeader extends SIPHeader implements DateHeader {
 	 * @return the Calendar object representing the date of DateHeader
 	 */
 	public Calendar getDate() {
+		markShared();
 		if (date == null)
 			return null;
 		return date.getJavaCal();
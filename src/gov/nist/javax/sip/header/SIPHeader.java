@@ -3,9 +3,20 @@
 *******************************************************************************/
 package gov.nist.javax.sip.header;
 
+import gov.nist.core.*;
+
 /**
  * Root class from which all SIPHeader objects are subclassed.
  *
+ * A header keeps its encoding (and the bytes of it) once it has been
+ * encoded, so that a message that is sent again, or forwarded with most
+ * of its headers unchanged, does not encode them again. The setters of
+ * the headers throw the kept encoding away. The parts of a header (an
+ * address, a parameter list...) can also be changed without going
+ * through the header once a getter has handed them out or they were
+ * handed in to a setter: the header is then "shared" and does not keep
+ * its encoding any more.
+ *
  * @author M. Ranganathan <mranga@nist.gov>  <br/>
  * @version JAIN-SIP-1.1 $Revision: 1.2 $ $Date: 2004/01/22 13:26:29 $
  *
@@ -19,8 +30,21 @@ public abstract class SIPHeader
 	 */
 	protected String headerName;
 
-	/** Value of the header.
-	*/
+	// The encoding of this header (as encode() returns it), the encoding
+	// of its body and the bytes of the encoding, kept until the header
+	// changes.
+	private transient String encoding;
+
+	private transient String bodyEncoding;
+
+	private transient byte[] encodingBytes;
+
+	// Counts the changes, so that an encoding that was made while the
+	// header changed (in another thread) is not kept.
+	private transient int changes;
+
+	// Set once a part of this header may change behind its back.
+	private boolean shared;
 
 	/** Constructor
 	 * @param hname String to set
@@ -56,6 +80,7 @@ public abstract class SIPHeader
 	     * @param hdrname String to set
 	     */
 	public void setHeaderName(String hdrname) {
+		invalidateEncoding();
 		headerName = hdrname;
 	}
 
@@ -98,6 +123,127 @@ public abstract class SIPHeader
 	*/
 	protected abstract String encodeBody();
 
+	/**
+	 * Get the encoding of this header (what encode() returns), encoding
+	 * it only if it changed since it was last encoded.
+	 */
+	public String encodeCached() {
+		String retval = encoding;
+		if (retval == null) {
+			int before = changes;
+			retval = this.encode();
+			if (!shared && before == changes)
+				encoding = retval;
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the encoding of the body of this header (what encodeBody
+	 * returns), encoding it only if it changed since it was last encoded.
+	 */
+	protected String encodeBodyCached() {
+		String retval = bodyEncoding;
+		if (retval == null) {
+			int before = changes;
+			retval = this.encodeBody();
+			if (!shared && before == changes)
+				bodyEncoding = retval;
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the encoding of this header as UTF-8 bytes. The array may be
+	 * the one that the header keeps: it must not be modified.
+	 */
+	public byte[] encodeAsBytes() {
+		byte[] retval = encodingBytes;
+		if (retval == null) {
+			int before = changes;
+			retval = UTF8Encoder.encode(this.encodeCached());
+			if (!shared && before == changes)
+				encodingBytes = retval;
+		}
+		return retval;
+	}
+
+	/**
+	 * Throw away the kept encoding. Every method that changes the header
+	 * calls this.
+	 */
+	protected void invalidateEncoding() {
+		changes++;
+		encoding = null;
+		bodyEncoding = null;
+		encodingBytes = null;
+	}
+
+	/**
+	 * Stop keeping the encoding: a part of this header was handed out or
+	 * in and can change without the header knowing.
+	 */
+	protected void markShared() {
+		shared = true;
+		invalidateEncoding();
+	}
+
+	/**
+	 * Return true if a part of this header can change without the header
+	 * knowing (so that its encoding is not kept).
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * Keep the encoding again. Only for the parsers, once they have built
+	 * the header: the parts they handed in to its setters are not used
+	 * anywhere else.
+	 */
+	public void clearShared() {
+		shared = false;
+	}
+
+	/**
+	 * Merge this header with a template. The parts of the template may
+	 * end up in this header, which is shared from then on.
+	 */
+	public void merge(Object mergeObject) {
+		markShared();
+		super.merge(mergeObject);
+	}
+
+	public void replace(
+		String objectText,
+		GenericObject replacement,
+		boolean matchSubstring)
+		throws IllegalArgumentException {
+		markShared();
+		super.replace(objectText, replacement, matchSubstring);
+	}
+
+	public void replace(
+		String objectText,
+		GenericObjectList replacement,
+		boolean matchSubstring)
+		throws IllegalArgumentException {
+		markShared();
+		super.replace(objectText, replacement, matchSubstring);
+	}
+
+	public void replace(Match regexp, GenericObjectList replacement)
+		throws IllegalArgumentException {
+		markShared();
+		super.replace(regexp, replacement);
+	}
+
+	public void replace(Match regexp, GenericObject replacement)
+		throws IllegalArgumentException {
+		markShared();
+		super.replace(regexp, replacement);
+	}
+
 	/** Alias for getHeaderValue.
 	 */
 	public String getValue() {
@@ -27,6 +27,18 @@ public class SIPHeaderList extends SIPHeader implements java.util.List {
 	 */
 	protected SIPObjectList hlist;
 
+	// The members that the kept encoding was made of and their kept
+	// encodings (the bodies, or the whole headers for a list that is
+	// encoded one header per line). The list is encoded again if a member
+	// comes, goes or gives a different encoding.
+	private transient Object[] encodedMembers;
+
+	private transient String[] memberEncodings;
+
+	private transient String listEncoding;
+
+	private transient byte[] listEncodingBytes;
+
 	/** Constructor
 	 * @param hl SIPObjectList to set
 	 * @param hname String to set
@@ -133,13 +145,7 @@ public class SIPHeaderList extends SIPHeader implements java.util.List {
 		if (hlist.isEmpty())
 			return headerName + ":" + NEWLINE;
 		StringBuffer encoding = new StringBuffer();
-		// The following headers do not have comma separated forms for
-		// multiple headers. Thus, they must be encoded separately.
-		if (this.headerName.equals(SIPHeaderNames.WWW_AUTHENTICATE)
-			|| this.headerName.equals(SIPHeaderNames.PROXY_AUTHENTICATE)
-			|| this.headerName.equals(SIPHeaderNames.AUTHORIZATION)
-			|| this.headerName.equals(SIPHeaderNames.PROXY_AUTHORIZATION)
-			|| this instanceof ExtensionHeaderList) {
+		if (this.isEncodedSeparately()) {
 			ListIterator li = hlist.listIterator();
 			while (li.hasNext()) {
 				SIPHeader sipheader = (SIPHeader) li.next();
@@ -153,6 +159,114 @@ public class SIPHeaderList extends SIPHeader implements java.util.List {
 		}
 	}
 
+	/**
+	 * Return true if the headers of this list are encoded one per line
+	 * rather than as a comma separated list.
+	 */
+	private boolean isEncodedSeparately() {
+		// The following headers do not have comma separated forms for
+		// multiple headers. Thus, they must be encoded separately.
+		return this.headerName.equals(SIPHeaderNames.WWW_AUTHENTICATE)
+			|| this.headerName.equals(SIPHeaderNames.PROXY_AUTHENTICATE)
+			|| this.headerName.equals(SIPHeaderNames.AUTHORIZATION)
+			|| this.headerName.equals(SIPHeaderNames.PROXY_AUTHORIZATION)
+			|| this instanceof ExtensionHeaderList;
+	}
+
+	/**
+	 * Get the encoding of this list, made again from the kept encodings
+	 * of the members only if a member changed.
+	 */
+	public synchronized String encodeCached() {
+		this.refreshEncoding();
+		return listEncoding;
+	}
+
+	/**
+	 * Get the encoding of this list as UTF-8 bytes (which must not be
+	 * modified).
+	 */
+	public synchronized byte[] encodeAsBytes() {
+		this.refreshEncoding();
+		if (listEncodingBytes == null)
+			listEncodingBytes = UTF8Encoder.encode(listEncoding);
+		return listEncodingBytes;
+	}
+
+	/**
+	 * Keep the encodings of the list and of its members again (for the
+	 * parsers).
+	 */
+	public void clearShared() {
+		super.clearShared();
+		for (ListIterator it = hlist.listIterator(); it.hasNext();)
+			((SIPHeader) it.next()).clearShared();
+	}
+
+	protected synchronized void invalidateEncoding() {
+		super.invalidateEncoding();
+		encodedMembers = null;
+	}
+
+	/**
+	 * Encode the list again unless its members are the ones it was last
+	 * encoded from and they still have the same encodings.
+	 */
+	private void refreshEncoding() {
+		int size = hlist.size();
+		if (size == 0 || this.isShared()) {
+			listEncoding = this.encode();
+			listEncodingBytes = null;
+			encodedMembers = null;
+			return;
+		}
+		boolean separately = this.isEncodedSeparately();
+		Object[] members = null;
+		String[] encodings = null;
+		if (encodedMembers == null || encodedMembers.length != size) {
+			members = new Object[size];
+			encodings = new String[size];
+		}
+		int i = 0;
+		for (ListIterator it = hlist.listIterator(); it.hasNext(); i++) {
+			SIPHeader member = (SIPHeader) it.next();
+			String memberEncoding =
+				separately ? member.encodeCached() : member.encodeBodyCached();
+			if (members == null
+				&& (member != encodedMembers[i]
+					|| memberEncoding != memberEncodings[i])) {
+				// Changed from here on: keep what is the same so far.
+				members = new Object[size];
+				encodings = new String[size];
+				System.arraycopy(encodedMembers, 0, members, 0, i);
+				System.arraycopy(memberEncodings, 0, encodings, 0, i);
+			}
+			if (members != null) {
+				members[i] = member;
+				encodings[i] = memberEncoding;
+			}
+		}
+		if (members == null)
+			return;
+		StringBuffer encoding = new StringBuffer();
+		if (separately) {
+			for (i = 0; i < size; i++)
+				encoding.append(encodings[i]);
+		} else {
+			encoding.append(headerName).append(COLON).append(SP);
+			for (i = 0; i < size; i++) {
+				if (i > 0)
+					encoding.append(COMMA);
+				encoding.append(encodings[i]);
+			}
+			encoding.append(NEWLINE);
+		}
+		listEncoding = encoding.toString();
+		listEncodingBytes = null;
+		encodedMembers = members;
+		memberEncodings = encodings;
+	}
+
 	/** Return a list of encoded strings (one for each sipheader).
 	 *@return LinkedList containing encoded strings in this header list.
 	 *	an empty list is returned if this header list contains no
@@ -428,6 +542,9 @@ public class SIPHeaderList extends SIPHeader implements java.util.List {
 		SIPHeaderList retval = (SIPHeaderList) super.clone();
 		if (this.hlist != null)
 			retval.hlist = (SIPObjectList) this.hlist.clone();
+		// The members of the clone are other objects.
+		retval.encodedMembers = null;
+		retval.memberEncodings = null;
 		return retval;
 	}
 	/**
@@ -47,6 +47,7 @@ public class Server extends SIPHeader implements ServerHeader {
 	 * @param pt String to set
 	 */
 	public void addProductToken(String pt) {
+		invalidateEncoding();
 		productTokens.add(pt);
 	}
 
@@ -71,6 +72,7 @@ public class Server extends SIPHeader implements ServerHeader {
 	* @return the software of this UserAgentHeader
 	*/
 	public ListIterator getProduct() {
+		markShared();
 		if (productTokens == null || productTokens.isEmpty())
 			return null;
 		else
@@ -85,6 +87,7 @@ public class Server extends SIPHeader implements ServerHeader {
 	 * unexpectedly while parsing the product value.
 	 */
 	public void setProduct(List product) throws ParseException {
+		markShared();
 		if (product == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, UserAgent, "
@@ -92,6 +95,14 @@ public class Server extends SIPHeader implements ServerHeader {
 					+ " product parameter is null");
 		productTokens = product;
 	}
+
+	public Object clone() {
+		Server retval = (Server) super.clone();
+		// The clone gets its own list of tokens.
+		if (productTokens != null)
+			retval.productTokens = new LinkedList(productTokens);
+		return retval;
+	}
 }
 /*
  * $Log: Server.java,v $
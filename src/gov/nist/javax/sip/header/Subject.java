@@ -53,6 +53,7 @@ public class Subject extends SIPHeader implements SubjectHeader {
 	 * unexpectedly while parsing the subject value.
 	 */
 	public void setSubject(String subject) throws ParseException {
+		invalidateEncoding();
 		if (subject == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, "
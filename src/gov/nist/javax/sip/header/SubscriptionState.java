@@ -40,6 +40,7 @@ public class SubscriptionState
 	* @throws InvalidArgumentException if supplied value is less than zero.
 	*/
 	public void setExpires(int expires) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (expires <= 0)
 			throw new InvalidArgumentException(
 				"JAIN-SIP "
@@ -65,6 +66,7 @@ public class SubscriptionState
 	 * @throws InvalidArgumentException if supplied value is less than zero.
 	 */
 	public void setRetryAfter(int retryAfter) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (retryAfter <= 0)
 			throw new InvalidArgumentException(
 				"JAIN-SIP "
@@ -100,6 +102,7 @@ public class SubscriptionState
 	 * unexpectedly while parsing the reason code.
 	 */
 	public void setReasonCode(String reasonCode) throws ParseException {
+		invalidateEncoding();
 		if (reasonCode == null)
 			throw new NullPointerException(
 				"JAIN-SIP "
@@ -124,6 +127,7 @@ public class SubscriptionState
 	 * unexpectedly while parsing the state.
 	 */
 	public void setState(String state) throws ParseException {
+		invalidateEncoding();
 		if (state == null)
 			throw new NullPointerException(
 				"JAIN-SIP "
@@ -69,6 +69,7 @@ public class Supported extends SIPHeader implements SupportedHeader {
 	 * unexpectedly while parsing the optionTag value.
 	 */
 	public void setOptionTag(String optionTag) throws ParseException {
+		invalidateEncoding();
 		if (optionTag == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, Supported, "
@@ -58,6 +58,7 @@ public class TimeStamp extends SIPHeader implements TimeStampHeader {
 	/* remove the Delay field
 	 */
 	public void removeDelay() {
+		invalidateEncoding();
 		delay = -1;
 	}
 
@@ -74,6 +75,7 @@ public class TimeStamp extends SIPHeader implements TimeStampHeader {
 	* negative value.
 	*/
 	public void setTimeStamp(float timeStamp) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (timeStamp < 0)
 			throw new InvalidArgumentException(
 				"JAIN-SIP Exception, TimeStamp, "
@@ -111,6 +113,7 @@ public class TimeStamp extends SIPHeader implements TimeStampHeader {
 	 */
 
 	public void setDelay(float delay) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (delay < 0 && delay != -1)
 			throw new InvalidArgumentException(
 				"JAIN-SIP Exception, TimeStamp, "
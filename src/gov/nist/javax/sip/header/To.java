@@ -35,6 +35,8 @@ public final class To
 		super(TO);
 		setAddress(from.address);
 		setParameters(from.parameters);
+		// Both headers now change when one of them does.
+		from.markShared();
 	}
 
 	/**
@@ -51,7 +53,7 @@ public final class To
 			}
 
 			To otherTo = (To) otherHeader;
-			if (!otherTo.getAddress().equals(address)) {
+			if (!otherTo.address.equals(address)) {
 				return false;
 			}
 			return true;
@@ -101,6 +103,7 @@ public final class To
 	 * @return hostport field
 	 */
 	public HostPort getHostPort() {
+		markShared();
 		if (address == null)
 			return null;
 		return address.getHostPort();
@@ -142,6 +145,7 @@ public final class To
 	/** remove Tag member
 	 */
 	public void removeTag() {
+	      invalidateEncoding();
 	      synchronized (this.parameters) {
 		if (parameters != null)
 			parameters.delete(ParameterNames.TAG);
@@ -154,6 +158,7 @@ public final class To
 	 * @param t tag String to set.
 	 */
 	public void setTag(String t) throws ParseException {
+		invalidateEncoding();
 		synchronized (this.parameters) {
 		   if (t == null)
 			throw new NullPointerException("null tag ");
@@ -56,6 +56,7 @@ public class Unsupported
 	 * @param o String to set
 	 */
 	public void setOptionTag(String o) throws ParseException {
+		invalidateEncoding();
 		if (o == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, "
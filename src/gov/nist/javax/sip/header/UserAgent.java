@@ -44,6 +44,7 @@ public class UserAgent extends SIPHeader implements UserAgentHeader {
 	 * @param pt String to set
 	 */
 	public void addProductToken(String pt) {
+		invalidateEncoding();
 		productTokens.add(pt);
 	}
 
@@ -68,6 +69,7 @@ public class UserAgent extends SIPHeader implements UserAgentHeader {
 	* @return the software of this UserAgentHeader
 	*/
 	public ListIterator getProduct() {
+		markShared();
 		if (productTokens == null || productTokens.isEmpty())
 			return null;
 		else
@@ -82,6 +84,7 @@ public class UserAgent extends SIPHeader implements UserAgentHeader {
 	 * unexpectedly while parsing the product value.
 	 */
 	public void setProduct(List product) throws ParseException {
+		markShared();
 		if (product == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, UserAgent, "
@@ -4,6 +4,8 @@
 package gov.nist.javax.sip.header;
 
 import gov.nist.core.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.text.ParseException;
 import javax.sip.*;
 
@@ -122,6 +124,7 @@ public class Via
 	 * @return Protocol field
 	 */
 	public Protocol getSentProtocol() {
+		markShared();
 
 		return sentProtocol;
 	}
@@ -131,6 +134,7 @@ public class Via
 	 *@return SentBy field
 	 */
 	public HostPort getSentBy() {
+		markShared();
 		return sentBy;
 	}
 
@@ -139,6 +143,7 @@ public class Via
 	 * @return parameters field
 	 */
 	public NameValueList getViaParms() {
+		markShared();
 		return parameters;
 	}
 
@@ -155,14 +160,62 @@ public class Via
 	 * @return maddr parameter.
 	 */
 	public Host getMaddr() {
+		markShared();
 		return (Host) parameters.getValue(ParameterNames.MADDR);
 	}
 
+	/**
+	 * Get the address of the sent-by host. The getters above hand out
+	 * parts of the header (which then stops keeping its encoding): the
+	 * stack reads the sent-by and maddr through this method and the three
+	 * below, which do not.
+	 * @return the address of the host, null if there is none.
+	 * @throws UnknownHostException if the host cannot be resolved.
+	 */
+	public InetAddress getSentByAddress() throws UnknownHostException {
+		if (sentBy == null)
+			return null;
+		return sentBy.getInetAddress();
+	}
+
+	/**
+	 * Return true if the sent-by of this Via and of another one are the
+	 * same (host and port).
+	 * @param other the other Via.
+	 */
+	public boolean hasSameSentBy(Via other) {
+		if (sentBy == null || other.sentBy == null)
+			return sentBy == other.sentBy;
+		return sentBy.equals(other.sentBy);
+	}
+
+	/**
+	 * Get the encoding of the sent-by (host and port).
+	 * @return the encoding of the sent-by, an empty string if there is
+	 *	none.
+	 */
+	public String encodeSentBy() {
+		if (sentBy == null)
+			return "";
+		return sentBy.encode();
+	}
+
+	/**
+	 * Get the host name of the maddr parameter.
+	 * @return the host name, null if there is no maddr parameter.
+	 */
+	public String getMaddrHostname() {
+		Object maddr = parameters.getValue(ParameterNames.MADDR);
+		if (maddr instanceof Host)
+			return ((Host) maddr).getHostname();
+		return maddr == null ? null : maddr.toString();
+	}
+
 	/** port of the Via Header.
 	 * @return true if Port exists.
 	 */
 	public boolean hasPort() {
-		return (getSentBy()).hasPort();
+		return sentBy.hasPort();
 	}
 
 	/** comment of the Via Header.
@@ -176,12 +229,14 @@ public class Via
 	/** remove the port.
 	 */
 	public void removePort() {
+		invalidateEncoding();
 		sentBy.removePort();
 	}
 
 	/** remove the comment field.
 	 */
 	public void removeComment() {
+		invalidateEncoding();
 		comment = null;
 	}
 
@@ -189,6 +244,7 @@ public class Via
 	 * @param protocolVersion String to set
 	 */
 	public void setProtocolVersion(String protocolVersion) {
+		invalidateEncoding();
 		if (sentProtocol == null)
 			sentProtocol = new Protocol();
 		sentProtocol.setProtocolVersion(protocolVersion);
@@ -198,6 +254,7 @@ public class Via
 	     * @param host String to set
 	     */
 	public void setHost(Host host) {
+		markShared();
 		if (sentBy == null) {
 			sentBy = new HostPort();
 		}
@@ -209,6 +266,7 @@ public class Via
 	 * @param s Protocol to set.
 	 */
 	public void setSentProtocol(Protocol s) {
+		markShared();
 		sentProtocol = s;
 	}
 
@@ -217,6 +275,7 @@ public class Via
 	 * @param s HostPort to set.
 	 */
 	public void setSentBy(HostPort s) {
+		markShared();
 		sentBy = s;
 	}
 
@@ -225,6 +284,7 @@ public class Via
 	 * @param c String to set.
 	 */
 	public void setComment(String c) {
+		invalidateEncoding();
 		comment = c;
 	}
 
@@ -253,6 +313,7 @@ public class Via
 	 * unexpectedly while parsing the host value.
 	 */
 	public void setHost(String host) throws ParseException {
+		invalidateEncoding();
 		if (sentBy == null)
 			sentBy = new HostPort();
 		try {
@@ -287,6 +348,7 @@ public class Via
 	 * @param port - the new integer value of the port of this ViaHeader
 	 */
 	public void setPort( int port ) /*throws InvalidArgumentException*/ {
+		invalidateEncoding();
 
 		/*
 		 * InvalidArgumentException not in 1.1 API
@@ -307,6 +369,7 @@ public class Via
 	 * @param rport -- rport parameter to set.
 	 */
 	public void setrport(int rport) throws InvalidArgumentException {
+	    invalidateEncoding();
 	    if ( rport <= 0 ) throw new InvalidArgumentException ("Bad RPort value");
 	    this.setParameter(Via.RPORT,rport);
 	}
@@ -359,6 +422,7 @@ public class Via
 	 * unexpectedly while parsing the transport value.
 	 */
 	public void setTransport(String transport) throws ParseException {
+		invalidateEncoding();
 		if (transport == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, "
@@ -388,6 +452,7 @@ public class Via
 	 * unexpectedly while parsing the protocol value.
 	 */
 	public void setProtocol(String protocol) throws ParseException {
+		invalidateEncoding();
 		if (protocol == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, "
@@ -418,6 +483,7 @@ public class Via
 	 * greater than 255, excluding -1 the default not set value.
 	 */
 	public void setTTL(int ttl) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (ttl < 0 && ttl != -1)
 			throw new InvalidArgumentException(
 				"JAIN-SIP Exception"
@@ -445,6 +511,7 @@ public class Via
 	 * unexpectedly while parsing the mAddr value.
 	 */
 	public void setMAddr(String mAddr) throws ParseException {
+		invalidateEncoding();
 		if (mAddr == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, "
@@ -475,6 +542,7 @@ public class Via
 	 * unexpectedly while parsing the received value.
 	 */
 	public void setReceived(String received) throws ParseException {
+		invalidateEncoding();
 		if (received == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, "
@@ -503,6 +571,7 @@ public class Via
 	 * unexpectedly while parsing the branch value.
 	 */
 	public void setBranch(String branch) throws ParseException {
+		invalidateEncoding();
 		if (branch == null)
 			throw new NullPointerException(
 				"JAIN-SIP Exception, "
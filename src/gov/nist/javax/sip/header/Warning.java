@@ -84,6 +84,7 @@ public class Warning extends SIPHeader implements WarningHeader {
 	 * @throws SipParseException if code is not accepted by implementation
 	 */
 	public void setCode(int code) throws InvalidArgumentException {
+		invalidateEncoding();
 		if (code >99  && code < 1000) { // check this is a 3DIGIT code
 			this.code = code;
 		} else
@@ -98,6 +99,7 @@ public class Warning extends SIPHeader implements WarningHeader {
 	 * @throws ParseException if host is not accepted by implementation
 	 */
 	public void setAgent(String host) throws ParseException {
+		invalidateEncoding();
 		if (host == null)
 			throw new NullPointerException("the host parameter in the Warning header is null");
 		else {
@@ -111,6 +113,7 @@ public class Warning extends SIPHeader implements WarningHeader {
 	 * @throws ParseException if text is not accepted by implementation
 	 */
 	public void setText(String text) throws ParseException {
+		invalidateEncoding();
 		if (text == null) {
 			throw new ParseException(
 				"The text parameter in the Warning header is null",
@@ -0,0 +1,90 @@
+/*******************************************************************************
+* Product of NIST/ITL Advanced Networking Technologies Division (ANTD)         *
+*******************************************************************************/
+package gov.nist.javax.sip.message;
+import gov.nist.javax.sip.header.*;
+
+/**
+ * Numbers the standard headers. A SIPMessage keeps each standard header
+ * (or header list) in the slot given by its number and only the
+ * extension headers in a list that is searched by name. The number of a
+ * name is looked up without regard to case and without making a lower
+ * case copy of the name.
+ *
+ * @version JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+class HeaderIds implements SIPHeaderNames {
+
+	// The header with number i is NAMES[i] (the most common first).
+	private static final String[] NAMES = {
+		VIA, FROM, TO, CALL_ID, CSEQ, CONTENT_LENGTH, MAX_FORWARDS,
+		CONTACT, ROUTE, RECORD_ROUTE, CONTENT_TYPE, EXPIRES, USER_AGENT,
+		SERVER, ALLOW, SUPPORTED, REQUIRE, PROXY_REQUIRE, UNSUPPORTED,
+		AUTHORIZATION, PROXY_AUTHORIZATION, WWW_AUTHENTICATE,
+		PROXY_AUTHENTICATE, AUTHENTICATION_INFO, EVENT, ALLOW_EVENTS,
+		SUBSCRIPTION_STATE, RACK, RSEQ, REASON, TIMESTAMP, DATE,
+		MIN_EXPIRES, RETRY_AFTER, WARNING, ACCEPT, ACCEPT_ENCODING,
+		ACCEPT_LANGUAGE, CONTENT_ENCODING, CONTENT_LANGUAGE,
+		CONTENT_DISPOSITION, MIME_VERSION, ALERT_INFO, CALL_INFO,
+		ERROR_INFO, IN_REPLY_TO, ORGANIZATION, PRIORITY, REPLY_TO, SUBJECT
+	};
+
+	/**
+	 * Number of standard headers (the size of the slot array). At most
+	 * 64: SIPMessage keeps a bit per slot in a long.
+	 */
+	protected static final int COUNT = NAMES.length;
+
+	// Open addressing hash table of the names (a power of two, at least
+	// four times the number of names so that the probes are short).
+	private static final int TABLE_SIZE = 256;
+
+	private static final String[] tableNames = new String[TABLE_SIZE];
+
+	private static final int[] tableIds = new int[TABLE_SIZE];
+
+	static {
+		for (int id = 0; id < NAMES.length; id++) {
+			int i = hash(NAMES[id]) & (TABLE_SIZE - 1);
+			while (tableNames[i] != null)
+				i = (i + 1) & (TABLE_SIZE - 1);
+			tableNames[i] = NAMES[id];
+			tableIds[i] = id;
+		}
+	}
+
+	/**
+	 * Get the number of a standard header.
+	 *
+	 * @param name -- the name of the header (in any case).
+	 * @return the number or -1 if it is not a standard header.
+	 */
+	protected static int getId(String name) {
+		int i = hash(name) & (TABLE_SIZE - 1);
+		String tableName;
+		while ((tableName = tableNames[i]) != null) {
+			// The names of the headers are the constants themselves.
+			if (tableName == name || tableName.equalsIgnoreCase(name))
+				return tableIds[i];
+			i = (i + 1) & (TABLE_SIZE - 1);
+		}
+		return -1;
+	}
+
+	// Hash of the lower case name.
+	private static int hash(String name) {
+		int h = 0;
+		int length = name.length();
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c >= 'A' && c <= 'Z')
+				c += 'a' - 'A';
+			h = 31 * h + c;
+		}
+		return h ^ (h >>> 8);
+	}
+}
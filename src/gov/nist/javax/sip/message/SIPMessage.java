@@ -4,6 +4,7 @@
 package gov.nist.javax.sip.message;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import gov.nist.javax.sip.*;
 import java.util.*;
 import java.lang.reflect.*;
@@ -32,6 +33,9 @@ public abstract class SIPMessage
 
 	protected static final String DEFAULT_ENCODING = "UTF-8";
 
+	// The end of the headers.
+	private static final byte[] NEWLINE_BYTES = { '\r', '\n' };
+
 	/**
 	 * unparsed headers
 	 */
@@ -60,8 +64,38 @@ public abstract class SIPMessage
 	private byte[] messageContentBytes;
 	private Object messageContentObject;
 
-	// Table of headers indexed by name.
-	private Hashtable nameTable;
+	// The standard headers (or header lists) by header number (see
+	// HeaderIds), and the extension headers.
+	private SIPHeader[] headerSlots;
+
+	private SIPHeader[] extensionHeaders;
+
+	private int extensionCount;
+
+	// The bytes of the last encoding and the parts it was made of (see
+	// encodeAsSharedBytes), in one array so that they are replaced together.
+	private transient Object[] encodedParts;
+
+	// The numbers of the slots of the accessor fields.
+	private static final int FROM_ID = HeaderIds.getId(FromHeader.NAME);
+	private static final int TO_ID = HeaderIds.getId(ToHeader.NAME);
+	private static final int CSEQ_ID = HeaderIds.getId(CSeqHeader.NAME);
+	private static final int CALL_ID_ID = HeaderIds.getId(CallIdHeader.NAME);
+	private static final int CONTENT_LENGTH_ID =
+		HeaderIds.getId(ContentLengthHeader.NAME);
+	private static final int MAX_FORWARDS_ID =
+		HeaderIds.getId(MaxForwardsHeader.NAME);
+
+	// A bit per slot: the slots whose header (or header list) is shared
+	// with a clone of this message, or with the message that this one is
+	// a clone of (see clone). Such a header is copied before it is handed
+	// out or changed.
+	private long borrowedSlots;
+
+	// A bit per slot: the slots whose header may be held outside of this
+	// message (it was handed out, or handed in by the caller that
+	// attached it), so that a clone copies it rather than share it.
+	private long exposedSlots;
 
 	/**
 	 * Return true if the header belongs only in a Request.
@@ -114,6 +148,10 @@ public abstract class SIPMessage
 				if (sipHeader instanceof SIPHeaderList) {
 					SIPHeaderList shl = (SIPHeaderList) sipHeader;
 					retval.addAll(shl.getHeadersAsEncodedStrings());
+				} else if (sipHeader instanceof LazyHeader) {
+					LazyHeader lazyHeader = (LazyHeader) sipHeader;
+					for (int i = 0; i < lazyHeader.getLineCount(); i++)
+						retval.add(lazyHeader.getLine(i) + NEWLINE);
 				} else {
 					retval.add(sipHeader.encode());
 				}
@@ -133,12 +171,14 @@ public abstract class SIPMessage
 			while (it.hasNext()) {
 				SIPHeader siphdr = (SIPHeader) it.next();
 				if (!(siphdr instanceof ContentLength))
-					encoding.append(siphdr.encode());
+					encoding.append(siphdr.encodeCached());
 			}
 		}
 
-		return 
-		encoding.append(contentLengthHeader.encode()).append(NEWLINE).toString();
+		return encoding
+			.append(contentLengthHeader.encodeCached())
+			.append(NEWLINE)
+			.toString();
 	}
 
 	/** Encode all the headers except the contents. For debug logging.
@@ -246,6 +286,7 @@ public abstract class SIPMessage
 				"Cannot replace object of class " + newObject.getClass());
 		} else {
 			// not a sipheader or a sipheaderlist so do a find and replace.
+			this.ownAll(false);
 			synchronized (this.headers) {
 				// Concurrent modification exception noticed by Lamine Brahimi
 				ListIterator li = this.headers.listIterator();
@@ -289,6 +330,7 @@ public abstract class SIPMessage
 			throw new IllegalArgumentException(
 				"Cannot replace object of class " + newObject.getClass());
 		} else {
+			this.ownAll(false);
 			synchronized (this.headers) {
 				// not a sipheader.
 				ListIterator li = this.headers.listIterator();
@@ -311,6 +353,7 @@ public abstract class SIPMessage
 			throw new IllegalArgumentException(
 				"Bad class " + template.getClass());
 		SIPMessage templateMessage = (SIPMessage) template;
+		templateMessage.ownAll(true);
 		Object[] templateHeaders = templateMessage.headers.toArray();
 		for (int i = 0; i < templateHeaders.length; i++) {
 			SIPHeader hdr = (SIPHeader) templateHeaders[i];
@@ -350,11 +393,11 @@ public abstract class SIPMessage
 			while (it.hasNext()) {
 				SIPHeader siphdr = (SIPHeader) it.next();
 				if (!(siphdr instanceof ContentLength))
-					encoding.append(siphdr.encode());
+					encoding.append(siphdr.encodeCached());
 			}
 		}
 
-		encoding.append(contentLengthHeader.encode()).append(NEWLINE);
+		encoding.append(contentLengthHeader.encodeCached()).append(NEWLINE);
 
 		if (this.messageContentObject != null) {
 			String mbody = this.getContent().toString();
@@ -385,51 +428,154 @@ public abstract class SIPMessage
 	 * @return The Canonical byte array representation of the message
 	 * (including the canonical byte array representation of
 	 * the SDP payload if it exists all in one contiguous byte array).
+	 * The array is the caller's to change.
 	 */
 	public byte[] encodeAsBytes() {
-		StringBuffer encoding = new StringBuffer();
-		ListIterator it = this.headers.listIterator();
-
-		while (it.hasNext()) {
-			SIPHeader siphdr = (SIPHeader) it.next();
-			if (!(siphdr instanceof ContentLength))
-				encoding.append(siphdr.encode());
+		return (byte[]) this.encodeAsSharedBytes().clone();
+	}
 
+	/**
+	 * Encode the message as a byte array that the message keeps. The
+	 * same array comes back for as long as the first line, the headers
+	 * and the content encode the same (so that a transaction that
+	 * retransmits the message does not encode it again). Only for the
+	 * stack, which writes the array out and never changes it.
+	 *
+	 * @return the bytes of the message, which must not be changed.
+	 */
+	public byte[] encodeAsSharedBytes() {
+		// The kept encoding is checked and replaced under the same lock as
+		// the headers.
+		synchronized (this.headers) {
+			Object[] parts = new Object[this.headers.size() + 4];
+			int count = this.getParts(parts);
+			Object[] kept = this.encodedParts;
+			if (kept != null && samePartsAs(kept, parts, count))
+				return (byte[]) kept[0];
+
+			byte[] retval = new byte[encodedLength(parts, count)];
+			putParts(parts, count, ByteBuffer.wrap(retval));
+			if (count < parts.length) {
+				kept = new Object[count];
+				System.arraycopy(parts, 0, kept, 0, count);
+			} else
+				kept = parts;
+			kept[0] = retval;
+			// Content set as bytes is the array of the caller, which can
+			// change it in place: keep a copy to compare with.
+			if (kept[count - 1] != null
+				&& kept[count - 1] == this.messageContentBytes)
+				kept[count - 1] = ((byte[]) kept[count - 1]).clone();
+			this.encodedParts = kept;
+			return retval;
 		}
-		encoding.append(contentLengthHeader.encode()).append(NEWLINE);
-
-		byte[] retval = null;
-		byte[] content = this.getRawContent();
-		if (content != null) {
-			// Append the content
+	}
 
-			byte[] msgarray = null;
-			try {
-				msgarray = encoding.toString().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException ex) {
-				InternalErrorHandler.handleException(ex);
+	/**
+	 * Encode the message into a buffer: the first line, the headers (from
+	 * the bytes that they keep) and the content go straight into the
+	 * buffer, without a string or an array of the whole message in
+	 * between. If the remaining space of the buffer is too small, a
+	 * larger buffer is allocated with what the given one held copied in.
+	 *
+	 * @param buffer the buffer to encode into (or null).
+	 * @return the buffer that the message was put in, positioned after
+	 * the message.
+	 */
+	public ByteBuffer encodeInto(ByteBuffer buffer) {
+		synchronized (this.headers) {
+			Object[] parts = new Object[this.headers.size() + 4];
+			int count = this.getParts(parts);
+			Object[] kept = this.encodedParts;
+			if (kept != null && samePartsAs(kept, parts, count)) {
+				byte[] bytes = (byte[]) kept[0];
+				buffer = ensureRemaining(buffer, bytes.length);
+				buffer.put(bytes);
+			} else {
+				buffer = ensureRemaining(buffer, encodedLength(parts, count));
+				putParts(parts, count, buffer);
 			}
+			return buffer;
+		}
+	}
 
-			retval = new byte[msgarray.length + content.length];
-			System.arraycopy(msgarray, 0, retval, 0, msgarray.length);
-			System.arraycopy(
-				content,
-				0,
-				retval,
-				msgarray.length,
-				content.length);
-		} else {
-			// Message content does not exist.
-
-			try {
-				retval = encoding.toString().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException ex) {
-				InternalErrorHandler.handleException(ex);
-			}
+	// Get a buffer with at least the given room left in it.
+	private static ByteBuffer ensureRemaining(ByteBuffer buffer, int length) {
+		if (buffer != null && buffer.remaining() >= length)
+			return buffer;
+		ByteBuffer retval;
+		if (buffer == null)
+			retval = ByteBuffer.allocate(length);
+		else {
+			retval = ByteBuffer.allocate(
+				Math.max(buffer.position() + length, 2 * buffer.capacity()));
+			buffer.flip();
+			retval.put(buffer);
 		}
 		return retval;
 	}
 
+	// Get the parts of the message: the first line, the encodings of the
+	// headers (the headers keep their encodings as bytes) and the content.
+	// parts[0] is left for the bytes of the whole message. Returns the
+	// number of parts.
+	private int getParts(Object[] parts) {
+		int count = 1;
+		parts[count++] = this.getFirstLine();
+		ListIterator it = this.headers.listIterator();
+		while (it.hasNext()) {
+			SIPHeader siphdr = (SIPHeader) it.next();
+			if (!(siphdr instanceof ContentLength))
+				parts[count++] = siphdr.encodeAsBytes();
+		}
+		parts[count++] = contentLengthHeader.encodeAsBytes();
+		parts[count++] = this.getRawContent();
+		return count;
+	}
+
+	// Number of bytes of the parts (and of the end of the headers).
+	private static int encodedLength(Object[] parts, int count) {
+		int length = NEWLINE_BYTES.length;
+		if (parts[1] != null)
+			length += UTF8Encoder.length((String) parts[1]);
+		for (int i = 2; i < count; i++) {
+			if (parts[i] != null)
+				length += ((byte[]) parts[i]).length;
+		}
+		return length;
+	}
+
+	// Put the parts in the buffer, with the end of the headers before the
+	// content.
+	private static void putParts(Object[] parts, int count, ByteBuffer buffer) {
+		if (parts[1] != null)
+			UTF8Encoder.encode((String) parts[1], buffer);
+		for (int i = 2; i < count - 1; i++)
+			buffer.put((byte[]) parts[i]);
+		buffer.put(NEWLINE_BYTES);
+		if (parts[count - 1] != null)
+			buffer.put((byte[]) parts[count - 1]);
+	}
+
+	// True if the parts of the kept encoding are the same as the current
+	// ones. A header that keeps its encoding gives the same array back;
+	// the others (and the first line) are compared by value. The content
+	// is always compared by value (see encodeAsSharedBytes).
+	private static boolean samePartsAs(Object[] kept, Object[] parts, int count) {
+		if (kept.length != count)
+			return false;
+		if (kept[1] == null ? parts[1] != null : !kept[1].equals(parts[1]))
+			return false;
+		for (int i = 2; i < count - 1; i++) {
+			if (kept[i] != parts[i]
+				&& (kept[i] == null
+					|| parts[i] == null
+					|| !Arrays.equals((byte[]) kept[i], (byte[]) parts[i])))
+				return false;
+		}
+		return Arrays.equals((byte[]) kept[count - 1], (byte[]) parts[count - 1]);
+	}
+
 	/**
 	 * clone this message (create a new deep physical copy).
 	 * All headers in the message are cloned.
@@ -445,18 +591,49 @@ public abstract class SIPMessage
 	 */
 	public Object clone() {
 		SIPMessage retval = (SIPMessage) super.clone();
-		retval.nameTable = new Hashtable();
+		retval.headerSlots = new SIPHeader[HeaderIds.COUNT];
+		retval.extensionHeaders = null;
+		retval.extensionCount = 0;
 		retval.fromHeader = null;
 		retval.toHeader = null;
 		retval.cSeqHeader = null;
 		retval.callIdHeader = null;
 		retval.contentLengthHeader = null;
 		retval.maxForwardsHeader = null;
+		retval.borrowedSlots = 0;
+		retval.exposedSlots = 0;
+		// Lazy headers that fail to parse are added to this list.
+		retval.unrecognizedHeaders = new LinkedList(this.unrecognizedHeaders);
 		if (this.headers != null) {
+			// The headers of this message already have one entry per
+			// name, so they go straight to their slots. A standard
+			// header that nobody outside of this message can change is
+			// not copied: the two messages share it until one of them
+			// hands it out or changes it (see ownSlot). Headers still
+			// in their text form are never changed (parsing them
+			// makes new headers) and are shared as they are.
 			retval.headers = new LinkedList();
-			for (Iterator iter = headers.iterator(); iter.hasNext(); ) {
-				SIPHeader hdr = (SIPHeader) iter.next();
-				retval.attachHeader((SIPHeader) hdr.clone());
+			synchronized (this.headers) {
+				long shared = 0;
+				for (Iterator iter = headers.iterator(); iter.hasNext(); ) {
+					SIPHeader hdr = (SIPHeader) iter.next();
+					int id = HeaderIds.getId(hdr.getName());
+					long bit = id >= 0 ? 1L << id : 0;
+					if (hdr instanceof LazyHeader) {
+						// Shared as it is.
+					} else if (bit != 0
+						&& (this.exposedSlots & bit) == 0
+						&& !isShared(hdr)) {
+						shared |= bit;
+					} else {
+						hdr = (SIPHeader) hdr.clone();
+					}
+					retval.headers.add(hdr);
+					retval.putHeader(hdr.getName(), hdr);
+					retval.setAccessor(hdr);
+				}
+				retval.borrowedSlots = shared;
+				this.borrowedSlots |= shared;
 			}
 		}
 		if (this.messageContentBytes != null)
@@ -520,9 +697,9 @@ public abstract class SIPMessage
 	public SIPMessage() {
 		this.unrecognizedHeaders = new LinkedList();
 		this.headers = new LinkedList();
-		nameTable = new Hashtable();
+		this.headerSlots = new SIPHeader[HeaderIds.COUNT];
 		try {
-			this.attachHeader(new ContentLength(0), false);
+			this.attachHeader(new ContentLength(0), false, false, false);
 		} catch (Exception ex) {
 		}
 	}
@@ -623,10 +800,42 @@ public abstract class SIPMessage
 		boolean replaceFlag,
 		boolean top)
 		throws SIPDuplicateHeaderException {
+		this.attachHeader(header, replaceFlag, top, true);
+	}
+
+	/**
+	 * Attach a header that the parser has just made. Nothing outside of
+	 * this message holds it, so a clone of the message can share it.
+	 *
+	 * @param header Header to attach.
+	 * @exception SIPDuplicateHeaderException if the header is of a type
+	 * that cannot tolerate duplicates and one of this type already exists.
+	 */
+	public void attachParsedHeader(SIPHeader header)
+		throws SIPDuplicateHeaderException {
+		this.attachHeader(header, false, false, false);
+	}
+
+	/**
+	 * Attach a header.
+	 *
+	 * @param exposed true if the caller may keep the header (it is then
+	 * copied rather than shared by a clone).
+	 */
+	private void attachHeader(
+		SIPHeader header,
+		boolean replaceFlag,
+		boolean top,
+		boolean exposed)
+		throws SIPDuplicateHeaderException {
 		if (header == null) {
 			throw new NullPointerException("null header");
 		}
 
+		// Parse any header of the same name that is still in its text
+		// form so that the new header can be merged with it.
+		this.getHeaderByName(header.getName());
+
 		SIPHeader h;
 
 		if (ListMap.hasList(header)
@@ -639,14 +848,14 @@ public abstract class SIPMessage
 		}
 
 		if (replaceFlag) {
-			nameTable.remove(header.getName().toLowerCase());
+			removeFromSlot(header.getName());
 		} else if (
-			nameTable.containsKey(header.getName().toLowerCase())
+			lookupHeader(header.getName()) != null
 				&& !(h instanceof SIPHeaderList)) {
 			if (h instanceof ContentLength) {
 				try {
 					ContentLength cl = (ContentLength) header;
-					contentLengthHeader.setContentLength(cl.getContentLength());
+					ownContentLength().setContentLength(cl.getContentLength());
 				} catch (InvalidArgumentException e) {
 				}
 			}
@@ -654,7 +863,7 @@ public abstract class SIPMessage
 			return;
 		}
 
-		SIPHeader originalHeader = (SIPHeader) getHeader(header.getName());
+		SIPHeader originalHeader = getFirstHeader(header.getName());
 
 		// Delete the original header from our list structure.
 		if (originalHeader != null) {
@@ -668,24 +877,44 @@ public abstract class SIPMessage
 			}
 		}
 
-		if (getHeader(header.getName()) == null) {
-			nameTable.put(header.getName().toLowerCase(), h);
+		if (getFirstHeader(header.getName()) == null) {
+			putHeader(header.getName(), h);
 			headers.add(h);
 		} else {
 			if (h instanceof SIPHeaderList) {
 				SIPHeaderList hdrlist =
-					(SIPHeaderList) nameTable.get(
-						header.getName().toLowerCase());
+					(SIPHeaderList) ownHeader(header.getName());
 				if (hdrlist != null)
 					hdrlist.concatenate((SIPHeaderList) h, top);
 				else
-					nameTable.put(h.getName().toLowerCase(), h);
+					putHeader(h.getName(), h);
 			} else {
-				nameTable.put(h.getName().toLowerCase(), h);
+				putHeader(h.getName(), h);
 			}
 		}
 
-		// Direct accessor fields for frequently accessed headers.
+		setAccessor(h);
+		if (exposed) {
+			int id = HeaderIds.getId(header.getName());
+			if (id >= 0)
+				exposedSlots |= 1L << id;
+		}
+	}
+
+	// The first header of the given name (parsed), as getHeader gets it
+	// but without handing it out.
+	private SIPHeader getFirstHeader(String name) {
+		SIPHeader sipHeader = getHeaderByName(name);
+		if (sipHeader instanceof SIPHeaderList)
+			return ((SIPHeaderList) sipHeader).getFirst();
+		else
+			return sipHeader;
+	}
+
+	/**
+	 * Set the direct accessor field of a frequently accessed header.
+	 */
+	private void setAccessor(SIPHeader h) {
 		if (h instanceof From) {
 			this.fromHeader = (From) h;
 		} else if (h instanceof ContentLength) {
@@ -699,7 +928,72 @@ public abstract class SIPMessage
 		} else if (h instanceof MaxForwards) {
 			this.maxForwardsHeader = (MaxForwards) h;
 		}
+	}
 
+	/**
+	 * Get the header or header list of the given name from its slot (or
+	 * from the extension headers) as it is, parsed or not.
+	 */
+	private SIPHeader lookupHeader(String name) {
+		int id = HeaderIds.getId(name);
+		if (id >= 0)
+			return headerSlots[id];
+		for (int i = 0; i < extensionCount; i++) {
+			if (extensionHeaders[i].getName().equalsIgnoreCase(name))
+				return extensionHeaders[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Put a header or header list in the slot of its name (replacing
+	 * what is there).
+	 */
+	private void putHeader(String name, SIPHeader h) {
+		int id = HeaderIds.getId(name);
+		if (id >= 0) {
+			headerSlots[id] = h;
+			borrowedSlots &= ~(1L << id);
+			exposedSlots &= ~(1L << id);
+			return;
+		}
+		for (int i = 0; i < extensionCount; i++) {
+			if (extensionHeaders[i].getName().equalsIgnoreCase(name)) {
+				extensionHeaders[i] = h;
+				return;
+			}
+		}
+		if (extensionHeaders == null) {
+			extensionHeaders = new SIPHeader[4];
+		} else if (extensionCount == extensionHeaders.length) {
+			SIPHeader[] newHeaders = new SIPHeader[2 * extensionCount];
+			System.arraycopy(
+				extensionHeaders, 0, newHeaders, 0, extensionCount);
+			extensionHeaders = newHeaders;
+		}
+		extensionHeaders[extensionCount++] = h;
+	}
+
+	/**
+	 * Empty the slot of a name.
+	 */
+	private void removeFromSlot(String name) {
+		int id = HeaderIds.getId(name);
+		if (id >= 0) {
+			headerSlots[id] = null;
+			borrowedSlots &= ~(1L << id);
+			exposedSlots &= ~(1L << id);
+			return;
+		}
+		for (int i = 0; i < extensionCount; i++) {
+			if (extensionHeaders[i].getName().equalsIgnoreCase(name)) {
+				extensionCount--;
+				System.arraycopy(extensionHeaders, i + 1,
+					extensionHeaders, i, extensionCount - i);
+				extensionHeaders[extensionCount] = null;
+				return;
+			}
+		}
 	}
 
 	/**
@@ -712,8 +1006,7 @@ public abstract class SIPMessage
 	 */
 	public void removeHeader(String headerName, boolean top) {
 
-		SIPHeader toRemove =
-			(SIPHeader) nameTable.get(headerName.toLowerCase());
+		SIPHeader toRemove = ownHeader(headerName);
 		// nothing to do then we are done.
 		if (toRemove == null)
 			return;
@@ -733,7 +1026,7 @@ public abstract class SIPMessage
 				}
 			}
 		} else {
-			this.nameTable.remove(headerName.toLowerCase());
+			this.removeFromSlot(headerName);
 			if (toRemove instanceof From) {
 				this.fromHeader = null;
 			} else if (toRemove instanceof To) {
@@ -766,12 +1059,11 @@ public abstract class SIPMessage
 
 		if (headerName == null)
 			throw new NullPointerException("null arg");
-		SIPHeader toRemove =
-			(SIPHeader) nameTable.get(headerName.toLowerCase());
+		SIPHeader toRemove = lookupHeader(headerName);
 		// nothing to do then we are done.
 		if (toRemove == null)
 			return;
-		nameTable.remove(headerName.toLowerCase());
+		removeFromSlot(headerName);
 		// Remove the fast accessor fields.
 		if (toRemove instanceof From) {
 			this.fromHeader = null;
@@ -818,16 +1110,17 @@ public abstract class SIPMessage
 	 *	the same computed transaction identifier).
 	 */
 	public String getTransactionId() {
+		// The headers are only read: they need not be handed out (which
+		// would make clone copy them).
 		Via topVia = null;
-		if (!this.getViaHeaders().isEmpty()) {
-			topVia = (Via) this.getViaHeaders().first();
+		ViaList viaList = (ViaList) this.getHeaderByName(ViaHeader.NAME);
+		if (!viaList.isEmpty()) {
+			topVia = (Via) viaList.first();
 		}
 		// Have specified a branch Identifier so we can use it to identify
 		// the transaction. BranchId is not case sensitive.
 		// Branch Id prefix is not case sensitive.
-		if (topVia.getBranch() != null
-			&& topVia.getBranch().toUpperCase().startsWith(
-				SIPConstants.BRANCH_MAGIC_COOKIE.toUpperCase())) {
+		if (Utils.hasMagicCookie(topVia.getBranch())) {
 			// Bis 09 compatible branch assignment algorithm.
 			// implies that the branch id can be used as a transaction
 			// identifier.
@@ -836,8 +1129,8 @@ public abstract class SIPMessage
 			// Old style client so construct the transaction identifier
 			// from various fields of the request.
 			StringBuffer retval = new StringBuffer();
-			From from = (From) this.getFrom();
-			To to = (To) this.getTo();
+			From from = this.fromHeader;
+			To to = this.toHeader;
 			String hpFrom = from.getUserAtHostPort();
 			retval.append(hpFrom).append(":");
 			if (from.hasTag())
@@ -850,8 +1143,8 @@ public abstract class SIPMessage
 				":").append(
 				this.cSeqHeader.getMethod());
 			if (topVia != null) {
-				retval.append(":").append(topVia.getSentBy().encode());
-				if (!topVia.getSentBy().hasPort()) {
+				retval.append(":").append(topVia.encodeSentBy());
+				if (!topVia.hasPort()) {
 					retval.append(":").append(5060);
 				}
 			}
@@ -887,6 +1180,7 @@ public abstract class SIPMessage
 	 * @return an Iterator for the headers of this message.
 	 */
 	public ListIterator getHeaders() {
+		this.ownAll(true);
 		return headers.listIterator();
 	}
 
@@ -898,8 +1192,7 @@ public abstract class SIPMessage
 	public Header getHeader(String headerName) {
 		if (headerName == null)
 			throw new NullPointerException("bad name");
-		SIPHeader sipHeader =
-			(SIPHeader) this.nameTable.get(headerName.toLowerCase());
+		SIPHeader sipHeader = handOutHeader(headerName);
 		if (sipHeader instanceof SIPHeaderList)
 			return (Header) ((SIPHeaderList) sipHeader).getFirst();
 		else
@@ -919,6 +1212,7 @@ public abstract class SIPMessage
 	 * @return -- the from header.
 	 */
 	public FromHeader getFrom() {
+		handOutSlot(FROM_ID);
 		return (FromHeader) fromHeader;
 	}
 
@@ -987,6 +1281,7 @@ public abstract class SIPMessage
 	 * @return CSeq header
 	 */
 	public CSeqHeader getCSeq() {
+		handOutSlot(CSEQ_ID);
 		return (CSeqHeader) cSeqHeader;
 	}
 
@@ -1005,6 +1300,7 @@ public abstract class SIPMessage
 	 */
 	
 	public MaxForwardsHeader getMaxForwards() {
+		handOutSlot(MAX_FORWARDS_ID);
 		return maxForwardsHeader;
 	}
 
@@ -1032,6 +1328,7 @@ public abstract class SIPMessage
 	 * @return Call-ID header .
 	 */
 	public CallIdHeader getCallId() {
+		handOutSlot(CALL_ID_ID);
 		return callIdHeader;
 	}
 
@@ -1053,6 +1350,7 @@ public abstract class SIPMessage
 		if (callIdHeader == null) {
 			this.setHeader(new CallID());
 		}
+		ownSlot(CALL_ID_ID, false);
 		callIdHeader.setCallId(callId);
 	}
 
@@ -1071,6 +1369,7 @@ public abstract class SIPMessage
 	 * @return To header
 	 */
 	public ToHeader getTo() {
+		handOutSlot(TO_ID);
 		return (ToHeader) toHeader;
 	}
 
@@ -1089,9 +1388,78 @@ public abstract class SIPMessage
 	 * @return content-length header.
 	 */
 	public ContentLengthHeader getContentLength() {
+		handOutSlot(CONTENT_LENGTH_ID);
+		return this.contentLengthHeader;
+	}
+
+	/*
+	 * The peek methods below give the stack (the parser, the channels and
+	 * the transaction layer) the headers that it reads, without handing
+	 * them out the way the getters above do: a header that was only
+	 * peeked at is still shared with the clones of this message (see
+	 * clone). The headers must not be changed through them; a header that
+	 * is to be changed is got with its getter.
+	 */
+
+	/**
+	 * Get the From header to read it (see getFrom).
+	 */
+	public From peekFrom() {
+		return this.fromHeader;
+	}
+
+	/**
+	 * Get the To header to read it (see getTo).
+	 */
+	public To peekTo() {
+		return this.toHeader;
+	}
+
+	/**
+	 * Get the Call-ID header to read it (see getCallId).
+	 */
+	public CallID peekCallId() {
+		return this.callIdHeader;
+	}
+
+	/**
+	 * Get the CSeq header to read it (see getCSeq).
+	 */
+	public CSeq peekCSeq() {
+		return this.cSeqHeader;
+	}
+
+	/**
+	 * Get the Content-Length header to read it (see getContentLength).
+	 */
+	public ContentLength peekContentLength() {
 		return this.contentLengthHeader;
 	}
 
+	/**
+	 * Get the Via headers to read them (see getViaHeaders).
+	 */
+	public ViaList peekViaHeaders() {
+		return (ViaList) this.getHeaderByName(ViaHeader.NAME);
+	}
+
+	/**
+	 * Get the topmost Via header to read it (see getTopmostVia).
+	 */
+	public Via peekTopmostVia() {
+		ViaList viaList = this.peekViaHeaders();
+		if (viaList == null || viaList.isEmpty())
+			return null;
+		return (Via) viaList.getFirst();
+	}
+
+	/**
+	 * Get a header or header list by name to read it (see getHeader).
+	 */
+	public SIPHeader peekHeader(String headerName) {
+		return this.getHeaderByName(headerName);
+	}
+
 	/**
 	 * Get the message body as a string.
 	 * If the message contains a content type header with a specified
@@ -1108,8 +1476,7 @@ public abstract class SIPMessage
 			return null;
 		else if (this.messageContent == null) {
 			ContentType contentTypeHeader =
-				(ContentType) this.nameTable.get(
-					ContentType.NAME.toLowerCase());
+				(ContentType) this.getHeaderByName(ContentType.NAME);
 			if (contentTypeHeader != null) {
 				String charset = contentTypeHeader.getCharset();
 				if (charset != null) {
@@ -1136,56 +1503,54 @@ public abstract class SIPMessage
 	 * @return an array of bytes that is the message payload.
 	 */
 	public byte[] getRawContent() {
+		if (this.messageContentObject != null)
+			return this.encodeContent(this.messageContentObject.toString());
+		else if (this.messageContent != null)
+			return this.encodeContent(this.messageContent);
+		else
+			return this.messageContentBytes;
+	}
+
+	// The charset of the Content-Type header, or null if it is UTF-8 (the
+	// default).
+	private String getContentCharset() {
+		ContentType contentTypeHeader =
+			(ContentType) this.getHeaderByName(ContentTypeHeader.NAME);
+		if (contentTypeHeader == null)
+			return null;
+		String charset = contentTypeHeader.getCharset();
+		if (charset == null || charset.equalsIgnoreCase(DEFAULT_ENCODING))
+			return null;
+		return charset;
+	}
+
+	// Encode a content that was given as a string.
+	private byte[] encodeContent(String content) {
+		String charset = this.getContentCharset();
+		if (charset == null)
+			return UTF8Encoder.encode(content);
 		try {
-			if (this.messageContent == null
-				&& this.messageContentBytes == null
-				&& this.messageContentObject == null) {
-				return null;
-			} else if (this.messageContentObject != null) {
-				String messageContent = this.messageContentObject.toString();
-				byte[] messageContentBytes;
-				ContentType contentTypeHeader =
-					(ContentType) this.nameTable.get(
-						ContentTypeHeader.NAME.toLowerCase());
-				if (contentTypeHeader != null) {
-					String charset = contentTypeHeader.getCharset();
-					if (charset != null) {
-						messageContentBytes = messageContent.getBytes(charset);
-					} else {
-						messageContentBytes =
-							messageContent.getBytes(DEFAULT_ENCODING);
-					}
-				} else
-					messageContentBytes =
-						messageContent.getBytes(DEFAULT_ENCODING);
-				return messageContentBytes;
-			} else if (this.messageContent != null) {
-				byte[] messageContentBytes;
-				ContentType contentTypeHeader =
-					(ContentType) this.nameTable.get(
-						ContentTypeHeader.NAME.toLowerCase());
-				if (contentTypeHeader != null) {
-					String charset = contentTypeHeader.getCharset();
-					if (charset != null) {
-						messageContentBytes =
-							this.messageContent.getBytes(charset);
-					} else {
-						messageContentBytes =
-							this.messageContent.getBytes(DEFAULT_ENCODING);
-					}
-				} else
-					messageContentBytes =
-						this.messageContent.getBytes(DEFAULT_ENCODING);
-				return messageContentBytes;
-			} else {
-				return messageContentBytes;
-			}
+			return content.getBytes(charset);
 		} catch (UnsupportedEncodingException ex) {
 			InternalErrorHandler.handleException(ex);
 			return null;
 		}
 	}
 
+	// Number of bytes of a content that was given as a string, as
+	// getRawContent encodes it (in UTF-8 the bytes are counted rather than
+	// made).
+	private int getContentLength(String content) {
+		String charset = this.getContentCharset();
+		if (charset != null) {
+			try {
+				return content.getBytes(charset).length;
+			} catch (UnsupportedEncodingException ex) {
+			}
+		}
+		return UTF8Encoder.length(content);
+	}
+
 	/**
 	 * Set the message content given type and subtype.
 	 *
@@ -1205,9 +1570,10 @@ public abstract class SIPMessage
 		this.messageContentBytes = null;
 		this.messageContentObject = null;
 		// Could be  double byte so we need to compute length
-		// after converting to byte[]
+		// in bytes
 		try {
-			this.contentLengthHeader.setContentLength(messageContent.getBytes().length);
+			this.ownContentLength().setContentLength(
+				this.getContentLength(messageContent));
 		} catch (InvalidArgumentException ex) {
 		}
 
@@ -1236,15 +1602,15 @@ public abstract class SIPMessage
 		try {
 			int length = -1;
 			if (content instanceof String) {
-				length = ((String) content).getBytes().length;
+				length = this.getContentLength((String) content);
 			} else if (content instanceof byte[]) {
 				length = ((byte[]) content).length;
 			} else {
-				length = content.toString().length();
+				length = this.getContentLength(content.toString());
 			}
 
 			if (length != -1) {
-				this.contentLengthHeader.setContentLength(length);
+				this.ownContentLength().setContentLength(length);
 			}
 		} catch (InvalidArgumentException ex) {
 		}
@@ -1282,7 +1648,7 @@ public abstract class SIPMessage
 		this.setHeader(ct);
 		this.setMessageContent(messageContent);
 		try {
-			this.contentLengthHeader.setContentLength(messageContent.length);
+			this.ownContentLength().setContentLength(messageContent.length);
 		} catch (InvalidArgumentException ex) {
 		}
 
@@ -1296,9 +1662,9 @@ public abstract class SIPMessage
 	public void setMessageContent(String content) {
 		// Note that that this could be a double byte character
 		// set - bug report by Masafumi Watanabe
-		int clength = (content == null ? 0 : content.getBytes().length);
+		int clength = (content == null ? 0 : this.getContentLength(content));
 		try {
-			this.contentLengthHeader.setContentLength(clength);
+			this.ownContentLength().setContentLength(clength);
 		} catch (InvalidArgumentException ex) {
 		}
 		messageContent = content;
@@ -1313,7 +1679,7 @@ public abstract class SIPMessage
 	 */
 	public void setMessageContent(byte[] content) {
 		try {
-			this.contentLengthHeader.setContentLength(content.length);
+			this.ownContentLength().setContentLength(content.length);
 		} catch (InvalidArgumentException ex) {
 		}
 
@@ -1330,7 +1696,7 @@ public abstract class SIPMessage
 		messageContentBytes = null;
 		messageContentObject = null;
 		try {
-			this.contentLengthHeader.setContentLength(0);
+			this.ownContentLength().setContentLength(0);
 		} catch (InvalidArgumentException ex) {
 		}
 	}
@@ -1343,8 +1709,7 @@ public abstract class SIPMessage
 	public ListIterator getHeaders(String headerName) {
 		if (headerName == null)
 			throw new NullPointerException("null headerName");
-		SIPHeader sipHeader =
-			(SIPHeader) nameTable.get(headerName.toLowerCase());
+		SIPHeader sipHeader = handOutHeader(headerName);
 		// empty iterator
 		if (sipHeader == null)
 			return new LinkedList().listIterator();
@@ -1356,12 +1721,11 @@ public abstract class SIPMessage
 	}
 
 	private SIPHeaderList getSIPHeaderList(String headerName) {
-		return (SIPHeaderList) nameTable.get(headerName.toLowerCase());
+		return (SIPHeaderList) handOutHeader(headerName);
 	}
 
 	private LinkedList getHeaderList(String headerName) {
-		SIPHeader sipHeader =
-			(SIPHeader) nameTable.get(headerName.toLowerCase());
+		SIPHeader sipHeader = handOutHeader(headerName);
 		if (sipHeader == null)
 			return null;
 		else if (sipHeader instanceof SIPHeaderList)
@@ -1380,7 +1744,9 @@ public abstract class SIPMessage
 	 * @return true if the header is present in the message
 	 */
 	public boolean hasHeader(String headerName) {
-		return nameTable.containsKey(headerName.toLowerCase());
+		// A header still in its text form is parsed first: if none of its
+		// lines parse, it goes away and getHeader would not find it.
+		return getHeaderByName(headerName) != null;
 	}
 
 	/**
@@ -1420,6 +1786,7 @@ public abstract class SIPMessage
 	 */
 	public void setFromTag(String tag) {
 		try {
+			ownSlot(FROM_ID, false);
 			fromHeader.setTag(tag);
 		} catch (ParseException e) {
 		}
@@ -1432,6 +1799,7 @@ public abstract class SIPMessage
 	 */
 	public void setToTag(String tag) {
 		try {
+			ownSlot(TO_ID, false);
 			toHeader.setTag(tag);
 		} catch (ParseException e) {
 		}
@@ -1466,7 +1834,7 @@ public abstract class SIPMessage
 			try {
 				if (sipHeader instanceof ContentLength) {
 					ContentLength cl = (ContentLength) sipHeader;
-					contentLengthHeader.setContentLength(cl.getContentLength());
+					ownContentLength().setContentLength(cl.getContentLength());
 				}
 			} catch (InvalidArgumentException e) {
 			}
@@ -1482,6 +1850,223 @@ public abstract class SIPMessage
 		this.unrecognizedHeaders.add(unparsed);
 	}
 
+	/**
+	 * Add a header line that is only to be parsed when the header is
+	 * first accessed. Lines that carry the same header name are kept
+	 * together in a single LazyHeader and, as long as nobody looks at
+	 * them, are encoded exactly as they were received.
+	 * This is called by the parser when it is in lazy mode.
+	 *
+	 * @param headerName -- name of the header (the full form).
+	 * @param line -- header line (without the newline).
+	 */
+	public void addLazyHeader(String headerName, String line) {
+		synchronized (this.headers) {
+			SIPHeader sipHeader = lookupHeader(headerName);
+			if (sipHeader instanceof LazyHeader) {
+				((LazyHeader) sipHeader).addLine(line);
+			} else if (sipHeader == null) {
+				attachLazyHeader(new LazyHeader(headerName, line));
+			} else {
+				// A header of this name was already parsed.
+				this.addHeader(line);
+			}
+		}
+	}
+
+	private void attachLazyHeader(LazyHeader lazyHeader) {
+		putHeader(lazyHeader.getName(), lazyHeader);
+		headers.add(lazyHeader);
+	}
+
+	/**
+	 * Get a header or header list by name, parsing it first if it is
+	 * still in its text form.
+	 *
+	 * @param name -- header name (in any case).
+	 */
+	private SIPHeader getHeaderByName(String name) {
+		SIPHeader sipHeader = lookupHeader(name);
+		if (sipHeader instanceof LazyHeader)
+			return materialize((LazyHeader) sipHeader);
+		else
+			return sipHeader;
+	}
+
+	/**
+	 * Get a header or header list by name (parsed) to hand it out to a
+	 * caller, who may change it or keep it.
+	 */
+	private SIPHeader handOutHeader(String name) {
+		SIPHeader sipHeader = getHeaderByName(name);
+		int id = HeaderIds.getId(name);
+		if (id >= 0 && sipHeader != null)
+			return handOutSlot(id);
+		return sipHeader;
+	}
+
+	/**
+	 * Get a header or header list by name (parsed) to change it.
+	 */
+	protected SIPHeader ownHeader(String name) {
+		SIPHeader sipHeader = getHeaderByName(name);
+		int id = HeaderIds.getId(name);
+		if (id >= 0 && sipHeader != null)
+			return ownSlot(id, false);
+		return sipHeader;
+	}
+
+	// Get the content length header to change it.
+	private ContentLength ownContentLength() {
+		ownSlot(CONTENT_LENGTH_ID, false);
+		return this.contentLengthHeader;
+	}
+
+	/**
+	 * Get the header of a slot to hand it out.
+	 */
+	private SIPHeader handOutSlot(int id) {
+		// A slot is never both borrowed and exposed.
+		if ((exposedSlots & (1L << id)) != 0)
+			return headerSlots[id];
+		return ownSlot(id, true);
+	}
+
+	/**
+	 * Make the header of a slot this message's own: a header that is
+	 * borrowed (shared with a clone) is replaced by a copy, in the slot,
+	 * in the list of headers and in its accessor field. The slot is then
+	 * marked as exposed if the header is handed out.
+	 *
+	 * @return the header (null if the slot is empty).
+	 */
+	private SIPHeader ownSlot(int id, boolean expose) {
+		long bit = 1L << id;
+		synchronized (this.headers) {
+			SIPHeader sipHeader = headerSlots[id];
+			if (sipHeader == null || sipHeader instanceof LazyHeader)
+				return sipHeader;
+			if ((borrowedSlots & bit) != 0) {
+				SIPHeader copy = (SIPHeader) sipHeader.clone();
+				ListIterator li = headers.listIterator();
+				while (li.hasNext()) {
+					if (li.next() == sipHeader) {
+						li.set(copy);
+						break;
+					}
+				}
+				headerSlots[id] = copy;
+				setAccessor(copy);
+				borrowedSlots &= ~bit;
+				sipHeader = copy;
+			}
+			if (expose)
+				exposedSlots |= bit;
+			return sipHeader;
+		}
+	}
+
+	/**
+	 * Parse all the headers and make them this message's own (see
+	 * ownSlot).
+	 */
+	private void ownAll(boolean expose) {
+		this.materializeAll();
+		synchronized (this.headers) {
+			for (int id = 0; id < HeaderIds.COUNT; id++) {
+				if (headerSlots[id] != null)
+					ownSlot(id, expose);
+			}
+		}
+	}
+
+	// True if a part of the header (or of a member of the list) may be
+	// held outside of it.
+	private static boolean isShared(SIPHeader sipHeader) {
+		if (sipHeader.isShared())
+			return true;
+		if (sipHeader instanceof SIPHeaderList) {
+			Iterator it = ((SIPHeaderList) sipHeader).iterator();
+			while (it.hasNext()) {
+				if (((SIPHeader) it.next()).isShared())
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parse the lines of a LazyHeader and put the result in its place
+	 * (in the name table and in the list of headers). Lines that do not
+	 * parse go to the unrecognized headers as they would have if the
+	 * message had been parsed eagerly.
+	 *
+	 * @return the parsed header or header list (null if none of the lines
+	 * could be parsed).
+	 */
+	private SIPHeader materialize(LazyHeader lazyHeader) {
+		String name = lazyHeader.getName();
+		synchronized (this.headers) {
+			// Another thread may have beaten us to it.
+			SIPHeader current = lookupHeader(name);
+			if (current != lazyHeader)
+				return current;
+			int index = headers.indexOf(lazyHeader);
+			SIPHeader retval = null;
+			for (int i = 0; i < lazyHeader.getLineCount(); i++) {
+				String line = lazyHeader.getLine(i);
+				SIPHeader sipHeader;
+				try {
+					// The header parsers expect a line feed at the end.
+					sipHeader =
+						ParserFactory.createParser(line + "\n").parse();
+					sipHeader.clearShared();
+				} catch (ParseException ex) {
+					this.unrecognizedHeaders.add(line);
+					continue;
+				}
+				if (retval == null) {
+					if (ListMap.hasList(sipHeader)
+						&& !(sipHeader instanceof SIPHeaderList)) {
+						SIPHeaderList hdrList = ListMap.getList(sipHeader);
+						hdrList.add(sipHeader);
+						retval = hdrList;
+					} else {
+						retval = sipHeader;
+					}
+				} else if (retval instanceof SIPHeaderList) {
+					if (sipHeader instanceof SIPHeaderList)
+						((SIPHeaderList) retval).concatenate(
+							(SIPHeaderList) sipHeader, false);
+					else
+						((SIPHeaderList) retval).add(sipHeader);
+				}
+				// Else just ignore the duplicate header.
+			}
+			if (retval == null) {
+				removeFromSlot(name);
+				headers.remove(index);
+			} else {
+				putHeader(name, retval);
+				headers.set(index, retval);
+			}
+			return retval;
+		}
+	}
+
+	/**
+	 * Parse all the headers that are still in their text form.
+	 */
+	private void materializeAll() {
+		synchronized (this.headers) {
+			Object[] sipHeaders = this.headers.toArray();
+			for (int i = 0; i < sipHeaders.length; i++) {
+				if (sipHeaders[i] instanceof LazyHeader)
+					materialize((LazyHeader) sipHeaders[i]);
+			}
+		}
+	}
+
 	/**
 	 * Add a SIP header.
 	 * @param sipHeader -- string version of SIP header to add.
@@ -1492,7 +2077,8 @@ public abstract class SIPMessage
 		try {
 			HeaderParser parser = ParserFactory.createParser(sipHeader);
 			SIPHeader sh = parser.parse();
-			this.attachHeader(sh, false);
+			sh.clearShared();
+			this.attachHeader(sh, false, false, false);
 		} catch (ParseException ex) {
 			this.unrecognizedHeaders.add(hdrString);
 		}
@@ -1533,23 +2119,21 @@ public abstract class SIPMessage
 			return false;
 		}
 		SIPMessage otherMessage = (SIPMessage) other;
-		Collection values = this.nameTable.values();
-		Iterator it = values.iterator();
-		if (nameTable.size() != otherMessage.nameTable.size()) {
+		this.materializeAll();
+		otherMessage.materializeAll();
+		if (extensionCount != otherMessage.extensionCount)
 			return false;
-		}
-
-		while (it.hasNext()) {
-			SIPHeader mine = (SIPHeader) it.next();
-			SIPHeader his =
-				(SIPHeader) (otherMessage
-					.nameTable
-					.get(mine.getName().toLowerCase()));
-			if (his == null) {
+		for (int i = 0; i < HeaderIds.COUNT; i++) {
+			SIPHeader mine = headerSlots[i];
+			SIPHeader his = otherMessage.headerSlots[i];
+			if (mine == null ? his != null : !mine.equals(his))
 				return false;
-			} else if (!his.equals(mine)) {
+		}
+		for (int i = 0; i < extensionCount; i++) {
+			SIPHeader mine = extensionHeaders[i];
+			SIPHeader his = otherMessage.lookupHeader(mine.getName());
+			if (his == null || !his.equals(mine))
 				return false;
-			}
 		}
 		return true;
 	}
@@ -1630,7 +2214,7 @@ public abstract class SIPMessage
 	 */
 	public void setContentLength(ContentLengthHeader contentLength) {
 		try {
-			this.contentLengthHeader.setContentLength(
+			this.ownContentLength().setContentLength(
 				contentLength.getContentLength());
 		} catch (InvalidArgumentException ex) {
 		}
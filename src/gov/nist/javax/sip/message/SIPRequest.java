@@ -209,7 +209,7 @@ public final class SIPRequest
 	protected void setRequestLineDefaults() {
 		String method = requestLine.getMethod();
 		if (method == null) {
-			CSeq cseq = (CSeq) this.getCSeq();
+			CSeq cseq = this.peekCSeq();
 			if (cseq != null) {
 				method = cseq.getMethod();
 				requestLine.setMethod(method);
@@ -265,7 +265,7 @@ public final class SIPRequest
 
 		if (this.cSeqHeader != null) {
 			try {
-				this.cSeqHeader.setMethod(method);
+				((CSeq) this.ownHeader(CSeqHeader.NAME)).setMethod(method);
 			} catch (ParseException e) {
 			}
 		}
@@ -398,10 +398,10 @@ public final class SIPRequest
 	*	and set to false if this is the UAC
 	*/
 	public String getDialogId(boolean isServer) {
-		CallID cid = (CallID) this.getCallId();
+		CallID cid = this.peekCallId();
 		StringBuffer retval = new StringBuffer(cid.getCallId());
-		From from = (From) this.getFrom();
-		To to = (To) this.getTo();
+		From from = this.peekFrom();
+		To to = this.peekTo();
 		if (!isServer) {
 			retval.append(COLON).append(from.getUserAtHostPort());
 			if (from.getTag() != null) {
@@ -432,9 +432,9 @@ public final class SIPRequest
 	/** Get a dialog id given the remote tag.
 	*/
 	public String getDialogId(boolean isServer, String toTag) {
-		From from = (From) this.getFrom();
-		To to = (To) this.getTo();
-		CallID cid = (CallID) this.getCallId();
+		From from = this.peekFrom();
+		To to = this.peekTo();
+		CallID cid = this.peekCallId();
 		StringBuffer retval = new StringBuffer(cid.getCallId());
 		if (!isServer) {
 			retval.append(COLON).append(from.getUserAtHostPort());
@@ -462,36 +462,6 @@ public final class SIPRequest
 		return retval.toString().toLowerCase();
 	}
 
-	/** Encode this into a byte array.
-	* This is used when the body has been set as a binary array 
-	* and you want to encode the body as a byte array for transmission.
-	*
-	*@return a byte array containing the SIPRequest encoded as a byte
-	*  array.
-	*/
-
-	public byte[] encodeAsBytes() {
-		byte[] rlbytes = null;
-		if (requestLine != null) {
-			try {
-				rlbytes = requestLine.encode().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException ex) {
-				InternalErrorHandler.handleException(ex);
-			}
-		}
-		byte[] superbytes = super.encodeAsBytes();
-		byte[] retval = new byte[rlbytes.length + superbytes.length];
-		int i = 0;
-		System.arraycopy(rlbytes, 0, retval, 0, rlbytes.length);
-		System.arraycopy(
-			superbytes,
-			0,
-			retval,
-			rlbytes.length,
-			superbytes.length);
-		return retval;
-	}
-
 	/** Creates a default SIPResponse message for this request. Note
 	    * You must add the necessary tags to outgoing responses if need
 	* be. For efficiency, this method does not clone the incoming
@@ -556,7 +526,12 @@ public final class SIPRequest
 		else
 			newResponse.setReasonPhrase(
 				SIPResponse.getReasonPhrase(statusCode));
-		headerIterator = getHeaders();
+		// Parse the headers that are copied into the response but that
+		// may have been left in text form by a lazy parser. The others
+		// need not be parsed so walk the header list directly.
+		getHeader(RecordRouteHeader.NAME);
+		getHeader(TimeStampHeader.NAME);
+		headerIterator = this.headers.listIterator();
 		while (headerIterator.hasNext()) {
 			nextHeader = (SIPHeader) headerIterator.next();
 			if (nextHeader instanceof From
@@ -864,7 +839,7 @@ public final class SIPRequest
 	 * header.
 	 */
 	public String getViaHost() {
-		Via via = (Via) this.getViaHeaders().getFirst();
+		Via via = this.peekTopmostVia();
 		return via.getHost();
 
 	}
@@ -876,7 +851,7 @@ public final class SIPRequest
 	 *  no port indicated).
 	 */
 	public int getViaPort() {
-		Via via = (Via) this.getViaHeaders().getFirst();
+		Via via = this.peekTopmostVia();
 		if (via.hasPort())
 			return via.getPort();
 		else
@@ -486,46 +486,14 @@ public final class SIPResponse
 
 	}
 
-	/** Encode this into a byte array.
-	 * This is used when the body has been set as a binary array
-	 * and you want to encode the body as a byte array for transmission.
-	 *
-	 *@return a byte array containing the SIPRequest encoded as a byte
-	 *  array.
-	 */
-
-	public byte[] encodeAsBytes() {
-		byte[] slbytes = null;
-		if (statusLine != null) {
-			try {
-				slbytes = statusLine.encode().getBytes("UTF-8");
-			} catch (UnsupportedEncodingException ex) {
-				InternalErrorHandler.handleException(ex);
-			}
-		}
-		byte[] superbytes = super.encodeAsBytes();
-		byte[] retval = new byte[slbytes.length + superbytes.length];
-		int i = 0;
-		if (slbytes != null) {
-			for (i = 0; i < slbytes.length; i++) {
-				retval[i] = slbytes[i];
-			}
-		}
-
-		for (int j = 0; j < superbytes.length; j++, i++) {
-			retval[i] = superbytes[j];
-		}
-		return retval;
-	}
-
 	/** Get the dialog identifier. Assume the incoming response
 	 * corresponds to a client dialog for an outgoing request.
 	 * Acknowledgement -- this was contributed by Lamine Brahimi.
 	 *
 	 *@return a string that can be used to identify the dialog.
 	public String getDialogId()  {
-	    CallID cid = (CallID)this.getCallId();
-	    From from = (From) this.getFrom();
+	    CallID cid = this.peekCallId();
+	    From from = this.peekFrom();
 	    String retval = cid.getCallId();
 	    retval += COLON + from.getUserAtHostPort();
 	    retval += COLON;
@@ -544,9 +512,9 @@ public final class SIPResponse
 	 * and set to false if this is the UAC
 	 */
 	public String getDialogId(boolean isServer) {
-		CallID cid = (CallID) this.getCallId();
-		From from = (From) this.getFrom();
-		To to = (To) this.getTo();
+		CallID cid = this.peekCallId();
+		From from = this.peekFrom();
+		To to = this.peekTo();
 		StringBuffer retval = new StringBuffer(cid.getCallId());
 		if (!isServer) {
 			retval.append(COLON).append(from.getUserAtHostPort());
@@ -575,9 +543,9 @@ public final class SIPResponse
 	}
 
 	public String getDialogId(boolean isServer, String toTag) {
-		CallID cid = (CallID) this.getCallId();
-		From from = (From) this.getFrom();
-		To to = (To) this.getTo();
+		CallID cid = this.peekCallId();
+		From from = this.peekFrom();
+		To to = this.peekTo();
 		StringBuffer retval = new StringBuffer(cid.getCallId());
 		if (!isServer) {
 			retval.append(COLON).append(from.getUserAtHostPort());
@@ -625,10 +593,10 @@ public final class SIPResponse
 		newRequest.setRequestURI(requestURI);
 		if ((method.equalsIgnoreCase("ACK")
 			|| method.equalsIgnoreCase("CANCEL"))
-			&& this.getTopmostVia().getBranch() != null) {
+			&& this.peekTopmostVia().getBranch() != null) {
 			// Use the branch id from the OK.
 			try {
-				via.setBranch(this.getTopmostVia().getBranch());
+				via.setBranch(this.peekTopmostVia().getBranch());
 			} catch (ParseException ex) {
 			}
 		}
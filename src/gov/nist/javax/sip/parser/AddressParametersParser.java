@@ -2,6 +2,7 @@ package gov.nist.javax.sip.parser;
 
 import gov.nist.javax.sip.header.*;
 import gov.nist.javax.sip.address.*;
+import gov.nist.core.NameValue;
 import java.text.ParseException;
 
 /**
@@ -23,7 +24,10 @@ class AddressParametersParser extends ParametersParser {
 
 	protected void parse(AddressParametersHeader addressParametersHeader)
 		throws ParseException {
-		dbg_enter("AddressParametersParser.parse");
+		if (isFastPath() && parseFast(addressParametersHeader))
+			return;
+		if (debug)
+			dbg_enter("AddressParametersParser.parse");
 		try {
 			AddressParser addressParser = new AddressParser(this.getLexer());
 			AddressImpl addr = addressParser.address();
@@ -42,9 +46,118 @@ class AddressParametersParser extends ParametersParser {
 		} catch (ParseException ex) {
 			throw ex;
 		} finally {
-			dbg_leave("AddressParametersParser.parse");
+			if (debug)
+				dbg_leave("AddressParametersParser.parse");
 		}
 	}
+
+	/**
+	 * Fast path for parse: a sip url, in angle brackets (with or without
+	 * a display name) or on its own, followed by parameters with token or
+	 * quoted values.
+	 * @return false, with the lexer where it was and no parameters set, if
+	 * there is anything else.
+	 */
+	private boolean parseFast(AddressParametersHeader addressParametersHeader) {
+		int m = lexer.markInputPosition();
+		try {
+			AddressImpl addr = addressFast();
+			if (addr != null) {
+				lexer.SPorHT();
+				// Parameters that do not start with a ; are left to the
+				// general parser.
+				if (!lexer.startsId()
+					&& parametersFast(addressParametersHeader)) {
+					addressParametersHeader.setAddress(addr);
+					return true;
+				}
+			}
+		} catch (ParseException ex) {
+		}
+		// The header is new so this is how it was.
+		addressParametersHeader.removeParameters();
+		lexer.rewindInputPosition(m);
+		return false;
+	}
+
+	private boolean parametersFast(ParametersHeader parametersHeader)
+		throws ParseException {
+		while (lexer.lookAhead(0) == ';') {
+			lexer.consume(1);
+			lexer.SPorHT();
+			NameValue nv = fastNameValue();
+			if (nv == null)
+				return false;
+			parametersHeader.setParameter(nv);
+			lexer.SPorHT();
+		}
+		return true;
+	}
+
+	/**
+	 * Fast path for AddressParser.address with a sip url.
+	 * @return the address or null.
+	 */
+	private AddressImpl addressFast() throws ParseException {
+		String displayName = null;
+		char la = lexer.lookAhead(0);
+		if (la == '\"') {
+			displayName = lexer.quotedString();
+			lexer.SPorHT();
+		} else if (la != '<') {
+			// Look for what address would look for.
+			int k = 0;
+			while (la != '<' && la != '\"' && la != ':' && la != '/') {
+				if (la == '\0')
+					return null;
+				la = lexer.lookAhead(++k);
+			}
+			if (la == '<') {
+				displayName = lexer.getBuffer().substring(
+					lexer.getPtr(), lexer.getPtr() + k);
+				lexer.consume(k);
+			} else if (la != ':' || !startsSipUrl()) {
+				return null;
+			} else {
+				// addr-spec
+				AddressImpl retval = new AddressImpl();
+				GenericURI uri = new URLParser(this.getLexer()).sipURL();
+				retval.setAddressType(AddressImpl.ADDRESS_SPEC);
+				retval.setURI(uri);
+				return retval;
+			}
+		}
+		// name-addr
+		AddressImpl retval = new AddressImpl();
+		retval.setAddressType(AddressImpl.NAME_ADDR);
+		if (displayName != null)
+			retval.setDisplayName(displayName.trim());
+		if (lexer.lookAhead(0) != '<')
+			return null;
+		lexer.consume(1);
+		lexer.SPorHT();
+		if (!startsSipUrl())
+			return null;
+		GenericURI uri = new URLParser(this.getLexer()).sipURL();
+		lexer.SPorHT();
+		if (lexer.lookAhead(0) != '>')
+			return null;
+		lexer.consume(1);
+		retval.setURI(uri);
+		return retval;
+	}
+
+	// Check for "sip:" the way URLParser.uriReference does (the scheme is
+	// an id that matches the keyword regardless of case).
+	private boolean startsSipUrl() throws ParseException {
+		char s = lexer.lookAhead(0);
+		char i = lexer.lookAhead(1);
+		char p = lexer.lookAhead(2);
+		return (s == 's' || s == 'S')
+			&& (i == 'i' || i == 'I')
+			&& (p == 'p' || p == 'P')
+			&& lexer.lookAhead(3) == ':';
+	}
 }
 /*
  * $Log: AddressParametersParser.java,v $
@@ -35,8 +35,10 @@ public class CSeqParser extends HeaderParser {
             this.lexer.SPorHT();
             this.lexer.match(':');
             this.lexer.SPorHT();
-            String number = this.lexer.number();
-            c.setSequenceNumber(Integer.parseInt(number));
+            int number = isFastPath() ? fastNumber() : -1;
+            if (number == -1)
+                number = Integer.parseInt(this.lexer.number());
+            c.setSequenceNumber(number);
             this.lexer.SPorHT();
             String m = method();
             
@@ -30,8 +30,10 @@ public class ContentLengthParser extends HeaderParser {
 		try {
 			ContentLength contentLength = new ContentLength();
 			headerName(TokenTypes.CONTENT_LENGTH);
-			String number = this.lexer.number();
-			contentLength.setContentLength(Integer.parseInt(number));
+			int number = isFastPath() ? fastNumber() : -1;
+			if (number == -1)
+				number = Integer.parseInt(this.lexer.number());
+			contentLength.setContentLength(number);
 			this.lexer.SPorHT();
 			this.lexer.match('\n');
 			return contentLength;
@@ -1,6 +1,8 @@
 package gov.nist.javax.sip.parser;
 
 import gov.nist.javax.sip.header.*;
+import gov.nist.core.LexerCore;
+import gov.nist.core.NameValue;
 import java.util.*;
 import java.text.ParseException;
 
@@ -153,6 +155,82 @@ public class HeaderParser extends Parser {
 
 	}
 
+	// The headers that are in every message (Via, From, To, Contact, CSeq,
+	// Max-Forwards and Content-Length) have a fast path for the syntax
+	// that is seen in practice. It works on the lexer buffer without
+	// building tokens and hands anything unusual back to the general
+	// parser, so the parsed headers are the same either way.
+	private static boolean fastPath = true;
+
+	/**
+	 * Turn the fast paths on or off. They are on unless turned off, which
+	 * is only useful to compare them with the general parsers.
+	 */
+	public static void setFastPath(boolean flag) {
+		fastPath = flag;
+	}
+
+	/**
+	 * Return true if the fast paths are on.
+	 */
+	public static boolean isFastPath() {
+		return fastPath;
+	}
+
+	/**
+	 * Get the id at the lexer position (what match(ID) would get).
+	 * @return the id or null if there is none.
+	 */
+	protected String fastId() {
+		return lexer.startsId() ? lexer.ttoken() : null;
+	}
+
+	/**
+	 * Get the number at the lexer position if it fits in an int for sure
+	 * (nine digits or less).
+	 * @return the number or -1, with nothing consumed, if there is no
+	 * such number.
+	 */
+	protected int fastNumber() throws ParseException {
+		int value = 0;
+		int n = 0;
+		char la = lexer.lookAhead(0);
+		while (la >= '0' && la <= '9') {
+			if (n == 9)
+				return -1;
+			value = value * 10 + (la - '0');
+			la = lexer.lookAhead(++n);
+		}
+		// Leave the other (unicode) digits to the general parser.
+		if (n == 0 || LexerCore.isDigit(la))
+			return -1;
+		lexer.consume(n);
+		return value;
+	}
+
+	/**
+	 * Get a parameter at the lexer position (what nameValue would get).
+	 * @return the parameter or null if nameValue would fail or do
+	 * something out of the ordinary.
+	 */
+	protected NameValue fastNameValue() throws ParseException {
+		String name = fastId();
+		if (name == null)
+			return null;
+		lexer.SPorHT();
+		if (lexer.lookAhead(0) != '=')
+			return new NameValue(name, null);
+		lexer.consume(1);
+		lexer.SPorHT();
+		if (lexer.lookAhead(0) == '\"') {
+			NameValue nv = new NameValue(name, lexer.quotedString());
+			nv.setQuotedValue();
+			return nv;
+		}
+		String value = fastId();
+		return value == null ? null : new NameValue(name, value);
+	}
+
 	/**
 	 * Parse the header name until the colon  and chew WS after that.
 	 */
@@ -0,0 +1,24 @@
+/*******************************************************************************
+* Product of NIST/ITL Advanced Networking Technologies Division (ANTD)         *
+*******************************************************************************/
+package gov.nist.javax.sip.parser;
+import java.io.IOException;
+
+/**
+ * A message listener of a PipelinedMsgParser that also implements this
+ * interface is called back for each keep alive (a double CRLF between
+ * messages, see RFC 5626) that the parser reads, so that it can answer
+ * it on the connection the keep alive came from.
+ *
+ * @version JAIN-SIP-1.1
+ * @see PipelinedMsgParser
+ * @see MessageFramer#takeKeepAlives
+ */
+public interface KeepAliveListener {
+	/**
+	 * This is called from the parser thread when a keep alive has been
+	 * read.
+	 * @throws IOException if the answer cannot be written.
+	 */
+	public void processKeepAlive() throws IOException;
+}
@@ -2,7 +2,8 @@ package gov.nist.javax.sip.parser;
 
 import gov.nist.core.*;
 import javax.sip.header.*;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Iterator;
 
 /**
  * Lexer class for the parser.
@@ -56,182 +57,119 @@ public class Lexer extends LexerCore {
 		return headerValue;
 	}
 
+	// Keyword tables by lexer name. They are built when the class is
+	// initialized and never modified after that, so selecting a lexer
+	// needs no lock.
+	private static final HashMap keywordTables = new HashMap();
+
+	private static KeywordTable currentTable;
+
+	private static void addLexer(String lexerName) {
+		currentTable = new KeywordTable();
+		keywordTables.put(lexerName, currentTable);
+	}
+
+	private static void addKeyword(String name, int value) {
+		currentTable.add(name, value);
+	}
+
+	static {
+		addLexer("method_keywordLexer");
+		addKeyword(TokenNames.REGISTER, TokenTypes.REGISTER);
+		addKeyword(TokenNames.ACK, TokenTypes.ACK);
+		addKeyword(TokenNames.OPTIONS, TokenTypes.OPTIONS);
+		addKeyword(TokenNames.BYE, TokenTypes.BYE);
+		addKeyword(TokenNames.INVITE, TokenTypes.INVITE);
+		addKeyword(TokenNames.SIP, TokenTypes.SIP);
+		addKeyword(TokenNames.SUBSCRIBE, TokenTypes.SUBSCRIBE);
+		addKeyword(TokenNames.NOTIFY, TokenTypes.NOTIFY);
+
+		addLexer("command_keywordLexer");
+		addKeyword(ErrorInfoHeader.NAME, TokenTypes.ERROR_INFO);
+		addKeyword(AllowEventsHeader.NAME, TokenTypes.ALLOW_EVENTS);
+		addKeyword(AuthenticationInfoHeader.NAME, TokenTypes.AUTHENTICATION_INFO);
+		addKeyword(EventHeader.NAME, TokenTypes.EVENT);
+		addKeyword(MinExpiresHeader.NAME, TokenTypes.MIN_EXPIRES);
+		addKeyword(RSeqHeader.NAME, TokenTypes.RSEQ);
+		addKeyword(RAckHeader.NAME, TokenTypes.RACK);
+		addKeyword(ReasonHeader.NAME, TokenTypes.REASON);
+		addKeyword(ReplyToHeader.NAME, TokenTypes.REPLY_TO);
+		addKeyword(SubscriptionStateHeader.NAME, TokenTypes.SUBSCRIPTION_STATE);
+		addKeyword(TimeStampHeader.NAME, TokenTypes.TIMESTAMP);
+		addKeyword(InReplyToHeader.NAME, TokenTypes.IN_REPLY_TO);
+		addKeyword(MimeVersionHeader.NAME, TokenTypes.MIME_VERSION);
+		addKeyword(AlertInfoHeader.NAME, TokenTypes.ALERT_INFO);
+		addKeyword(FromHeader.NAME, TokenTypes.FROM);
+		addKeyword(ToHeader.NAME, TokenTypes.TO);
+		addKeyword(ReferToHeader.NAME, TokenTypes.REFER_TO);
+		addKeyword(ViaHeader.NAME, TokenTypes.VIA);
+		addKeyword(UserAgentHeader.NAME, TokenTypes.USER_AGENT);
+		addKeyword(ServerHeader.NAME, TokenTypes.SERVER);
+		addKeyword(AcceptEncodingHeader.NAME, TokenTypes.ACCEPT_ENCODING);
+		addKeyword(AcceptHeader.NAME, TokenTypes.ACCEPT);
+		addKeyword(AllowHeader.NAME, TokenTypes.ALLOW);
+		addKeyword(RouteHeader.NAME, TokenTypes.ROUTE);
+		addKeyword(AuthorizationHeader.NAME, TokenTypes.AUTHORIZATION);
+		addKeyword(ProxyAuthorizationHeader.NAME, TokenTypes.PROXY_AUTHORIZATION);
+		addKeyword(RetryAfterHeader.NAME, TokenTypes.RETRY_AFTER);
+		addKeyword(ProxyRequireHeader.NAME, TokenTypes.PROXY_REQUIRE);
+		addKeyword(ContentLanguageHeader.NAME, TokenTypes.CONTENT_LANGUAGE);
+		addKeyword(UnsupportedHeader.NAME, TokenTypes.UNSUPPORTED);
+		addKeyword(SupportedHeader.NAME, TokenTypes.SUPPORTED);
+		addKeyword(WarningHeader.NAME, TokenTypes.WARNING);
+		addKeyword(MaxForwardsHeader.NAME, TokenTypes.MAX_FORWARDS);
+		addKeyword(DateHeader.NAME, TokenTypes.DATE);
+		addKeyword(PriorityHeader.NAME, TokenTypes.PRIORITY);
+		addKeyword(ProxyAuthenticateHeader.NAME, TokenTypes.PROXY_AUTHENTICATE);
+		addKeyword(ContentEncodingHeader.NAME, TokenTypes.CONTENT_ENCODING);
+		addKeyword(ContentLengthHeader.NAME, TokenTypes.CONTENT_LENGTH);
+		addKeyword(SubjectHeader.NAME, TokenTypes.SUBJECT);
+		addKeyword(ContentTypeHeader.NAME, TokenTypes.CONTENT_TYPE);
+		addKeyword(ContactHeader.NAME, TokenTypes.CONTACT);
+		addKeyword(CallIdHeader.NAME, TokenTypes.CALL_ID);
+		addKeyword(RequireHeader.NAME, TokenTypes.REQUIRE);
+		addKeyword(ExpiresHeader.NAME, TokenTypes.EXPIRES);
+		addKeyword(RecordRouteHeader.NAME, TokenTypes.RECORD_ROUTE);
+		addKeyword(OrganizationHeader.NAME, TokenTypes.ORGANIZATION);
+		addKeyword(CSeqHeader.NAME, TokenTypes.CSEQ);
+		addKeyword(AcceptLanguageHeader.NAME, TokenTypes.ACCEPT_LANGUAGE);
+		addKeyword(WWWAuthenticateHeader.NAME, TokenTypes.WWW_AUTHENTICATE);
+		addKeyword(CallInfoHeader.NAME, TokenTypes.CALL_INFO);
+		addKeyword(ContentDispositionHeader.NAME, TokenTypes.CONTENT_DISPOSITION);
+		// And now the dreaded short forms....
+		addKeyword(TokenNames.K, TokenTypes.SUPPORTED);
+		addKeyword(TokenNames.C, TokenTypes.CONTENT_TYPE);
+		addKeyword(TokenNames.E, TokenTypes.CONTENT_ENCODING);
+		addKeyword(TokenNames.F, TokenTypes.FROM);
+		addKeyword(TokenNames.I, TokenTypes.CALL_ID);
+		addKeyword(TokenNames.M, TokenTypes.CONTACT);
+		addKeyword(TokenNames.L, TokenTypes.CONTENT_LENGTH);
+		addKeyword(TokenNames.S, TokenTypes.SUBJECT);
+		addKeyword(TokenNames.T, TokenTypes.TO);
+		addKeyword(TokenNames.U, TokenTypes.ALLOW_EVENTS); // JvB: added
+		addKeyword(TokenNames.V, TokenTypes.VIA);
+		addKeyword(TokenNames.R, TokenTypes.REFER_TO);
+		addKeyword(TokenNames.O, TokenTypes.EVENT); // Bug fix by Mario Mantak
+
+		addLexer("status_lineLexer");
+		addKeyword(TokenNames.SIP, TokenTypes.SIP);
+
+		addLexer("request_lineLexer");
+		addKeyword(TokenNames.SIP, TokenTypes.SIP);
+
+		addLexer("sip_urlLexer");
+		addKeyword(TokenNames.TEL, TokenTypes.TEL);
+		addKeyword(TokenNames.SIP, TokenTypes.SIP);
+
+		Iterator it = keywordTables.values().iterator();
+		while (it.hasNext())
+			addSymbols((KeywordTable) it.next());
+	}
+
 	public void selectLexer(String lexerName) {
-	     synchronized( lexerTables ) {
-		// Synchronization Bug fix by Robert Rosen.
-		currentLexer = (Hashtable) lexerTables.get(lexerName);
+		KeywordTable table = (KeywordTable) keywordTables.get(lexerName);
+		this.currentLexer = table == null ? emptyTable : table;
 		this.currentLexerName = lexerName;
-		if (currentLexer == null) {
-			addLexer(lexerName);
-			if (lexerName.equals("method_keywordLexer")) {
-				addKeyword(
-					TokenNames.REGISTER.toUpperCase(),
-					TokenTypes.REGISTER);
-				addKeyword(TokenNames.ACK.toUpperCase(), TokenTypes.ACK);
-				addKeyword(
-					TokenNames.OPTIONS.toUpperCase(),
- 					TokenTypes.OPTIONS);
-				addKeyword(TokenNames.BYE.toUpperCase(), TokenTypes.BYE);
-				addKeyword(TokenNames.INVITE.toUpperCase(), TokenTypes.INVITE);
-				addKeyword(TokenNames.SIP.toUpperCase(), TokenTypes.SIP);
-				addKeyword(
-					TokenNames.SUBSCRIBE.toUpperCase(),
-					TokenTypes.SUBSCRIBE);
-				addKeyword(TokenNames.NOTIFY.toUpperCase(), TokenTypes.NOTIFY);
-			} else if (lexerName.equals("command_keywordLexer")) {
-				addKeyword(
-					ErrorInfoHeader.NAME.toUpperCase(),
-					TokenTypes.ERROR_INFO);
-				addKeyword(
-					AllowEventsHeader.NAME.toUpperCase(),
-					TokenTypes.ALLOW_EVENTS);
-				addKeyword(
-					AuthenticationInfoHeader.NAME.toUpperCase(),
-					TokenTypes.AUTHENTICATION_INFO);
-				addKeyword(EventHeader.NAME.toUpperCase(), TokenTypes.EVENT);
-				addKeyword(
-					MinExpiresHeader.NAME.toUpperCase(),
-					TokenTypes.MIN_EXPIRES);
-				addKeyword(RSeqHeader.NAME.toUpperCase(), TokenTypes.RSEQ);
-				addKeyword(RAckHeader.NAME.toUpperCase(), TokenTypes.RACK);
-				addKeyword(ReasonHeader.NAME.toUpperCase(), TokenTypes.REASON);
-				addKeyword(
-					ReplyToHeader.NAME.toUpperCase(),
-					TokenTypes.REPLY_TO);
-				addKeyword(
-					SubscriptionStateHeader.NAME.toUpperCase(),
-					TokenTypes.SUBSCRIPTION_STATE);
-				addKeyword(
-					TimeStampHeader.NAME.toUpperCase(),
-					TokenTypes.TIMESTAMP);
-				addKeyword(
-					InReplyToHeader.NAME.toUpperCase(),
-					TokenTypes.IN_REPLY_TO);
-				addKeyword(
-					MimeVersionHeader.NAME.toUpperCase(),
-					TokenTypes.MIME_VERSION);
-				addKeyword(
-					AlertInfoHeader.NAME.toUpperCase(),
-					TokenTypes.ALERT_INFO);
-				addKeyword(FromHeader.NAME.toUpperCase(), TokenTypes.FROM);
-				addKeyword(ToHeader.NAME.toUpperCase(), TokenTypes.TO);
-				addKeyword(
-					ReferToHeader.NAME.toUpperCase(),
-					TokenTypes.REFER_TO);
-				addKeyword(ViaHeader.NAME.toUpperCase(), TokenTypes.VIA);
-				addKeyword(
-					UserAgentHeader.NAME.toUpperCase(),
-					TokenTypes.USER_AGENT);
-				addKeyword(ServerHeader.NAME.toUpperCase(), TokenTypes.SERVER);
-				addKeyword(
-					AcceptEncodingHeader.NAME.toUpperCase(),
-					TokenTypes.ACCEPT_ENCODING);
-				addKeyword(AcceptHeader.NAME.toUpperCase(), TokenTypes.ACCEPT);
-				addKeyword(AllowHeader.NAME.toUpperCase(), TokenTypes.ALLOW);
-				addKeyword(RouteHeader.NAME.toUpperCase(), TokenTypes.ROUTE);
-				addKeyword(
-					AuthorizationHeader.NAME.toUpperCase(),
-					TokenTypes.AUTHORIZATION);
-				addKeyword(
-					ProxyAuthorizationHeader.NAME.toUpperCase(),
-					TokenTypes.PROXY_AUTHORIZATION);
-				addKeyword(
-					RetryAfterHeader.NAME.toUpperCase(),
-					TokenTypes.RETRY_AFTER);
-				addKeyword(
-					ProxyRequireHeader.NAME.toUpperCase(),
-					TokenTypes.PROXY_REQUIRE);
-				addKeyword(
-					ContentLanguageHeader.NAME.toUpperCase(),
-					TokenTypes.CONTENT_LANGUAGE);
-				addKeyword(
-					UnsupportedHeader.NAME.toUpperCase(),
-					TokenTypes.UNSUPPORTED);
-				addKeyword(
-					SupportedHeader.NAME.toUpperCase(),
-					TokenTypes.SUPPORTED);
-				addKeyword(
-					WarningHeader.NAME.toUpperCase(),
-					TokenTypes.WARNING);
-				addKeyword(
-					MaxForwardsHeader.NAME.toUpperCase(),
-					TokenTypes.MAX_FORWARDS);
-				addKeyword(DateHeader.NAME.toUpperCase(), TokenTypes.DATE);
-				addKeyword(
-					PriorityHeader.NAME.toUpperCase(),
-					TokenTypes.PRIORITY);
-				addKeyword(
-					ProxyAuthenticateHeader.NAME.toUpperCase(),
-					TokenTypes.PROXY_AUTHENTICATE);
-				addKeyword(
-					ContentEncodingHeader.NAME.toUpperCase(),
-					TokenTypes.CONTENT_ENCODING);
-				addKeyword(
-					ContentLengthHeader.NAME.toUpperCase(),
-					TokenTypes.CONTENT_LENGTH);
-				addKeyword(
-					SubjectHeader.NAME.toUpperCase(),
-					TokenTypes.SUBJECT);
-				addKeyword(
-					ContentTypeHeader.NAME.toUpperCase(),
-					TokenTypes.CONTENT_TYPE);
-				addKeyword(
-					ContactHeader.NAME.toUpperCase(),
-					TokenTypes.CONTACT);
-				addKeyword(CallIdHeader.NAME.toUpperCase(), TokenTypes.CALL_ID);
-				addKeyword(
-					RequireHeader.NAME.toUpperCase(),
-					TokenTypes.REQUIRE);
-				addKeyword(
-					ExpiresHeader.NAME.toUpperCase(),
-					TokenTypes.EXPIRES);
-				addKeyword(
-					RecordRouteHeader.NAME.toUpperCase(),
-					TokenTypes.RECORD_ROUTE);
-				addKeyword(
-					OrganizationHeader.NAME.toUpperCase(),
-					TokenTypes.ORGANIZATION);
-				addKeyword(CSeqHeader.NAME.toUpperCase(), TokenTypes.CSEQ);
-				addKeyword(
-					AcceptLanguageHeader.NAME.toUpperCase(),
-					TokenTypes.ACCEPT_LANGUAGE);
-				addKeyword(
-					WWWAuthenticateHeader.NAME.toUpperCase(),
-					TokenTypes.WWW_AUTHENTICATE);
-				addKeyword(
-					CallInfoHeader.NAME.toUpperCase(),
-					TokenTypes.CALL_INFO);
-				addKeyword(
-					ContentDispositionHeader.NAME.toUpperCase(),
-					TokenTypes.CONTENT_DISPOSITION);
-				// And now the dreaded short forms....
-				addKeyword(TokenNames.K.toUpperCase(), TokenTypes.SUPPORTED);
-				addKeyword(TokenNames.C.toUpperCase(), TokenTypes.CONTENT_TYPE);
-				addKeyword(
-					TokenNames.E.toUpperCase(),
-					TokenTypes.CONTENT_ENCODING);
-				addKeyword(TokenNames.F.toUpperCase(), TokenTypes.FROM);
-				addKeyword(TokenNames.I.toUpperCase(), TokenTypes.CALL_ID);
-				addKeyword(TokenNames.M.toUpperCase(), TokenTypes.CONTACT);
-				addKeyword(
-					TokenNames.L.toUpperCase(),
-					TokenTypes.CONTENT_LENGTH);
-				addKeyword(TokenNames.S.toUpperCase(), TokenTypes.SUBJECT);
-				addKeyword(TokenNames.T.toUpperCase(), TokenTypes.TO);
-				addKeyword(TokenNames.U.toUpperCase(), TokenTypes.ALLOW_EVENTS);	// JvB: added
-				addKeyword(TokenNames.V.toUpperCase(), TokenTypes.VIA);
-				addKeyword(TokenNames.R.toUpperCase(), TokenTypes.REFER_TO);
-			        addKeyword(TokenNames.O.toUpperCase(), TokenTypes.EVENT); // Bug fix by Mario Mantak
-			} else if (lexerName.equals("status_lineLexer")) {
-				addKeyword(TokenNames.SIP.toUpperCase(), TokenTypes.SIP);
-			} else if (lexerName.equals("request_lineLexer")) {
-				addKeyword(TokenNames.SIP.toUpperCase(), TokenTypes.SIP);
-			} else if (lexerName.equals("sip_urlLexer")) {
-				addKeyword(TokenNames.TEL.toUpperCase(), TokenTypes.TEL);
-				addKeyword(TokenNames.SIP.toUpperCase(), TokenTypes.SIP);
-			}
-		}
-	      }
 	}
 }
 /*
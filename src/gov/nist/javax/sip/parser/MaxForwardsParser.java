@@ -29,8 +29,10 @@ public class MaxForwardsParser extends HeaderParser {
 		try {
 			MaxForwards contentLength = new MaxForwards();
 			headerName(TokenTypes.MAX_FORWARDS);
-			String number = this.lexer.number();
-			contentLength.setMaxForwards(Integer.parseInt(number));
+			int number = isFastPath() ? fastNumber() : -1;
+			if (number == -1)
+				number = Integer.parseInt(this.lexer.number());
+			contentLength.setMaxForwards(number);
 			this.lexer.SPorHT();
 			this.lexer.match('\n');
 			return contentLength;
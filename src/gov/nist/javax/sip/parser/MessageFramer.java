@@ -0,0 +1,312 @@
+/*******************************************************************************
+* Product of NIST/ITL Advanced Networking Technologies Division (ANTD).        *
+*******************************************************************************/
+package gov.nist.javax.sip.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a stream of bytes (a TCP connection) into SIP messages. The
+ * bytes are added in chunks of any size as they are read: a chunk can
+ * end in the middle of a message and can hold several messages. A
+ * message ends at the first blank line plus the number of bytes given by
+ * its Content-Length header (no Content-Length means no body). Line ends
+ * between messages are skipped, and each double CRLF among them is counted
+ * as a keep alive (RFC 5626) for the reader to answer (see
+ * takeKeepAlives). A keep alive can be split across chunks or come in the
+ * same chunk as the messages around it. The framer only looks at
+ * the header lines to find the end of the headers and the Content-Length,
+ * the messages are parsed by a StringMsgParser. The bytes can come from
+ * a stream (see PipelinedMsgParser) or from NIO buffers.
+ *
+ * A framer is used by one thread at a time.
+ *
+ * @version JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class MessageFramer {
+
+	// Bytes that have been added and not returned yet are in
+	// buffer[start, end).
+	private byte[] buffer;
+
+	private int start;
+
+	private int end;
+
+	// Start of the first header line that has not been looked at yet
+	// (the search for the end of the headers resumes there).
+	private int scanned;
+
+	// Offset of the first byte of the body, -1 until the blank line
+	// after the headers has been seen.
+	private int bodyStart;
+
+	private int contentLength;
+
+	private int maxMessageSize;
+
+	private boolean tooLarge;
+
+	// Bytes of a double CRLF seen so far in the line ends in front of
+	// the next message, and the keep alives found and not taken yet.
+	private int keepAliveBytes;
+
+	private int keepAlives;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxMessageSize -- maximum size of a message (headers and
+	 *	body), 0 for no limit.
+	 */
+	public MessageFramer(int maxMessageSize) {
+		this.buffer = new byte[1024];
+		this.maxMessageSize = maxMessageSize;
+		this.bodyStart = -1;
+	}
+
+	/**
+	 * Add bytes read from the stream.
+	 */
+	public void addBytes(byte[] bytes, int offset, int length) {
+		makeRoom(length);
+		System.arraycopy(bytes, offset, buffer, end, length);
+		end += length;
+	}
+
+	/**
+	 * Add the bytes that remain in a buffer (the buffer is emptied).
+	 */
+	public void addBytes(ByteBuffer bytes) {
+		int length = bytes.remaining();
+		makeRoom(length);
+		bytes.get(buffer, end, length);
+		end += length;
+	}
+
+	/**
+	 * Make room for length more bytes at the end of the buffer.
+	 */
+	private void makeRoom(int length) {
+		if (end + length > buffer.length) {
+			// Move what is left to the front (of a larger buffer if it
+			// does not fit).
+			int used = end - start;
+			if (used + length > buffer.length) {
+				int size = buffer.length;
+				while (size < used + length)
+					size *= 2;
+				byte[] newBuffer = new byte[size];
+				System.arraycopy(buffer, start, newBuffer, 0, used);
+				buffer = newBuffer;
+			} else {
+				System.arraycopy(buffer, start, buffer, 0, used);
+			}
+			scanned -= start;
+			if (bodyStart != -1)
+				bodyStart -= start;
+			start = 0;
+			end = used;
+		}
+	}
+
+	/**
+	 * Get the next complete message.
+	 *
+	 * @return the bytes of the message (headers and body) or null if the
+	 *	message is not complete yet.
+	 * @throws IOException if the headers of the message are larger than
+	 *	the maximum message size (the stream cannot be framed any more).
+	 */
+	public byte[] nextMessage() throws IOException {
+		if (tooLarge)
+			return null;
+		if (bodyStart == -1) {
+			if (scanned == start) {
+				// Skip the line ends in front of the message and count the
+				// keep alives among them.
+				while (start < end
+					&& (buffer[start] == '\r' || buffer[start] == '\n')) {
+					countKeepAlive(buffer[start]);
+					start++;
+				}
+				if (start < end)
+					keepAliveBytes = 0;
+				if (start == end) {
+					start = 0;
+					end = 0;
+				}
+				scanned = start;
+			}
+			if (!scanHeaders()) {
+				if (maxMessageSize > 0 && end - start > maxMessageSize)
+					throw new IOException("Max size exceeded!");
+				return null;
+			}
+		}
+		int headerSize = bodyStart - start;
+		if (maxMessageSize > 0
+			&& contentLength >= maxMessageSize - headerSize) {
+			// Hand on the headers (so that the message can be rejected)
+			// and give up on the stream.
+			tooLarge = true;
+			return take(bodyStart);
+		}
+		if (end - bodyStart < contentLength)
+			return null;
+		return take(bodyStart + contentLength);
+	}
+
+	/**
+	 * Follow a line end byte in front of a message through the double
+	 * CRLF of a keep alive.
+	 */
+	private void countKeepAlive(byte b) {
+		if (b == (keepAliveBytes % 2 == 0 ? '\r' : '\n')) {
+			keepAliveBytes++;
+			if (keepAliveBytes == 4) {
+				keepAlives++;
+				keepAliveBytes = 0;
+			}
+		} else {
+			keepAliveBytes = b == '\r' ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Return the number of keep alives (double CRLFs between messages)
+	 * found by nextMessage since the last call. Each one is answered by a
+	 * single CRLF.
+	 */
+	public int takeKeepAlives() {
+		int count = keepAlives;
+		keepAlives = 0;
+		return count;
+	}
+
+	/**
+	 * Return true if the last message returned by nextMessage was larger
+	 * than the maximum message size. The body of that message was not
+	 * returned and the framer does not return any more messages.
+	 */
+	public boolean isTooLarge() {
+		return tooLarge;
+	}
+
+	/**
+	 * Return true if part of a message has been added.
+	 */
+	public boolean hasPartialMessage() {
+		if (bodyStart != -1 || scanned > start)
+			return true;
+		for (int i = start; i < end; i++) {
+			if (buffer[i] != '\r' && buffer[i] != '\n')
+				return true;
+		}
+		return false;
+	}
+
+	private byte[] take(int messageEnd) {
+		byte[] message = new byte[messageEnd - start];
+		System.arraycopy(buffer, start, message, 0, message.length);
+		start = messageEnd;
+		scanned = start;
+		bodyStart = -1;
+		contentLength = 0;
+		if (start == end) {
+			start = 0;
+			end = 0;
+			scanned = 0;
+		}
+		return message;
+	}
+
+	/**
+	 * Look at the complete header lines that have not been looked at yet.
+	 * Return true (and set bodyStart) when the blank line that ends the
+	 * headers has been found.
+	 */
+	private boolean scanHeaders() {
+		while (true) {
+			int lineEnd = scanned;
+			boolean blank = true;
+			while (lineEnd < end && buffer[lineEnd] != '\n') {
+				byte b = buffer[lineEnd];
+				if (b != ' ' && b != '\t' && b != '\r')
+					blank = false;
+				lineEnd++;
+			}
+			if (lineEnd == end)
+				return false;
+			if (blank && scanned > start) {
+				bodyStart = lineEnd + 1;
+				return true;
+			}
+			checkContentLength(scanned, lineEnd);
+			scanned = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * If the line buffer[lineStart, lineEnd) is a Content-Length header
+	 * record its value. A value that is not a number counts as 0 (the
+	 * header is not accepted by the parser either).
+	 */
+	private void checkContentLength(int lineStart, int lineEnd) {
+		int i = lineStart;
+		byte first = buffer[i];
+		if (first != 'C' && first != 'c' && first != 'L' && first != 'l')
+			return;
+		while (i < lineEnd && buffer[i] != ':')
+			i++;
+		if (i == lineEnd)
+			return;
+		int nameEnd = i;
+		while (nameEnd > lineStart
+			&& (buffer[nameEnd - 1] == ' ' || buffer[nameEnd - 1] == '\t'))
+			nameEnd--;
+		if (!isContentLength(lineStart, nameEnd))
+			return;
+		i++;
+		while (i < lineEnd && (buffer[i] == ' ' || buffer[i] == '\t'))
+			i++;
+		int value = 0;
+		int digits = 0;
+		while (i < lineEnd && buffer[i] >= '0' && buffer[i] <= '9') {
+			value = value * 10 + (buffer[i] - '0');
+			digits++;
+			i++;
+		}
+		while (i < lineEnd
+			&& (buffer[i] == ' ' || buffer[i] == '\t' || buffer[i] == '\r'))
+			i++;
+		if (digits == 0 || digits > 9 || i != lineEnd)
+			value = 0;
+		contentLength = value;
+	}
+
+	private static final byte[] CONTENT_LENGTH = {
+		'c', 'o', 'n', 't', 'e', 'n', 't', '-',
+		'l', 'e', 'n', 'g', 't', 'h' };
+
+	private boolean isContentLength(int nameStart, int nameEnd) {
+		int length = nameEnd - nameStart;
+		if (length == 1)
+			return buffer[nameStart] == 'l' || buffer[nameStart] == 'L';
+		if (length != CONTENT_LENGTH.length)
+			return false;
+		for (int k = 0; k < length; k++) {
+			int b = buffer[nameStart + k];
+			if (b >= 'A' && b <= 'Z')
+				b += 'a' - 'A';
+			if (b != CONTENT_LENGTH[k])
+				return false;
+		}
+		return true;
+	}
+}
@@ -1,7 +1,6 @@
 package gov.nist.javax.sip.parser;
 import gov.nist.core.*;
 import java.text.ParseException;
-import java.util.Vector;
 
 /**
  * Base parser class.
@@ -15,8 +14,10 @@ import java.util.Vector;
 public abstract class Parser extends ParserCore implements TokenTypes {
 
 	protected ParseException createParseException(String exceptionString) {
-		return new ParseException(
-			lexer.getBuffer() + ":" + exceptionString,
+		return new LazyParseException(
+			lexer.getBuffer(),
+			":",
+			exceptionString,
 			lexer.getPtr());
 	}
 
@@ -50,19 +51,18 @@ public abstract class Parser extends ParserCore implements TokenTypes {
 		try {
 			if (debug)
 				dbg_enter("method");
-			Vector tokens = this.lexer.peekNextToken(1);
-			Token token = (Token) tokens.elementAt(0);
-			if (token.getTokenType() == INVITE
-				|| token.getTokenType() == ACK
-				|| token.getTokenType() == OPTIONS
-				|| token.getTokenType() == BYE
-				|| token.getTokenType() == REGISTER
-				|| token.getTokenType() == CANCEL
-				|| token.getTokenType() == SUBSCRIBE
-				|| token.getTokenType() == NOTIFY
-				|| token.getTokenType() == ID) {
-				lexer.consume();
-				return token.getTokenValue();
+			int tokenType = this.lexer.peekNextTokenType(0);
+			if (tokenType == INVITE
+				|| tokenType == ACK
+				|| tokenType == OPTIONS
+				|| tokenType == BYE
+				|| tokenType == REGISTER
+				|| tokenType == CANCEL
+				|| tokenType == SUBSCRIBE
+				|| tokenType == NOTIFY
+				|| tokenType == ID) {
+				// The method is an id: get it (the same as consume()).
+				return lexer.getNextId();
 			} else {
 				throw createParseException("Invalid Method");
 			}
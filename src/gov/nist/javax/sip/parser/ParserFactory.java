@@ -1,6 +1,5 @@
 package gov.nist.javax.sip.parser;
 import java.util.Hashtable;
-import java.lang.reflect.*;
 import javax.sip.header.*;
 import java.text.ParseException;
 import gov.nist.core.*;
@@ -18,190 +17,247 @@ import gov.nist.core.*;
  */
 public class ParserFactory {
 
+	// Codes for the header parsers. The parser table maps a header name
+	// to one of these and createParser switches on it to construct the
+	// parser (rather than going through java.lang.reflect).
+	private static final int EXTENSION = 0;
+	private static final int REPLY_TO = 1;
+	private static final int IN_REPLY_TO = 2;
+	private static final int ACCEPT_ENCODING = 3;
+	private static final int ACCEPT_LANGUAGE = 4;
+	private static final int TO = 5;
+	private static final int FROM = 6;
+	private static final int CSEQ = 7;
+	private static final int VIA = 8;
+	private static final int CONTACT = 9;
+	private static final int CONTENT_TYPE = 10;
+	private static final int CONTENT_LENGTH = 11;
+	private static final int AUTHORIZATION = 12;
+	private static final int WWW_AUTHENTICATE = 13;
+	private static final int CALL_ID = 14;
+	private static final int ROUTE = 15;
+	private static final int RECORD_ROUTE = 16;
+	private static final int DATE = 17;
+	private static final int PROXY_AUTHORIZATION = 18;
+	private static final int PROXY_AUTHENTICATE = 19;
+	private static final int RETRY_AFTER = 20;
+	private static final int REQUIRE = 21;
+	private static final int PROXY_REQUIRE = 22;
+	private static final int TIME_STAMP = 23;
+	private static final int UNSUPPORTED = 24;
+	private static final int USER_AGENT = 25;
+	private static final int SUPPORTED = 26;
+	private static final int SERVER = 27;
+	private static final int SUBJECT = 28;
+	private static final int SUBSCRIPTION_STATE = 29;
+	private static final int MAX_FORWARDS = 30;
+	private static final int MIME_VERSION = 31;
+	private static final int MIN_EXPIRES = 32;
+	private static final int ORGANIZATION = 33;
+	private static final int PRIORITY = 34;
+	private static final int RACK = 35;
+	private static final int RSEQ = 36;
+	private static final int REASON = 37;
+	private static final int WARNING = 38;
+	private static final int EXPIRES = 39;
+	private static final int EVENT = 40;
+	private static final int ERROR_INFO = 41;
+	private static final int CONTENT_LANGUAGE = 42;
+	private static final int CONTENT_ENCODING = 43;
+	private static final int CONTENT_DISPOSITION = 44;
+	private static final int CALL_INFO = 45;
+	private static final int AUTHENTICATION_INFO = 46;
+	private static final int ALLOW = 47;
+	private static final int ALLOW_EVENTS = 48;
+	private static final int ALERT_INFO = 49;
+	private static final int ACCEPT = 50;
+	private static final int REFER_TO = 51;
+
+	/**
+	 * Number of parser codes (the size of a parser cache).
+	 */
+	static final int PARSER_COUNT = 52;
+
 	private static Hashtable parserTable;
-	private static final String PARSER_PACKAGE = "gov.nist.javax.sip.parser.";
-	private static Class[] constructorArgs;
 
 	static {
 		parserTable = new Hashtable();
-		constructorArgs = new Class[1];
-		constructorArgs[0] = String.class;
-		parserTable.put(ReplyToHeader.NAME.toLowerCase(), ReplyToParser.class);
+		parserTable.put(ReplyToHeader.NAME.toLowerCase(), new Integer(REPLY_TO));
 
 		parserTable.put(
 			InReplyToHeader.NAME.toLowerCase(),
-			InReplyToParser.class);
+			new Integer(IN_REPLY_TO));
 
 		parserTable.put(
 			AcceptEncodingHeader.NAME.toLowerCase(),
-			AcceptEncodingParser.class);
+			new Integer(ACCEPT_ENCODING));
 
 		parserTable.put(
 			AcceptLanguageHeader.NAME.toLowerCase(),
-			AcceptLanguageParser.class);
+			new Integer(ACCEPT_LANGUAGE));
 
-		parserTable.put("t", ToParser.class);
-		parserTable.put(ToHeader.NAME.toLowerCase(), ToParser.class);
+		parserTable.put("t", new Integer(TO));
+		parserTable.put(ToHeader.NAME.toLowerCase(), new Integer(TO));
 
-		parserTable.put(FromHeader.NAME.toLowerCase(), FromParser.class);
-		parserTable.put("f", FromParser.class);
+		parserTable.put(FromHeader.NAME.toLowerCase(), new Integer(FROM));
+		parserTable.put("f", new Integer(FROM));
 
-		parserTable.put(CSeqHeader.NAME.toLowerCase(), CSeqParser.class);
+		parserTable.put(CSeqHeader.NAME.toLowerCase(), new Integer(CSEQ));
 
-		parserTable.put(ViaHeader.NAME.toLowerCase(), ViaParser.class);
-		parserTable.put("v", ViaParser.class);
+		parserTable.put(ViaHeader.NAME.toLowerCase(), new Integer(VIA));
+		parserTable.put("v", new Integer(VIA));
 
-		parserTable.put(ContactHeader.NAME.toLowerCase(), ContactParser.class);
-		parserTable.put("m", ContactParser.class);
+		parserTable.put(ContactHeader.NAME.toLowerCase(), new Integer(CONTACT));
+		parserTable.put("m", new Integer(CONTACT));
 
 		parserTable.put(
 			ContentTypeHeader.NAME.toLowerCase(),
-			ContentTypeParser.class);
-		parserTable.put("c", ContentTypeParser.class);
+			new Integer(CONTENT_TYPE));
+		parserTable.put("c", new Integer(CONTENT_TYPE));
 
 		parserTable.put(
 			ContentLengthHeader.NAME.toLowerCase(),
-			ContentLengthParser.class);
-		parserTable.put("l", ContentLengthParser.class);
+			new Integer(CONTENT_LENGTH));
+		parserTable.put("l", new Integer(CONTENT_LENGTH));
 
 		parserTable.put(
 			AuthorizationHeader.NAME.toLowerCase(),
-			AuthorizationParser.class);
+			new Integer(AUTHORIZATION));
 
 		parserTable.put(
 			WWWAuthenticateHeader.NAME.toLowerCase(),
-			WWWAuthenticateParser.class);
+			new Integer(WWW_AUTHENTICATE));
 
-		parserTable.put(CallIdHeader.NAME.toLowerCase(), CallIDParser.class);
-		parserTable.put("i", CallIDParser.class);
+		parserTable.put(CallIdHeader.NAME.toLowerCase(), new Integer(CALL_ID));
+		parserTable.put("i", new Integer(CALL_ID));
 
-		parserTable.put(RouteHeader.NAME.toLowerCase(), RouteParser.class);
+		parserTable.put(RouteHeader.NAME.toLowerCase(), new Integer(ROUTE));
 
 		parserTable.put(
 			RecordRouteHeader.NAME.toLowerCase(),
-			RecordRouteParser.class);
+			new Integer(RECORD_ROUTE));
 
-		parserTable.put(DateHeader.NAME.toLowerCase(), DateParser.class);
+		parserTable.put(DateHeader.NAME.toLowerCase(), new Integer(DATE));
 
 		parserTable.put(
 			ProxyAuthorizationHeader.NAME.toLowerCase(),
-			ProxyAuthorizationParser.class);
+			new Integer(PROXY_AUTHORIZATION));
 
 		parserTable.put(
 			ProxyAuthenticateHeader.NAME.toLowerCase(),
-			ProxyAuthenticateParser.class);
+			new Integer(PROXY_AUTHENTICATE));
 
 		parserTable.put(
 			RetryAfterHeader.NAME.toLowerCase(),
-			RetryAfterParser.class);
+			new Integer(RETRY_AFTER));
 
-		parserTable.put(RequireHeader.NAME.toLowerCase(), RequireParser.class);
+		parserTable.put(RequireHeader.NAME.toLowerCase(), new Integer(REQUIRE));
 
 		parserTable.put(
 			ProxyRequireHeader.NAME.toLowerCase(),
-			ProxyRequireParser.class);
+			new Integer(PROXY_REQUIRE));
 
 		parserTable.put(
 			TimeStampHeader.NAME.toLowerCase(),
-			TimeStampParser.class);
+			new Integer(TIME_STAMP));
 
 		parserTable.put(
 			UnsupportedHeader.NAME.toLowerCase(),
-			UnsupportedParser.class);
+			new Integer(UNSUPPORTED));
 
 		parserTable.put(
 			UserAgentHeader.NAME.toLowerCase(),
-			UserAgentParser.class);
+			new Integer(USER_AGENT));
 
 		parserTable.put(
 			SupportedHeader.NAME.toLowerCase(),
-			SupportedParser.class);
+			new Integer(SUPPORTED));
 		// bug fix by Steve Crosley
-		parserTable.put("k", SupportedParser.class);
+		parserTable.put("k", new Integer(SUPPORTED));
 
-		parserTable.put(ServerHeader.NAME.toLowerCase(), ServerParser.class);
+		parserTable.put(ServerHeader.NAME.toLowerCase(), new Integer(SERVER));
 
-		parserTable.put(SubjectHeader.NAME.toLowerCase(), SubjectParser.class);
-		parserTable.put("s", SubjectParser.class);	// JvB: added
+		parserTable.put(SubjectHeader.NAME.toLowerCase(), new Integer(SUBJECT));
+		parserTable.put("s", new Integer(SUBJECT));	// JvB: added
 
 		parserTable.put(
 			SubscriptionStateHeader.NAME.toLowerCase(),
-			SubscriptionStateParser.class);
+			new Integer(SUBSCRIPTION_STATE));
 
 		parserTable.put(
 			MaxForwardsHeader.NAME.toLowerCase(),
-			MaxForwardsParser.class);
+			new Integer(MAX_FORWARDS));
 
 		parserTable.put(
 			MimeVersionHeader.NAME.toLowerCase(),
-			MimeVersionParser.class);
+			new Integer(MIME_VERSION));
 
 		parserTable.put(
 			MinExpiresHeader.NAME.toLowerCase(),
-			MinExpiresParser.class);
+			new Integer(MIN_EXPIRES));
 
 		parserTable.put(
 			OrganizationHeader.NAME.toLowerCase(),
-			OrganizationParser.class);
+			new Integer(ORGANIZATION));
 
 		parserTable.put(
 			PriorityHeader.NAME.toLowerCase(),
-			PriorityParser.class);
+			new Integer(PRIORITY));
 
-		parserTable.put(RAckHeader.NAME.toLowerCase(), RAckParser.class);
+		parserTable.put(RAckHeader.NAME.toLowerCase(), new Integer(RACK));
 
-		parserTable.put(RSeqHeader.NAME.toLowerCase(), RSeqParser.class);
+		parserTable.put(RSeqHeader.NAME.toLowerCase(), new Integer(RSEQ));
 
-		parserTable.put(ReasonHeader.NAME.toLowerCase(), ReasonParser.class);
+		parserTable.put(ReasonHeader.NAME.toLowerCase(), new Integer(REASON));
 
-		parserTable.put(WarningHeader.NAME.toLowerCase(), WarningParser.class);
+		parserTable.put(WarningHeader.NAME.toLowerCase(), new Integer(WARNING));
 
-		parserTable.put(ExpiresHeader.NAME.toLowerCase(), ExpiresParser.class);
+		parserTable.put(ExpiresHeader.NAME.toLowerCase(), new Integer(EXPIRES));
 
-		parserTable.put(EventHeader.NAME.toLowerCase(), EventParser.class);
-		parserTable.put("o", EventParser.class);
+		parserTable.put(EventHeader.NAME.toLowerCase(), new Integer(EVENT));
+		parserTable.put("o", new Integer(EVENT));
 
 		parserTable.put(
 			ErrorInfoHeader.NAME.toLowerCase(),
-			ErrorInfoParser.class);
+			new Integer(ERROR_INFO));
 
 		parserTable.put(
 			ContentLanguageHeader.NAME.toLowerCase(),
-			ContentLanguageParser.class);
+			new Integer(CONTENT_LANGUAGE));
 
 		parserTable.put(
 			ContentEncodingHeader.NAME.toLowerCase(),
-			ContentEncodingParser.class);
-		parserTable.put("e", ContentEncodingParser.class);
+			new Integer(CONTENT_ENCODING));
+		parserTable.put("e", new Integer(CONTENT_ENCODING));
 
 		parserTable.put(
 			ContentDispositionHeader.NAME.toLowerCase(),
-			ContentDispositionParser.class);
+			new Integer(CONTENT_DISPOSITION));
 
 		parserTable.put(
 			CallInfoHeader.NAME.toLowerCase(),
-			CallInfoParser.class);
+			new Integer(CALL_INFO));
 
 		parserTable.put(
 			AuthenticationInfoHeader.NAME.toLowerCase(),
-			AuthenticationInfoParser.class);
+			new Integer(AUTHENTICATION_INFO));
 
-		parserTable.put(AllowHeader.NAME.toLowerCase(), AllowParser.class);
+		parserTable.put(AllowHeader.NAME.toLowerCase(), new Integer(ALLOW));
 
 		parserTable.put(
 			AllowEventsHeader.NAME.toLowerCase(),
-			AllowEventsParser.class);
-		parserTable.put("u", AllowEventsParser.class);
+			new Integer(ALLOW_EVENTS));
+		parserTable.put("u", new Integer(ALLOW_EVENTS));
 
 		parserTable.put(
 			AlertInfoHeader.NAME.toLowerCase(),
-			AlertInfoParser.class);
+			new Integer(ALERT_INFO));
 
-		parserTable.put(AcceptHeader.NAME.toLowerCase(), AcceptParser.class);
+		parserTable.put(AcceptHeader.NAME.toLowerCase(), new Integer(ACCEPT));
 
-		parserTable.put(ReferToHeader.NAME.toLowerCase(), ReferToParser.class);
+		parserTable.put(ReferToHeader.NAME.toLowerCase(), new Integer(REFER_TO));
 		// Was missing (bug noticed by Steve Crossley)
-		parserTable.put("r", ReferToParser.class);
+		parserTable.put("r", new Integer(REFER_TO));
 
 	}
 
@@ -209,32 +265,156 @@ public class ParserFactory {
 	 * create a parser for a header. This is the parser factory.
 	 */
 	public static HeaderParser createParser(String line)
+		throws ParseException {
+		return createParser(
+			line,
+			new Lexer("command_keywordLexer", line),
+			null);
+	}
+
+	/**
+	 * Create a parser for a header that reads from the given lexer. If a
+	 * cache is given and it holds a parser for this kind of header, that
+	 * parser is reused (it is bound to the same lexer, which is reset to
+	 * the start of the line) otherwise the new parser is put in the cache.
+	 * A cache and its lexer must only be used by one thread and a parser
+	 * taken from it is only good until the next call.
+	 *
+	 * @param line -- header line to parse.
+	 * @param lexer -- lexer to read the line with.
+	 * @param cache -- parsers to reuse (PARSER_COUNT entries) or null.
+	 */
+	static HeaderParser createParser(
+		String line,
+		Lexer lexer,
+		HeaderParser[] cache)
 		throws ParseException {
 		String headerName = Lexer.getHeaderName(line);
-		String headerValue = Lexer.getHeaderValue(line);
-		if (headerName == null || headerValue == null)
+		if (headerName == null)
 			throw new ParseException("The header name or value is null", 0);
 
-		Class parserClass = (Class) parserTable.get(headerName.toLowerCase());
-
-		if (parserClass != null) {
-			try {
-
-				Constructor cons = parserClass.getConstructor(constructorArgs);
-				Object[] args = new Object[1];
-				args[0] = line;
-				HeaderParser retval = (HeaderParser) cons.newInstance(args);
-				return retval;
-
-			} catch (Exception ex) {
-				InternalErrorHandler.handleException(ex);
-				return null; // to placate the compiler.
-			}
+		Integer code = (Integer) parserTable.get(headerName.toLowerCase());
+		int parserCode = code == null ? EXTENSION : code.intValue();
+		lexer.reset(line);
+		if (cache != null && cache[parserCode] != null) {
+			HeaderParser retval = cache[parserCode];
+			lexer.selectLexer("command_keywordLexer");
+			return retval;
+		}
+		HeaderParser retval = newParser(parserCode, lexer);
+		if (cache != null)
+			cache[parserCode] = retval;
+		return retval;
+	}
 
-		} else {
+	private static HeaderParser newParser(int parserCode, Lexer lexer) {
+		switch (parserCode) {
+		case REPLY_TO:
+			return new ReplyToParser(lexer);
+		case IN_REPLY_TO:
+			return new InReplyToParser(lexer);
+		case ACCEPT_ENCODING:
+			return new AcceptEncodingParser(lexer);
+		case ACCEPT_LANGUAGE:
+			return new AcceptLanguageParser(lexer);
+		case TO:
+			return new ToParser(lexer);
+		case FROM:
+			return new FromParser(lexer);
+		case CSEQ:
+			return new CSeqParser(lexer);
+		case VIA:
+			return new ViaParser(lexer);
+		case CONTACT:
+			return new ContactParser(lexer);
+		case CONTENT_TYPE:
+			return new ContentTypeParser(lexer);
+		case CONTENT_LENGTH:
+			return new ContentLengthParser(lexer);
+		case AUTHORIZATION:
+			return new AuthorizationParser(lexer);
+		case WWW_AUTHENTICATE:
+			return new WWWAuthenticateParser(lexer);
+		case CALL_ID:
+			return new CallIDParser(lexer);
+		case ROUTE:
+			return new RouteParser(lexer);
+		case RECORD_ROUTE:
+			return new RecordRouteParser(lexer);
+		case DATE:
+			return new DateParser(lexer);
+		case PROXY_AUTHORIZATION:
+			return new ProxyAuthorizationParser(lexer);
+		case PROXY_AUTHENTICATE:
+			return new ProxyAuthenticateParser(lexer);
+		case RETRY_AFTER:
+			return new RetryAfterParser(lexer);
+		case REQUIRE:
+			return new RequireParser(lexer);
+		case PROXY_REQUIRE:
+			return new ProxyRequireParser(lexer);
+		case TIME_STAMP:
+			return new TimeStampParser(lexer);
+		case UNSUPPORTED:
+			return new UnsupportedParser(lexer);
+		case USER_AGENT:
+			return new UserAgentParser(lexer);
+		case SUPPORTED:
+			return new SupportedParser(lexer);
+		case SERVER:
+			return new ServerParser(lexer);
+		case SUBJECT:
+			return new SubjectParser(lexer);
+		case SUBSCRIPTION_STATE:
+			return new SubscriptionStateParser(lexer);
+		case MAX_FORWARDS:
+			return new MaxForwardsParser(lexer);
+		case MIME_VERSION:
+			return new MimeVersionParser(lexer);
+		case MIN_EXPIRES:
+			return new MinExpiresParser(lexer);
+		case ORGANIZATION:
+			return new OrganizationParser(lexer);
+		case PRIORITY:
+			return new PriorityParser(lexer);
+		case RACK:
+			return new RAckParser(lexer);
+		case RSEQ:
+			return new RSeqParser(lexer);
+		case REASON:
+			return new ReasonParser(lexer);
+		case WARNING:
+			return new WarningParser(lexer);
+		case EXPIRES:
+			return new ExpiresParser(lexer);
+		case EVENT:
+			return new EventParser(lexer);
+		case ERROR_INFO:
+			return new ErrorInfoParser(lexer);
+		case CONTENT_LANGUAGE:
+			return new ContentLanguageParser(lexer);
+		case CONTENT_ENCODING:
+			return new ContentEncodingParser(lexer);
+		case CONTENT_DISPOSITION:
+			return new ContentDispositionParser(lexer);
+		case CALL_INFO:
+			return new CallInfoParser(lexer);
+		case AUTHENTICATION_INFO:
+			return new AuthenticationInfoParser(lexer);
+		case ALLOW:
+			return new AllowParser(lexer);
+		case ALLOW_EVENTS:
+			return new AllowEventsParser(lexer);
+		case ALERT_INFO:
+			return new AlertInfoParser(lexer);
+		case ACCEPT:
+			return new AcceptParser(lexer);
+		case REFER_TO:
+			return new ReferToParser(lexer);
+		default:
 			// Just generate a generic SIPHeader. We define
 			// parsers only for the above.
-			return new HeaderParser(line);
+			return new HeaderParser(lexer);
 		}
 	}
 }
@@ -17,6 +17,9 @@ public class Pipeline extends  InputStream {
         private InputStream pipe;
 	private int readTimeout;
 	private TimerTask myTimerTask;
+	// When the read that startTimer guards started (with no timer, see
+	// checkTimeout). 0 when no such read is going on.
+	private volatile long readStartTime;
         
         class MyTimer extends TimerTask {
             Pipeline pipeline;
@@ -59,6 +62,10 @@ public class Pipeline extends  InputStream {
 
         public void startTimer() {
             if (this.readTimeout == -1) return;
+	    if (this.timer == null) {
+		this.readStartTime = System.currentTimeMillis();
+		return;
+	    }
             //TODO make this a tunable number. For now 4 seconds
             // between reads seems reasonable upper limit.
 	    this.myTimerTask = new MyTimer(this);
@@ -67,9 +74,38 @@ public class Pipeline extends  InputStream {
         
         public void stopTimer() {
             if (this.readTimeout == -1) return;
+	    this.readStartTime = 0;
 	    if (this.myTimerTask != null) this.myTimerTask.cancel();
         }
 
+	/**
+	 * Close the pipeline (and the stream it reads) if the read guarded
+	 * by startTimer has been waiting for longer than the read timeout.
+	 * This is how the read timeout is enforced when the pipeline is
+	 * given no timer: someone calls this now and then instead of a
+	 * timer task being scheduled for every read.
+	 *
+	 * @return true if the pipeline was closed.
+	 */
+	public boolean checkTimeout(long now) {
+	    long start = this.readStartTime;
+	    if (this.readTimeout == -1 || start == 0
+		|| now - start < this.readTimeout)
+		return false;
+	    this.close();
+	    try {
+		this.pipe.close();
+	    } catch (IOException ex) {}
+	    return true;
+	}
+
+	/**
+	 * @param pipe the socket stream (closed on a read timeout).
+	 * @param readTimeout max time between reads of a message (-1 for
+	 * none).
+	 * @param timer timer to enforce the read timeout with, null if the
+	 * owner calls checkTimeout instead.
+	 */
 	public Pipeline (InputStream pipe,int readTimeout, Timer timer) {
                 // pipe is the Socket stream 
                 // this is recorded here to implement a timeout.
@@ -139,5 +175,35 @@ public class Pipeline extends  InputStream {
 		}
 	}
 
+	/**
+	 * Read what the next buffer has to offer (up to length bytes) in one
+	 * go. Blocks until at least one byte is there.
+	 */
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) return 0;
+		synchronized (this.buffList) {
+		     try {
+			while (currentBuffer == null) {
+			    if (!this.buffList.isEmpty())
+				currentBuffer = (Buffer) this.buffList.removeFirst();
+			    else if (this.isClosed)
+				return -1;
+			    else
+				this.buffList.wait();
+			}
+		     } catch (InterruptedException ex) {
+			  throw new IOException(ex.getMessage());
+		     }
+		     int n = currentBuffer.length - currentBuffer.ptr;
+		     if (n > length) n = length;
+		     System.arraycopy(currentBuffer.bytes, currentBuffer.ptr,
+			bytes, offset, n);
+		     currentBuffer.ptr += n;
+		     if (currentBuffer.ptr == currentBuffer.length )
+			this.currentBuffer = null;
+		     return n;
+		}
+	}
+
 
 }
@@ -17,8 +17,8 @@ import java.io.*;
  * It keeps reading from the input stream and process messages in a
  * never ending interpreter loop. The message listener interface gets called
  * for processing messages or for processing errors. The payload specified
- * by the content-length header is read directly from the input stream.
- * This can be accessed from the SIPMessage using the getContent and
+ * by the content-length header is sliced out of the input (see
+ * MessageFramer). This can be accessed from the SIPMessage using the getContent and
  * getContentBytes methods provided by the SIPMessage class. 
  *
  * @version JAIN-SIP-1.1 $Revision: 1.16 $ $Date: 2004/11/30 23:28:14 $
@@ -37,13 +37,9 @@ import java.io.*;
 public final class PipelinedMsgParser implements Runnable {
 
 	/**
-	 * A filter to read the input
+	 * Size of the chunks read from the input.
 	 */
-	class MyFilterInputStream extends FilterInputStream {
-		public MyFilterInputStream(InputStream in) {
-			super(in);
-		}
-	}
+	private static final int READ_SIZE = 4096;
 
 	/**
 	 * The message listener that is registered with this parser.
@@ -56,8 +52,7 @@ public final class PipelinedMsgParser implements Runnable {
 	private boolean errorFlag;
 	private     Pipeline rawInputStream;
 	private int maxMessageSize;
-	private int sizeCounter;
-	private int messageSize;
+	private boolean lazyParsing;
 
 	/**
 	 * default constructor.
@@ -117,6 +112,14 @@ public final class PipelinedMsgParser implements Runnable {
 		this(null, in, false,0);
 	}
 
+	/**
+	 * Only parse the headers that the stack needs to process the
+	 * messages (see StringMsgParser.setLazyParsing).
+	 */
+	public void setLazyParsing(boolean lazyParsing) {
+		this.lazyParsing = lazyParsing;
+	}
+
 	/**
 	 * Start reading and processing input.
 	 */
@@ -135,6 +138,7 @@ public final class PipelinedMsgParser implements Runnable {
 
 		p.rawInputStream = this.rawInputStream;
 		p.sipMessageListener = this.sipMessageListener;
+		p.lazyParsing = this.lazyParsing;
 		Thread mythread = new Thread(p);
 		mythread.setName("PipelineThread");
 		return p;
@@ -152,67 +156,22 @@ public final class PipelinedMsgParser implements Runnable {
 		sipMessageListener = mlistener;
 	}
 
-	/** 
-	 * read a line of input (I cannot use buffered reader because we
-	 * may need to switch encodings mid-stream!
-	 */
-	private String readLine(FilterInputStream inputStream) throws IOException {
-		StringBuffer retval = new StringBuffer("");
-		while (true) {
-			try {
-				char ch;
-				int i = inputStream.read();
-				if (i == -1) {
-					throw new IOException("End of stream");
-				} else 
-					ch = (char) i;
-				// reduce the available read size by 1 ("size" of a char).
-				if ( this.maxMessageSize > 0 ) {
-				     this.sizeCounter --;
-				     if (this.sizeCounter <= 0) 
-					 throw new IOException("Max size exceeded!");
-				}
-				if (ch != '\r')
-					retval.append(ch);
-				if (ch == '\n') {
-					break;
-				}
-			} catch (IOException ex) {
-				throw ex;
-			}
-		}
-		return retval.toString();
-	}
-
 	/**
-	 * Read to the next break (CRLFCRLF sequence)
+	 * Have the message listener answer the keep alives that the framer
+	 * found between messages (if it is a KeepAliveListener).
 	 */
-	private String readToBreak(FilterInputStream inputStream)
-		throws IOException {
-		StringBuffer retval = new StringBuffer("");
-		boolean flag = false;
-		while (true) {
-			try {
-				char ch;
-				int i = inputStream.read();
-				if (i == -1)
-					break;
-				else
-					ch = (char) i;
-				if (ch != '\r')
-					retval.append(ch);
-				if (ch == '\n') {
-					if (flag)
-						break;
-					else
-						flag = true;
-				}
-			} catch (IOException ex) {
-				throw ex;
-			}
-
+	private void answerKeepAlives(MessageFramer framer) {
+		int keepAlives = framer.takeKeepAlives();
+		if (keepAlives == 0
+			|| !(sipMessageListener instanceof KeepAliveListener))
+			return;
+		try {
+			for (int i = 0; i < keepAlives; i++)
+				((KeepAliveListener) sipMessageListener).processKeepAlive();
+		} catch (IOException ex) {
+			// The connection is gone, the next read finds out.
+			Debug.printStackTrace(ex);
 		}
-		return retval.toString();
 	}
 
 	/**
@@ -220,138 +179,76 @@ public final class PipelinedMsgParser implements Runnable {
 	 * You feed it input through the input stream (see the constructor)
 	 * and it calls back an event listener interface for message 
 	 * processing or error.
-	 * It cleans up the input - dealing with things like line continuation 
+	 * The input is read in chunks and split into messages by a
+	 * MessageFramer, so a read can end in the middle of a message or
+	 * hold several messages. The keep alives between messages are
+	 * handed to the listener as they are found.
 	 */
 	public void run() {
 
-		MyFilterInputStream inputStream = null;
-		inputStream = new MyFilterInputStream(this.rawInputStream);
-		// I cannot use buffered reader here because we may need to switch
-		// encodings to read the message body.
+		InputStream inputStream = this.rawInputStream;
+		MessageFramer framer = new MessageFramer(this.maxMessageSize);
+		byte[] chunk = new byte[READ_SIZE];
+		// The message parser is reused for all the messages read by this
+		// thread.
+		StringMsgParser smp = new StringMsgParser(sipMessageListener);
+		smp.setLazyParsing(lazyParsing);
 		try {
 			while (true) {
-				this.sizeCounter = this.maxMessageSize;
-				this.messageSize = 0;
-				StringBuffer inputBuffer = new StringBuffer();
-
-				if (Debug.parserDebug) Debug.println("Starting parse!");
-
-				String line1;
-				String line2 = null;
+				byte[] msg;
+				try {
+					msg = framer.nextMessage();
+				} catch (IOException ex) {
+					// Max size exceeded.
+					Debug.printStackTrace(ex);
+					return;
+				}
+				answerKeepAlives(framer);
 
-				while (true) {
-					try {
-						line1 = readLine(inputStream);
-						// ignore blank lines.
-						if (line1.equals("\n")) {
-							if (Debug.parserDebug) 
-							    Debug.println("Discarding " + line1);
-							continue;
-						} else
-							break;
-					} catch (IOException ex) {
-						Debug.printStackTrace(ex);
-                                                this.rawInputStream.stopTimer();
+				if (msg == null) {
+					if (framer.isTooLarge()) {
+						// Nothing more can be read from this stream.
 						return;
-
 					}
-				}
-
-				inputBuffer.append(line1);
-				// Guard against bad guys.
-                                this.rawInputStream.startTimer();
-				
-
-				while (true) {
+					// Guard against bad guys: once a message has started
+					// the rest of it has to keep coming.
+					boolean started = framer.hasPartialMessage();
+					if (started)
+						this.rawInputStream.startTimer();
+					int nbytes;
 					try {
-						line2 = readLine(inputStream);
-						inputBuffer.append(line2);
-						if (line2.trim().equals(""))
-							break;
+						nbytes = inputStream.read(chunk, 0, chunk.length);
 					} catch (IOException ex) {
-                                                this.rawInputStream.stopTimer();
 						Debug.printStackTrace(ex);
+						nbytes = -1;
+					} finally {
+						// Stop the timer that will kill the read.
+						if (started)
+							this.rawInputStream.stopTimer();
+					}
+					if (nbytes == -1)
 						return;
-
-					} 
+					framer.addBytes(chunk, 0, nbytes);
+					continue;
 				}
 
-				// Stop the timer that will kill the read.
-                               	this.rawInputStream.stopTimer();
-				inputBuffer.append(line2);
-				StringMsgParser smp = new StringMsgParser(sipMessageListener);
-				smp.readBody = false;
+				if (Debug.parserDebug) Debug.println("Starting parse!");
+
+				// Content length too large - only the headers were read.
+				// Process the message and return error from there.
+				smp.setReadBody(!framer.isTooLarge());
 				SIPMessage sipMessage = null;
-                               
 				try {
-					sipMessage = smp.parseSIPMessage(inputBuffer.toString());
-					if (sipMessage == null) {
-                                                this.rawInputStream.stopTimer();
+					sipMessage = smp.parseSIPMessage(msg);
+					if (sipMessage == null)
 						continue;
-                                        }
 				} catch (ParseException ex) {
 					// Just ignore the parse exception.
 					continue;
 				}
 
 				if (Debug.parserDebug) Debug.println("Completed parsing message");
-				ContentLength cl =
-					(ContentLength) sipMessage.getContentLength();
-				int contentLength = 0;
-				if (cl != null) {
-					contentLength = cl.getContentLength();
-				} else {
-					contentLength = 0;
-				}
 
-				if (Debug.parserDebug) {
-				   Debug.println("contentLength " + contentLength);
-				   Debug.println("sizeCounter " + this.sizeCounter);
-				   Debug.println("maxMessageSize " + this.maxMessageSize);
-				}
-
-
-				
-
-				if (contentLength == 0) {
-					sipMessage.removeContent();
-				} else if ( maxMessageSize == 0 || 
-					contentLength < this.sizeCounter ) {
-					byte[] message_body = new byte[contentLength];
-					int nread = 0;
-					while (nread < contentLength ) {
-						// Start my starvation timer.
-                                                //This ensures that the other end 
-                                                //writes at least some data in 
-                                                //or we will close the pipe from
-                                                //him. This prevents DOS attack
-                                                //that takes up all our connections.
-                                                this.rawInputStream.startTimer();
-						try {
-                                                        
-                                                        
-							int readlength =
-								inputStream.read(
-									message_body,
-									nread,
-									contentLength - nread);
-							if (readlength > 0) {
-								nread += readlength;
-							} else {
-								break;
-							}
-						} catch (IOException ex) {
-							ex.printStackTrace();
-							break;
-						} finally {
-							// Stop my starvation timer.
-                                                        this.rawInputStream.stopTimer();
-						}
-					}
-					sipMessage.setMessageContent(message_body);
-				} 
-				// Content length too large - process the message and
-				// return error from there.
 				if (sipMessageListener != null) {
 					try {
 						sipMessageListener.processMessage(sipMessage);
@@ -3,6 +3,7 @@
  ******************************************************************************/
 package gov.nist.javax.sip.parser;
 import java.util.Vector;
+import java.util.Hashtable;
 import java.util.NoSuchElementException;
 import java.io.*;
 import gov.nist.javax.sip.*;
@@ -11,6 +12,7 @@ import gov.nist.javax.sip.message.*;
 import gov.nist.javax.sip.address.*;
 import java.text.ParseException;
 import gov.nist.core.*;
+import javax.sip.header.*;
 
 /**
  * Parse SIP message and parts of SIP messages such as URI's etc
@@ -25,8 +27,10 @@ import gov.nist.core.*;
  * getContentBytes methods provided by the SIPMessage class. If SDP parsing
  * is enabled using the parseContent method, then the SDP body is also parsed
  * and can be accessed from the message using the getSDPAnnounce method.
- * Currently only eager parsing of the message is supported (i.e. the
- * entire message is parsed in one feld swoop).
+ * By default the message is parsed eagerly (i.e. the entire message is
+ * parsed in one feld swoop). In lazy mode only the headers that the stack
+ * needs to process the message are parsed and the others are left to the
+ * SIPMessage to parse when they are first accessed.
  *
  *
  * @version JAIN-SIP-1.1 $Revision: 1.11 $ $Date: 2005/04/15 19:17:07 $
@@ -38,6 +42,29 @@ import gov.nist.core.*;
  */
 public class StringMsgParser {
 
+	/** Status of tryParseSIPMessage: the message was parsed. */
+	public static final int PARSE_OK = 0;
+
+	/** Status of tryParseSIPMessage: there was no message in the buffer
+	 * (only line ends or nulls).
+	 */
+	public static final int EMPTY_MESSAGE = 1;
+
+	/** Status of tryParseSIPMessage: the request or status line could
+	 * not be parsed.
+	 */
+	public static final int BAD_FIRST_LINE = 2;
+
+	/** Status of tryParseSIPMessage: one of the headers that every
+	 * message needs (Via, From, To, Call-ID, CSeq) could not be parsed.
+	 */
+	public static final int BAD_HEADER = 3;
+
+	/** Status of tryParseSIPMessage: the message could not be split into
+	 * headers and body.
+	 */
+	public static final int BAD_MESSAGE = 4;
+
 	protected boolean readBody;
 
 	private String rawMessage;
@@ -64,12 +91,81 @@ public class StringMsgParser {
 
 	private String currentHeader;
 
+	// Offset of the first line of the message in currentMessageBytes.
+	private int messageStart;
+
+	// Offset of the end of the message in currentMessageBytes.
+	private int messageEnd;
+
+	// Size of the request/status line and headers.
+	private int headerSize;
+
+	// Scratch buffers for the header lines.
+	private byte[] lineBuffer;
+
+	private char[] charBuffer;
+
+	private boolean lazyParsing;
+
+	// The lexer and parsers are reused from one message to the next (a
+	// StringMsgParser is only ever used by one thread at a time).
+	private Lexer lexer;
+
+	private HeaderParser[] headerParsers;
+
+	private RequestLineParser requestLineParser;
+
+	private StatusLineParser statusLineParser;
+
+	// Set while tryParseSIPMessage is at work: errors are recorded in
+	// errorStatus and error instead of being reported to the
+	// ParseExceptionListener.
+	private boolean recordErrors;
+
+	private int errorStatus;
+
+	private ParseException error;
+
+	// Headers that are parsed even in lazy mode (the stack needs them
+	// to match the message with a transaction and to frame it).
+	private static Hashtable eagerHeaders;
+
+	// Headers without which a message is rejected.
+	private static Hashtable requiredHeaders;
+
+	static {
+		eagerHeaders = new Hashtable();
+		String[] names = {
+			ViaHeader.NAME, "v",
+			FromHeader.NAME, "f",
+			ToHeader.NAME, "t",
+			CallIdHeader.NAME, "i",
+			CSeqHeader.NAME,
+			ContentLengthHeader.NAME, "l",
+			MaxForwardsHeader.NAME };
+		for (int i = 0; i < names.length; i++)
+			eagerHeaders.put(names[i].toLowerCase(), names[i]);
+		requiredHeaders = new Hashtable();
+		String[] required = {
+			ViaHeader.NAME, "v",
+			FromHeader.NAME, "f",
+			ToHeader.NAME, "t",
+			CallIdHeader.NAME, "i",
+			CSeqHeader.NAME };
+		for (int i = 0; i < required.length; i++)
+			requiredHeaders.put(required[i].toLowerCase(), required[i]);
+	}
+
 	/**
 	 * @since v0.9
 	 */
 	public StringMsgParser() {
 		super();
 		messageHeaders = new Vector(10, 10);
+		lineBuffer = new byte[256];
+		charBuffer = new char[256];
+		lexer = new Lexer("command_keywordLexer", "");
+		headerParsers = new HeaderParser[ParserFactory.PARSER_COUNT];
 		bufferPointer = 0;
 		currentLine = 0;
 		readBody = true;
@@ -121,8 +217,8 @@ public class StringMsgParser {
 		} else {
 			int endIndex = bufferPointer + this.contentLength;
 			// guard against bad specifications.
-			if (endIndex > currentMessageBytes.length) {
-				endIndex = currentMessageBytes.length;
+			if (endIndex > messageEnd) {
+				endIndex = messageEnd;
 			}
 			byte[] body = new byte[endIndex - bufferPointer];
 			System.arraycopy(
@@ -159,8 +255,8 @@ public class StringMsgParser {
 	 * rather than with a string.
 	 */
 	protected byte[] readBytesToEnd() {
-		byte[] body = new byte[currentMessageBytes.length - bufferPointer];
-		int endIndex = currentMessageBytes.length;
+		byte[] body = new byte[messageEnd - bufferPointer];
+		int endIndex = messageEnd;
 		for (int i = bufferPointer, k = 0; i < endIndex; i++, k++) {
 			body[k] = currentMessageBytes[i];
 		}
@@ -178,6 +274,31 @@ public class StringMsgParser {
 		parseExceptionListener = pexhandler;
 	}
 
+	/**
+	 * Set lazy mode. In lazy mode only the Via, From, To, Call-ID, CSeq,
+	 * Content-Length and Max-Forwards headers are parsed. The other header
+	 * lines are handed to the message as they are and only get parsed when
+	 * the message is asked for them (so errors in these headers are not
+	 * reported to the ParseExceptionListener).
+	 *
+	 * @param lazyParsing -- true to turn on lazy mode.
+	 */
+	public void setLazyParsing(boolean lazyParsing) {
+		this.lazyParsing = lazyParsing;
+	}
+
+	/**
+	 * Set whether the body of the message is read (the default). When it
+	 * is not, the message is returned without a body and with its
+	 * Content-Length header as it was received (a stream parser uses this
+	 * for the headers of a message that is too large to read).
+	 *
+	 * @param readBody -- false to leave the body out.
+	 */
+	public void setReadBody(boolean readBody) {
+		this.readBody = readBody;
+	}
+
 	/**
 	 * Return true if the body is encoded as a string.
 	 * If the parseSIPMessage(String) method is invoked then the body
@@ -203,135 +324,255 @@ public class StringMsgParser {
 	 * @see ParseExceptionListener
 	 */
 	public SIPMessage parseSIPMessage(byte[] msgBuffer) throws ParseException {
-		bufferPointer = 0;
+		return parseSIPMessage(msgBuffer, 0, msgBuffer.length);
+	}
+
+	/**
+	 * Parse a SIP message that takes up part of a buffer (a datagram in
+	 * the receive buffer, for instance). The buffer is not kept: the
+	 * message gets a copy of its body, so the caller can reuse the
+	 * buffer as soon as this returns.
+	 *
+	 * @param msgBuffer a byte buffer that contains the message.
+	 * @param offset the offset of the message in the buffer.
+	 * @param length the length of the message.
+	 * @return the parsed message or null if the buffer held only white
+	 *	space.
+	 */
+	public SIPMessage parseSIPMessage(byte[] msgBuffer, int offset, int length)
+		throws ParseException {
 		bodyIsString = false;
-		Vector retval = new Vector();
 		currentMessageBytes = msgBuffer;
+		currentMessage = null;
+		messageEnd = offset + length;
 		int s;
 		// Squeeze out leading CRLF
 		// Squeeze out the leading nulls (otherwise the parser will crash)
 		// Bug noted by Will Sullin of Callcast
-		for (s = bufferPointer; s < msgBuffer.length; s++) {
-			if ((char) msgBuffer[s] != '\r'
-				&& (char) msgBuffer[s] != '\n'
-				&& (char) msgBuffer[s] != '\0')
+		for (s = offset; s < messageEnd; s++) {
+			if (msgBuffer[s] != '\r'
+				&& msgBuffer[s] != '\n'
+				&& msgBuffer[s] != '\0')
 				break;
 		}
 
-		if (s == msgBuffer.length)
+		if (s == messageEnd)
 			return null;
 
-		// Find the end of the SIP message.
-		int f;
-		for (f = s; f < msgBuffer.length - 4; f++) {
-			if ((char) msgBuffer[f] == '\r'
-				&& (char) msgBuffer[f + 1] == '\n'
-				&& (char) msgBuffer[f + 2] == '\r'
-				&& (char) msgBuffer[f + 3] == '\n') {
-				break;
-			}
-		}
-		if (f < msgBuffer.length)
-			f += 4;
-		else {
-			// Could not find CRLFCRLF end of message so look for LFLF
-			// Bug noticed here by Bruno Konik
-			for (f = s; f < msgBuffer.length - 2; f++) {
-				if ((char) msgBuffer[f] == '\n' 
-					&& (char) msgBuffer[f+1] == '\n')
-					break;
-			}
-			if (f < msgBuffer.length)
-				f += 2;
-			else
-				throw new ParseException("Message not terminated", 0);
-		}
+		// Split the header part of the message into lines (one pass over
+		// the bytes) and position the buffer pointer at the body.
+		messageStart = s;
+		bufferPointer = frameHeaders(msgBuffer, s, messageEnd);
 
-		// Encode the body as a UTF-8 string.
-		String messageString = null;
-		try {
-			messageString = new String(msgBuffer, s, f - s, "UTF-8");
-		} catch (UnsupportedEncodingException ex) {
-			throw new ParseException("Bad message encoding!", 0);
-		}
-		bufferPointer = f;
-		StringBuffer message = new StringBuffer(messageString);
-		int length = message.length();
-		// Get rid of CR to make it uniform for the parser.
-		for (int k = 0; k < length; k++) {
-			if (message.charAt(k) == '\r') {
-				message.deleteCharAt(k);
-				length--;
-			}
+		SIPMessage sipmsg = this.parseHeaders();
+		if (sipmsg == null)
+			return null;
+		if (readBody
+			&& sipmsg.peekContentLength() != null
+			&& sipmsg.peekContentLength().getContentLength() != 0) {
+			this.contentLength = sipmsg.peekContentLength().getContentLength();
+			byte body[] = getBodyAsBytes();
+			sipmsg.setMessageContent(body);
 		}
+		// System.out.println("Parsed = " + sipmsg);
+		sipmsg.setSize(headerSize);
+		return sipmsg;
 
-		if (Parser.debug) {
-			for (int k = 0; k < length; k++) {
-				rawMessage1 = rawMessage1 + "[" + message.charAt(k) + "]";
-			}
-		}
+	}
 
-		// The following can be written more efficiently in a single pass
-		// but it is somewhat tricky.
-		java.util.StringTokenizer tokenizer =
-			new java.util.StringTokenizer(message.toString(), "\n", true);
-		StringBuffer cooked_message = new StringBuffer();
+	/**
+	 * Parse a buffer containing a single SIP Message without throwing
+	 * an exception when the message is bad. This is meant for messages
+	 * that come in from the network, where malformed messages are
+	 * dropped: a bad message is rejected at about the cost of parsing a
+	 * good one. The ParseExceptionListener is not called. Instead a
+	 * message with a bad request or status line or a bad Via, From, To,
+	 * Call-ID or CSeq header is rejected, and any other header that does
+	 * not parse is added to the message as an unparsed header (what the
+	 * message channels of the stack do in their ParseExceptionListener).
+	 * When null is returned getErrorStatus tells why.
+	 *
+	 * @param msgBuffer a byte buffer containing the message to be parsed.
+	 * @return the parsed message or null if there was no message or it
+	 *	was rejected.
+	 */
+	public SIPMessage tryParseSIPMessage(byte[] msgBuffer) {
+		return tryParseSIPMessage(msgBuffer, 0, msgBuffer.length);
+	}
+
+	/**
+	 * Parse a message that takes up part of a buffer without throwing an
+	 * exception when the message is bad (see tryParseSIPMessage(byte[])
+	 * and parseSIPMessage(byte[], int, int)).
+	 *
+	 * @param msgBuffer a byte buffer that contains the message.
+	 * @param offset the offset of the message in the buffer.
+	 * @param length the length of the message.
+	 * @return the parsed message or null if there was no message or it
+	 *	was rejected.
+	 */
+	public SIPMessage tryParseSIPMessage(byte[] msgBuffer, int offset,
+		int length) {
+		errorStatus = PARSE_OK;
+		error = null;
+		recordErrors = true;
 		try {
-			while (tokenizer.hasMoreElements()) {
-				String nexttok = tokenizer.nextToken();
-				// Ignore blank lines with leading spaces or tabs.
-				if (nexttok.trim().equals(""))
-					cooked_message.append("\n");
-				else
-					cooked_message.append(nexttok);
-			}
-		} catch (NoSuchElementException ex) {
+			SIPMessage sipmsg = parseSIPMessage(msgBuffer, offset, length);
+			if (sipmsg == null && errorStatus == PARSE_OK)
+				errorStatus = EMPTY_MESSAGE;
+			return sipmsg;
+		} catch (ParseException ex) {
+			// The message could not be framed.
+			return reject(BAD_MESSAGE, ex);
+		} finally {
+			recordErrors = false;
 		}
+	}
 
-		String message1 = cooked_message.toString();
-		length = message1.indexOf("\n\n") + 2;
+	/**
+	 * Get the status of the last tryParseSIPMessage (PARSE_OK,
+	 * EMPTY_MESSAGE, BAD_FIRST_LINE, BAD_HEADER or BAD_MESSAGE).
+	 */
+	public int getErrorStatus() {
+		return errorStatus;
+	}
 
-		// Handle continuations - look for a space or a tab at the start
-		// of the line and append it to the previous line.
+	/**
+	 * Get the exception that made the last tryParseSIPMessage reject the
+	 * message (null if it did not).
+	 */
+	public ParseException getError() {
+		return error;
+	}
 
-		for (int k = 0; k < length - 1;) {
-			if (cooked_message.charAt(k) == '\n') {
-				if (cooked_message.charAt(k + 1) == '\t'
-					|| cooked_message.charAt(k + 1) == ' ') {
-					cooked_message.deleteCharAt(k);
-					cooked_message.deleteCharAt(k);
-					length--;
-					length--;
-					if (k == length)
-						break;
-					continue;
-				}
+	/**
+	 * Get the text of the error that made the last tryParseSIPMessage
+	 * reject the message (null if it did not). The text (the line in
+	 * error and what was wrong with it) is only built when it is asked
+	 * for.
+	 */
+	public String getErrorText() {
+		return error == null ? null : error.getMessage();
+	}
 
-				if (cooked_message.charAt(k + 1) == '\n') {
-					cooked_message.insert(k, '\n');
-					length++;
-					k++;
-				}
+	private SIPMessage reject(int status, ParseException ex) {
+		errorStatus = status;
+		error = ex;
+		return null;
+	}
+
+	private static boolean isRequiredHeader(String hdrstring) {
+		String hdrName = Lexer.getHeaderName(hdrstring);
+		return hdrName != null
+			&& requiredHeaders.containsKey(hdrName.trim().toLowerCase());
+	}
+
+	/**
+	 * Split the header part of a message into header lines. Line ends
+	 * can be CRLF or a bare LF, continuation lines (lines that begin with
+	 * a space or a tab) are joined to the header that they continue with a
+	 * single space, and the headers end at the first empty line (or line
+	 * that contains only white space). The lines are put in messageHeaders
+	 * with a terminating newline, ready to be handed to the header
+	 * parsers. This is done in a single pass over the bytes without
+	 * building a String for the whole message.
+	 *
+	 * @param msgBuffer -- buffer that contains the message.
+	 * @param start -- offset of the first line.
+	 * @param length -- offset of the end of the message.
+	 * @return the offset of the first byte of the body (the end of the
+	 *	message if there is no empty line).
+	 */
+	private int frameHeaders(byte[] msgBuffer, int start, int length)
+		throws ParseException {
+		messageHeaders.clear();
+		int lineLength = 0;
+		boolean isAscii = true;
+		int i = start;
+		while (i < length) {
+			// Find the end of the physical line.
+			int lineStart = i;
+			int lineEnd = i;
+			boolean isBlank = true;
+			while (lineEnd < length && msgBuffer[lineEnd] != '\n') {
+				byte b = msgBuffer[lineEnd];
+				if (b != ' ' && b != '\t' && b != '\r')
+					isBlank = false;
+				lineEnd++;
 			}
-			k++;
+			int next = lineEnd < length ? lineEnd + 1 : length;
+			int contentEnd = lineEnd;
+			if (contentEnd > lineStart && msgBuffer[contentEnd - 1] == '\r')
+				contentEnd--;
+			if (isBlank) {
+				// End of the headers.
+				if (lineLength > 0)
+					addHeaderLine(lineLength, isAscii);
+				headerSize = next - messageStart;
+				return next;
+			}
+			if (msgBuffer[lineStart] == ' ' || msgBuffer[lineStart] == '\t') {
+				// Continuation of the previous line.
+				if (lineLength > 0)
+					lineBuffer = append(lineBuffer, lineLength++, (byte) ' ');
+				while (lineStart < contentEnd
+					&& (msgBuffer[lineStart] == ' '
+						|| msgBuffer[lineStart] == '\t'))
+					lineStart++;
+			} else if (lineLength > 0) {
+				addHeaderLine(lineLength, isAscii);
+				lineLength = 0;
+				isAscii = true;
+			}
+			for (int k = lineStart; k < contentEnd; k++) {
+				byte b = msgBuffer[k];
+				if (b < 0)
+					isAscii = false;
+				lineBuffer = append(lineBuffer, lineLength++, b);
+			}
+			i = next;
 		}
-		cooked_message.append("\n\n");
+		// Some implementations do not put an empty line at the end of a
+		// message without a body -- the message ends with the buffer.
+		if (lineLength > 0)
+			addHeaderLine(lineLength, isAscii);
+		headerSize = length - messageStart;
+		return length;
+	}
 
-		// Separate the string out into substrings for
-		// error reporting.
-		currentMessage = cooked_message.toString();
-		SIPMessage sipmsg = this.parseMessage(currentMessage);
-		if (readBody
-			&& sipmsg.getContentLength() != null
-			&& sipmsg.getContentLength().getContentLength() != 0) {
-			this.contentLength = sipmsg.getContentLength().getContentLength();
-			byte body[] = getBodyAsBytes();
-			sipmsg.setMessageContent(body);
+	private static byte[] append(byte[] buffer, int offset, byte b) {
+		if (offset == buffer.length) {
+			byte[] newBuffer = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, newBuffer, 0, offset);
+			buffer = newBuffer;
 		}
-		// System.out.println("Parsed = " + sipmsg);
-		sipmsg.setSize(currentMessage.length());
-		return sipmsg;
+		buffer[offset] = b;
+		return buffer;
+	}
 
+	/**
+	 * Turn the line in lineBuffer into a String and add it to the list of
+	 * header lines.
+	 */
+	private void addHeaderLine(int lineLength, boolean isAscii)
+		throws ParseException {
+		String line;
+		if (isAscii) {
+			// The common case -- no need to go through the UTF-8 decoder.
+			if (charBuffer.length < lineLength + 1)
+				charBuffer = new char[lineBuffer.length + 1];
+			for (int k = 0; k < lineLength; k++)
+				charBuffer[k] = (char) lineBuffer[k];
+			charBuffer[lineLength] = '\n';
+			line = new String(charBuffer, 0, lineLength + 1);
+		} else {
+			try {
+				line = new String(lineBuffer, 0, lineLength, "UTF-8") + "\n";
+			} catch (UnsupportedEncodingException ex) {
+				throw new ParseException("Bad message encoding!", 0);
+			}
+		}
+		messageHeaders.add(line);
 	}
 
 	/**
@@ -447,9 +688,9 @@ public class StringMsgParser {
 		bufferPointer = currentMessage.indexOf("\n\n") + 3;
 		SIPMessage sipmsg = this.parseMessage(currentMessage);
 		if (readBody
-			&& sipmsg.getContentLength() != null
-			&& sipmsg.getContentLength().getContentLength() != 0) {
-			this.contentLength = sipmsg.getContentLength().getContentLength();
+			&& sipmsg.peekContentLength() != null
+			&& sipmsg.peekContentLength().getContentLength() != 0) {
+			this.contentLength = sipmsg.peekContentLength().getContentLength();
 			String body = this.getMessageBody();
 			sipmsg.setMessageContent(body);
 		}
@@ -469,11 +710,9 @@ public class StringMsgParser {
 		// sip messages.
 		// System.out.println("parsing " + currentMessage);
 
-		int sip_message_size = 0; // # of lines in the sip message
-		SIPMessage sipmsg = null;
 		java.util.StringTokenizer tokenizer =
 			new java.util.StringTokenizer(currentMessage, "\n", true);
-		messageHeaders = new Vector(); // A list of headers for error reporting
+		messageHeaders.clear(); // A list of headers for error reporting
 		try {
 			while (tokenizer.hasMoreElements()) {
 				String nexttok = tokenizer.nextToken();
@@ -482,32 +721,43 @@ public class StringMsgParser {
 					if (nextnexttok.equals("\n")) {
 						break;
 					} else
-						messageHeaders.add(nextnexttok);
+						messageHeaders.add(nextnexttok + "\n");
 				} else
-					messageHeaders.add(nexttok);
-				sip_message_size++;
+					messageHeaders.add(nexttok + "\n");
 			}
 		} catch (NoSuchElementException ex) {
 		}
+		return parseHeaders();
+	}
+
+	/**
+	 * Build a message from the lines in messageHeaders. The first line is
+	 * the request or status line. Every line ends with a newline.
+	 */
+	private SIPMessage parseHeaders() throws ParseException {
+		SIPMessage sipmsg = null;
+		if (messageHeaders.isEmpty())
+			throw new ParseException("Empty message", 0);
 		currentLine = 0;
-		currentHeader = (String) messageHeaders.elementAt(currentLine);
-		String firstLine = currentHeader;
+		String firstLine = (String) messageHeaders.elementAt(currentLine);
+		currentHeader = stripNewline(firstLine);
 		// System.out.println("first Line " + firstLine);
 
 		if (!firstLine.startsWith(SIPConstants.SIP_VERSION_STRING)) {
 			sipmsg = new SIPRequest();
 			try {
-				RequestLine rl =
-					new RequestLineParser(firstLine + "\n").parse();
+				RequestLine rl = getRequestLineParser(firstLine).parse();
 				((SIPRequest) sipmsg).setRequestLine(rl);
 			} catch (ParseException ex) {
+				if (recordErrors)
+					return reject(BAD_FIRST_LINE, ex);
 				if (this.parseExceptionListener != null)
 					this.parseExceptionListener.handleException(
 						ex,
 						sipmsg,
 						RequestLine.class,
-						firstLine,
-						currentMessage);
+						stripNewline(firstLine),
+						getRawMessage());
 				else
 					throw ex;
 
@@ -515,16 +765,18 @@ public class StringMsgParser {
 		} else {
 			sipmsg = new SIPResponse();
 			try {
-				StatusLine sl = new StatusLineParser(firstLine + "\n").parse();
+				StatusLine sl = getStatusLineParser(firstLine).parse();
 				((SIPResponse) sipmsg).setStatusLine(sl);
 			} catch (ParseException ex) {
+				if (recordErrors)
+					return reject(BAD_FIRST_LINE, ex);
 				if (this.parseExceptionListener != null) {
 					this.parseExceptionListener.handleException(
 						ex,
 						sipmsg,
 						StatusLine.class,
-						firstLine,
-						currentMessage);
+						stripNewline(firstLine),
+						getRawMessage());
 				} else
 					throw ex;
 
@@ -533,49 +785,108 @@ public class StringMsgParser {
 
 		for (int i = 1; i < messageHeaders.size(); i++) {
 			String hdrstring = (String) messageHeaders.elementAt(i);
-			if (hdrstring == null || hdrstring.trim().equals(""))
+			if (hdrstring.trim().length() == 0)
 				continue;
+			if (lazyParsing) {
+				String hdrName = Lexer.getHeaderName(hdrstring);
+				if (hdrName != null
+					&& hdrName.length() != 0
+					&& !eagerHeaders.containsKey(hdrName.toLowerCase())) {
+					sipmsg.addLazyHeader(
+						LazyHeader.getFullName(hdrName),
+						stripNewline(hdrstring));
+					continue;
+				}
+			}
 			HeaderParser hdrParser = null;
 			try {
-				hdrParser = ParserFactory.createParser(hdrstring + "\n");
+				hdrParser =
+					ParserFactory.createParser(
+						hdrstring,
+						lexer,
+						headerParsers);
 			} catch (ParseException ex) {
-				this.parseExceptionListener.handleException(
-					ex,
-					sipmsg,
-					null,
-					hdrstring,
-					rawMessage);
+				if (recordErrors)
+					sipmsg.addUnparsed(stripNewline(hdrstring));
+				else if (this.parseExceptionListener != null)
+					this.parseExceptionListener.handleException(
+						ex,
+						sipmsg,
+						null,
+						stripNewline(hdrstring),
+						getRawMessage());
 				continue;
 			}
 			try {
 				SIPHeader sipHeader = hdrParser.parse();
-				sipmsg.attachHeader(sipHeader, false);
+				sipHeader.clearShared();
+				sipmsg.attachParsedHeader(sipHeader);
 			} catch (ParseException ex) {
-				if (this.parseExceptionListener != null) {
+				if (recordErrors) {
+					if (isRequiredHeader(hdrstring))
+						return reject(BAD_HEADER, ex);
+					sipmsg.addUnparsed(stripNewline(hdrstring));
+				} else if (this.parseExceptionListener != null) {
+					hdrstring = stripNewline(hdrstring);
 					String hdrName = Lexer.getHeaderName(hdrstring);
 					Class hdrClass = NameMap.getClassFromName(hdrName);
-					try {
-						if (hdrClass == null) {
-							hdrClass =
-								Class.forName(
-									PackageNames.SIPHEADERS_PACKAGE
-										+ ".ExtensionHeaderImpl");
-						}
-						this.parseExceptionListener.handleException(
-							ex,
-							sipmsg,
-							hdrClass,
-							hdrstring,
-							rawMessage);
-					} catch (ClassNotFoundException ex1) {
-						InternalErrorHandler.handleException(ex1);
-					}
+					if (hdrClass == null)
+						hdrClass = ExtensionHeaderImpl.class;
+					this.parseExceptionListener.handleException(
+						ex,
+						sipmsg,
+						hdrClass,
+						hdrstring,
+						getRawMessage());
 				}
 			}
 		}
 		return sipmsg;
 	}
 
+	private RequestLineParser getRequestLineParser(String requestLine) {
+		lexer.reset(requestLine);
+		if (requestLineParser == null)
+			requestLineParser = new RequestLineParser(lexer);
+		else
+			lexer.selectLexer("method_keywordLexer");
+		return requestLineParser;
+	}
+
+	private StatusLineParser getStatusLineParser(String statusLine) {
+		lexer.reset(statusLine);
+		if (statusLineParser == null)
+			statusLineParser = new StatusLineParser(lexer);
+		else
+			lexer.selectLexer("status_lineLexer");
+		return statusLineParser;
+	}
+
+	private static String stripNewline(String line) {
+		return line.substring(0, line.length() - 1);
+	}
+
+	/**
+	 * Get the text of the message being parsed (for error reporting).
+	 */
+	private String getRawMessage() {
+		if (bodyIsString)
+			return rawMessage;
+		if (currentMessage == null) {
+			try {
+				currentMessage =
+					new String(
+						currentMessageBytes,
+						messageStart,
+						messageEnd - messageStart,
+						"UTF-8");
+			} catch (UnsupportedEncodingException ex) {
+				currentMessage = "";
+			}
+		}
+		return currentMessage;
+	}
+
 	/**
 	 * Parse an address (nameaddr or address spec)  and return and address
 	 * structure.
@@ -690,7 +1001,9 @@ public class StringMsgParser {
 		HeaderParser hp = ParserFactory.createParser(nmessage.toString());
 		if (hp == null)
 			throw new ParseException("could not create parser", 0);
-		return hp.parse();
+		SIPHeader sipHeader = hp.parse();
+		sipHeader.clearShared();
+		return sipHeader;
 	}
 
 	/**
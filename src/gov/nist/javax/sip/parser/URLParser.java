@@ -2,7 +2,6 @@ package gov.nist.javax.sip.parser;
 import gov.nist.javax.sip.address.*;
 import gov.nist.core.*;
 import java.text.ParseException;
-import java.util.Vector;
 
 /**
  * Parser For SIP and Tel URLs. Other kinds of URL's are handled by the 
@@ -79,7 +78,8 @@ public class URLParser extends Parser {
 	/** Name or value of a parameter.
 	 */
 	protected String paramNameOrValue() throws ParseException {
-		StringBuffer retval = new StringBuffer();
+		// Escapes are kept as they are so the value is the text scanned.
+		int start = lexer.getPtr();
 		while (lexer.hasMoreChars()) {
 			char next = lexer.lookAhead(0);
 			if (next == '['
@@ -90,16 +90,13 @@ public class URLParser extends Parser {
 				|| next == '+'
 				|| next == '$'
 				|| isUnreserved(next)) {
-				retval.append(next);
 				lexer.consume(1);
 			} else if (isEscaped()) {
-				String esc = lexer.charAsString(3);
 				lexer.consume(3);
-				retval.append(esc);
 			} else
 				break;
 		}
-		return retval.toString();
+		return lexer.getBuffer().substring(start, lexer.getPtr());
 	}
 
 	private NameValue uriParam() throws ParseException {
@@ -276,21 +273,17 @@ public class URLParser extends Parser {
 		if (debug)
 			dbg_enter("uriReference");
 		GenericURI retval = null;
-		Vector vect = lexer.peekNextToken(2);
-		Token t1 = (Token) vect.elementAt(0);
-		Token t2 = (Token) vect.elementAt(1);
+		int t1 = lexer.peekNextTokenType(0);
+		int t2 = lexer.peekNextTokenType(1);
 		try {
 
-			// System.out.println("token = "  + t1.getTokenValue());
-			// System.out.println("tokenval = " + t1.getTokenType());
-
-			if (t1.getTokenType() == TokenTypes.SIP) {
-				if (t2.getTokenType() == ':')
+			if (t1 == TokenTypes.SIP) {
+				if (t2 == ':')
 					retval = sipURL();
 				else
 					throw createParseException("Expecting \':\'");
-			} else if (t1.getTokenType() == TokenTypes.TEL) {
-				if (t2.getTokenType() == ':') {
+			} else if (t1 == TokenTypes.TEL) {
+				if (t2 == ':') {
 					retval = telURL();
 				} else
 					throw createParseException("Expecting \':\'");
@@ -447,8 +440,7 @@ public class URLParser extends Parser {
 			b = local_number();
 			tn.setPhoneNumber(b);
 			if (lexer.hasMoreChars()) {
-				Token tok = this.lexer.peekNextToken();
-				switch (tok.getTokenType()) {
+				switch (this.lexer.peekNextTokenType(0)) {
 					case SEMICOLON :
 						{
 							this.lexer.consume(1);
@@ -511,37 +503,41 @@ public class URLParser extends Parser {
 			lexer.match(':');
 			retval.setScheme(TokenNames.SIP);
 			int m = lexer.markInputPosition();
-			try {
-				String user = user();
-				char la;
-				la = lexer.lookAhead(0);
-				// name:password@hostPort
-				lexer.match(':');
+			// Look at the character after the user part to tell the forms
+			// apart rather than trying each form in turn (a failed try
+			// costs a ParseException and most urls have no password).
+			String user = user();
+			HostPort hp = null;
+			char la = lexer.lookAhead(0);
+			if (la == ':') {
+				// name:password@hostPort or hostPort with a port.
+				lexer.consume(1);
 				String password = password();
-				lexer.match('@');
-				HostNameParser hnp = new HostNameParser(this.getLexer());
-				HostPort hp = hnp.hostPort();
-				retval.setUser(user);
-				retval.setUserPassword(password);
-				retval.setHostPort(hp);
-			} catch (ParseException ex) {
+				if (lexer.lookAhead(0) == '@') {
+					lexer.consume(1);
+					hp = hostPortOrNull();
+					if (hp != null) {
+						retval.setUser(user);
+						retval.setUserPassword(password);
+						retval.setHostPort(hp);
+					}
+				}
+			} else if (la == '@') {
 				// name@hostPort
-				try {
-					lexer.rewindInputPosition(m);
-					String user = user();
-					lexer.match('@');
-					HostNameParser hnp = new HostNameParser(this.getLexer());
-					HostPort hp = hnp.hostPort();
+				lexer.consume(1);
+				hp = hostPortOrNull();
+				if (hp != null) {
 					retval.setUser(user);
 					retval.setHostPort(hp);
-				} catch (ParseException e) {
-					// hostPort
-					lexer.rewindInputPosition(m);
-					HostNameParser hnp = new HostNameParser(this.getLexer());
-					HostPort hp = hnp.hostPort();
-					retval.setHostPort(hp);
 				}
 			}
+			if (hp == null) {
+				// hostPort
+				lexer.rewindInputPosition(m);
+				HostNameParser hnp = new HostNameParser(this.getLexer());
+				hp = hnp.hostPort();
+				retval.setHostPort(hp);
+			}
 			lexer.selectLexer("charLexer");
 			while (lexer.hasMoreChars()) {
 				if (lexer.lookAhead(0) != ';')
@@ -569,12 +565,18 @@ public class URLParser extends Parser {
 		}
 	}
 
-	public String peekScheme() throws ParseException {
-		Vector tokens = lexer.peekNextToken(1);
-		if (tokens.size() == 0)
+	// Parse a host and port, returning null if there is none.
+	private HostPort hostPortOrNull() {
+		try {
+			HostNameParser hnp = new HostNameParser(this.getLexer());
+			return hnp.hostPort();
+		} catch (ParseException ex) {
 			return null;
-		String scheme = ((Token) tokens.elementAt(0)).getTokenValue();
-		return scheme;
+		}
+	}
+
+	public String peekScheme() throws ParseException {
+		return lexer.peekNextToken().getTokenValue();
 	}
 
 	/**
@@ -651,21 +653,18 @@ public class URLParser extends Parser {
 		if (debug)
 			dbg_enter("user");
 		try {
-			StringBuffer retval = new StringBuffer();
+			int start = lexer.getPtr();
 			while (lexer.hasMoreChars()) {
 				char la = lexer.lookAhead(0);
 				//if (la == '=') break;
 				if (isUnreserved(la) || isUserUnreserved(la)) {
-					retval.append(la);
 					lexer.consume(1);
 				} else if (isEscaped()) {
-					String esc = lexer.charAsString(3);
 					lexer.consume(3);
-					retval.append(esc);
 				} else
 					break;
 			}
-			return retval.toString();
+			return lexer.getBuffer().substring(start, lexer.getPtr());
 		} finally {
 			if (debug)
 				dbg_leave("user");
@@ -674,7 +673,7 @@ public class URLParser extends Parser {
 	}
 
 	protected String password() throws ParseException {
-		StringBuffer retval = new StringBuffer();
+		int start = lexer.getPtr();
 		while (true) {
 			char la = lexer.lookAhead(0);
 			if (isUnreserved(la)
@@ -683,18 +682,15 @@ public class URLParser extends Parser {
 				|| la == '+'
 				|| la == '$'
 				|| la == ',') {
-				retval.append(la);
 				lexer.consume(1);
 			} else if (isEscaped()) {
-				String esc = lexer.charAsString(3);
-				retval.append(esc);
                                 lexer.consume(3); // bug reported by
                                                   // Jeff Haynie
 			} else
 				break;
 
 		}
-		return retval.toString();
+		return lexer.getBuffer().substring(start, lexer.getPtr());
 
 	}
 
@@ -105,6 +105,76 @@ public class ViaParser extends HeaderParser {
 
 	}
 
+	/**
+	 * Fast path for parseVia: the sent protocol, the sent-by and
+	 * parameters with token values (or any value for received).
+	 * @return the via or null, with the lexer where it was, if there is
+	 * anything else (a comment, a quoted value or a syntax error).
+	 */
+	private Via parseViaFast() {
+		int m = lexer.markInputPosition();
+		try {
+			String protocolName = fastId();
+			lexer.SPorHT();
+			if (protocolName != null && lexer.lookAhead(0) == '/') {
+				lexer.consume(1);
+				lexer.SPorHT();
+				String protocolVersion = fastId();
+				lexer.SPorHT();
+				if (protocolVersion != null && lexer.lookAhead(0) == '/') {
+					lexer.consume(1);
+					lexer.SPorHT();
+					String transport = fastId();
+					if (transport != null) {
+						lexer.SPorHT();
+						Via v = new Via();
+						Protocol protocol = new Protocol();
+						protocol.setProtocolName(protocolName);
+						protocol.setProtocolVersion(protocolVersion);
+						protocol.setTransport(transport);
+						v.setSentProtocol(protocol);
+						HostNameParser hnp = new HostNameParser(this.getLexer());
+						v.setSentBy(hnp.hostPort());
+						lexer.SPorHT();
+						if (parseViaParametersFast(v))
+							return v;
+					}
+				}
+			}
+		} catch (ParseException ex) {
+		}
+		lexer.rewindInputPosition(m);
+		return null;
+	}
+
+	private boolean parseViaParametersFast(Via v) throws ParseException {
+		while (lexer.lookAhead(0) == ';') {
+			lexer.consume(1);
+			lexer.SPorHT();
+			String name = fastId();
+			if (name == null)
+				return false;
+			lexer.SPorHT();
+			NameValue nameValue;
+			if (lexer.lookAhead(0) != '=') {
+				nameValue = new NameValue(name, null);
+			} else {
+				lexer.consume(1);
+				lexer.SPorHT();
+				String value;
+				if (name.compareToIgnoreCase(Via.RECEIVED) == 0)
+					value = lexer.byteStringNoSemicolon();
+				else if ((value = fastId()) == null)
+					return false;
+				nameValue = new NameValue(name, value);
+			}
+			nameValue.setName(name.toLowerCase());
+			v.setParameter(nameValue);
+			lexer.SPorHT();
+		}
+		return lexer.lookAhead(0) != '(';
+	}
+
 	/**
 	 * Overrides the superclass nameValue parser because
 	 * we have to tolerate IPV6 addresses in the received parameter.
@@ -173,8 +243,11 @@ public class ViaParser extends HeaderParser {
 			this.lexer.SPorHT(); // ingore blanks.
 
 			while (true) {
-				Via v = new Via();
-				parseVia(v);
+				Via v = isFastPath() ? parseViaFast() : null;
+				if (v == null) {
+					v = new Via();
+					parseVia(v);
+				}
 				viaList.add(v);
 				this.lexer.SPorHT(); // eat whitespace.
 				if (this.lexer.lookAhead(0) == ',') {
@@ -0,0 +1,233 @@
+/******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).      *
+ ******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.*;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+
+/**
+ * Keeps track of the open TCP and TLS connections of the stack. A
+ * thread looks at all of them once a second and
+ * <ul>
+ * <li> closes the ones whose reader has been waiting for the rest of a
+ * message for longer than the read timeout (this replaces a timer task
+ * per read),
+ * <li> closes the ones on which nothing was sent or received for longer
+ * than the connection idle timeout, a batch at a time so that a crowd of
+ * connections going idle together does not hold up the sweep,
+ * <li> sends a keep alive (a double CRLF, see RFC 5626) on the
+ * connections that we opened and on which nothing was sent for the keep
+ * alive interval.
+ * </ul>
+ * It also keeps the number and the ages of the connections, as of the
+ * last sweep.
+ *
+ * @version  JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+class ConnectionManager implements Runnable {
+
+	private static final int SWEEP_INTERVAL = 1000;
+
+	/**
+	 * Max number of idle connections closed per sweep.
+	 */
+	private static final int EVICTION_BATCH = 1000;
+
+	protected static final byte[] KEEP_ALIVE = { '\r', '\n', '\r', '\n' };
+
+	protected static final byte[] KEEP_ALIVE_RESPONSE = { '\r', '\n' };
+
+	/**
+	 * A connection as seen by the manager (implemented by the stream
+	 * message channels).
+	 */
+	interface Connection {
+
+		/**
+		 * Time the connection was opened (or accepted).
+		 */
+		long getCreateTime();
+
+		/**
+		 * Time something was last read from or sent on the connection
+		 * (not counting our keep alives).
+		 */
+		long getLastActivityTime();
+
+		/**
+		 * Time something was last sent on the connection.
+		 */
+		long getLastSendTime();
+
+		/**
+		 * Return true if we opened the connection (we send the keep
+		 * alives on those).
+		 */
+		boolean isOutgoing();
+
+		/**
+		 * Close the connection if its reader has been waiting for the
+		 * rest of a message for too long.
+		 *
+		 * @return true if the connection was closed.
+		 */
+		boolean checkReadTimeout(long now);
+
+		void sendKeepAlive() throws IOException;
+
+		void close();
+	}
+
+	private SIPMessageStack sipStack;
+
+	private IdentityHashMap connections;
+
+	private Thread thread;
+
+	private boolean isRunning;
+
+	// Statistics.
+	private int connectionCount;
+
+	private long oldestConnectionAge;
+
+	private long meanConnectionAge;
+
+	private int evictedConnections;
+
+	private int keepAlivesSent;
+
+	protected ConnectionManager(SIPMessageStack sipStack) {
+		this.sipStack = sipStack;
+		this.connections = new IdentityHashMap();
+	}
+
+	/**
+	 * Start keeping track of a connection (the sweeping thread is started
+	 * with the first one).
+	 */
+	protected void add(Connection connection) {
+		synchronized (connections) {
+			connections.put(connection, connection);
+			if (thread == null && !sipStack.toExit) {
+				isRunning = true;
+				thread = new Thread(this);
+				thread.setName("ConnectionManagerThread");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+	}
+
+	protected void remove(Connection connection) {
+		synchronized (connections) {
+			connections.remove(connection);
+		}
+	}
+
+	protected void stop() {
+		synchronized (connections) {
+			isRunning = false;
+			connections.notify();
+		}
+	}
+
+	public void run() {
+		while (true) {
+			synchronized (connections) {
+				try {
+					connections.wait(SWEEP_INTERVAL);
+				} catch (InterruptedException ex) {
+				}
+				if (!isRunning) {
+					thread = null;
+					return;
+				}
+			}
+			try {
+				sweep(System.currentTimeMillis());
+			} catch (Exception ex) {
+				InternalErrorHandler.handleException(ex);
+			}
+		}
+	}
+
+	private void sweep(long now) {
+		Object[] snapshot;
+		synchronized (connections) {
+			snapshot = connections.keySet().toArray();
+		}
+		int idleTimeout = sipStack.connectionIdleTimeout;
+		int keepAliveInterval = sipStack.keepAliveInterval;
+		int evicted = 0;
+		int keepAlives = 0;
+		long oldest = 0;
+		long totalAge = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			Connection connection = (Connection) snapshot[i];
+			long age = now - connection.getCreateTime();
+			totalAge += age;
+			if (age > oldest)
+				oldest = age;
+			if (connection.checkReadTimeout(now))
+				continue;
+			if (idleTimeout > 0
+				&& evicted < EVICTION_BATCH
+				&& now - connection.getLastActivityTime() > idleTimeout) {
+				if (LogWriter.needsLogging)
+					sipStack.logWriter.logMessage(
+						"Closing idle connection " + connection);
+				connection.close();
+				evicted++;
+				continue;
+			}
+			if (keepAliveInterval > 0
+				&& connection.isOutgoing()
+				&& now - connection.getLastSendTime() >= keepAliveInterval) {
+				try {
+					connection.sendKeepAlive();
+					keepAlives++;
+				} catch (IOException ex) {
+					if (LogWriter.needsLogging)
+						sipStack.logWriter.logMessage(
+							"Keep alive failed on " + connection + " " + ex);
+					connection.close();
+				}
+			}
+		}
+		synchronized (this) {
+			connectionCount = snapshot.length;
+			oldestConnectionAge = oldest;
+			meanConnectionAge =
+				snapshot.length == 0 ? 0 : totalAge / snapshot.length;
+			evictedConnections += evicted;
+			keepAlivesSent += keepAlives;
+		}
+	}
+
+	protected synchronized int getConnectionCount() {
+		return connectionCount;
+	}
+
+	protected synchronized long getOldestConnectionAge() {
+		return oldestConnectionAge;
+	}
+
+	protected synchronized long getMeanConnectionAge() {
+		return meanConnectionAge;
+	}
+
+	protected synchronized int getEvictedConnections() {
+		return evictedConnections;
+	}
+
+	protected synchronized int getKeepAlivesSent() {
+		return keepAlivesSent;
+	}
+}
@@ -8,8 +8,8 @@ import java.io.*;
 import java.net.*;
 import java.util.Hashtable;
 import java.util.Enumeration;
-
-// Added by Daniel J. Martinez Manzano <dani@dif.um.es>
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 
 /**
@@ -41,6 +41,35 @@ class IOHandler {
     // sending tcp messages.
     private Hashtable socketTable;
 
+    // The outbound queues of the cached sockets (same keys as the
+    // socket table, guarded by its lock).
+    private Hashtable queueTable;
+
+    // The connections being made, by key (guarded by the lock of the
+    // socket table).
+    private Hashtable pendingConnects;
+
+    // Outbound queue metrics (summed over the connections).
+    private int queuedMessages;
+
+    private long queuedBytes;
+
+    private int queueHighWaterMark;
+
+    private int queueOverflows;
+
+    // TLS handshakes going on (guarded by handshakeLock) and their
+    // outcomes.
+    private int activeHandshakes;
+
+    private Object handshakeLock;
+
+    private int fullHandshakes;
+
+    private int resumedHandshakes;
+
+    private int failedHandshakes;
+
     protected static String makeKey(InetAddress addr, int port) {
         return addr.getHostAddress() + ":" + port;
 
@@ -49,18 +78,27 @@ class IOHandler {
     protected IOHandler(SIPMessageStack sipStack) {
         this.sipStack = sipStack;
         this.socketTable = new Hashtable();
+        this.queueTable = new Hashtable();
+        this.pendingConnects = new Hashtable();
+        this.handshakeLock = new Object();
     }
 
-    protected synchronized void putSocket(String key, Socket sock) {
+    // The socket table is a Hashtable and sendBytes holds its lock while
+    // it queues a message, so these must not lock the handler as well (the
+    // two locks would be taken in different orders).
+    protected void putSocket(String key, Socket sock) {
         socketTable.put(key, sock);
     }
 
-    private synchronized Socket getSocket(String key) {
+    private Socket getSocket(String key) {
         return (Socket) socketTable.get(key);
     }
 
     private void removeSocket(String key) {
         socketTable.remove(key);
+        OutboundQueue queue = (OutboundQueue) queueTable.remove(key);
+        if (queue != null)
+            queue.close();
     }
 
     /**
@@ -68,8 +106,8 @@ class IOHandler {
      * writes can occur from multiple threads. We write in chunks to allow the
      * other side to synchronize for large sized writes.
      */
-    private void writeChunks(OutputStream outputStream, byte[] bytes, int length)
-            throws IOException {
+    protected void writeChunks(OutputStream outputStream, byte[] bytes,
+            int length) throws IOException {
         // Chunk size is 16K - this hack is for large
         // writes over slow connections.
         synchronized (outputStream) {
@@ -84,7 +122,386 @@ class IOHandler {
     }
 
     /**
-     * Send an array of bytes.
+     * Queue the bytes for the writer of a cached socket. Called with the
+     * lock of the socket table held.
+     * 
+     * @return false if the socket is broken (the caller connects again).
+     * @throws IOException --
+     *             if the queue is full and the overflow policy is to fail
+     *             or to close the connection.
+     */
+    private boolean enqueue(String key, Socket sock, byte[] bytes)
+            throws IOException {
+        OutboundQueue queue = (OutboundQueue) queueTable.get(key);
+        if (queue == null || queue.getSocket() != sock) {
+            if (queue != null)
+                queue.close();
+            queue = new OutboundQueue(this, key, sock);
+            queueTable.put(key, queue);
+        }
+        try {
+            return queue.add(bytes, sipStack.maxOutboundQueueSize);
+        } catch (OutboundQueue.QueueFullException ex) {
+            overflowed();
+            int policy = sipStack.outboundQueueOverflow;
+            if (LogWriter.needsLogging)
+                sipStack.logWriter.logMessage(ex.getMessage()
+                        + (policy == SIPMessageStack.OUTBOUND_QUEUE_DROP ? " dropping message"
+                                : policy == SIPMessageStack.OUTBOUND_QUEUE_CLOSE ? " closing connection"
+                                        : ""));
+            if (policy == SIPMessageStack.OUTBOUND_QUEUE_DROP)
+                return true;
+            if (policy == SIPMessageStack.OUTBOUND_QUEUE_CLOSE) {
+                // The caller closes the socket once the lock is released.
+                removeSocket(key);
+                ex.setConnection(sock);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Close a socket once the messages queued for it are written (the
+     * socket of a message channel that is closed right after a send).
+     * 
+     * @param key --
+     *            the key of the socket in the socket table (null if it is
+     *            not there).
+     */
+    protected void closeSocket(String key, Socket sock) throws IOException {
+        OutboundQueue queue = null;
+        if (key != null) {
+            synchronized (this.socketTable) {
+                queue = (OutboundQueue) queueTable.get(key);
+                if (queue != null && queue.getSocket() != sock)
+                    queue = null;
+                if (queue == null && getSocket(key) == sock)
+                    socketTable.remove(key);
+            }
+        }
+        if (queue == null || !queue.closeWhenEmpty())
+            sock.close();
+    }
+
+    /**
+     * Queue a keep alive on a cached socket. Nothing is sent if the socket
+     * is no longer the one in the table or if the writer is busy (the
+     * messages it is writing keep the connection alive anyway).
+     * 
+     * @throws IOException --
+     *             if the connection is broken.
+     */
+    protected void sendKeepAlive(String key, Socket sock) throws IOException {
+        synchronized (this.socketTable) {
+            if (getSocket(key) != sock)
+                return;
+            OutboundQueue queue = (OutboundQueue) queueTable.get(key);
+            if (queue != null && queue.getSocket() == sock && queue.isBusy())
+                return;
+            try {
+                if (!enqueue(key, sock, ConnectionManager.KEEP_ALIVE))
+                    throw new IOException("Connection to " + key + " is broken");
+            } catch (OutboundQueue.QueueFullException ex) {
+                // Cannot happen with an idle queue.
+            }
+        }
+    }
+
+    /**
+     * Called by the writer of a queue when its connection failed or was
+     * closed.
+     */
+    protected void connectionClosed(String key, OutboundQueue queue) {
+        Socket sock = queue.getSocket();
+        synchronized (this.socketTable) {
+            if (queueTable.get(key) == queue)
+                queueTable.remove(key);
+            if (getSocket(key) == sock)
+                socketTable.remove(key);
+        }
+        try {
+            sock.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    protected synchronized void queued(int bytes, int connectionBytes) {
+        queuedMessages++;
+        queuedBytes += bytes;
+        if (connectionBytes > queueHighWaterMark)
+            queueHighWaterMark = connectionBytes;
+    }
+
+    protected synchronized void dequeued(int messages, int bytes) {
+        queuedMessages -= messages;
+        queuedBytes -= bytes;
+    }
+
+    protected synchronized void overflowed() {
+        queueOverflows++;
+    }
+
+    protected synchronized int getQueuedMessages() {
+        return queuedMessages;
+    }
+
+    protected synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    protected synchronized int getQueueHighWaterMark() {
+        return queueHighWaterMark;
+    }
+
+    protected synchronized int getQueueOverflows() {
+        return queueOverflows;
+    }
+
+    protected synchronized int getFullHandshakes() {
+        return fullHandshakes;
+    }
+
+    protected synchronized int getResumedHandshakes() {
+        return resumedHandshakes;
+    }
+
+    protected synchronized int getFailedHandshakes() {
+        return failedHandshakes;
+    }
+
+    /**
+     * Do the TLS handshake of a new connection (one we opened or one we
+     * accepted) on the calling thread, so that it is done before the
+     * connection is used and not by whoever happens to write or read
+     * first. At most sipStack.maxTlsHandshakes are done at a time: a
+     * storm of reconnects takes turns for the CPU rather than all the
+     * handshakes of the storm slowing each other down. The sessions are
+     * kept in the session cache of the SSL context (sized by the stack),
+     * so a reconnect to a peer we talked to recently resumes its session
+     * instead of doing a full handshake.
+     * 
+     * @param deadline --
+     *            when to give up (0 for never).
+     * @throws IOException --
+     *             if the handshake failed or did not complete in time.
+     */
+    protected void handshake(SSLSocket sock, long deadline) throws IOException {
+        synchronized (handshakeLock) {
+            while (sipStack.maxTlsHandshakes > 0
+                    && activeHandshakes >= sipStack.maxTlsHandshakes) {
+                long left = deadline > 0 ? deadline - System.currentTimeMillis() : 0;
+                if (deadline > 0 && left <= 0) {
+                    handshakeFailed();
+                    throw new IOException("Timed out waiting to do the TLS handshake with "
+                            + sock.getInetAddress().getHostAddress());
+                }
+                try {
+                    handshakeLock.wait(left);
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException("Interrupted waiting to do a TLS handshake");
+                }
+            }
+            activeHandshakes++;
+        }
+        long start = System.currentTimeMillis();
+        SSLSession session = null;
+        try {
+            int soTimeout = sock.getSoTimeout();
+            if (deadline > 0) {
+                long left = deadline - start;
+                if (left <= 0)
+                    throw new IOException("Timed out before the TLS handshake with "
+                            + sock.getInetAddress().getHostAddress());
+                sock.setSoTimeout((int) left);
+            }
+            sock.startHandshake();
+            sock.setSoTimeout(soTimeout);
+            session = sock.getSession();
+        } finally {
+            synchronized (handshakeLock) {
+                activeHandshakes--;
+                handshakeLock.notify();
+            }
+            if (session == null)
+                handshakeFailed();
+        }
+        // A resumed session is the one cached by an earlier handshake.
+        boolean resumed = session.getCreationTime() < start;
+        SSLSessionContext context = session.getSessionContext();
+        if (context != null) {
+            if (context.getSessionCacheSize() != sipStack.tlsSessionCacheSize)
+                context.setSessionCacheSize(sipStack.tlsSessionCacheSize);
+            if (context.getSessionTimeout() != sipStack.tlsSessionTimeout)
+                context.setSessionTimeout(sipStack.tlsSessionTimeout);
+        }
+        synchronized (this) {
+            if (resumed)
+                resumedHandshakes++;
+            else
+                fullHandshakes++;
+        }
+        if (LogWriter.needsLogging)
+            sipStack.logWriter.logMessage((resumed ? "Resumed" : "New")
+                    + " TLS session with " + sock.getInetAddress().getHostAddress()
+                    + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private synchronized void handshakeFailed() {
+        failedHandshakes++;
+    }
+
+    protected void logException(Exception ex) {
+        sipStack.logWriter.logException(ex);
+    }
+
+    /**
+     * A connection that is being made. The threads that want to send to
+     * the same destination meanwhile wait for it (and not for the lock of
+     * the socket table, so sends to other destinations go on).
+     */
+    private static class PendingConnect {
+
+        private Socket socket;
+
+        private IOException failure;
+
+        private boolean done;
+
+        synchronized void done(Socket socket, IOException failure) {
+            this.socket = socket;
+            this.failure = failure;
+            this.done = true;
+            this.notifyAll();
+        }
+
+        synchronized Socket await(String key, int timeout) throws IOException {
+            long end = System.currentTimeMillis() + timeout;
+            while (!done) {
+                long left = timeout > 0 ? end - System.currentTimeMillis() : 0;
+                if (timeout > 0 && left <= 0)
+                    throw new IOException("Timed out connecting to " + key);
+                try {
+                    this.wait(left);
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException("Interrupted connecting to " + key);
+                }
+            }
+            if (failure != null)
+                throw new IOException("Could not connect to " + key + ": "
+                        + failure.getMessage());
+            return socket;
+        }
+    }
+
+    /**
+     * Get the cached connection to a destination, or connect to it. One
+     * thread connects (outside the lock of the socket table, giving up
+     * after the connect timeout of the stack) and the others that want to
+     * send to the destination wait for the outcome.
+     */
+    private Socket getConnection(String key, InetAddress inaddr,
+            int contactPort, boolean tls) throws IOException {
+        PendingConnect pending;
+        boolean connecting = false;
+        synchronized (this.socketTable) {
+            Socket sock = getSocket(key);
+            if (sock != null)
+                return sock;
+            pending = (PendingConnect) pendingConnects.get(key);
+            if (pending == null) {
+                pending = new PendingConnect();
+                pendingConnects.put(key, pending);
+                connecting = true;
+            }
+        }
+        if (!connecting)
+            return pending.await(key, sipStack.connectTimeout);
+        if (LogWriter.needsLogging) {
+            sipStack.logWriter.logMessage("inaddr = " + inaddr);
+            sipStack.logWriter.logMessage("port = " + contactPort);
+        }
+        Socket clientSock = null;
+        IOException failure = null;
+        try {
+            if (tls) {
+                // The connection is made when the handshake is done: both
+                // have to fit in the connect timeout.
+                long deadline = sipStack.connectTimeout > 0 ? System
+                        .currentTimeMillis()
+                        + sipStack.connectTimeout : 0;
+                SSLSocket sslSock = sipStack.getNetworkLayer().connectSSLSocket(
+                        inaddr, contactPort, sipStack.getRealIPAddress(),
+                        sipStack.connectTimeout);
+                try {
+                    handshake(sslSock, deadline);
+                } catch (IOException ex) {
+                    sslSock.close();
+                    throw ex;
+                }
+                clientSock = sslSock;
+            } else
+                clientSock = sipStack.getNetworkLayer().connectSocket(
+                        inaddr, contactPort, sipStack.getRealIPAddress(),
+                        sipStack.connectTimeout);
+        } catch (IOException ex) {
+            failure = ex;
+        } finally {
+            synchronized (this.socketTable) {
+                pendingConnects.remove(key);
+                if (clientSock != null)
+                    putSocket(key, clientSock);
+            }
+            // (No socket and no failure: the network layer threw an
+            // unchecked exception.)
+            pending.done(clientSock, clientSock == null && failure == null
+                    ? new IOException("Connect failed") : failure);
+        }
+        if (failure != null)
+            throw failure;
+        return clientSock;
+    }
+
+    /**
+     * Queue bytes for a TCP or TLS connection, connecting first if need
+     * be. A cached connection that turns out to be broken is replaced
+     * when the caller asked for a retry.
+     */
+    private Socket sendStreamBytes(InetAddress inaddr, int contactPort,
+            boolean tls, byte[] bytes, int max_retry) throws IOException {
+        String key = makeKey(inaddr, contactPort);
+        int retry_count = 0;
+        while (retry_count < max_retry) {
+            Socket clientSock = getConnection(key, inaddr, contactPort, tls);
+            boolean queued;
+            try {
+                synchronized (this.socketTable) {
+                    queued = enqueue(key, clientSock, bytes);
+                    // old connection is bad.
+                    // remove from our table.
+                    if (!queued && getSocket(key) == clientSock)
+                        removeSocket(key);
+                }
+            } catch (OutboundQueue.QueueFullException ex) {
+                ex.closeConnection();
+                throw ex;
+            }
+            if (queued)
+                return clientSock;
+            try {
+                clientSock.close();
+            } catch (Exception e) {
+            }
+            retry_count++;
+        }
+        throw new IOException("Could not connect to " + inaddr + ":"
+                + contactPort);
+    }
+
+    /**
+     * Send an array of bytes. TCP and TLS messages are queued for the
+     * writer thread of the connection; this only blocks to connect (for at
+     * most the connect timeout of the stack, and only the threads that
+     * send to the destination being connected to).
      * 
      * @param inaddr --
      *            inet address
@@ -100,7 +517,6 @@ class IOHandler {
 
     public Socket sendBytes(InetAddress inaddr, int contactPort,
             String transport, byte[] bytes, boolean retry) throws IOException {
-        int retry_count = 0;
         int max_retry = retry ? 2 : 1;
         // Server uses TCP transport. TCP client sockets are cached
         int length = bytes.length;
@@ -110,103 +526,11 @@ class IOHandler {
                     + " length = " + length);
         }
         if (transport.compareToIgnoreCase(TCP) == 0) {
-            String key = makeKey(inaddr, contactPort);
-            // This should be in a synchronized block ( reported by
-            // Jayashenkhar ( lucent ).
-            synchronized (this.socketTable) {
-                Socket clientSock = getSocket(key);
-                while (retry_count < max_retry) {
-                    if (clientSock == null) {
-                        if (LogWriter.needsLogging) {
-                            sipStack.logWriter.logMessage("inaddr = " + inaddr);
-                            sipStack.logWriter.logMessage("port = "
-                                    + contactPort);
-                        }
-                        clientSock = sipStack.getNetworkLayer().createSocket(
-                                inaddr, contactPort,
-                                sipStack.getRealIPAddress());
-                        OutputStream outputStream = clientSock
-                                .getOutputStream();
-                        writeChunks(outputStream, bytes, length);
-                        putSocket(key, clientSock);
-                        break;
-                    } else {
-                        try {
-                            OutputStream outputStream = clientSock
-                                    .getOutputStream();
-                            writeChunks(outputStream, bytes, length);
-                            break;
-                        } catch (IOException ex) {
-                            if (LogWriter.needsLogging)
-                                sipStack.logWriter.logException(ex);
-                            // old connection is bad.
-                            // remove from our table.
-                            removeSocket(key);
-                            try {
-                                clientSock.close();
-                            } catch (Exception e) {
-                            }
-                            clientSock = null;
-                            retry_count++;
-                        }
-                    }
-                }
-                if (clientSock == null) {
-                    throw new IOException("Could not connect to " + inaddr
-                            + ":" + contactPort);
-                } else
-                    return clientSock;
-            }
+            return sendStreamBytes(inaddr, contactPort, false, bytes, max_retry);
 
             // Added by Daniel J. Martinez Manzano <dani@dif.um.es>
-            // Copied and modified from the former section for TCP
         } else if (transport.compareToIgnoreCase(TLS) == 0) {
-            String key = makeKey(inaddr, contactPort);
-            synchronized (this.socketTable) {
-                SSLSocket clientSock = (SSLSocket) getSocket(key);
-                while (retry_count < max_retry) {
-                    if (clientSock == null) {
-                        if (LogWriter.needsLogging) {
-                            sipStack.logWriter.logMessage("inaddr = " + inaddr);
-                            sipStack.logWriter.logMessage("port = "
-                                    + contactPort);
-                        }
-                        clientSock = sipStack.getNetworkLayer()
-                                .createSSLSocket(inaddr, contactPort,
-                                        sipStack.getRealIPAddress());
-                        OutputStream outputStream = clientSock
-                                .getOutputStream();
-                        writeChunks(outputStream, bytes, length);
-                        putSocket(key, clientSock);
-                        break;
-                    } else {
-                        try {
-                            OutputStream outputStream = clientSock
-                                    .getOutputStream();
-                            writeChunks(outputStream, bytes, length);
-                            break;
-                        } catch (IOException ex) {
-                            if (LogWriter.needsLogging)
-                                sipStack.logWriter.logException(ex);
-                            // old connection is bad.
-                            // remove from our table.
-                            removeSocket(key);
-                            try {
-                                clientSock.close();
-                            } catch (Exception e) {
-                            }
-                            clientSock = null;
-                            retry_count++;
-                        }
-                    }
-                }
-                if (clientSock == null) {
-                    throw new IOException("Could not connect to " + inaddr
-                            + ":" + contactPort);
-                } else
-                    return clientSock;
-
-            }
+            return sendStreamBytes(inaddr, contactPort, true, bytes, max_retry);
 
         } else {
             // This is a UDP transport...
@@ -226,6 +550,10 @@ class IOHandler {
      * Close all the cached connections.
      */
     public void closeAll() {
+        for (Enumeration values = queueTable.elements(); values
+                .hasMoreElements();) {
+            ((OutboundQueue) values.nextElement()).close();
+        }
         for (Enumeration values = socketTable.elements(); values
                 .hasMoreElements();) {
             Socket s = (Socket) values.nextElement();
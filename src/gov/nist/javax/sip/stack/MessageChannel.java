@@ -154,7 +154,7 @@ public abstract class MessageChannel {
 		int receiverPort)
 		throws IOException {
 		long time = System.currentTimeMillis();
-		byte[] bytes = sipMessage.encodeAsBytes();
+		byte[] bytes = sipMessage.encodeAsSharedBytes();
 		sendMessage(
 			bytes,
 			receiverAddress,
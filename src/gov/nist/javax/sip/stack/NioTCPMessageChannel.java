@@ -0,0 +1,993 @@
+/******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).      *
+ ******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.header.*;
+import gov.nist.javax.sip.message.*;
+import gov.nist.javax.sip.parser.*;
+import gov.nist.core.*;
+import java.net.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.LinkedList;
+
+/**
+ * A TCP connection of the NioTCPMessageProcessor. The connection has no
+ * thread of its own: a selector thread of the processor reads from it
+ * and frames the bytes into messages (see MessageFramer) and the worker
+ * threads of the processor parse and process the messages, one at a
+ * time and in order. Messages are written straight to the socket when it
+ * can take them, what it cannot take is queued and written by the
+ * selector thread when the socket becomes writable. A message that is
+ * written straight to the socket is encoded into a buffer of the sending
+ * thread; only what the socket does not take is copied out to be queued.
+ *
+ * A channel created to send to a peer connects when the first message
+ * is sent and reconnects if the connection went away.
+ *
+ * The read and connect timeouts are checked by the selector threads; the
+ * connection manager of the stack closes the idle connections and sends
+ * the keep alives.
+ *
+ * @see NioTCPMessageProcessor
+ *
+ * @version  JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public final class NioTCPMessageChannel extends MessageChannel
+	implements ConnectionManager.Connection {
+
+	private SocketChannel socketChannel;
+
+	private SelectionKey selectionKey;
+
+	private NioTCPMessageProcessor.SelectorLoop selectorLoop;
+
+	// Used by the selector thread only.
+	private MessageFramer framer;
+
+	private long lastReadTime;
+
+	// Framed messages waiting for a worker and whether the channel is in
+	// the work queue of the processor.
+	private LinkedList inbound;
+
+	private boolean scheduled;
+
+	// Close the connection once the inbound messages are processed.
+	private boolean closeWhenDone;
+
+	// The headers of a message that was too large to read (the last
+	// inbound message).
+	private byte[] truncatedMessage;
+
+	// Buffers waiting to be written. Also the lock for the connection
+	// state (opening and closing the socket).
+	private LinkedList outbound;
+
+	// Bytes of the messages in the outbound list.
+	private int outboundBytes;
+
+	// The connection is being made (by the selector thread). What is sent
+	// meanwhile waits in the outbound list.
+	private boolean connecting;
+
+	private long connectStartTime;
+
+	// The connection was accepted (rather than opened by us).
+	private boolean accepted;
+
+	private String key;
+
+	// For the connection manager.
+	private long createTime;
+
+	private long lastActivityTime;
+
+	private long lastSendTime;
+
+	protected boolean isCached;
+
+	protected boolean isRunning;
+
+	private SIPMessageStack stack;
+
+	private String myAddress;
+
+	private int myPort;
+
+	private InetAddress peerAddress;
+
+	private int peerPort;
+
+	private String peerProtocol;
+
+	//Incremented whenever a transaction gets assigned
+	// to the message channel and decremented when
+	// a transaction gets freed from the message channel.
+	protected int useCount;
+
+	private NioTCPMessageProcessor tcpMessageProcessor;
+
+	// Largest encode buffer that a thread keeps.
+	private static final int MAX_ENCODE_BUFFER = 64 * 1024;
+
+	// The buffer that each sending thread encodes its messages into.
+	private static final ThreadLocal encodeBuffer = new ThreadLocal() {
+		protected Object initialValue() {
+			return ByteBuffer.allocate(4096);
+		}
+	};
+
+	/**
+	 * Constructor for an accepted connection.
+	 *
+	 * @param socketChannel -- the accepted (non blocking) connection.
+	 * @param sipStack -- the SIP stack.
+	 * @param msgProcessor -- the processor that accepted the connection.
+	 */
+	protected NioTCPMessageChannel(
+		SocketChannel socketChannel,
+		SIPMessageStack sipStack,
+		NioTCPMessageProcessor msgProcessor) {
+		this(socketChannel.socket().getInetAddress(), 0, sipStack, msgProcessor);
+		this.key = null;
+		this.peerProtocol = null;
+		this.socketChannel = socketChannel;
+		this.accepted = true;
+		this.isRunning = true;
+	}
+
+	/**
+	 * Constructor for a connection to the given address. The connection
+	 * is made when the first message is sent.
+	 *
+	 * @param inetAddr -- inet address to connect to.
+	 * @param port -- port to connect to.
+	 * @param sipStack -- the SIP stack.
+	 * @param messageProcessor -- the processor that the channel belongs to.
+	 */
+	protected NioTCPMessageChannel(
+		InetAddress inetAddr,
+		int port,
+		SIPMessageStack sipStack,
+		NioTCPMessageProcessor messageProcessor) {
+		if (LogWriter.needsLogging)
+			sipStack.logWriter.logMessage("creating new NioTCPMessageChannel ");
+		this.peerAddress = inetAddr;
+		this.peerPort = port;
+		this.peerProtocol = "TCP";
+		this.stack = sipStack;
+		this.tcpMessageProcessor = messageProcessor;
+		this.myAddress = sipStack.getHostAddress();
+		this.myPort = messageProcessor.getPort();
+		this.key = MessageChannel.getKey(peerAddress, peerPort, "TCP");
+		this.inbound = new LinkedList();
+		this.outbound = new LinkedList();
+		super.messageProcessor = messageProcessor;
+	}
+
+	/**
+	 * Returns "true" as this is a reliable transport.
+	 */
+	public boolean isReliable() {
+		return true;
+	}
+
+	/**
+	 * Close the message channel.
+	 */
+	public void close() {
+		boolean wasAccepted;
+		synchronized (outbound) {
+			if (socketChannel == null || !isRunning)
+				return;
+			isRunning = false;
+			wasAccepted = accepted;
+			accepted = false;
+			connecting = false;
+			discardOutbound();
+			// Wake up the senders waiting for the connection.
+			outbound.notifyAll();
+			if (selectionKey != null)
+				selectionKey.cancel();
+			try {
+				socketChannel.close();
+				if (LogWriter.needsLogging)
+					stack.logWriter.logMessage("Closing message Channel " + this);
+			} catch (IOException ex) {
+				if (LogWriter.needsLogging)
+					stack.logWriter.logMessage("Error closing socket " + ex);
+			}
+		}
+		stack.connectionManager.remove(this);
+		// Not under the lock of the channel: the processor calls close
+		// with its own lock held.
+		tcpMessageProcessor.connectionClosed(this, wasAccepted);
+	}
+
+	/**
+	 * Forget the buffers waiting to be written (called with the outbound
+	 * lock held).
+	 */
+	private void discardOutbound() {
+		if (!outbound.isEmpty())
+			stack.ioHandler.dequeued(outbound.size(), outboundBytes);
+		outbound.clear();
+		outboundBytes = 0;
+	}
+
+	/**
+	 * Get my SIP Stack.
+	 * @return The SIP Stack for this message channel.
+	 */
+	public SIPMessageStack getSIPStack() {
+		return stack;
+	}
+
+	/**
+	 * get the transport string.
+	 * @return "tcp" in this case.
+	 */
+	public String getTransport() {
+		return "TCP";
+	}
+
+	/**
+	 * get the address of the client that sent the data to us.
+	 * @return Address of the client that sent us data that resulted in this channel being created.
+	 */
+	public String getPeerAddress() {
+		if (peerAddress != null) {
+			return peerAddress.getHostAddress();
+		} else
+			return getHost();
+	}
+
+	protected InetAddress getPeerInetAddress() {
+		return peerAddress;
+	}
+
+	public String getPeerProtocol() {
+		return this.peerProtocol;
+	}
+
+	/**
+	 * Start connecting to the peer (or connecting again if the connection
+	 * went away). The selector thread finishes the connection. Called
+	 * with the outbound lock held.
+	 */
+	private void connect() throws IOException {
+		if (LogWriter.needsLogging)
+			stack.logWriter.logMessage(
+				"connecting to " + peerAddress + ":" + peerPort);
+		SocketChannel channel = SocketChannel.open();
+		boolean connected;
+		try {
+			channel.configureBlocking(false);
+			channel.socket().bind(
+				new InetSocketAddress(stack.getRealIPAddress(), 0));
+			connected =
+				channel.connect(new InetSocketAddress(peerAddress, peerPort));
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+		this.socketChannel = channel;
+		this.selectionKey = null;
+		this.isRunning = true;
+		this.connecting = !connected;
+		this.connectStartTime = System.currentTimeMillis();
+		synchronized (inbound) {
+			this.closeWhenDone = false;
+		}
+		tcpMessageProcessor.register(this);
+	}
+
+	/**
+	 * Write bytes to the connection, connecting first if need be. What
+	 * the socket does not take right away is written by the selector
+	 * thread, up to the max outbound queue size of the stack (beyond it
+	 * the overflow policy of the stack applies). While the connection is
+	 * being made the bytes are queued and the caller waits for the
+	 * outcome (for at most the connect timeout of the stack).
+	 */
+	private void sendBytes(byte[] msg) throws IOException {
+		boolean overflow = false;
+		boolean connectFailed = false;
+		this.lastSendTime = System.currentTimeMillis();
+		this.lastActivityTime = this.lastSendTime;
+		synchronized (outbound) {
+			if (socketChannel == null || !isRunning) {
+				if (peerPort == 0)
+					throw new IOException("Connection closed");
+				connect();
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(msg);
+			if (outbound.isEmpty() && !connecting) {
+				try {
+					while (buffer.hasRemaining()
+						&& socketChannel.write(buffer) > 0);
+				} catch (IOException ex) {
+					if (LogWriter.needsLogging)
+						stack.logWriter.logMessage("IOException writing " + ex);
+					// Let the caller see the failure once the lock is
+					// released.
+					buffer = null;
+				}
+				if (buffer != null && !buffer.hasRemaining())
+					return;
+			}
+			if (buffer != null) {
+				int max = stack.maxOutboundQueueSize;
+				if (max > 0
+					&& !outbound.isEmpty()
+					&& outboundBytes + msg.length > max) {
+					stack.ioHandler.overflowed();
+					if (LogWriter.needsLogging)
+						stack.logWriter.logMessage(
+							"Outbound queue to " + getKey() + " is full ("
+								+ outboundBytes + " bytes)");
+					if (stack.outboundQueueOverflow
+						== SIPMessageStack.OUTBOUND_QUEUE_DROP)
+						return;
+					if (stack.outboundQueueOverflow
+						== SIPMessageStack.OUTBOUND_QUEUE_FAIL)
+						throw new IOException(
+							"Outbound queue to " + getKey() + " is full");
+					overflow = true;
+				} else {
+					outbound.addLast(buffer);
+					outboundBytes += msg.length;
+					stack.ioHandler.queued(msg.length, outboundBytes);
+					if (!connecting) {
+						if (outbound.size() == 1)
+							enableWrites();
+						return;
+					}
+					if (awaitConnect())
+						return;
+					connectFailed = true;
+				}
+			}
+		}
+		close();
+		if (connectFailed)
+			throw new IOException("Could not connect to " + getKey());
+		if (overflow)
+			throw new IOException("Outbound queue to " + getKey() + " is full");
+		throw new IOException("Error writing to " + getKey());
+	}
+
+	/**
+	 * Encode a message and write it to the connection. If nothing is
+	 * queued before it, the message is encoded into the buffer of this
+	 * thread and written from there; what the socket does not take is
+	 * copied and queued. Otherwise (or while the connection is made) the
+	 * message goes through sendBytes.
+	 */
+	private void sendEncoded(SIPMessage sipMessage) throws IOException {
+		synchronized (outbound) {
+			if (socketChannel == null
+				|| !isRunning
+				|| connecting
+				|| !outbound.isEmpty()) {
+				this.sendBytes(sipMessage.encodeAsSharedBytes());
+				return;
+			}
+			this.lastSendTime = System.currentTimeMillis();
+			this.lastActivityTime = this.lastSendTime;
+			ByteBuffer buffer = (ByteBuffer) encodeBuffer.get();
+			buffer.clear();
+			buffer = sipMessage.encodeInto(buffer);
+			if (buffer.capacity() <= MAX_ENCODE_BUFFER)
+				encodeBuffer.set(buffer);
+			buffer.flip();
+			boolean failed = false;
+			try {
+				while (buffer.hasRemaining()
+					&& socketChannel.write(buffer) > 0);
+			} catch (IOException ex) {
+				if (LogWriter.needsLogging)
+					stack.logWriter.logMessage("IOException writing " + ex);
+				failed = true;
+			}
+			if (!failed) {
+				if (buffer.hasRemaining()) {
+					// The queue is empty: there is no limit to check.
+					byte[] rest = new byte[buffer.remaining()];
+					buffer.get(rest);
+					outbound.addLast(ByteBuffer.wrap(rest));
+					outboundBytes += rest.length;
+					stack.ioHandler.queued(rest.length, outboundBytes);
+					enableWrites();
+				}
+				return;
+			}
+		}
+		close();
+		throw new IOException("Error writing to " + getKey());
+	}
+
+	/**
+	 * Wait for the connection that is being made. Called with the
+	 * outbound lock held.
+	 *
+	 * @return false if the connection failed or was not made in time.
+	 */
+	private boolean awaitConnect() throws IOException {
+		int timeout = stack.connectTimeout;
+		long end = connectStartTime + timeout;
+		while (connecting && isRunning) {
+			long left = timeout > 0 ? end - System.currentTimeMillis() : 0;
+			if (timeout > 0 && left <= 0) {
+				if (LogWriter.needsLogging)
+					stack.logWriter.logMessage(
+						"Timed out connecting to " + getKey());
+				return false;
+			}
+			try {
+				outbound.wait(left);
+			} catch (InterruptedException ex) {
+				throw new InterruptedIOException(
+					"Interrupted connecting to " + getKey());
+			}
+		}
+		return isRunning;
+	}
+
+	/**
+	 * Finish the connection (called on the selector thread when the
+	 * connect completed) and write what was queued meanwhile.
+	 */
+	protected void connectReady() {
+		synchronized (outbound) {
+			try {
+				if (!socketChannel.finishConnect())
+					return;
+				connecting = false;
+				lastReadTime = System.currentTimeMillis();
+				int ops = SelectionKey.OP_READ;
+				if (!outbound.isEmpty())
+					ops |= SelectionKey.OP_WRITE;
+				selectionKey.interestOps(ops);
+				outbound.notifyAll();
+				return;
+			} catch (IOException ex) {
+				if (LogWriter.needsLogging)
+					stack.logWriter.logMessage(
+						"Could not connect to " + getKey() + ": " + ex);
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Return true if the connection has been in the making for longer
+	 * than the given time (called on the selector thread).
+	 */
+	protected boolean isConnectStalled(long now, int timeout) {
+		synchronized (outbound) {
+			return connecting && now - connectStartTime > timeout;
+		}
+	}
+
+	/**
+	 * Ask the selector thread to tell us when the socket is writable.
+	 */
+	private void enableWrites() {
+		final NioTCPMessageProcessor.SelectorLoop loop = this.selectorLoop;
+		if (loop == null)
+			return;
+		loop.execute(new Runnable() {
+			public void run() {
+				SelectionKey key = selectionKey;
+				if (key != null && key.isValid())
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		});
+	}
+
+	/**
+	 * Send message to whoever is connected to us.
+	 * @param sipMessage Message to send.
+	 * @throws IOException If there is an error sending the message
+	 */
+	public void sendMessage(SIPMessage sipMessage) throws IOException {
+		long time = System.currentTimeMillis();
+
+		this.sendEncoded(sipMessage);
+
+		if (this.stack.serverLog.needsLogging(ServerLog.TRACE_MESSAGES))
+			logMessage(sipMessage, peerAddress, peerPort, time);
+	}
+
+	/**
+	 * Send a message to a specified address (through our connection if
+	 * the address is that of our peer, as for the bytes of a message).
+	 * @param sipMessage Message to send.
+	 * @param receiverAddress Address to send it to.
+	 * @param receiverPort Receiver port.
+	 * @throws IOException If there is a problem connecting or sending.
+	 */
+	public void sendMessage(
+		SIPMessage sipMessage,
+		InetAddress receiverAddress,
+		int receiverPort)
+		throws IOException {
+		if (sipMessage == null || receiverAddress == null)
+			throw new IllegalArgumentException("Null argument");
+		long time = System.currentTimeMillis();
+		if (receiverAddress.equals(this.peerAddress)
+			&& receiverPort == this.peerPort) {
+			this.sendEncoded(sipMessage);
+		} else {
+			NioTCPMessageChannel channel =
+				(NioTCPMessageChannel) tcpMessageProcessor.createMessageChannel(
+					receiverAddress,
+					receiverPort);
+			channel.sendEncoded(sipMessage);
+		}
+		logMessage(sipMessage, receiverAddress, receiverPort, time);
+	}
+
+	/**
+	 * Send a message to a specified address. This is our connection if
+	 * the address is that of our peer, otherwise the connection to the
+	 * address is taken from the processor.
+	 * @param message Pre-formatted message to send.
+	 * @param receiverAddress Address to send it to.
+	 * @param receiverPort Receiver port.
+	 * @throws IOException If there is a problem connecting or sending.
+	 */
+	public void sendMessage(
+		byte message[],
+		InetAddress receiverAddress,
+		int receiverPort,
+		boolean retry)
+		throws IOException {
+		if (message == null || receiverAddress == null)
+			throw new IllegalArgumentException("Null argument");
+		if (receiverAddress.equals(this.peerAddress)
+			&& receiverPort == this.peerPort) {
+			this.sendBytes(message);
+		} else {
+			NioTCPMessageChannel channel =
+				(NioTCPMessageChannel) tcpMessageProcessor.createMessageChannel(
+					receiverAddress,
+					receiverPort);
+			channel.sendBytes(message);
+		}
+	}
+
+	/**
+	 * Register with the selector of our selector thread (called on that
+	 * thread).
+	 */
+	protected void setSelectorLoop(NioTCPMessageProcessor.SelectorLoop loop) {
+		this.selectorLoop = loop;
+	}
+
+	protected void register(Selector selector) {
+		synchronized (outbound) {
+			if (!isRunning)
+				return;
+			this.framer = new MessageFramer(stack.getMaxMessageSize());
+			this.lastReadTime = System.currentTimeMillis();
+			int ops = SelectionKey.OP_READ;
+			if (connecting)
+				ops = SelectionKey.OP_CONNECT;
+			else if (!outbound.isEmpty())
+				ops |= SelectionKey.OP_WRITE;
+			try {
+				this.selectionKey = socketChannel.register(selector, ops, this);
+				this.createTime = this.lastReadTime;
+				this.lastActivityTime = this.lastReadTime;
+				if (this.lastSendTime == 0)
+					this.lastSendTime = this.lastReadTime;
+				stack.connectionManager.add(this);
+				return;
+			} catch (ClosedChannelException ex) {
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Read what the socket has for us and queue the complete messages
+	 * for the workers (called on the selector thread).
+	 */
+	protected void readReady(ByteBuffer readBuffer) {
+		int nbytes;
+		readBuffer.clear();
+		try {
+			nbytes = socketChannel.read(readBuffer);
+		} catch (IOException ex) {
+			if (LogWriter.needsLogging)
+				stack.logWriter.logMessage("IOException  closing sock " + ex);
+			nbytes = -1;
+		}
+		if (nbytes == -1) {
+			close();
+			return;
+		}
+		this.lastReadTime = System.currentTimeMillis();
+		this.lastActivityTime = this.lastReadTime;
+		readBuffer.flip();
+		framer.addBytes(readBuffer);
+		try {
+			byte[] msg;
+			while ((msg = framer.nextMessage()) != null)
+				addInbound(msg, framer.isTooLarge());
+			// Answer the keep alives (RFC 5626) found between the
+			// messages.
+			for (int i = framer.takeKeepAlives(); i > 0; i--)
+				writeControl(ConnectionManager.KEEP_ALIVE_RESPONSE);
+		} catch (IOException ex) {
+			if (LogWriter.needsLogging)
+				stack.logWriter.logMessage("Closing " + getKey() + " " + ex);
+			close();
+			return;
+		}
+		if (framer.isTooLarge()) {
+			// The rest of the stream cannot be framed. Stop reading (the
+			// connection is closed once the headers of the large message
+			// are handled).
+			selectionKey.interestOps(
+				selectionKey.interestOps() & ~SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Write a keep alive or its answer. Nothing is written if messages
+	 * are waiting to be written (they do as well) or if the connection is
+	 * not up, and a connection that is down is not made again.
+	 */
+	private void writeControl(byte[] bytes) throws IOException {
+		synchronized (outbound) {
+			if (!isRunning || connecting || !outbound.isEmpty())
+				return;
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			socketChannel.write(buffer);
+			if (buffer.hasRemaining()) {
+				outbound.addLast(buffer);
+				outboundBytes += bytes.length;
+				stack.ioHandler.queued(bytes.length, outboundBytes);
+				enableWrites();
+			}
+		}
+	}
+
+	private void addInbound(byte[] msg, boolean truncated) {
+		synchronized (inbound) {
+			if (truncated) {
+				truncatedMessage = msg;
+				closeWhenDone = true;
+			}
+			inbound.addLast(msg);
+			if (!scheduled) {
+				scheduled = true;
+				tcpMessageProcessor.schedule(this);
+			}
+		}
+	}
+
+	/**
+	 * Write the queued buffers (called on the selector thread when the
+	 * socket is writable).
+	 */
+	protected void writeReady() {
+		synchronized (outbound) {
+			try {
+				while (!outbound.isEmpty()) {
+					ByteBuffer buffer = (ByteBuffer) outbound.getFirst();
+					socketChannel.write(buffer);
+					if (buffer.hasRemaining())
+						return;
+					outbound.removeFirst();
+					outboundBytes -= buffer.capacity();
+					stack.ioHandler.dequeued(1, buffer.capacity());
+				}
+				selectionKey.interestOps(
+					selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+				return;
+			} catch (IOException ex) {
+				if (LogWriter.needsLogging)
+					stack.logWriter.logMessage("IOException writing " + ex);
+			}
+		}
+		close();
+	}
+
+	public long getCreateTime() {
+		return this.createTime;
+	}
+
+	public long getLastActivityTime() {
+		return this.lastActivityTime;
+	}
+
+	public long getLastSendTime() {
+		return this.lastSendTime;
+	}
+
+	/**
+	 * Return true if we opened the connection.
+	 */
+	public boolean isOutgoing() {
+		return !this.accepted;
+	}
+
+	/**
+	 * The read timeout is checked by the selector thread.
+	 */
+	public boolean checkReadTimeout(long now) {
+		return false;
+	}
+
+	public void sendKeepAlive() throws IOException {
+		this.lastSendTime = System.currentTimeMillis();
+		writeControl(ConnectionManager.KEEP_ALIVE);
+	}
+
+	/**
+	 * Return true if part of a message has been waiting for the rest for
+	 * longer than the given time (called on the selector thread).
+	 */
+	protected boolean isReadStalled(long now, int timeout) {
+		return framer != null
+			&& now - lastReadTime > timeout
+			&& framer.hasPartialMessage();
+	}
+
+	/**
+	 * Parse and process the next inbound message (called on a worker
+	 * thread). The channel goes back to the work queue of the processor
+	 * if it has more messages so that the connections take turns.
+	 */
+	protected void processMessages(StringMsgParser parser) {
+		byte[] msg = null;
+		boolean done = false;
+		boolean truncated = false;
+		synchronized (inbound) {
+			if (inbound.isEmpty()) {
+				scheduled = false;
+				done = closeWhenDone;
+			} else {
+				msg = (byte[]) inbound.removeFirst();
+				truncated = msg == truncatedMessage;
+			}
+		}
+		if (msg == null) {
+			if (done)
+				close();
+			return;
+		}
+		// Only the headers of a message that is too large were read: keep
+		// its Content-Length so that it gets rejected.
+		parser.setReadBody(!truncated);
+		SIPMessage sipMessage = parser.tryParseSIPMessage(msg);
+		if (sipMessage == null) {
+			if (parser.getErrorStatus() != StringMsgParser.EMPTY_MESSAGE) {
+				if (LogWriter.needsLogging)
+					stack.logWriter.logMessage(
+						"Rejecting message !  " + parser.getErrorText());
+				stack.logBadMessage(msg);
+			}
+		} else {
+			try {
+				processMessage(sipMessage);
+			} catch (Exception ex) {
+				if (LogWriter.needsLogging)
+					stack.logWriter.logException(ex);
+				synchronized (inbound) {
+					inbound.clear();
+					closeWhenDone = true;
+				}
+			}
+		}
+		synchronized (inbound) {
+			if (inbound.isEmpty() && !closeWhenDone) {
+				scheduled = false;
+				return;
+			}
+		}
+		// Still scheduled: back to the end of the work queue.
+		tcpMessageProcessor.schedule(this);
+	}
+
+	/**
+	 * Process a parsed message.
+	 * @param sipMessage Mesage to process (this calls the application
+	 * for processing the message).
+	 */
+	private void processMessage(SIPMessage sipMessage) throws Exception {
+		if (sipMessage.peekFrom() == null
+			|| sipMessage.peekTo() == null
+			|| sipMessage.peekCallId() == null
+			|| sipMessage.peekCSeq() == null
+			|| sipMessage.peekViaHeaders() == null) {
+			String badmsg = sipMessage.encode();
+			if (LogWriter.needsLogging) {
+				stack.logWriter.logMessage("bad message " + badmsg);
+				stack.logWriter.logMessage(">>> Dropped Bad Msg");
+			}
+			stack.logBadMessage(badmsg);
+			return;
+		}
+
+		ViaList viaList = sipMessage.peekViaHeaders();
+		// For a request
+		// first via header tells where the message is coming from.
+		// For response, this has already been recorded in the outgoing
+		// message.
+		if (sipMessage instanceof SIPRequest) {
+			Via v = (Via) viaList.first();
+			if (v.hasPort()) {
+				this.peerPort = v.getPort();
+			} else
+				this.peerPort = SIPMessageStack.DEFAULT_PORT;
+			this.peerProtocol = v.getTransport();
+			try {
+				this.peerAddress = socketChannel.socket().getInetAddress();
+				v = sipMessage.getTopmostVia();
+				// Check to see if the received parameter matches
+				// the peer address and tag it appropriately.
+				if (!v.getSentByAddress().equals(this.peerAddress))
+					v.setParameter(
+						Via.RECEIVED,
+						this.peerAddress.getHostAddress());
+				v.setParameter(
+					Via.RPORT,
+					new Integer(this.peerPort).toString());
+			} catch (java.net.UnknownHostException ex) {
+				// Could not resolve the sender address.
+				if (LogWriter.needsLogging) {
+					stack.logWriter.logMessage(
+						"Rejecting message -- could not resolve Via Address");
+				}
+				return;
+			} catch (java.text.ParseException ex) {
+				InternalErrorHandler.handleException(ex);
+			}
+			// Use this for outgoing messages as well.
+			if (!this.isCached) {
+				this.key = null;
+				tcpMessageProcessor.cacheMessageChannel(this);
+				this.isCached = true;
+			}
+		}
+
+		long receptionTime = System.currentTimeMillis();
+
+		if (sipMessage instanceof SIPRequest) {
+			// This is a request - process the request.
+			SIPRequest sipRequest = (SIPRequest) sipMessage;
+			if (LogWriter.needsLogging) {
+				stack.logWriter.logMessage("----Processing Message---");
+			}
+
+			// Check for reasonable size - reject message
+			// if it is too long.
+			if (stack.getMaxMessageSize() > 0
+				&& sipRequest.getSize()
+					+ (sipRequest.peekContentLength() == null
+						? 0
+						: sipRequest.peekContentLength().getContentLength())
+					> stack.getMaxMessageSize()) {
+				SIPResponse sipResponse =
+					sipRequest.createResponse(SIPResponse.MESSAGE_TOO_LARGE);
+				this.sendEncoded(sipResponse);
+				throw new Exception("Message size exceeded");
+			}
+
+			ServerRequestInterface sipServerRequest =
+				stack.newSIPServerRequest(sipRequest, this);
+			sipServerRequest.processRequest(sipRequest, this);
+			if (this.stack.serverLog.needsLogging(ServerLog.TRACE_MESSAGES)) {
+				if (sipServerRequest.getProcessingInfo() == null) {
+					stack.serverLog.logMessage(
+						sipMessage,
+						sipRequest.getViaHost() + ":" + sipRequest.getViaPort(),
+						stack.getHostAddress()
+							+ ":"
+							+ stack.getPort(this.getTransport()),
+						false,
+						receptionTime);
+				} else {
+					this.stack.serverLog.logMessage(
+						sipMessage,
+						sipRequest.getViaHost() + ":" + sipRequest.getViaPort(),
+						stack.getHostAddress()
+							+ ":"
+							+ stack.getPort(this.getTransport()),
+						sipServerRequest.getProcessingInfo(),
+						false,
+						receptionTime);
+				}
+			}
+		} else {
+			SIPResponse sipResponse = (SIPResponse) sipMessage;
+			// This is a response message - process it.
+			// Check the size of the response.
+			// If it is too large dump it silently.
+			if (stack.getMaxMessageSize() > 0
+				&& sipResponse.getSize()
+					+ (sipResponse.peekContentLength() == null
+						? 0
+						: sipResponse.peekContentLength().getContentLength())
+					> stack.getMaxMessageSize()) {
+				if (LogWriter.needsLogging)
+					this.stack.logWriter.logMessage("Message size exceeded");
+				return;
+			}
+			ServerResponseInterface sipServerResponse =
+				stack.newSIPServerResponse(sipResponse, this);
+			sipServerResponse.processResponse(sipResponse, this);
+		}
+	}
+
+	protected void uncache() {
+		this.tcpMessageProcessor.remove(this);
+	}
+
+	/**
+	 * Get an identifying key. This key is used to cache the connection
+	 * and re-use it if necessary.
+	 */
+	public String getKey() {
+		if (this.key != null) {
+			return this.key;
+		} else {
+			this.key = MessageChannel.getKey(this.peerAddress, this.peerPort, "TCP");
+			return this.key;
+		}
+	}
+
+	/**
+	 * Get the host to assign to outgoing messages.
+	 *
+	 * @return the host to assign to the via header.
+	 */
+	public String getViaHost() {
+		return myAddress;
+	}
+
+	/**
+	 * Get the port for outgoing messages sent from the channel.
+	 *
+	 * @return the port to assign to the via header.
+	 */
+	public int getViaPort() {
+		return myPort;
+	}
+
+	/**
+	 * Get the port of the peer to whom we are sending messages.
+	 *
+	 * @return the peer port.
+	 */
+	public int getPeerPort() {
+		return peerPort;
+	}
+
+	public int getPeerPacketSourcePort() {
+		return this.peerPort;
+	}
+
+	public InetAddress getPeerPacketSourceAddress() {
+		return this.peerAddress;
+	}
+
+	/**
+	 * TCP Is not a secure protocol.
+	 */
+	public boolean isSecure() {
+		return false;
+	}
+}
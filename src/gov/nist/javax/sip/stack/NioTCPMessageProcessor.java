@@ -0,0 +1,513 @@
+/******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).      *
+ ******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.*;
+import gov.nist.javax.sip.parser.StringMsgParser;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * A TCP message processor that serves all its connections from a few
+ * threads instead of two threads per connection (see
+ * TCPMessageProcessor). The sockets are non blocking and are watched by
+ * a small number of selector threads: a selector thread reads what a
+ * connection has to offer, frames it into messages and hands the
+ * messages to a pool of worker threads that parse and process them. The
+ * messages of a connection are processed one after the other, in the
+ * order in which they were received. The first selector thread also
+ * accepts the new connections and hands them out to the selector threads
+ * in turn.
+ *
+ * The stack uses this processor for TCP when the
+ * gov.nist.javax.sip.USE_NIO_TCP property is set to true.
+ *
+ * @version  JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ *
+ * @see NioTCPMessageChannel
+ */
+public class NioTCPMessageProcessor extends MessageProcessor {
+
+	/**
+	 * Size of the buffer that a selector thread reads into.
+	 */
+	private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+	protected Thread thread;
+
+	protected int port;
+
+	protected int nConnections;
+
+	protected int useCount;
+
+	private boolean isRunning;
+
+	private Hashtable tcpMessageChannels;
+
+	private ServerSocketChannel serverChannel;
+
+	private SelectorLoop[] selectorLoops;
+
+	private int nextSelectorLoop;
+
+	// Connections that have messages to process.
+	private LinkedList workQueue;
+
+	private Thread[] workers;
+
+	/**
+	 * The SIP Stack Structure.
+	 */
+	protected SIPMessageStack sipStack;
+
+	/**
+	 * A selector thread. Everything that touches the selection keys of
+	 * its connections (registration, changes of the interest set) is done
+	 * by the thread itself: other threads queue a task and wake the
+	 * selector up.
+	 */
+	class SelectorLoop implements Runnable {
+
+		Selector selector;
+
+		private LinkedList tasks;
+
+		private ByteBuffer readBuffer;
+
+		private long lastTimeoutCheck;
+
+		SelectorLoop() throws IOException {
+			this.selector = Selector.open();
+			this.tasks = new LinkedList();
+			this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		}
+
+		/**
+		 * Run a task on the selector thread.
+		 */
+		void execute(Runnable task) {
+			synchronized (tasks) {
+				tasks.addLast(task);
+			}
+			selector.wakeup();
+		}
+
+		public void run() {
+			while (isRunning) {
+				try {
+					selector.select(1000);
+					runTasks();
+					Iterator it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = (SelectionKey) it.next();
+						it.remove();
+						if (!key.isValid())
+							continue;
+						if (key.isAcceptable()) {
+							accept();
+							continue;
+						}
+						NioTCPMessageChannel channel =
+							(NioTCPMessageChannel) key.attachment();
+						if (key.isConnectable()) {
+							channel.connectReady();
+							continue;
+						}
+						if (key.isReadable())
+							channel.readReady(readBuffer);
+						if (key.isValid() && key.isWritable())
+							channel.writeReady();
+					}
+					long now = System.currentTimeMillis();
+					if (now - lastTimeoutCheck >= 1000) {
+						lastTimeoutCheck = now;
+						checkTimeouts(now);
+					}
+				} catch (CancelledKeyException ex) {
+					// The connection was closed under our feet.
+				} catch (IOException ex) {
+					if (LogWriter.needsLogging)
+						sipStack.logWriter.logException(ex);
+				} catch (Exception ex) {
+					InternalErrorHandler.handleException(ex);
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException ex) {
+			}
+		}
+
+		private void runTasks() {
+			while (true) {
+				Runnable task;
+				synchronized (tasks) {
+					if (tasks.isEmpty())
+						return;
+					task = (Runnable) tasks.removeFirst();
+				}
+				task.run();
+			}
+		}
+
+		/**
+		 * Close the connections that have been sitting on part of a
+		 * message for longer than the read timeout, and those that could
+		 * not be made within the connect timeout.
+		 */
+		private void checkTimeouts(long now) {
+			int readTimeout = sipStack.readTimeout;
+			int connectTimeout = sipStack.connectTimeout;
+			if (readTimeout <= 0 && connectTimeout <= 0)
+				return;
+			Object[] keys = selector.keys().toArray();
+			for (int i = 0; i < keys.length; i++) {
+				Object attachment = ((SelectionKey) keys[i]).attachment();
+				if (attachment instanceof NioTCPMessageChannel) {
+					NioTCPMessageChannel channel =
+						(NioTCPMessageChannel) attachment;
+					if ((readTimeout > 0
+						&& channel.isReadStalled(now, readTimeout))
+						|| (connectTimeout > 0
+							&& channel.isConnectStalled(now, connectTimeout)))
+						channel.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A worker thread. Each worker has its own message parser.
+	 */
+	class Worker implements Runnable {
+
+		public void run() {
+			StringMsgParser parser = new StringMsgParser();
+			parser.setLazyParsing(sipStack.isLazyHeaderParsing());
+			while (true) {
+				NioTCPMessageChannel channel;
+				synchronized (workQueue) {
+					while (isRunning && workQueue.isEmpty()) {
+						try {
+							workQueue.wait();
+						} catch (InterruptedException ex) {
+						}
+					}
+					if (!isRunning)
+						return;
+					channel = (NioTCPMessageChannel) workQueue.removeFirst();
+				}
+				try {
+					channel.processMessages(parser);
+				} catch (Exception ex) {
+					InternalErrorHandler.handleException(ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param sipStack SIPStack structure.
+	 * @param port port where this message processor listens.
+	 */
+	protected NioTCPMessageProcessor(SIPMessageStack sipStack, int port) {
+		this.sipStack = sipStack;
+		this.port = port;
+		this.tcpMessageChannels = new Hashtable();
+		this.workQueue = new LinkedList();
+	}
+
+	/**
+	 * Start the processor.
+	 */
+	public void start() throws IOException {
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.socket().bind(
+			new InetSocketAddress(sipStack.savedStackInetAddress, this.port));
+		this.serverChannel.configureBlocking(false);
+		this.selectorLoops = new SelectorLoop[sipStack.nioSelectorThreads];
+		for (int i = 0; i < selectorLoops.length; i++)
+			selectorLoops[i] = new SelectorLoop();
+		this.serverChannel.register(
+			selectorLoops[0].selector,
+			SelectionKey.OP_ACCEPT);
+		this.isRunning = true;
+		this.workers = new Thread[sipStack.nioWorkerThreads];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Worker());
+			workers[i].setName("NioTCPWorkerThread-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		for (int i = 1; i < selectorLoops.length; i++) {
+			Thread loopThread = new Thread(selectorLoops[i]);
+			loopThread.setName("NioTCPSelectorThread-" + i);
+			loopThread.setDaemon(true);
+			loopThread.start();
+		}
+		thread = new Thread(this);
+		thread.setName("NioTCPMessageProcessorThread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Return our thread.
+	 *
+	 *@return -- our thread. This is used for joining
+	 */
+	public Thread getThread() {
+		return this.thread;
+	}
+
+	/**
+	 * Run the first selector thread (which also accepts the
+	 * connections).
+	 */
+	public void run() {
+		selectorLoops[0].run();
+	}
+
+	/**
+	 * Accept the pending connections (called from the first selector
+	 * thread).
+	 */
+	private void accept() throws IOException {
+		while (true) {
+			synchronized (this) {
+				// sipStack.maxConnections == -1 means we are willing to
+				// handle an "infinite" number of simultaneous connections.
+				if (sipStack.maxConnections != -1
+					&& this.nConnections >= sipStack.maxConnections) {
+					// Stop accepting until a connection goes away.
+					serverChannel.keyFor(selectorLoops[0].selector)
+						.interestOps(0);
+					return;
+				}
+			}
+			SocketChannel socketChannel = serverChannel.accept();
+			if (socketChannel == null)
+				return;
+			if (LogWriter.needsLogging)
+				sipStack.logWriter.logMessage("Accepting new connection!");
+			synchronized (this) {
+				this.nConnections++;
+			}
+			socketChannel.configureBlocking(false);
+			NioTCPMessageChannel channel =
+				new NioTCPMessageChannel(socketChannel, sipStack, this);
+			register(channel);
+		}
+	}
+
+	/**
+	 * Hand a connection to the next selector thread.
+	 */
+	protected void register(final NioTCPMessageChannel channel) {
+		final SelectorLoop loop;
+		synchronized (this) {
+			loop = selectorLoops[nextSelectorLoop];
+			nextSelectorLoop = (nextSelectorLoop + 1) % selectorLoops.length;
+			this.useCount++;
+		}
+		channel.setSelectorLoop(loop);
+		loop.execute(new Runnable() {
+			public void run() {
+				channel.register(loop.selector);
+			}
+		});
+	}
+
+	/**
+	 * Queue a connection that has messages to process for the workers.
+	 */
+	protected void schedule(NioTCPMessageChannel channel) {
+		synchronized (workQueue) {
+			workQueue.addLast(channel);
+			workQueue.notify();
+		}
+	}
+
+	/**
+	 * Called when a connection is closed.
+	 */
+	protected void connectionClosed(
+		NioTCPMessageChannel channel,
+		boolean accepted) {
+		remove(channel);
+		boolean resume = false;
+		synchronized (this) {
+			this.useCount--;
+			if (accepted) {
+				resume =
+					sipStack.maxConnections != -1
+						&& this.nConnections == sipStack.maxConnections;
+				this.nConnections--;
+			}
+		}
+		if (resume && isRunning) {
+			selectorLoops[0].execute(new Runnable() {
+				public void run() {
+					SelectionKey key =
+						serverChannel.keyFor(selectorLoops[0].selector);
+					if (key != null && key.isValid())
+						key.interestOps(SelectionKey.OP_ACCEPT);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Return the transport string.
+	 * @return the transport string
+	 */
+	public String getTransport() {
+		return "tcp";
+	}
+
+	/**
+	 * Returns the port that we are listening on.
+	 * @return Port address for the tcp accept.
+	 */
+	public int getPort() {
+		return this.port;
+	}
+
+	/**
+	 * Returns the stack.
+	 * @return my sip stack.
+	 */
+	public SIPMessageStack getSIPStack() {
+		return sipStack;
+	}
+
+	/**
+	 * Stop the message processor.
+	 */
+	public void stop() {
+		Collection channels;
+		synchronized (this) {
+			isRunning = false;
+			this.listeningPoint = null;
+			channels = new ArrayList(tcpMessageChannels.values());
+		}
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (Iterator it = channels.iterator(); it.hasNext();) {
+			NioTCPMessageChannel next = (NioTCPMessageChannel) it.next();
+			next.close();
+		}
+		for (int i = 0; i < selectorLoops.length; i++)
+			selectorLoops[i].selector.wakeup();
+		synchronized (workQueue) {
+			workQueue.notifyAll();
+		}
+	}
+
+	protected synchronized void remove(NioTCPMessageChannel tcpMessageChannel) {
+		String key = tcpMessageChannel.getKey();
+		if (LogWriter.needsLogging) {
+			sipStack.logWriter.logMessage(
+				Thread.currentThread() + " removing " + key);
+		}
+		/** May have been removed already */
+		if (tcpMessageChannels.get(key) == tcpMessageChannel)
+			this.tcpMessageChannels.remove(key);
+	}
+
+	public MessageChannel createMessageChannel(HostPort targetHostPort)
+		throws IOException {
+		return createMessageChannel(
+			targetHostPort.getInetAddress(),
+			targetHostPort.getPort());
+	}
+
+	public synchronized MessageChannel createMessageChannel(
+		InetAddress host,
+		int port)
+		throws IOException {
+		String key = MessageChannel.getKey(host, port, "TCP");
+		NioTCPMessageChannel retval =
+			(NioTCPMessageChannel) tcpMessageChannels.get(key);
+		if (retval != null)
+			return retval;
+		retval = new NioTCPMessageChannel(host, port, sipStack, this);
+		this.tcpMessageChannels.put(key, retval);
+		retval.isCached = true;
+		if (LogWriter.needsLogging) {
+			sipStack.logWriter.logMessage("key " + key);
+			sipStack.logWriter.logMessage("Creating " + retval);
+		}
+		return retval;
+	}
+
+	protected void cacheMessageChannel(NioTCPMessageChannel messageChannel) {
+		String key = messageChannel.getKey();
+		NioTCPMessageChannel currentChannel;
+		synchronized (this) {
+			currentChannel = (NioTCPMessageChannel) tcpMessageChannels.get(key);
+			if (LogWriter.needsLogging)
+				sipStack.logWriter.logMessage("Caching " + key);
+			this.tcpMessageChannels.put(key, messageChannel);
+		}
+		// Channels are closed without the lock (closing a channel calls
+		// back into the processor).
+		if (currentChannel != null && currentChannel != messageChannel) {
+			if (LogWriter.needsLogging)
+				sipStack.logWriter.logMessage("Closing " + key);
+			currentChannel.close();
+		}
+	}
+
+	/**
+	 * TCP can handle an unlimited number of bytes.
+	 */
+	public int getMaximumMessageSize() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * TCP NAPTR service name.
+	 */
+	public String getNAPTRService() {
+		return "SIP+D2T";
+	}
+
+	/**
+	 * TCP SRV prefix.
+	 */
+	public String getSRVPrefix() {
+		return "_sip._tcp.";
+	}
+
+	public boolean inUse() {
+		return this.useCount != 0;
+	}
+
+	/**
+	 * Default target port for TCP
+	 */
+	public int getDefaultTargetPort() {
+		return 5060;
+	}
+
+	/**
+	 * TCP is not a secure protocol.
+	 */
+	public boolean isSecure() {
+		return false;
+	}
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).       *
+ *******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.*;
+import java.io.*;
+import java.net.*;
+import java.util.LinkedList;
+
+/**
+ * The messages waiting to be written to a cached TCP or TLS connection.
+ * The thread that sends a message only adds it to the queue; a writer
+ * thread of the connection does the (blocking) writes. So a peer that
+ * does not read what we send holds up its own connection and nothing
+ * else. The queue is bounded (in bytes) and the stack decides what
+ * happens to a message that does not fit (see
+ * SIPMessageStack.getOutboundQueueOverflow). The writer thread goes away
+ * when the queue has been empty for a while and is started again by the
+ * next message.
+ *
+ * @version JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href=" {@docRoot}/uncopyright.html">This code is in the public domain.
+ * </a>
+ *
+ */
+
+class OutboundQueue implements Runnable {
+
+    // How long an idle writer thread waits for a message before it exits.
+    private static final int WRITER_IDLE_TIME = 10000;
+
+    private IOHandler ioHandler;
+
+    private String key;
+
+    private Socket socket;
+
+    // byte[] messages, oldest first. The first one is being written when
+    // the writer is busy.
+    private LinkedList messages;
+
+    private int queuedBytes;
+
+    private Thread writer;
+
+    private boolean broken;
+
+    // Close the socket once the queue is empty.
+    private boolean closeWhenEmpty;
+
+    protected OutboundQueue(IOHandler ioHandler, String key, Socket socket) {
+        this.ioHandler = ioHandler;
+        this.key = key;
+        this.socket = socket;
+        this.messages = new LinkedList();
+    }
+
+    protected Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Return true if there are messages waiting to be written.
+     */
+    protected synchronized boolean isBusy() {
+        return !messages.isEmpty();
+    }
+
+    /**
+     * Queue a message for the writer thread.
+     *
+     * @param bytes --
+     *            the message to send.
+     * @param maxBytes --
+     *            the bound of the queue in bytes ( 0 for no bound). A
+     *            message is always taken when the queue is empty.
+     * @return false if the connection is broken, true if the message was
+     *         queued.
+     * @throws QueueFullException --
+     *             if the message does not fit.
+     */
+    protected synchronized boolean add(byte[] bytes, int maxBytes)
+            throws QueueFullException {
+        if (broken || socket.isClosed())
+            return false;
+        if (maxBytes > 0 && !messages.isEmpty()
+                && queuedBytes + bytes.length > maxBytes)
+            throw new QueueFullException("Outbound queue to " + key
+                    + " is full (" + queuedBytes + " bytes)");
+        messages.addLast(bytes);
+        queuedBytes += bytes.length;
+        ioHandler.queued(bytes.length, queuedBytes);
+        if (writer == null) {
+            writer = new Thread(this);
+            writer.setDaemon(true);
+            writer.setName("OutboundQueueWriter-" + key);
+            writer.start();
+        } else
+            this.notify();
+        return true;
+    }
+
+    /**
+     * Close the socket once the queued messages are written.
+     *
+     * @return false if there is nothing to write (the caller closes the
+     *         socket).
+     */
+    protected synchronized boolean closeWhenEmpty() {
+        if (broken || messages.isEmpty())
+            return false;
+        closeWhenEmpty = true;
+        return true;
+    }
+
+    /**
+     * Drop the messages of the queue and stop the writer. The caller
+     * closes the socket (which gets a blocked writer out of its write).
+     */
+    protected synchronized void close() {
+        broken = true;
+        discard();
+        this.notify();
+    }
+
+    private void discard() {
+        if (!messages.isEmpty())
+            ioHandler.dequeued(messages.size(), queuedBytes);
+        messages.clear();
+        queuedBytes = 0;
+    }
+
+    public void run() {
+        OutputStream outputStream;
+        try {
+            outputStream = socket.getOutputStream();
+        } catch (IOException ex) {
+            failed(ex);
+            return;
+        }
+        while (true) {
+            byte[] bytes;
+            synchronized (this) {
+                if (messages.isEmpty() && !broken && !closeWhenEmpty) {
+                    try {
+                        this.wait(WRITER_IDLE_TIME);
+                    } catch (InterruptedException ex) {
+                    }
+                }
+                if (messages.isEmpty() || broken) {
+                    writer = null;
+                    if (!closeWhenEmpty)
+                        return;
+                    broken = true;
+                    break;
+                }
+                bytes = (byte[]) messages.getFirst();
+            }
+            try {
+                ioHandler.writeChunks(outputStream, bytes, bytes.length);
+            } catch (IOException ex) {
+                failed(ex);
+                return;
+            }
+            synchronized (this) {
+                // close() may have emptied the queue during the write.
+                if (!messages.isEmpty() && messages.getFirst() == bytes) {
+                    messages.removeFirst();
+                    queuedBytes -= bytes.length;
+                    ioHandler.dequeued(1, bytes.length);
+                }
+            }
+        }
+        // Drained the queue of a channel that was closed.
+        ioHandler.connectionClosed(key, this);
+    }
+
+    /**
+     * The connection failed: drop what is queued and forget the
+     * connection. The next message to the peer makes a new one.
+     */
+    private void failed(IOException ex) {
+        if (LogWriter.needsLogging)
+            ioHandler.logException(ex);
+        synchronized (this) {
+            broken = true;
+            writer = null;
+            discard();
+        }
+        // Not under the lock of the queue: sendBytes holds the lock of
+        // the socket table when it adds to a queue.
+        ioHandler.connectionClosed(key, this);
+    }
+
+    /**
+     * Thrown by add when a message does not fit in the queue.
+     */
+    static class QueueFullException extends IOException {
+
+        // The connection to close when the overflow policy says so.
+        private Socket connection;
+
+        QueueFullException(String message) {
+            super(message);
+        }
+
+        void setConnection(Socket connection) {
+            this.connection = connection;
+        }
+
+        void closeConnection() {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+}
@@ -153,7 +153,7 @@ public class SIPClientTransaction extends SIPTransaction implements
         }
     }
 
-    public class TransactionTimer extends TimerTask {
+    public class TransactionTimer extends SIPStackTimerTask {
         protected SIPClientTransaction clientTransaction;
 
         protected SIPTransactionStack sipStack;
@@ -196,17 +196,18 @@ public class SIPClientTransaction extends SIPTransaction implements
 
                     if (clientTransaction.encapsulatedChannel instanceof TCPMessageChannel)
                         newUseCount = --((TCPMessageChannel) clientTransaction.encapsulatedChannel).useCount;
+                    else if (clientTransaction.encapsulatedChannel instanceof NioTCPMessageChannel)
+                        newUseCount = --((NioTCPMessageChannel) clientTransaction.encapsulatedChannel).useCount;
                     else
                         newUseCount = --((TLSMessageChannel) clientTransaction.encapsulatedChannel).useCount;
                     if (newUseCount == 0) {
                         // Let the connection linger for a while and then close
                         // it.
-                        this.clientTransaction.myTimer = new LingerTimer(
+                        LingerTimer lingerTimer = new LingerTimer(
                                 this.clientTransaction);
-                        sipStack.timer
-                                .schedule(
-                                        myTimer,
-                                        SIPTransactionStack.CONNECTION_LINGER_TIME * 1000);
+                        this.clientTransaction.myTimer = lingerTimer;
+                        sipStack.scheduleTimer(lingerTimer,
+                                SIPTransactionStack.CONNECTION_LINGER_TIME * 1000);
                     }
                 } else {
                     // Cache the client connections so dont close the
@@ -221,6 +222,8 @@ public class SIPClientTransaction extends SIPTransaction implements
 
                         if (clientTransaction.encapsulatedChannel instanceof TCPMessageChannel)
                             UseCount = ((TCPMessageChannel) clientTransaction.encapsulatedChannel).useCount;
+                        else if (clientTransaction.encapsulatedChannel instanceof NioTCPMessageChannel)
+                            UseCount = ((NioTCPMessageChannel) clientTransaction.encapsulatedChannel).useCount;
                         else
                             UseCount = ((TLSMessageChannel) clientTransaction.encapsulatedChannel).useCount;
 
@@ -304,13 +307,12 @@ public class SIPClientTransaction extends SIPTransaction implements
     public boolean isMessagePartOfTransaction(SIPMessage messageToTest) {
 
         // List of Via headers in the message to test
-        ViaList viaHeaders = messageToTest.getViaHeaders();
+        ViaList viaHeaders = messageToTest.peekViaHeaders();
         // Flags whether the select message is part of this transaction
         boolean transactionMatches;
         String messageBranch = ((Via) viaHeaders.getFirst()).getBranch();
-        boolean rfc3261Compliant = getBranch() != null && messageBranch != null
-                && getBranch().startsWith(SIPConstants.BRANCH_MAGIC_COOKIE)
-                && messageBranch.startsWith(SIPConstants.BRANCH_MAGIC_COOKIE);
+        boolean rfc3261Compliant = Utils.hasMagicCookie(getBranch())
+                && Utils.hasMagicCookie(messageBranch);
 
         transactionMatches = false;
         if (TransactionState.COMPLETED == this.getState()) {
@@ -318,7 +320,7 @@ public class SIPClientTransaction extends SIPTransaction implements
                 transactionMatches = getBranch().equals(
                         ((Via) viaHeaders.getFirst()).getBranch())
                         && getMethod().equals(
-                                messageToTest.getCSeq().getMethod());
+                                messageToTest.peekCSeq().getMethod());
             } else {
                 transactionMatches = getBranch().equals(
                         messageToTest.getTransactionId());
@@ -330,9 +332,9 @@ public class SIPClientTransaction extends SIPTransaction implements
                     //same as this transaction and the method is the same,
                     if (getBranch().equals(
                             ((Via) viaHeaders.getFirst()).getBranch())) {
-                        transactionMatches = getOriginalRequest().getCSeq()
+                        transactionMatches = getOriginalRequest().peekCSeq()
                                 .getMethod().equals(
-                                        messageToTest.getCSeq().getMethod());
+                                        messageToTest.peekCSeq().getMethod());
 
                     }
                 }
@@ -501,7 +503,7 @@ public class SIPClientTransaction extends SIPTransaction implements
             // Bug noticed by Brad Templeton.
             dialog.addRoute(transactionResponse);
         }
-        String method = transactionResponse.getCSeq().getMethod();
+        String method = transactionResponse.peekCSeq().getMethod();
         if (dialog != null) {
             boolean added = false;
             SIPTransactionStack sipStackImpl = (SIPTransactionStack) getSIPStack();
@@ -509,7 +511,7 @@ public class SIPClientTransaction extends SIPTransaction implements
             // A tag just got assigned or changed. To tag is mandatory for final
             // response
             if (dialog.getRemoteTag() == null
-                    && transactionResponse.getTo().getTag() != null) {
+                    && transactionResponse.peekTo().getTag() != null) {
 
                 // Dont assign tag on provisional response
                 if (transactionResponse.getStatusCode() != 100) {
@@ -1162,8 +1164,9 @@ public class SIPClientTransaction extends SIPTransaction implements
      * Start the timer task.
      */
     protected void startTransactionTimer() {
-        super.myTimer = new TransactionTimer(this);
-        sipStack.timer.schedule(myTimer,
+        TransactionTimer transactionTimer = new TransactionTimer(this);
+        super.myTimer = transactionTimer;
+        sipStack.scheduleTimer(transactionTimer,
                 SIPTransactionStack.BASE_TIMER_INTERVAL,
                 SIPTransactionStack.BASE_TIMER_INTERVAL);
     }
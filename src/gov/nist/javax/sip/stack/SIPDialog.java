@@ -47,6 +47,9 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
 
     private String dialogId;
 
+    // Keys under which this dialog was put in the dialog table of the stack.
+    private LinkedList dialogTableKeys;
+
     private int localSequenceNumber;
 
     private int remoteSequenceNumber;
@@ -212,7 +215,7 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
         }
     }
 
-    public class DialogTimerTask extends TimerTask {
+    public class DialogTimerTask extends SIPStackTimerTask {
         SIPDialog dialog;
 
         SIPTransactionStack stack;
@@ -618,7 +621,8 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
                         // Do nothing for trying messages.
                         return;
                     }
-                    RecordRouteList rrlist = sipMessage.getRecordRouteHeaders();
+                    RecordRouteList rrlist = (RecordRouteList) sipMessage
+                            .peekHeader(RecordRouteHeader.NAME);
                     // Add the route set from the incoming response in reverse
                     // order
                     if (rrlist != null) {
@@ -627,7 +631,8 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
                         // Set the rotue list to the last seen route list.
                         this.routeList = new RouteList();
                     }
-                    ContactList contactList = sipMessage.getContactHeaders();
+                    ContactList contactList = (ContactList) sipMessage
+                            .peekHeader(ContactHeader.NAME);
                     if (contactList != null) {
                         this.addRoute(contactList);
                     }
@@ -635,7 +640,8 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
             } else {
                 if (sipMessage instanceof SIPRequest) {
                     // Incoming Request has the route list
-                    RecordRouteList rrlist = sipMessage.getRecordRouteHeaders();
+                    RecordRouteList rrlist = (RecordRouteList) sipMessage
+                            .peekHeader(RecordRouteHeader.NAME);
                     // Add the route set from the incoming response in reverse
                     // order
                     if (rrlist != null) {
@@ -647,7 +653,8 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
                     }
                     // put the contact header from the incoming request into
                     // the route set.
-                    ContactList contactList = sipMessage.getContactHeaders();
+                    ContactList contactList = (ContactList) sipMessage
+                            .peekHeader(ContactHeader.NAME);
                     if (contactList != null) {
                         this.addRoute(contactList);
                     }
@@ -683,6 +690,28 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
         this.dialogId = dialogId;
     }
 
+    /**
+     * Record a key under which this dialog was put in the dialog table.
+     */
+    synchronized void addDialogTableKey(String key) {
+        if (this.dialogTableKeys == null)
+            this.dialogTableKeys = new LinkedList();
+        this.dialogTableKeys.add(key);
+    }
+
+    /**
+     * Forget the keys under which this dialog was put in the dialog table.
+     * 
+     * @return the keys that were recorded.
+     */
+    synchronized Object[] clearDialogTableKeys() {
+        if (this.dialogTableKeys == null)
+            return new Object[0];
+        Object[] retval = this.dialogTableKeys.toArray();
+        this.dialogTableKeys = null;
+        return retval;
+    }
+
     /**
      * Constructor given the first transaction.
      * 
@@ -797,7 +826,7 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
 
         }
         if (transaction instanceof SIPServerTransaction)
-            setRemoteSequenceNumber(sipRequest.getCSeq().getSequenceNumber());
+            setRemoteSequenceNumber(sipRequest.peekCSeq().getSequenceNumber());
 
         // If this is a server transaction record the remote
         // sequence number to avoid re-processing of requests
@@ -1511,6 +1540,7 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
         try {
             TCPMessageChannel oldChannel = null;
 	    TLSMessageChannel oldTLSChannel = null;
+	    NioTCPMessageChannel oldNioChannel = null;
 
 	   
             MessageChannel messageChannel = sipStack.createRawMessageChannel(this.firstTransaction.getPort(),hop);
@@ -1549,6 +1579,20 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
 				sipStack.logWriter.logMessage("oldChannel: useCount " + oldTLSChannel.useCount);
                 }
             }
+            else if ( ((SIPClientTransaction) clientTransactionId).encapsulatedChannel
+            	instanceof NioTCPMessageChannel )  {
+                oldNioChannel = (NioTCPMessageChannel)
+                ((SIPClientTransaction)clientTransactionId).encapsulatedChannel;
+                if (oldNioChannel.isCached && ! oldNioChannel.isRunning) {
+                    oldNioChannel.uncache();
+                }
+		// Not configured to cache client connections.
+		if ( !sipStack.cacheClientConnections  )  {
+			oldNioChannel.useCount --;
+			if (LogWriter.needsLogging) 
+				sipStack.logWriter.logMessage("oldChannel: useCount " + oldNioChannel.useCount);
+                }
+            }
             ((SIPClientTransaction) clientTransactionId).setEncapsulatedChannel(messageChannel);
 
             if (messageChannel == null) {
@@ -1590,6 +1634,9 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
             if (messageChannel != null &&
 	        messageChannel instanceof TLSMessageChannel ) 
 	        ((TLSMessageChannel) messageChannel).useCount ++;
+            if (messageChannel != null &&
+	        messageChannel instanceof NioTCPMessageChannel ) 
+	        ((NioTCPMessageChannel) messageChannel).useCount ++;
 	    // See if we need to release the previously mapped channel.
 	    if (  ( ! sipStack.cacheClientConnections ) && 
 		oldChannel != null  && 
@@ -1599,6 +1646,10 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
 		oldTLSChannel != null  && 
 		oldTLSChannel.useCount == 0 ) 
 		oldTLSChannel.close();
+	    if (  ( ! sipStack.cacheClientConnections ) && 
+		oldNioChannel != null  && 
+		oldNioChannel.useCount == 0 ) 
+		oldNioChannel.close();
         } catch (Exception ex) {
             if (LogWriter.needsLogging)
                 sipStack.logWriter.logException(ex);
@@ -1718,7 +1769,7 @@ public class SIPDialog implements javax.sip.Dialog, PendingRecord {
             this.timerTask.transaction = transaction;
         } else {
             this.timerTask = new DialogTimerTask(this, transaction);
-            sipStack.timer.schedule(timerTask, SIPTransactionStack.BASE_TIMER_INTERVAL,
+            sipStack.scheduleTimer(timerTask, SIPTransactionStack.BASE_TIMER_INTERVAL,
                     SIPTransactionStack.BASE_TIMER_INTERVAL);
         }
         this.setRetransmissionTicks();
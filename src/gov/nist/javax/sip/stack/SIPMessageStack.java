@@ -102,6 +102,18 @@ public abstract class SIPMessageStack {
 	 */
 	public static final int DEFAULT_PORT = 5060;
 
+	/**
+	 * What to do with a TCP or TLS message that does not fit in the
+	 * outbound queue of its connection: drop it, fail the send (the
+	 * transaction sees an IOException) or close the connection (and
+	 * fail the send).
+	 */
+	public static final int OUTBOUND_QUEUE_DROP = 0;
+
+	public static final int OUTBOUND_QUEUE_FAIL = 1;
+
+	public static final int OUTBOUND_QUEUE_CLOSE = 2;
+
 	/**
 	 * Router to determine where to forward the request.
 	 */
@@ -113,6 +125,41 @@ public abstract class SIPMessageStack {
 	 */
 	protected int threadPoolSize;
 
+	/**
+	 * Number of threads receiving from each UDP socket.
+	 */
+	protected int udpReceiveThreads;
+
+	/**
+	 * Give each UDP pool thread a queue of its own, picked by the Call-ID
+	 * of the message (see UDPMessageProcessor).
+	 */
+	protected boolean udpShardedQueues;
+
+	/**
+	 * Number of packets each UDP queue holds (the packets that do not fit
+	 * are dropped).
+	 */
+	protected int udpQueueSize;
+
+	/**
+	 * Length of a UDP queue above which new INVITEs are rejected with a
+	 * 503 (Service Unavailable).
+	 */
+	protected int udpQueueHighWaterMark;
+
+	/**
+	 * The Retry-After (in seconds) of the 503 responses to the INVITEs
+	 * rejected because of overload.
+	 */
+	protected int overloadRetryAfter;
+
+	/**
+	 * Number of messages each UDP send queue holds (0 for no send queue:
+	 * the threads that send UDP messages send them themselves).
+	 */
+	protected int udpSendQueueSize;
+
 	/**
 	 * max number of simultaneous connections.
 	 */
@@ -139,6 +186,72 @@ public abstract class SIPMessageStack {
 	 */
 	protected int maxMessageSize;
 
+	/**
+	 * Parse only the headers that the stack needs when a message is
+	 * received and leave the others in their text form until they are
+	 * accessed.
+	 */
+	protected boolean lazyHeaderParsing;
+
+	/**
+	 * Serve TCP from a few selector threads (see NioTCPMessageProcessor)
+	 * instead of two threads per connection.
+	 */
+	protected boolean useNioTcp;
+
+	/**
+	 * Number of selector and worker threads of the NIO TCP processor.
+	 */
+	protected int nioSelectorThreads;
+
+	protected int nioWorkerThreads;
+
+	/**
+	 * Max number of bytes waiting to be written to a TCP or TLS
+	 * connection (0 for no limit) and what to do when it is reached.
+	 */
+	protected int maxOutboundQueueSize;
+
+	protected int outboundQueueOverflow;
+
+	/**
+	 * How long to wait for an outgoing TCP or TLS connection to be made
+	 * (in milliseconds, 0 to wait as long as the system does).
+	 */
+	protected int connectTimeout;
+
+	/**
+	 * Close the TCP and TLS connections on which nothing was sent or
+	 * received for this long (in milliseconds, 0 to keep them).
+	 */
+	protected int connectionIdleTimeout;
+
+	/**
+	 * Send a keep alive (a double CRLF) on the TCP and TLS connections we
+	 * opened when nothing was sent on them for this long (in
+	 * milliseconds, 0 for no keep alives).
+	 */
+	protected int keepAliveInterval;
+
+	/**
+	 * Max number of TLS handshakes done at a time (0 for no limit).
+	 */
+	protected int maxTlsHandshakes;
+
+	/**
+	 * Size of the TLS session caches (0 for no limit) and how long a
+	 * session can be resumed for (in seconds, 0 for no limit). The caches
+	 * belong to the SSL contexts of the network layer.
+	 */
+	protected int tlsSessionCacheSize;
+
+	protected int tlsSessionTimeout;
+
+	/**
+	 * Keeps track of the TCP and TLS connections.
+	 */
+	protected ConnectionManager connectionManager;
+
 	/**
 	 * A collection of message processors.
 	 */
@@ -173,6 +286,30 @@ public abstract class SIPMessageStack {
 			logWriter.logMessage(message, badMessageLog);
 	}
 
+	/**
+	 * Log a bad message given as the bytes that were received (the
+	 * String is only made if there is a bad message log).
+	 *
+	 * @param message is the bad message to log.
+	 */
+	public void logBadMessage(byte[] message) {
+		if (badMessageLog != null)
+			logWriter.logMessage(new String(message), badMessageLog);
+	}
+
+	/**
+	 * Log a bad message that takes up part of a buffer.
+	 *
+	 * @param buffer is the buffer that holds the bad message.
+	 * @param offset is the offset of the message in the buffer.
+	 * @param length is the length of the message.
+	 */
+	public void logBadMessage(byte[] buffer, int offset, int length) {
+		if (badMessageLog != null)
+			logWriter.logMessage(
+				new String(buffer, offset, length), badMessageLog);
+	}
+
 	/**
 	 * debug log writer.
 	 *
@@ -195,6 +332,278 @@ public abstract class SIPMessageStack {
 		return this.maxMessageSize;
 	}
 
+	public boolean isLazyHeaderParsing() {
+		return this.lazyHeaderParsing;
+	}
+
+	public int getMaxOutboundQueueSize() {
+		return this.maxOutboundQueueSize;
+	}
+
+	public int getOutboundQueueOverflow() {
+		return this.outboundQueueOverflow;
+	}
+
+	public int getUdpReceiveThreads() {
+		return this.udpReceiveThreads;
+	}
+
+	public boolean isUdpShardedQueues() {
+		return this.udpShardedQueues;
+	}
+
+	public int getUdpQueueSize() {
+		return this.udpQueueSize;
+	}
+
+	public int getUdpQueueHighWaterMark() {
+		return this.udpQueueHighWaterMark;
+	}
+
+	public int getOverloadRetryAfter() {
+		return this.overloadRetryAfter;
+	}
+
+	public int getUdpSendQueueSize() {
+		return this.udpSendQueueSize;
+	}
+
+	public int getConnectTimeout() {
+		return this.connectTimeout;
+	}
+
+	public int getConnectionIdleTimeout() {
+		return this.connectionIdleTimeout;
+	}
+
+	public int getKeepAliveInterval() {
+		return this.keepAliveInterval;
+	}
+
+	public int getMaxTlsHandshakes() {
+		return this.maxTlsHandshakes;
+	}
+
+	public int getTlsSessionCacheSize() {
+		return this.tlsSessionCacheSize;
+	}
+
+	public int getTlsSessionTimeout() {
+		return this.tlsSessionTimeout;
+	}
+
+	/**
+	 * Get the number of TLS handshakes that made a new session.
+	 */
+	public int getTlsFullHandshakes() {
+		return this.ioHandler.getFullHandshakes();
+	}
+
+	/**
+	 * Get the number of TLS handshakes that resumed a cached session.
+	 */
+	public int getTlsResumedHandshakes() {
+		return this.ioHandler.getResumedHandshakes();
+	}
+
+	/**
+	 * Get the number of TLS handshakes that failed or timed out.
+	 */
+	public int getTlsFailedHandshakes() {
+		return this.ioHandler.getFailedHandshakes();
+	}
+
+	/**
+	 * Get the number of UDP packets waiting for the pool threads.
+	 */
+	public int getUdpQueueLength() {
+		int length = 0;
+		MessageProcessor[] processors = getMessageProcessors();
+		for (int i = 0; i < processors.length; i++) {
+			if (processors[i] instanceof UDPMessageProcessor)
+				length += ((UDPMessageProcessor) processors[i]).getQueueLength();
+		}
+		return length;
+	}
+
+	// Packets taken from the UDP queues, their total and longest wait.
+	private long[] getUdpQueueWaitTimes() {
+		long[] stats = new long[3];
+		MessageProcessor[] processors = getMessageProcessors();
+		for (int i = 0; i < processors.length; i++) {
+			if (processors[i] instanceof UDPMessageProcessor)
+				((UDPMessageProcessor) processors[i]).getQueueWaitTimes(stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Get the mean time in milliseconds that the UDP packets waited for
+	 * a pool thread.
+	 */
+	public long getUdpQueueMeanWaitTime() {
+		long[] stats = getUdpQueueWaitTimes();
+		return stats[0] == 0 ? 0 : stats[1] / stats[0];
+	}
+
+	/**
+	 * Get the longest time in milliseconds that a UDP packet waited for
+	 * a pool thread.
+	 */
+	public long getUdpQueueMaxWaitTime() {
+		return getUdpQueueWaitTimes()[2];
+	}
+
+	/**
+	 * Get the number of new INVITEs rejected because a UDP queue was
+	 * above its high water mark.
+	 */
+	public int getUdpShedRequests() {
+		int shed = 0;
+		MessageProcessor[] processors = getMessageProcessors();
+		for (int i = 0; i < processors.length; i++) {
+			if (processors[i] instanceof UDPMessageProcessor)
+				shed += ((UDPMessageProcessor) processors[i]).getShedRequests();
+		}
+		return shed;
+	}
+
+	/**
+	 * Get the number of UDP packets dropped because their queue was full.
+	 */
+	public int getUdpDroppedMessages() {
+		int dropped = 0;
+		MessageProcessor[] processors = getMessageProcessors();
+		for (int i = 0; i < processors.length; i++) {
+			if (processors[i] instanceof UDPMessageProcessor)
+				dropped +=
+					((UDPMessageProcessor) processors[i]).getDroppedMessages();
+		}
+		return dropped;
+	}
+
+	// Datagrams sent and wake ups of the senders of the UDP processors.
+	private long[] getUdpSenderStats() {
+		long[] stats = new long[2];
+		MessageProcessor[] processors = getMessageProcessors();
+		for (int i = 0; i < processors.length; i++) {
+			if (processors[i] instanceof UDPMessageProcessor)
+				((UDPMessageProcessor) processors[i]).getSenderStats(stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Get the number of UDP datagrams sent.
+	 */
+	public long getUdpDatagramsSent() {
+		return getUdpSenderStats()[0];
+	}
+
+	/**
+	 * Get the number of times the UDP sender threads woke up to send
+	 * the queued datagrams (0 without a send queue).
+	 */
+	public long getUdpSendBatches() {
+		return getUdpSenderStats()[1];
+	}
+
+	// Receive buffers allocated and reused by the UDP processors.
+	private long[] getUdpPacketPoolStats() {
+		long[] stats = new long[2];
+		MessageProcessor[] processors = getMessageProcessors();
+		for (int i = 0; i < processors.length; i++) {
+			if (processors[i] instanceof UDPMessageProcessor)
+				((UDPMessageProcessor) processors[i]).getPacketPoolStats(stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Get the number of UDP receive buffers allocated.
+	 */
+	public long getUdpBuffersAllocated() {
+		return getUdpPacketPoolStats()[0];
+	}
+
+	/**
+	 * Get the number of datagrams received into a pooled (reused) UDP
+	 * receive buffer.
+	 */
+	public long getUdpBuffersReused() {
+		return getUdpPacketPoolStats()[1];
+	}
+
+	/**
+	 * Get the number of open TCP and TLS connections (as of the last
+	 * sweep of the connection manager, which runs every second).
+	 */
+	public int getConnectionCount() {
+		return this.connectionManager.getConnectionCount();
+	}
+
+	/**
+	 * Get the age in milliseconds of the oldest open TCP or TLS
+	 * connection (as of the last sweep).
+	 */
+	public long getOldestConnectionAge() {
+		return this.connectionManager.getOldestConnectionAge();
+	}
+
+	/**
+	 * Get the mean age in milliseconds of the open TCP and TLS
+	 * connections (as of the last sweep).
+	 */
+	public long getMeanConnectionAge() {
+		return this.connectionManager.getMeanConnectionAge();
+	}
+
+	/**
+	 * Get the number of connections closed because they were idle.
+	 */
+	public int getEvictedConnections() {
+		return this.connectionManager.getEvictedConnections();
+	}
+
+	/**
+	 * Get the number of keep alives sent.
+	 */
+	public int getKeepAlivesSent() {
+		return this.connectionManager.getKeepAlivesSent();
+	}
+
+	/**
+	 * Get the number of TCP and TLS messages that are waiting to be
+	 * written (over all the connections).
+	 */
+	public int getOutboundQueuedMessages() {
+		return this.ioHandler.getQueuedMessages();
+	}
+
+	/**
+	 * Get the number of bytes that are waiting to be written to TCP and
+	 * TLS connections.
+	 */
+	public long getOutboundQueuedBytes() {
+		return this.ioHandler.getQueuedBytes();
+	}
+
+	/**
+	 * Get the largest number of bytes that have been waiting for a
+	 * single connection.
+	 */
+	public int getOutboundQueueHighWaterMark() {
+		return this.ioHandler.getQueueHighWaterMark();
+	}
+
+	/**
+	 * Get the number of messages that did not fit in the outbound queue
+	 * of their connection.
+	 */
+	public int getOutboundQueueOverflows() {
+		return this.ioHandler.getQueueOverflows();
+	}
+
 	/**
 	 * Log the stack trace.
 	 */
@@ -413,6 +822,7 @@ public abstract class SIPMessageStack {
 		messageProcessors = new ArrayList();
 		// Handle IO for this process.
 		this.ioHandler = new IOHandler(this);
+		this.connectionManager = new ConnectionManager(this);
 	}
 
 	/**
@@ -434,12 +844,37 @@ public abstract class SIPMessageStack {
 		messageProcessors = new ArrayList();
 		// Handle IO for this process.
 		this.ioHandler = new IOHandler(this);
+		// Keep track of the TCP and TLS connections.
+		this.connectionManager = new ConnectionManager(this);
 		// To log debug messages.
 		this.logWriter = new LogWriter();
 		// Server log file.
 		this.serverLog = new ServerLog(this);
 		// The read time out is infinite.
 		this.readTimeout = -1;
+		// One thread receives UDP packets for the pool threads, which
+		// share one queue.
+		this.udpReceiveThreads = 1;
+		this.udpShardedQueues = false;
+		// Start turning new calls away when 1000 packets are waiting and
+		// drop the packets beyond 2000.
+		this.udpQueueSize = 2000;
+		this.udpQueueHighWaterMark = 1000;
+		this.overloadRetryAfter = 5;
+		this.udpSendQueueSize = 0;
+		// Threads of the NIO TCP processor (when it is used).
+		this.nioSelectorThreads = 2;
+		this.nioWorkerThreads = 8;
+		// Up to 1 MB waiting per connection, fail the sends beyond that.
+		this.maxOutboundQueueSize = 1024 * 1024;
+		this.outboundQueueOverflow = OUTBOUND_QUEUE_FAIL;
+		// Give up on a connection that is not made in 10 seconds.
+		this.connectTimeout = 10000;
+		// Handshakes are CPU bound: a couple per processor at a time.
+		this.maxTlsHandshakes = 2 * Runtime.getRuntime().availableProcessors();
+		// Resume the sessions of up to 1000 peers for a day.
+		this.tlsSessionCacheSize = 1000;
+		this.tlsSessionTimeout = 24 * 60 * 60;
 
 
 	}
@@ -569,6 +1004,7 @@ public abstract class SIPMessageStack {
 				removeMessageProcessor(processorList[processorIndex]);
 			}
 			this.ioHandler.closeAll();
+			this.connectionManager.stop();
 			// Let the processing complete.
 
 			try {
@@ -657,6 +1093,12 @@ public abstract class SIPMessageStack {
 			this.addMessageProcessor(udpMessageProcessor);
 			this.udpFlag = true;
 			return udpMessageProcessor;
+		} else if (transport.equalsIgnoreCase("tcp") && this.useNioTcp) {
+			NioTCPMessageProcessor nioTcpMessageProcessor =
+				new NioTCPMessageProcessor(this, port);
+			this.addMessageProcessor(nioTcpMessageProcessor);
+			this.tcpFlag = true;
+			return nioTcpMessageProcessor;
 		} else if (transport.equalsIgnoreCase("tcp")) {
 			TCPMessageProcessor tcpMessageProcessor =
 				new TCPMessageProcessor(this, port);
@@ -3,7 +3,7 @@ package gov.nist.javax.sip.stack;
 import gov.nist.core.*;
 import gov.nist.javax.sip.message.*;
 import gov.nist.javax.sip.header.*;
-import gov.nist.javax.sip.SIPConstants;
+import gov.nist.javax.sip.Utils;
 import javax.sip.header.*;
 import javax.sip.message.*;
 import javax.sip.*;
@@ -148,7 +148,7 @@ public class SIPServerTransaction extends SIPTransaction implements
         }
     }
 
-    class SendTrying extends TimerTask {
+    class SendTrying extends SIPStackTimerTask {
         private SIPServerTransaction serverTransaction;
 
         protected SendTrying(SIPServerTransaction st) {
@@ -181,7 +181,7 @@ public class SIPServerTransaction extends SIPTransaction implements
         }
     }
 
-    class TransactionTimer extends TimerTask {
+    class TransactionTimer extends SIPStackTimerTask {
         SIPServerTransaction myTransaction;
 
         SIPTransactionStack sipStack;
@@ -205,9 +205,10 @@ public class SIPServerTransaction extends SIPTransaction implements
                     if (!sipStack.isAlive())
                         return;
                 }
-                myTransaction.myTimer = new LingerTimer(this.myTransaction);
+                LingerTimer lingerTimer = new LingerTimer(this.myTransaction);
+                myTransaction.myTimer = lingerTimer;
                 // Oneshot timer.
-                sipStack.timer.schedule(myTimer,
+                sipStack.scheduleTimer(lingerTimer,
                         SIPTransactionStack.CONNECTION_LINGER_TIME * 1000);
                 //adIf this transaction has not
                 //terminated,
@@ -270,11 +271,8 @@ public class SIPServerTransaction extends SIPTransaction implements
             // address, the response SHOULD be sent using
             // the TTL indicated in the "ttl" parameter, or with a
             // TTL of 1 if that parameter is not present.
-            Host maddr = via.getMaddr();
-            String host = null;
-            if (maddr != null) {
-                host = maddr.getHostname();
-            } else {
+            String host = via.getMaddrHostname();
+            if (host == null) {
                 // Otherwise (for unreliable unicast transports),
                 // if the top Via has a "received" parameter, the response MUST
                 // be sent to the
@@ -378,7 +376,7 @@ public class SIPServerTransaction extends SIPTransaction implements
                                 .getMethod())) || !isTerminated())) {
 
             // Get the topmost Via header and its branch parameter
-            viaHeaders = messageToTest.getViaHeaders();
+            viaHeaders = messageToTest.peekViaHeaders();
             if (viaHeaders != null) {
 
                 topViaHeader = (Via) viaHeaders.getFirst();
@@ -387,8 +385,7 @@ public class SIPServerTransaction extends SIPTransaction implements
 
                     // If the branch parameter exists but
                     // does not start with the magic cookie,
-                    if (!messageBranch
-                            .startsWith(SIPConstants.BRANCH_MAGIC_COOKIE)) {
+                    if (!Utils.hasMagicCookie(messageBranch)) {
 
                         // Flags this as old
                         // (RFC2543-compatible) client
@@ -403,9 +400,8 @@ public class SIPServerTransaction extends SIPTransaction implements
                 if (messageBranch != null && this.getBranch() != null) {
 
                     if (getBranch().equals(messageBranch)
-                            && topViaHeader.getSentBy().equals(
-                                    ((Via) getOriginalRequest().getViaHeaders()
-                                            .getFirst()).getSentBy())) {
+                            && topViaHeader.hasSameSentBy(
+                                    getOriginalRequest().peekTopmostVia())) {
                         // Matching server side transaction with only the
                         // branch parameter.
                         transactionMatches = true;
@@ -421,13 +417,13 @@ public class SIPServerTransaction extends SIPTransaction implements
                     // headers are the same,
                     String originalFromTag = super.fromTag;
 
-                    String thisFromTag = messageToTest.getFrom().getTag();
+                    String thisFromTag = messageToTest.peekFrom().getTag();
 
                     boolean skipFrom = (originalFromTag == null || thisFromTag == null);
 
                     String originalToTag = super.toTag;
 
-                    String thisToTag = messageToTest.getTo().getTag();
+                    String thisToTag = messageToTest.peekTo().getTag();
 
                     boolean skipTo = (originalToTag == null || thisToTag == null);
 
@@ -435,15 +431,15 @@ public class SIPServerTransaction extends SIPTransaction implements
                             ((SIPRequest) messageToTest).getRequestURI())
                             && (skipFrom || originalFromTag.equals(thisFromTag))
                             && (skipTo || originalToTag.equals(thisToTag))
-                            && getOriginalRequest().getCallId().getCallId()
+                            && getOriginalRequest().peekCallId().getCallId()
                                     .equals(
-                                            messageToTest.getCallId()
+                                            messageToTest.peekCallId()
                                                     .getCallId())
-                            && getOriginalRequest().getCSeq()
+                            && getOriginalRequest().peekCSeq()
                                     .getSequenceNumber() == messageToTest
-                                    .getCSeq().getSequenceNumber()
+                                    .peekCSeq().getSequenceNumber()
                             && topViaHeader.equals(getOriginalRequest()
-                                    .getViaHeaders().getFirst())) {
+                                    .peekTopmostVia())) {
 
                         transactionMatches = true;
                     }
@@ -471,7 +467,7 @@ public class SIPServerTransaction extends SIPTransaction implements
                 // TU did not send a trying in that time.
                 // TODO -- fix this to only send trying for the
                 // case
-                sipStack.timer.schedule(new SendTrying(this), 200);
+                sipStack.scheduleTimer(new SendTrying(this), 200);
 
             } else {
                 isMapped = true;
@@ -665,7 +661,7 @@ public class SIPServerTransaction extends SIPTransaction implements
         try {
             // Provided we have set the banch id for this we set the BID for the
             // outgoing via.
-            if (this.getOriginalRequest().getTopmostVia().getBranch() != null)
+            if (this.getOriginalRequest().peekTopmostVia().getBranch() != null)
                 transactionResponse.getTopmostVia().setBranch(this.getBranch());
             else
                 transactionResponse.getTopmostVia().removeParameter(
@@ -674,7 +670,7 @@ public class SIPServerTransaction extends SIPTransaction implements
             // Make the topmost via headers match identically for the
             // transaction
             // rsponse.
-            if (!this.getOriginalRequest().getTopmostVia().hasPort())
+            if (!this.getOriginalRequest().peekTopmostVia().hasPort())
                 transactionResponse.getTopmostVia().removePort();
         } catch (ParseException ex) {
             ex.printStackTrace();
@@ -1211,8 +1207,9 @@ public class SIPServerTransaction extends SIPTransaction implements
      * Start the timer task.
      */
     protected void startTransactionTimer() {
-        myTimer = new TransactionTimer(this);
-        sipStack.timer.schedule(myTimer, 0,
+        TransactionTimer transactionTimer = new TransactionTimer(this);
+        myTimer = transactionTimer;
+        sipStack.scheduleTimer(transactionTimer, 0,
                 SIPTransactionStack.BASE_TIMER_INTERVAL);
     }
 
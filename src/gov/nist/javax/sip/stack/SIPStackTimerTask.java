@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).       *
+ *******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import java.util.TimerTask;
+
+/**
+ * Base class for the timer tasks that the transaction layer schedules
+ * (transaction timers, linger timers, dialog retransmission timers).
+ * A task of this type can either be run from the java.util.Timer of the
+ * stack or from the {@link TimerWheel} when the stack is configured
+ * to use it. The wheel links the task into one of its buckets so that
+ * scheduling and cancelling do not cost more than a few pointer updates.
+ *
+ * @version JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public abstract class SIPStackTimerTask extends TimerTask {
+
+	// The wheel that this task is scheduled on (null if the task is
+	// not scheduled on a wheel).
+	TimerWheel wheel;
+
+	// Links for the bucket list of the wheel.
+	SIPStackTimerTask next;
+
+	SIPStackTimerTask previous;
+
+	// Bucket in which the task is currently linked (-1 if none).
+	int bucket = -1;
+
+	// Number of full revolutions of the wheel before the task expires.
+	long remainingRounds;
+
+	// Period in ticks (0 for one shot tasks).
+	long periodTicks;
+
+	// Set when the task is cancelled.
+	boolean isCancelled;
+
+	/**
+	 * Cancel this task. If the task is linked into a timer wheel it is
+	 * removed from its bucket right away.
+	 *
+	 * @return true if the task was prevented from running.
+	 */
+	public boolean cancel() {
+		boolean retval = super.cancel();
+		TimerWheel timerWheel = this.wheel;
+		if (timerWheel != null)
+			retval = timerWheel.cancel(this) || retval;
+		else
+			this.isCancelled = true;
+		return retval;
+	}
+
+	/**
+	 * Return true if this task has been cancelled.
+	 */
+	public boolean isCancelled() {
+		return this.isCancelled;
+	}
+}
@@ -156,6 +156,10 @@ public abstract class SIPTransaction
 	// Transaction branch ID
 	private String branch;
 
+	// Key of the transaction in the RFC 2543 index of the stack
+	// (null if the transaction is not in that index).
+	String rfc2543Key;
+
 	// Method of the Request used to create the transaction.
 	protected String method;
 
@@ -211,7 +215,7 @@ public abstract class SIPTransaction
 		return this.branch;
 	}
 
-	class LingerTimer extends TimerTask {
+	class LingerTimer extends SIPStackTimerTask {
 		private SIPTransaction transaction;
 		private SIPTransactionStack sipStack;
 		
@@ -236,6 +240,12 @@ public abstract class SIPTransaction
 				  // Close the encapsulated socket if stack is configured 
 				    transaction.close();
 				} else
+				if (  ( ! this.sipStack.cacheServerConnections )
+				   && transaction.encapsulatedChannel instanceof NioTCPMessageChannel
+			   	   && -- ((NioTCPMessageChannel) transaction.encapsulatedChannel).useCount == 0 ) {
+				  // Close the encapsulated socket if stack is configured 
+				    transaction.close();
+				} else
 				if (  ( ! this.sipStack.cacheServerConnections )
 				   && transaction.encapsulatedChannel instanceof TLSMessageChannel
 			   	   && -- ((TLSMessageChannel) transaction.encapsulatedChannel).useCount == 0 ) {
@@ -250,6 +260,8 @@ public abstract class SIPTransaction
 
 					if(transaction.encapsulatedChannel instanceof TCPMessageChannel)
 						UseCount = ((TCPMessageChannel) transaction.encapsulatedChannel).useCount;
+					else if(transaction.encapsulatedChannel instanceof NioTCPMessageChannel)
+						UseCount = ((NioTCPMessageChannel) transaction.encapsulatedChannel).useCount;
 					else
 						UseCount = ((TLSMessageChannel) transaction.encapsulatedChannel).useCount;
 
@@ -290,6 +302,13 @@ public abstract class SIPTransaction
 				    sipStack.logWriter.logMessage("use count for encapsulated channel" +    this + " " +
 					((TLSMessageChannel)encapsulatedChannel).useCount);
 			}
+			else if(encapsulatedChannel instanceof NioTCPMessageChannel)
+			{
+				((NioTCPMessageChannel)encapsulatedChannel).useCount++;
+				if (LogWriter.needsLogging)
+				    sipStack.logWriter.logMessage("use count for encapsulated channel" +    this + " " +
+					((NioTCPMessageChannel)encapsulatedChannel).useCount);
+			}
 			else
 			{
 				((TCPMessageChannel)encapsulatedChannel).useCount++;
@@ -320,9 +339,9 @@ public abstract class SIPTransaction
 		// Branch value of topmost Via header
 		String newBranch;
 
-		if (this.originalRequest != null) {
-			sipStack.removeTransactionHash(this);
-		}
+		// Take the transaction out of the hash (if it is there) while
+		// the keys are changed.
+		boolean isHashed = sipStack.removeTransactionHash(this);
 		// This will be cleared later.
 
 		this.originalRequest = newOriginalRequest;
@@ -330,14 +349,14 @@ public abstract class SIPTransaction
 		// just cache the control information so the
 		// original request can be released later.
 		this.method = newOriginalRequest.getMethod();
-		this.from = (From) newOriginalRequest.getFrom();
-		this.to = (To) newOriginalRequest.getTo();
+		this.from = newOriginalRequest.peekFrom();
+		this.to = newOriginalRequest.peekTo();
 		// Save these to avoid concurrent modification exceptions!
 		this.toTag = this.to.getTag();
 		this.fromTag = this.from.getTag();
-		this.callId = (CallID) newOriginalRequest.getCallId();
-		this.cSeq = newOriginalRequest.getCSeq().getSequenceNumber();
-		this.event = (Event) newOriginalRequest.getHeader("Event");
+		this.callId = newOriginalRequest.peekCallId();
+		this.cSeq = newOriginalRequest.peekCSeq().getSequenceNumber();
+		this.event = (Event) newOriginalRequest.peekHeader("Event");
 		this.transactionId = newOriginalRequest.getTransactionId();
 
 		originalRequest.setTransaction(this);
@@ -345,7 +364,7 @@ public abstract class SIPTransaction
 
 		// If the message has an explicit branch value set,
 		newBranch =
-			((Via) newOriginalRequest.getViaHeaders().getFirst()).getBranch();
+			newOriginalRequest.peekTopmostVia().getBranch();
 		if (newBranch != null) {
 			if (LogWriter.needsLogging)
 				sipStack.logWriter.logMessage(
@@ -362,6 +381,9 @@ public abstract class SIPTransaction
 						+ newOriginalRequest.encode());
 			setBranch(newOriginalRequest.getTransactionId());
 		}
+		// Put the transaction back in the hash under its new keys.
+		if (isHashed)
+			sipStack.addTransactionHash(this);
 	}
 
 	/**
@@ -430,7 +452,10 @@ public abstract class SIPTransaction
 	 * for this transaction.
 	 */
 	public final void setBranch(String newBranch) {
+		String oldBranch = branch;
 		branch = newBranch;
+		if (oldBranch != null && !oldBranch.equals(newBranch))
+			sipStack.transactionBranchChanged(this, oldBranch);
 	}
 
 	/**
@@ -440,7 +465,7 @@ public abstract class SIPTransaction
 	 */
 	public final String getBranch() {
 		if (this.branch == null) {
-			this.branch = getOriginalRequest().getTopmostVia().getBranch();
+			this.branch = getOriginalRequest().peekTopmostVia().getBranch();
 		}
 		return branch;
 	}
@@ -899,7 +924,7 @@ public abstract class SIPTransaction
 				Request.CANCEL))
 			return false;
 		// Get the topmost Via header and its branch parameter
-		viaHeaders = requestToTest.getViaHeaders();
+		viaHeaders = requestToTest.peekViaHeaders();
 		if (viaHeaders != null) {
 
 			topViaHeader = (Via) viaHeaders.getFirst();
@@ -908,8 +933,7 @@ public abstract class SIPTransaction
 
 				// If the branch parameter exists but
 				// does not start with the magic cookie,
-				if (!messageBranch
-					.startsWith(SIPConstants.BRANCH_MAGIC_COOKIE)) {
+				if (!Utils.hasMagicCookie(messageBranch)) {
 
 					// Flags this as old
 					// (RFC2543-compatible) client
@@ -926,9 +950,8 @@ public abstract class SIPTransaction
 				// If the branch equals the branch in
 				// this message,
 				if (getBranch().equalsIgnoreCase(messageBranch)
-					&& topViaHeader.getSentBy().equals(
-						((Via) getOriginalRequest().getViaHeaders().getFirst())
-							.getSentBy())) {
+					&& topViaHeader.hasSameSentBy(
+						getOriginalRequest().peekTopmostVia())) {
 					transactionMatches = true;
 					if (LogWriter.needsLogging)
 						sipStack.logWriter.logMessage("returning  true");
@@ -946,15 +969,15 @@ public abstract class SIPTransaction
 				if (getOriginalRequest()
 					.getRequestURI()
 					.equals(requestToTest.getRequestURI())
-					&& getOriginalRequest().getTo().equals(requestToTest.getTo())
-					&& getOriginalRequest().getFrom().equals(
-						requestToTest.getFrom())
-					&& getOriginalRequest().getCallId().getCallId().equals(
-						requestToTest.getCallId().getCallId())
-					&& getOriginalRequest().getCSeq().getSequenceNumber()
-						== requestToTest.getCSeq().getSequenceNumber()
+					&& getOriginalRequest().peekTo().equals(requestToTest.peekTo())
+					&& getOriginalRequest().peekFrom().equals(
+						requestToTest.peekFrom())
+					&& getOriginalRequest().peekCallId().getCallId().equals(
+						requestToTest.peekCallId().getCallId())
+					&& getOriginalRequest().peekCSeq().getSequenceNumber()
+						== requestToTest.peekCSeq().getSequenceNumber()
 					&& topViaHeader.equals(
-						getOriginalRequest().getViaHeaders().getFirst())) {
+						getOriginalRequest().peekTopmostVia())) {
 
 					transactionMatches = true;
 				}
@@ -3,6 +3,7 @@ package gov.nist.javax.sip.stack;
 import gov.nist.javax.sip.message.*;
 import gov.nist.javax.sip.header.*;
 import gov.nist.core.*;
+import gov.nist.javax.sip.Utils;
 import javax.sip.message.*;
 import javax.sip.address.*;
 import javax.sip.header.*;
@@ -39,14 +40,14 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 */
 	public static final int CONNECTION_LINGER_TIME = 32;
 
-	// Collection of current client transactions
-	private List clientTransactions;
+	// Set of current client transactions
+	private StripedHashtable clientTransactions;
 
-	// Collection or current server transactions
-	private List serverTransactions;
+	// Set of current server transactions
+	private StripedHashtable serverTransactions;
 
 	// Table of dialogs.
-	protected Hashtable dialogTable;
+	protected StripedHashtable dialogTable;
 
 	// Max number of server transactions concurrent.
 	protected int transactionTableSize;
@@ -64,6 +65,10 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 
 	protected Timer timer;
 
+	// Timing wheel that runs the transaction and dialog timers when the
+	// stack is configured to use it (null otherwise).
+	protected TimerWheel timerWheel;
+
 	protected Thread pendingRecordScanner;
 
 	/** List of pending dialog creating transactions. */
@@ -71,10 +76,18 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 
 	private List pendingRecords;
 
-	// hashtable for fast lookup
-	private Hashtable clientTransactionTable;
+	// Indexes for fast lookup, keyed by transaction branch (lower case
+	// because CANCEL matching ignores the case of the branch).
+	private TransactionIndex clientTransactionTable;
+
+	private TransactionIndex serverTransactionTable;
 
-	private Hashtable serverTransactionTable;
+	// Indexes of the transactions created for RFC 2543 requests (no
+	// magic cookie in the top via branch), keyed by the part of the
+	// RFC 2543 matching tuple that does not depend on optional tags.
+	private TransactionIndex clientRfc2543Table;
+
+	private TransactionIndex serverRfc2543Table;
 
 	/**
 	 * Default constructor.
@@ -90,15 +103,21 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 		this.dialogCreatingMethods.add(Request.SUBSCRIBE);
 		// Notify may or may not create a dialog. This is handled in
 		// the code.
-		// Create the transaction collections
-
-		clientTransactions = Collections.synchronizedList(new ArrayList());
-		serverTransactions = Collections.synchronizedList(new ArrayList());
+		// Create the transaction collections. These are striped so that
+		// threads working on different transactions do not contend
+		// for a single lock.
+
+		clientTransactions = new StripedHashtable(
+				StripedHashtable.DEFAULT_CONCURRENCY_LEVEL, true);
+		serverTransactions = new StripedHashtable(
+				StripedHashtable.DEFAULT_CONCURRENCY_LEVEL, true);
 		// Dialog dable.
-		this.dialogTable = new Hashtable();
+		this.dialogTable = new StripedHashtable();
 
-		clientTransactionTable = new Hashtable();
-		serverTransactionTable = new Hashtable();
+		clientTransactionTable = new TransactionIndex();
+		serverTransactionTable = new TransactionIndex();
+		clientRfc2543Table = new TransactionIndex();
+		serverRfc2543Table = new TransactionIndex();
 
 		// Start the timer event thread.
 
@@ -119,16 +138,24 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 */
 	protected void reInit() {
 		super.reInit();
-		clientTransactions = Collections.synchronizedList(new ArrayList());
-		serverTransactions = Collections.synchronizedList(new ArrayList());
+		clientTransactions = new StripedHashtable(
+				StripedHashtable.DEFAULT_CONCURRENCY_LEVEL, true);
+		serverTransactions = new StripedHashtable(
+				StripedHashtable.DEFAULT_CONCURRENCY_LEVEL, true);
 		pendingTransactions =  new HashSet();
 		pendingRecords = Collections.synchronizedList(new ArrayList());
-		clientTransactionTable = new Hashtable();
-		serverTransactionTable = new Hashtable();
+		clientTransactionTable = new TransactionIndex();
+		serverTransactionTable = new TransactionIndex();
+		clientRfc2543Table = new TransactionIndex();
+		serverRfc2543Table = new TransactionIndex();
 		// Dialog dable.
-		this.dialogTable = new Hashtable();
+		this.dialogTable = new StripedHashtable();
 
 		this.timer = new Timer();
+		if (this.timerWheel != null) {
+			this.timerWheel = new TimerWheel(logWriter);
+			this.timerWheel.start();
+		}
 		pendingRecordScanner = new Thread(new PendingRecordScanner(this));
 		pendingRecordScanner.setDaemon(true);
 		pendingRecordScanner.setName("PendingRecordScanner");
@@ -136,6 +163,51 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 
 	}
 
+	/**
+	 * Run the transaction and dialog timers from a timing wheel instead of
+	 * the java.util.Timer of the stack. Must be called before any
+	 * transaction is created.
+	 */
+	protected void useTimerWheel() {
+		if (this.timerWheel == null) {
+			this.timerWheel = new TimerWheel(logWriter);
+			this.timerWheel.start();
+		}
+	}
+
+	/**
+	 * Schedule a one shot transaction layer timer task.
+	 *
+	 * @param task --
+	 *            task to run.
+	 * @param delay --
+	 *            delay in milliseconds before the task is run.
+	 */
+	protected void scheduleTimer(SIPStackTimerTask task, long delay) {
+		if (this.timerWheel != null)
+			this.timerWheel.schedule(task, delay);
+		else
+			this.timer.schedule(task, delay);
+	}
+
+	/**
+	 * Schedule a periodic transaction layer timer task.
+	 *
+	 * @param task --
+	 *            task to run.
+	 * @param delay --
+	 *            delay in milliseconds before the first run.
+	 * @param period --
+	 *            time in milliseconds between successive runs.
+	 */
+	protected void scheduleTimer(SIPStackTimerTask task, long delay,
+			long period) {
+		if (this.timerWheel != null)
+			this.timerWheel.schedule(task, delay, period);
+		else
+			this.timer.schedule(task, delay, period);
+	}
+
 	/**
 	 * Return true if extension is supported.
 	 * 
@@ -170,10 +242,8 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 */
 	public void putDialog(SIPDialog dialog) {
 		String dialogId = dialog.getDialogId();
-		synchronized (dialogTable) {
-			if (dialogTable.containsKey(dialogId))
-				return;
-		}
+		if (dialogTable.containsKey(dialogId))
+			return;
 		if (LogWriter.needsLogging) {
 			logWriter.logMessage("putDialog dialogId=" + dialogId);
 		}
@@ -182,9 +252,8 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 		dialog.setStack(this);
 		if (LogWriter.needsLogging)
 			logWriter.logStackTrace();
-		synchronized (dialogTable) {
-			dialogTable.put(dialogId, dialog);
-		}
+		if (dialogTable.putIfAbsent(dialogId, dialog) == null)
+			dialog.addDialogTableKey(dialogId);
 
 	}
 
@@ -201,7 +270,7 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 * This is for debugging.
 	 */
 	public Iterator getDialogs() {
-		return dialogTable.values().iterator();
+		return dialogTable.iterator();
 
 	}
 
@@ -212,17 +281,13 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 *            dialog to remove.
 	 */
 	public void removeDialog(SIPDialog dialog) {
-		synchronized (dialogTable) {
-			Iterator it = this.dialogTable.values().iterator();
-			while (it.hasNext()) {
-				SIPDialog d = (SIPDialog) it.next();
-				if (d == dialog) {
-					if (LogWriter.needsLogging) {
-						String dialogId = dialog.getDialogId();
-						logWriter.logMessage("Removing Dialog " + dialogId);
-					}
-					it.remove();
-				}
+		// The dialog id may have changed since the dialog was put in the
+		// table so remove it under every key it was recorded with.
+		Object[] keys = dialog.clearDialogTableKeys();
+		for (int i = 0; i < keys.length; i++) {
+			if (dialogTable.remove(keys[i], dialog)
+					&& LogWriter.needsLogging) {
+				logWriter.logMessage("Removing Dialog " + keys[i]);
 			}
 		}
 	}
@@ -239,9 +304,7 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	public SIPDialog getDialog(String dialogId) {
 		if (LogWriter.needsLogging)
 			logWriter.logMessage("Getting dialog for " + dialogId);
-		synchronized (dialogTable) {
-			return (SIPDialog) dialogTable.get(dialogId);
-		}
+		return (SIPDialog) dialogTable.get(dialogId);
 	}
 
 	/**
@@ -259,32 +322,29 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 */
 	public SIPClientTransaction findSubscribeTransaction(
 			SIPRequest notifyMessage) {
-		synchronized (clientTransactions) {
-			Iterator it = clientTransactions.iterator();
-			String thisToTag = notifyMessage.getTo().getTag();
-			if (thisToTag == null)
-				return null;
-			Event eventHdr = (Event) notifyMessage.getHeader(EventHeader.NAME);
-			if (eventHdr == null)
-				return null;
-			while (it.hasNext()) {
-				SIPClientTransaction ct = (SIPClientTransaction) it.next();
-				//SIPRequest sipRequest = ct.getOriginalRequest();
-				String fromTag = ct.from.getTag();
-				Event hisEvent = ct.event;
-				// Event header is mandatory but some slopply clients
-				// dont include it.
-				if (hisEvent == null)
-					continue;
-				if (ct.method.equals(Request.SUBSCRIBE)
-						&& fromTag.equalsIgnoreCase(thisToTag)
-						&& hisEvent != null
-						&& eventHdr.match(hisEvent)
-						&& notifyMessage.getCallId().getCallId()
-								.equalsIgnoreCase(ct.callId.getCallId()))
-					return ct;
-			}
-
+		String thisToTag = notifyMessage.peekTo().getTag();
+		if (thisToTag == null)
+			return null;
+		Event eventHdr = (Event) notifyMessage.peekHeader(EventHeader.NAME);
+		if (eventHdr == null)
+			return null;
+		Iterator it = clientTransactions.iterator();
+		while (it.hasNext()) {
+			SIPClientTransaction ct = (SIPClientTransaction) it.next();
+			//SIPRequest sipRequest = ct.getOriginalRequest();
+			Event hisEvent = ct.event;
+			// Event header is mandatory but some slopply clients
+			// dont include it.
+			if (hisEvent == null)
+				continue;
+			String fromTag = ct.from.getTag();
+			if (ct.method.equals(Request.SUBSCRIBE)
+					&& fromTag.equalsIgnoreCase(thisToTag)
+					&& hisEvent != null
+					&& eventHdr.match(hisEvent)
+					&& notifyMessage.peekCallId().getCallId()
+							.equalsIgnoreCase(ct.callId.getCallId()))
+				return ct;
 		}
 		return null;
 	}
@@ -303,66 +363,71 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 */
 	public SIPTransaction findTransaction(SIPMessage sipMessage,
 			boolean isServer) {
-		SIPTransaction retval = null;
-
+		String key = getBranchKey(sipMessage.getTransactionId());
+		if (LogWriter.needsLogging)
+			logMessage("looking for key " + key);
 		if (isServer) {
-			Via via = sipMessage.getTopmostVia();
-			if (via.getBranch() != null) {
-				String key = sipMessage.getTransactionId();
-
-				synchronized (this.serverTransactionTable) {
-					retval = (SIPTransaction) serverTransactionTable.get(key);
-					if (LogWriter.needsLogging)
-						logMessage("looking for key " + key);
-					if (retval != null
-							&& retval.isMessagePartOfTransaction(sipMessage))
-						return retval;
-				}
-			}
-			// Need to scan the table for old style transactions (RFC 2543
-			// style)
-			synchronized (this.serverTransactions) {
-				Iterator it = serverTransactions.iterator();
-				while (it.hasNext()) {
-					SIPServerTransaction sipServerTransaction = (SIPServerTransaction) it
-							.next();
-					if (sipServerTransaction
-							.isMessagePartOfTransaction(sipMessage))
-						return sipServerTransaction;
-				}
-			}
+			SIPTransaction retval = serverTransactionTable.find(key,
+					sipMessage);
+			// Old style (RFC 2543) requests are matched on the contents of
+			// the request rather than on the branch.
+			if (retval == null && isRfc2543Message(sipMessage))
+				retval = serverRfc2543Table.find(getRfc2543Key(sipMessage),
+						sipMessage);
+			return retval;
 		} else {
-			Via via = sipMessage.getTopmostVia();
-			if (via.getBranch() != null) {
-				String key = sipMessage.getTransactionId();
-				synchronized (this.clientTransactionTable) {
-					retval = (SIPTransaction) clientTransactionTable.get(key);
-					if (retval != null
-							&& retval.isMessagePartOfTransaction(sipMessage))
-						return retval;
-				}
-			}
-			// Need to scan the table for old style transactions (RFC 2543
-			// style)
-			synchronized (this.clientTransactions) {
-				Iterator it = clientTransactions.iterator();
-				while (it.hasNext()) {
-					SIPClientTransaction clientTransaction = (SIPClientTransaction) it
-							.next();
-					if (clientTransaction
-							.isMessagePartOfTransaction(sipMessage))
-						return clientTransaction;
-				}
-			}
-
+			// Client transactions match RFC 2543 responses on a branch that
+			// was set to the computed transaction id of the request so a
+			// single lookup covers both cases.
+			return clientTransactionTable.find(key, sipMessage);
 		}
-		return null;
+	}
 
+	/**
+	 * Return true if the message comes from an RFC 2543 peer, ie. its top via
+	 * branch does not start with the magic cookie (in any case). This is the
+	 * same test that SIPMessage.getTransactionId and the transaction matching
+	 * apply to the message.
+	 */
+	protected static boolean isRfc2543Message(SIPMessage sipMessage) {
+		Via via = sipMessage.peekTopmostVia();
+		if (via == null)
+			return false;
+		return !Utils.hasMagicCookie(via.getBranch());
+	}
+
+	/**
+	 * Get the index key for a branch.
+	 */
+	private static String getBranchKey(String branch) {
+		return branch.toLowerCase();
+	}
+
+	/**
+	 * Compute the index key of an RFC 2543 request. The transaction matching
+	 * rules of RFC 2543 compare the Request-URI, From tag, To tag, Call-ID,
+	 * CSeq number and top Via. The tags are skipped by the comparison when
+	 * either side does not have one, and the ACK and CANCEL for an INVITE
+	 * have the same Request-URI, so only the Call-ID, CSeq number and the
+	 * sent-by of the top Via go into the key. The remaining fields are
+	 * compared by isMessagePartOfTransaction on the (few) candidates.
+	 */
+	protected static String getRfc2543Key(SIPMessage sipMessage) {
+		StringBuffer retval = new StringBuffer();
+		retval.append(sipMessage.peekCallId().getCallId()).append(':');
+		retval.append(sipMessage.peekCSeq().getSequenceNumber()).append(':');
+		Via via = sipMessage.peekTopmostVia();
+		if (via != null)
+			retval.append(via.encodeSentBy());
+		return retval.toString();
 	}
 
 	/**
 	 * Get the transaction to cancel. Search the server transaction table for a
-	 * transaction that matches the given transaction.
+	 * transaction that matches the given transaction. The CANCEL has the
+	 * branch of the transaction that it cancels (or, for RFC 2543 peers, the
+	 * same Call-ID, CSeq number and top Via) so the candidates are found
+	 * with a single lookup in the transaction indexes.
 	 */
 	public SIPTransaction findCancelTransaction(SIPRequest cancelRequest,
 			boolean isServer) {
@@ -373,39 +438,34 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 					+ isServer);
 		}
 
-		if (isServer) {
-			synchronized (this.serverTransactions) {
-				Iterator li = this.serverTransactions.iterator();
-				while (li.hasNext()) {
-					SIPTransaction transaction = (SIPTransaction) li.next();
-					SIPRequest sipRequest = (SIPRequest) (transaction
-							.getRequest());
-
-					SIPServerTransaction sipServerTransaction = (SIPServerTransaction) transaction;
-					if (sipServerTransaction
-							.doesCancelMatchTransaction(cancelRequest))
-						return sipServerTransaction;
-				}
+		SIPTransaction[] candidates = null;
+		Via via = cancelRequest.peekTopmostVia();
+		if (via != null) {
+			if (isRfc2543Message(cancelRequest)) {
+				String key = getRfc2543Key(cancelRequest);
+				candidates = isServer ? serverRfc2543Table.get(key)
+						: clientRfc2543Table.get(key);
+			} else {
+				String key = getBranchKey(via.getBranch());
+				candidates = isServer ? serverTransactionTable.get(key)
+						: clientTransactionTable.get(key);
 			}
-		} else {
-			synchronized (this.clientTransactions) {
-				Iterator li = this.clientTransactions.iterator();
-				while (li.hasNext()) {
-					SIPTransaction transaction = (SIPTransaction) li.next();
-					SIPRequest sipRequest = (SIPRequest) (transaction
-							.getRequest());
-
-					SIPClientTransaction sipClientTransaction = (SIPClientTransaction) transaction;
-					if (sipClientTransaction
-							.doesCancelMatchTransaction(cancelRequest))
-						return sipClientTransaction;
-
+		}
+		SIPTransaction retval = null;
+		if (candidates != null) {
+			for (int i = 0; i < candidates.length; i++) {
+				if (candidates[i].doesCancelMatchTransaction(cancelRequest)) {
+					retval = candidates[i];
+					// The ACK for a non 2xx final response gets the branch
+					// of the INVITE -- prefer the INVITE.
+					if (retval.isInviteTransaction())
+						break;
 				}
 			}
 		}
-		if (LogWriter.needsLogging) 
+		if (retval == null && LogWriter.needsLogging)
 		    logWriter.logMessage("Could not find transaction for cancel request");
-		return null;
+		return retval;
 	}
 
 	/**
@@ -463,97 +523,73 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	protected ServerRequestInterface newSIPServerRequest(
 			SIPRequest requestReceived, MessageChannel requestMessageChannel) {
 
-		// Iterator through all server transactions
-		Iterator transactionIterator;
-		// Next transaction in the set
-		SIPServerTransaction nextTransaction;
 		// Transaction to handle this request
 		SIPServerTransaction currentTransaction;
 
-		String key = requestReceived.getTransactionId();
-
-		currentTransaction = (SIPServerTransaction) serverTransactionTable
-				.get(key);
-		if (currentTransaction == null
-				|| !currentTransaction
-						.isMessagePartOfTransaction(requestReceived)) {
-
-			// Loop through all server transactions
-			synchronized (serverTransactions) {
-				transactionIterator = serverTransactions.iterator();
-				currentTransaction = null;
-				while (transactionIterator.hasNext()
-						&& currentTransaction == null) {
-
-					nextTransaction = (SIPServerTransaction) transactionIterator
-							.next();
-
-					// If this transaction should handle this request,
-					if (nextTransaction
-							.isMessagePartOfTransaction(requestReceived)) {
-						// Mark this transaction as the one
-						// to handle this message
-						currentTransaction = nextTransaction;
+		currentTransaction = (SIPServerTransaction) findTransaction(
+				requestReceived, true);
+		if (currentTransaction == null) {
+			currentTransaction = findPendingTransaction(requestReceived);
+			if (currentTransaction != null)
+				return currentTransaction;
+			currentTransaction = createServerTransaction(requestMessageChannel);
+			currentTransaction.setOriginalRequest(requestReceived);
+			if (!isDialogCreated(requestReceived.getMethod())) {
+				// Dialog is not created - can we find the state?
+				// If so, then create a transaction and add it.
+				String dialogId = requestReceived.getDialogId(true);
+				SIPDialog dialog = getDialog(dialogId);
+				// Sequence numbers are supposed to increment.
+				// avoid processing old sequence numbers and
+				// delivering the same request up to the
+				// application if the request has already been seen.
+				// Special handling applies to ACK processing.
+				if (dialog != null
+						&& (requestReceived.getMethod().equals(
+								Request.ACK) || requestReceived
+								.peekCSeq().getSequenceNumber() > dialog
+								.getRemoteSequenceNumber())) {
+					// Found a dialog.
+					SIPServerTransaction mappedTransaction = mapServerTransaction(
+							currentTransaction, requestReceived);
+					if (mappedTransaction == currentTransaction) {
+						if (LogWriter.needsLogging)
+							logWriter
+									.logMessage("adding server transaction "
+											+ currentTransaction);
+						currentTransaction.startTransactionTimer();
+						currentTransaction.isMapped = true;
+					} else {
+						currentTransaction = mappedTransaction;
 					}
 				}
-
-				// If no transaction exists to handle this message
-				if (currentTransaction == null) {
-					currentTransaction = findPendingTransaction(requestReceived);
-					if (currentTransaction != null)
-						return currentTransaction;
-					currentTransaction = createServerTransaction(requestMessageChannel);
-					currentTransaction.setOriginalRequest(requestReceived);
-					if (!isDialogCreated(requestReceived.getMethod())) {
-						// Dialog is not created - can we find the state?
-						// If so, then create a transaction and add it.
-						String dialogId = requestReceived.getDialogId(true);
-						SIPDialog dialog = getDialog(dialogId);
-						// Sequence numbers are supposed to increment.
-						// avoid processing old sequence numbers and
-						// delivering the same request up to the
-						// application if the request has already been seen.
-						// Special handling applies to ACK processing.
-						if (dialog != null
-								&& (requestReceived.getMethod().equals(
-										Request.ACK) || requestReceived
-										.getCSeq().getSequenceNumber() > dialog
-										.getRemoteSequenceNumber())) {
-							// Found a dialog.
-							if (LogWriter.needsLogging)
-								logWriter
-										.logMessage("adding server transaction "
-												+ currentTransaction);
-							serverTransactions.add(0, currentTransaction);
-							addTransactionHash(currentTransaction);
-							currentTransaction.startTransactionTimer();
-							currentTransaction.isMapped = true;
-						}
+			} else {
+				// Create the transaction but dont map it.
+				String dialogId = requestReceived.getDialogId(true);
+				SIPDialog dialog = getDialog(dialogId);
+				// This is a dialog creating request that is part of an
+				// existing dialog (eg. re-Invite). Re-invites get a non
+				// null server transaction Id (unlike the original
+				// invite).
+				if (dialog != null
+						&& requestReceived.peekCSeq()
+								.getSequenceNumber() > dialog
+								.getRemoteSequenceNumber()) {
+					SIPServerTransaction mappedTransaction = mapServerTransaction(
+							currentTransaction, requestReceived);
+					if (mappedTransaction == currentTransaction) {
+						currentTransaction.map();
+						if (LogWriter.needsLogging)
+							logWriter
+									.logMessage("adding server transaction "
+											+ currentTransaction);
+						currentTransaction.startTransactionTimer();
+						currentTransaction.toListener = true;
 					} else {
-						// Create the transaction but dont map it.
-						String dialogId = requestReceived.getDialogId(true);
-						SIPDialog dialog = getDialog(dialogId);
-						// This is a dialog creating request that is part of an
-						// existing dialog (eg. re-Invite). Re-invites get a non
-						// null server transaction Id (unlike the original
-						// invite).
-						if (dialog != null
-								&& requestReceived.getCSeq()
-										.getSequenceNumber() > dialog
-										.getRemoteSequenceNumber()) {
-							currentTransaction.map();
-							if (LogWriter.needsLogging)
-								logWriter
-										.logMessage("adding server transaction "
-												+ currentTransaction);
-							serverTransactions.add(0, currentTransaction);
-							addTransactionHash(currentTransaction);
-							currentTransaction.startTransactionTimer();
-							currentTransaction.toListener = true;
-						}
-
+						currentTransaction = mappedTransaction;
 					}
 				}
+
 			}
 		}
 
@@ -564,6 +600,42 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 		return currentTransaction;
 	}
 
+	/**
+	 * Add a server transaction that was created for an incoming request to
+	 * the transaction tables. There is no lock around the lookup and the
+	 * creation of the transaction so a retransmission of the request
+	 * processed by another thread may have added a transaction in the
+	 * meantime; in that case the transaction already in the table is
+	 * returned and the new one is left unmapped.
+	 * 
+	 * @param serverTransaction --
+	 *            the newly created transaction.
+	 * @param requestReceived --
+	 *            the request for which it was created.
+	 * @return the transaction that handles the request.
+	 */
+	private SIPServerTransaction mapServerTransaction(
+			SIPServerTransaction serverTransaction, SIPRequest requestReceived) {
+		addTransactionHash(serverTransaction);
+		// If two threads race to map a transaction for the same request
+		// both see both transactions here and the one that was registered
+		// first wins.
+		SIPTransaction existing;
+		if (isRfc2543Message(requestReceived))
+			existing = serverRfc2543Table.findFirstRegistered(
+					getRfc2543Key(requestReceived), requestReceived);
+		else
+			existing = serverTransactionTable.findFirstRegistered(
+					getBranchKey(requestReceived.getTransactionId()),
+					requestReceived);
+		if (existing != null && existing != serverTransaction) {
+			removeTransactionHash(serverTransaction);
+			return (SIPServerTransaction) existing;
+		}
+		serverTransactions.put(serverTransaction, serverTransaction);
+		return serverTransaction;
+	}
+
 	/**
 	 * Handles a new SIP response. It finds a client transaction to handle this
 	 * message. If none exists, it sends the message directly to the superclass.
@@ -579,52 +651,19 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 			SIPResponse responseReceived, MessageChannel responseMessageChannel) {
 		//	System.out.println("response = " + responseReceived.encode());
 
-		// Iterator through all client transactions
-		Iterator transactionIterator;
-		// Next transaction in the set
-		SIPClientTransaction nextTransaction;
 		// Transaction to handle this request
 		SIPClientTransaction currentTransaction;
 
-		String key = responseReceived.getTransactionId();
-
-		currentTransaction = (SIPClientTransaction) clientTransactionTable
-				.get(key);
+		currentTransaction = (SIPClientTransaction) findTransaction(
+				responseReceived, false);
 
-		if (currentTransaction == null
-				|| !currentTransaction
-						.isMessagePartOfTransaction(responseReceived)) {
-			// Loop through all server transactions
-			synchronized (clientTransactions) {
-				transactionIterator = clientTransactions.iterator();
-				currentTransaction = null;
-				while (transactionIterator.hasNext()
-						&& currentTransaction == null) {
+		// If no transaction exists to handle this message,
+		if (currentTransaction == null) {
 
-					nextTransaction = (SIPClientTransaction) transactionIterator
-							.next();
-
-					// If this transaction should handle this request,
-					if (nextTransaction
-							.isMessagePartOfTransaction(responseReceived)) {
-
-						// Mark this transaction as the one to
-						// handle this message
-						currentTransaction = nextTransaction;
-
-					}
-
-				}
-			}
+			// Pass the message directly to the TU
+			return super.newSIPServerResponse(responseReceived,
+					responseMessageChannel);
 
-			// If no transaction exists to handle this message,
-			if (currentTransaction == null) {
-
-				// Pass the message directly to the TU
-				return super.newSIPServerResponse(responseReceived,
-						responseMessageChannel);
-
-			}
 		}
 
 		// Set ths transaction's encapsulated response interface
@@ -645,29 +684,28 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 */
 	public MessageChannel createMessageChannel(int sourcePort, Hop nextHop)
 			throws UnknownHostException {
-		synchronized (clientTransactions) {
-			// New client transaction to return
-			SIPTransaction returnChannel;
-
-			// Create a new client transaction around the
-			// superclass' message channel
-			MessageChannel mc = super.createMessageChannel(sourcePort, nextHop);
-
-			// Superclass will return null if no message processor
-			// available for the transport.
-			if (mc == null)
-				return null;
-
-			returnChannel = createClientTransaction(mc);
-			clientTransactions.add(0, returnChannel);
-			((SIPClientTransaction) returnChannel)
-					.setViaPort(nextHop.getPort());
-			((SIPClientTransaction) returnChannel)
-					.setViaHost(nextHop.getHost());
-			// Add the transaction timer for the state machine.
-			returnChannel.startTransactionTimer();
-			return returnChannel;
-		}
+		// New client transaction to return
+		SIPTransaction returnChannel;
+
+		// Create a new client transaction around the
+		// superclass' message channel
+		MessageChannel mc = super.createMessageChannel(sourcePort, nextHop);
+
+		// Superclass will return null if no message processor
+		// available for the transport.
+		if (mc == null)
+			return null;
+
+		returnChannel = createClientTransaction(mc);
+		((SIPClientTransaction) returnChannel)
+				.setViaPort(nextHop.getPort());
+		((SIPClientTransaction) returnChannel)
+				.setViaHost(nextHop.getHost());
+		clientTransactions.put(returnChannel, returnChannel);
+		addTransactionHash(returnChannel);
+		// Add the transaction timer for the state machine.
+		returnChannel.startTransactionTimer();
+		return returnChannel;
 
 	}
 
@@ -679,18 +717,17 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 */
 
 	public MessageChannel createMessageChannel(MessageChannel rawChannel) {
-		synchronized (clientTransactions) {
-			// New client transaction to return
-			SIPTransaction returnChannel = createClientTransaction(rawChannel);
-			clientTransactions.add(0, returnChannel);
-			((SIPClientTransaction) returnChannel).setViaPort(rawChannel
-					.getViaPort());
-			((SIPClientTransaction) returnChannel).setViaHost(rawChannel
-					.getHost());
-			// Add the transaction timer for the state machine.
-			returnChannel.startTransactionTimer();
-			return returnChannel;
-		}
+		// New client transaction to return
+		SIPTransaction returnChannel = createClientTransaction(rawChannel);
+		((SIPClientTransaction) returnChannel).setViaPort(rawChannel
+				.getViaPort());
+		((SIPClientTransaction) returnChannel).setViaHost(rawChannel
+				.getHost());
+		clientTransactions.put(returnChannel, returnChannel);
+		addTransactionHash(returnChannel);
+		// Add the transaction timer for the state machine.
+		returnChannel.startTransactionTimer();
+		return returnChannel;
 	}
 
 	/**
@@ -700,19 +737,18 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 *            is the transport channel to encapsulate.
 	 */
 	public MessageChannel createMessageChannel(SIPTransaction transaction) {
-		synchronized (clientTransactions) {
-			// New client transaction to return
-			SIPTransaction returnChannel = createClientTransaction(transaction
-					.getMessageChannel());
-			clientTransactions.add(0, returnChannel);
-			((SIPClientTransaction) returnChannel).setViaPort(transaction
-					.getViaPort());
-			((SIPClientTransaction) returnChannel).setViaHost(transaction
-					.getViaHost());
-			// Add the transaction timer for the state machine.
-			returnChannel.startTransactionTimer();
-			return returnChannel;
-		}
+		// New client transaction to return
+		SIPTransaction returnChannel = createClientTransaction(transaction
+				.getMessageChannel());
+		((SIPClientTransaction) returnChannel).setViaPort(transaction
+				.getViaPort());
+		((SIPClientTransaction) returnChannel).setViaHost(transaction
+				.getViaHost());
+		clientTransactions.put(returnChannel, returnChannel);
+		addTransactionHash(returnChannel);
+		// Add the transaction timer for the state machine.
+		returnChannel.startTransactionTimer();
+		return returnChannel;
 	}
 
 	/**
@@ -752,9 +788,7 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	}
 
 	/**
-	 * Add a new client transaction to the set of existing transactions. Add it
-	 * to the top of the list so an incoming response has less work to do in
-	 * order to find the transaction.
+	 * Add a new client transaction to the set of existing transactions.
 	 * 
 	 * @param clientTransaction --
 	 *            client transaction to add to the set.
@@ -762,9 +796,7 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	public void addTransaction(SIPClientTransaction clientTransaction) {
 		if (LogWriter.needsLogging)
 			logWriter.logMessage("added transaction " + clientTransaction);
-		synchronized (clientTransactions) {
-			clientTransactions.add(0, clientTransaction);
-		}
+		clientTransactions.put(clientTransaction, clientTransaction);
 
 		addTransactionHash(clientTransaction);
 		clientTransaction.startTransactionTimer();
@@ -775,28 +807,15 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	 */
 	public void removeTransaction(SIPTransaction sipTransaction) {
 		if (sipTransaction instanceof SIPServerTransaction) {
-			synchronized (serverTransactions) {
-				serverTransactions.remove(sipTransaction);
-			}
-			synchronized (serverTransactionTable) {
-				String key = sipTransaction.getTransactionId();
-				serverTransactionTable.remove(key);
-			}
+			serverTransactions.remove(sipTransaction);
 		} else {
-			synchronized (clientTransactions) {
-				clientTransactions.remove(sipTransaction);
-			}
-			synchronized (clientTransactionTable) {
-				String key = sipTransaction.getTransactionId();
-				clientTransactionTable.remove(key);
-			}
+			clientTransactions.remove(sipTransaction);
 		}
+		removeTransactionHash(sipTransaction);
 	}
 
 	/**
-	 * Add a new server transaction to the set of existing transactions. Add it
-	 * to the top of the list so an incoming ack has less work to do in order to
-	 * find the transaction.
+	 * Add a new server transaction to the set of existing transactions.
 	 * 
 	 * @param serverTransaction --
 	 *            server transaction to add to the set.
@@ -805,58 +824,80 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 			throws IOException {
 		if (LogWriter.needsLogging)
 			logWriter.logMessage("added transaction " + serverTransaction);
-		synchronized (serverTransactions) {
-			this.serverTransactions.add(0, serverTransaction);
-			serverTransaction.map();
-		}
+		this.serverTransactions.put(serverTransaction, serverTransaction);
+		serverTransaction.map();
 		addTransactionHash(serverTransaction);
 		serverTransaction.startTransactionTimer();
 	}
 
 	/**
-	 * Hash table for quick lookup of transactions.
+	 * Hash table for quick lookup of transactions. Transactions are indexed
+	 * by branch, transactions for RFC 2543 requests are also indexed on the
+	 * RFC 2543 matching tuple.
 	 */
 	protected void addTransactionHash(SIPTransaction sipTransaction) {
+		String branch = sipTransaction.getBranch();
+		boolean isClient = sipTransaction instanceof SIPClientTransaction;
+		if (branch != null) {
+			if (isClient)
+				clientTransactionTable.add(getBranchKey(branch), sipTransaction);
+			else
+				serverTransactionTable.add(getBranchKey(branch), sipTransaction);
+		}
 		SIPRequest sipRequest = sipTransaction.getOriginalRequest();
-		Via via = sipRequest.getTopmostVia();
-		// Cannot cache old style requests.
-		/**
-		 * if (via.getBranch() == null || !
-		 * via.getBranch().toUpperCase().startsWith
-		 * (SIPConstants.BRANCH_MAGIC_COOKIE.toUpperCase())){ return; }
-		 */
-		if (sipTransaction instanceof SIPClientTransaction) {
-			synchronized (clientTransactionTable) {
-				String key = sipRequest.getTransactionId();
-				clientTransactionTable.put(key, sipTransaction);
-			}
-		} else {
-			synchronized (serverTransactionTable) {
-				String key = sipRequest.getTransactionId();
-				serverTransactionTable.put(key, sipTransaction);
-			}
+		if (sipRequest != null && sipTransaction.rfc2543Key == null
+				&& isRfc2543Message(sipRequest)) {
+			sipTransaction.rfc2543Key = getRfc2543Key(sipRequest);
+			if (isClient)
+				clientRfc2543Table.add(sipTransaction.rfc2543Key,
+						sipTransaction);
+			else
+				serverRfc2543Table.add(sipTransaction.rfc2543Key,
+						sipTransaction);
 		}
 
 	}
 
 	/**
 	 * Remove the transaction from transaction hash.
+	 * 
+	 * @return true if the transaction was in the hash.
 	 */
-	protected void removeTransactionHash(SIPTransaction sipTransaction) {
-		SIPRequest sipRequest = sipTransaction.getOriginalRequest();
-		if (sipRequest == null)
-			return;
-		if (sipTransaction instanceof SIPClientTransaction) {
-			synchronized (clientTransactionTable) {
-				String key = sipTransaction.getTransactionId();
-				clientTransactionTable.remove(key);
-			}
-		} else if (sipTransaction instanceof SIPServerTransaction) {
-			synchronized (serverTransactionTable) {
-				String key = sipTransaction.getTransactionId();
-				serverTransactionTable.remove(key);
-			}
+	protected boolean removeTransactionHash(SIPTransaction sipTransaction) {
+		boolean retval = false;
+		String branch = sipTransaction.getBranchId();
+		boolean isClient = sipTransaction instanceof SIPClientTransaction;
+		if (branch != null) {
+			if (isClient)
+				retval = clientTransactionTable.remove(getBranchKey(branch),
+						sipTransaction);
+			else
+				retval = serverTransactionTable.remove(getBranchKey(branch),
+						sipTransaction);
 		}
+		String rfc2543Key = sipTransaction.rfc2543Key;
+		if (rfc2543Key != null) {
+			sipTransaction.rfc2543Key = null;
+			if (isClient)
+				retval = clientRfc2543Table.remove(rfc2543Key, sipTransaction)
+						|| retval;
+			else
+				retval = serverRfc2543Table.remove(rfc2543Key, sipTransaction)
+						|| retval;
+		}
+		return retval;
+	}
+
+	/**
+	 * Move a transaction to its new branch in the hash (invoked when the
+	 * branch of the transaction is changed).
+	 */
+	protected void transactionBranchChanged(SIPTransaction sipTransaction,
+			String oldBranch) {
+		TransactionIndex index = sipTransaction instanceof SIPClientTransaction ? clientTransactionTable
+				: serverTransactionTable;
+		if (index.remove(getBranchKey(oldBranch), sipTransaction))
+			index.add(getBranchKey(sipTransaction.getBranch()), sipTransaction);
 	}
 
 	public boolean hasResources() {
@@ -1021,6 +1062,8 @@ public abstract class SIPTransactionStack extends SIPMessageStack implements
 	public void stopStack() {
 		this.notifyPendingRecordScanner();
 		this.timer.cancel();
+		if (this.timerWheel != null)
+			this.timerWheel.stop();
 		this.pendingTransactions.clear();
 		super.stopStack();
 	}
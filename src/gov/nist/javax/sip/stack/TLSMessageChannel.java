@@ -42,7 +42,8 @@ import javax.net.ssl.SSLSocket;
  */
 public final class TLSMessageChannel
 extends MessageChannel
-implements SIPMessageListener, Runnable {
+implements SIPMessageListener, KeepAliveListener, Runnable,
+        ConnectionManager.Connection {
     
     private SSLSocket mySock;
     private PipelinedMsgParser myParser;
@@ -74,6 +75,23 @@ implements SIPMessageListener, Runnable {
     protected int useCount=0;
     
     private TLSMessageProcessor tlsMessageProcessor;
+
+    // The pipeline of the reader (the connection manager checks its read
+    // timeout).
+    private Pipeline hispipe;
+
+    // Key of our socket in the socket table of the IOHandler (null if it
+    // is not there).
+    private String ioHandlerKey;
+
+    // For the connection manager.
+    private boolean outgoing;
+
+    private long createTime;
+
+    private long lastActivityTime;
+
+    private long lastSendTime;
     
     
     
@@ -162,7 +180,8 @@ implements SIPMessageListener, Runnable {
      */
     public void close() {
         try {
-            if (mySock != null ) mySock.close();
+            // Let what was queued for the socket go out first.
+            if (mySock != null ) stack.ioHandler.closeSocket(ioHandlerKey, mySock);
             if (LogWriter.needsLogging)
                 stack.logWriter.logMessage
                 ("Closing message Channel " + this);
@@ -225,6 +244,8 @@ implements SIPMessageListener, Runnable {
         this.peerProtocol,
         msg,
         retry);
+        this.lastSendTime = System.currentTimeMillis();
+        this.lastActivityTime = this.lastSendTime;
         // Created a new socket so close the old one and stick the new
         // one in its place but dont do this if it is a datagram socket.
         // (could have replied via udp but received via tcp!).
@@ -234,6 +255,8 @@ implements SIPMessageListener, Runnable {
                     mySock.close();
             } catch (IOException ex) {
             }
+            ioHandlerKey = IOHandler.makeKey(this.peerAddress, this.peerPort);
+            outgoing = true;
             mySock = sock;
             this.myClientInputStream = mySock.getInputStream();
             this.myClientOutputStream = mySock.getOutputStream();
@@ -252,7 +275,7 @@ implements SIPMessageListener, Runnable {
      * @throws IOException If there is an error sending the message
      */
     public void sendMessage(SIPMessage sipMessage) throws IOException {
-        byte[] msg = sipMessage.encodeAsBytes();
+        byte[] msg = sipMessage.encodeAsSharedBytes();
         
         long time = System.currentTimeMillis();
         
@@ -279,6 +302,8 @@ implements SIPMessageListener, Runnable {
             throw new IllegalArgumentException("Null argument");
         SSLSocket sock = (SSLSocket) this.stack.ioHandler.sendBytes( receiverAddress, receiverPort,
         	"TLS", message, retry);
+        this.lastSendTime = System.currentTimeMillis();
+        this.lastActivityTime = this.lastSendTime;
         //
         // Created a new socket so close the old one and s
         // Check for null (bug fix sent in by Christophe)
@@ -289,6 +314,8 @@ implements SIPMessageListener, Runnable {
             } catch (IOException ex) {
                 /* ignore */
             }
+            ioHandlerKey = IOHandler.makeKey(receiverAddress, receiverPort);
+            outgoing = true;
             mySock = sock;
             this.myClientInputStream = mySock.getInputStream();
             this.myClientOutputStream = mySock.getOutputStream();
@@ -334,6 +361,16 @@ implements SIPMessageListener, Runnable {
         }
     }
     
+    /**
+     * Gets invoked by the parser for each keep alive (RFC 5626) found
+     * between messages: answer it.
+     */
+    public void processKeepAlive() throws IOException {
+        this.stack.ioHandler.writeChunks(myClientOutputStream,
+                ConnectionManager.KEEP_ALIVE_RESPONSE,
+                ConnectionManager.KEEP_ALIVE_RESPONSE.length);
+    }
+    
     /**
      * Gets invoked by the parser as a callback on successful message
      * parsing (i.e. no parser errors).
@@ -342,13 +379,13 @@ implements SIPMessageListener, Runnable {
      */
     public void processMessage(SIPMessage sipMessage)  throws Exception {
         try {
-            if (sipMessage.getFrom() == null
-            || //sipMessage.getFrom().getTag() == null ||
-            sipMessage.getTo()
+            if (sipMessage.peekFrom() == null
+            || //sipMessage.peekFrom().getTag() == null ||
+            sipMessage.peekTo()
             == null
-            || sipMessage.getCallId() == null
-            || sipMessage.getCSeq() == null
-            || sipMessage.getViaHeaders() == null) {
+            || sipMessage.peekCallId() == null
+            || sipMessage.peekCSeq() == null
+            || sipMessage.peekViaHeaders() == null) {
                 String badmsg = sipMessage.encode();
                 if (LogWriter.needsLogging) {
                     stack.logWriter.logMessage("bad message " + badmsg);
@@ -358,7 +395,7 @@ implements SIPMessageListener, Runnable {
                 return;
             }
             
-            ViaList viaList = sipMessage.getViaHeaders();
+            ViaList viaList = sipMessage.peekViaHeaders();
             // For a request
             // first via header tells where the message is coming from.
             // For response, this has already been recorded in the outgoing
@@ -377,10 +414,8 @@ implements SIPMessageListener, Runnable {
                     // Bug fix by viswashanti.kadiyala@antepo.com
 		    // Should record host address not host name
 		    // bug fix by  Joost Yervante Damand
-                    if (!v
-                    .getSentBy()
-                    .getInetAddress()
-                    .equals(this.peerAddress)) {
+                    if (!v.getSentByAddress().equals(this.peerAddress)) {
+                        v = sipMessage.getTopmostVia();
                         v.setParameter(
                         Via.RECEIVED,
                         this.peerAddress.getHostAddress());
@@ -408,6 +443,7 @@ implements SIPMessageListener, Runnable {
                     String key =
                     IOHandler.makeKey(mySock.getInetAddress(), this.peerPort);
                     stack.ioHandler.putSocket(key, mySock);
+                    this.ioHandlerKey = key;
                 }
             }
             
@@ -431,11 +467,11 @@ implements SIPMessageListener, Runnable {
                 // if it is too long.
                 if ( stack.getMaxMessageSize() > 0 &&
                 sipRequest.getSize() +
-                (sipRequest.getContentLength() == null? 0 :
-                    sipRequest.getContentLength().getContentLength() ) >
+                (sipRequest.peekContentLength() == null? 0 :
+                    sipRequest.peekContentLength().getContentLength() ) >
                     stack.getMaxMessageSize() ) {
                         SIPResponse sipResponse = sipRequest.createResponse(SIPResponse.MESSAGE_TOO_LARGE);
-                        byte[] resp = sipResponse.encodeAsBytes();
+                        byte[] resp = sipResponse.encodeAsSharedBytes();
                         this.sendMessage(resp,false);
                         throw new Exception("Message size exceeded");
                     }
@@ -479,8 +515,8 @@ implements SIPMessageListener, Runnable {
                 // If it is too large dump it silently.
                 if ( stack.getMaxMessageSize() > 0 &&
                 sipResponse.getSize() +
-                (sipResponse.getContentLength() == null? 0 :
-                    sipResponse.getContentLength().getContentLength() ) >
+                (sipResponse.peekContentLength() == null? 0 :
+                    sipResponse.peekContentLength().getContentLength() ) >
                     stack.getMaxMessageSize() ) {
                         if (LogWriter.needsLogging)
                             this.stack.logWriter.logMessage("Message size exceeded");
@@ -502,21 +538,36 @@ implements SIPMessageListener, Runnable {
      */
     public void run() {
         String message;
-        Pipeline hispipe = null;
         // Create a pipeline to connect to our message parser.
-        hispipe = new Pipeline(myClientInputStream,stack.readTimeout,((SIPTransactionStack)stack).timer);
+        // No timer: the connection manager checks the read timeout.
+        hispipe = new Pipeline(myClientInputStream,stack.readTimeout,null);
         // Create a pipelined message parser to read and parse
         // messages that we write out to him.
         myParser = new PipelinedMsgParser(this, hispipe,this.stack.getMaxMessageSize());
+        myParser.setLazyParsing(stack.isLazyHeaderParsing());
         // Start running the parser thread.
         myParser.processInput();
         // bug fix by Emmanuel Proulx
         int bufferSize = 4096;
         this.tlsMessageProcessor.useCount ++;
         this.isRunning = true;
+        this.createTime = System.currentTimeMillis();
+        this.lastActivityTime = this.createTime;
+        if (this.lastSendTime == 0)
+            this.lastSendTime = this.createTime;
+        stack.connectionManager.add(this);
+        // The connections we open are handshaken when they are made.
+        boolean handshaken = this.outgoing;
         try {
             while (true) {
                 try {
+                    if (!handshaken) {
+                        long deadline = stack.connectTimeout > 0 ? System
+                                .currentTimeMillis()
+                                + stack.connectTimeout : 0;
+                        stack.ioHandler.handshake(mySock, deadline);
+                        handshaken = true;
+                    }
                     byte[] msg = new byte[bufferSize];
                     int nbytes = myClientInputStream.read(msg, 0, bufferSize);
                     // no more bytes to read...
@@ -535,6 +586,7 @@ implements SIPMessageListener, Runnable {
                         }
                         return;
                     }
+                    this.lastActivityTime = System.currentTimeMillis();
                     hispipe.write(msg, 0, nbytes);
                     
                 } catch (IOException ex) {
@@ -569,6 +621,7 @@ implements SIPMessageListener, Runnable {
             }
         } finally {
             this.isRunning = false;
+            stack.connectionManager.remove(this);
             this.tlsMessageProcessor.remove(this);
             this.tlsMessageProcessor.useCount --;
         }
@@ -576,6 +629,39 @@ implements SIPMessageListener, Runnable {
     }
     
     
+    public long getCreateTime() {
+        return this.createTime;
+    }
+
+    public long getLastActivityTime() {
+        return this.lastActivityTime;
+    }
+
+    public long getLastSendTime() {
+        return this.lastSendTime;
+    }
+
+    /**
+     * Return true if we opened the connection.
+     */
+    public boolean isOutgoing() {
+        return this.outgoing;
+    }
+
+    public boolean checkReadTimeout(long now) {
+        Pipeline pipeline = this.hispipe;
+        return pipeline != null && pipeline.checkTimeout(now);
+    }
+
+    /**
+     * Queue a keep alive for the connection.
+     */
+    public void sendKeepAlive() throws IOException {
+        this.lastSendTime = System.currentTimeMillis();
+        if (ioHandlerKey != null && mySock != null)
+            stack.ioHandler.sendKeepAlive(ioHandlerKey, mySock);
+    }
+
     protected void uncache() {
         this.tlsMessageProcessor.remove(this);
     }
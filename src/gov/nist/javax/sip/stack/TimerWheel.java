@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).       *
+ *******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.*;
+import java.util.ArrayList;
+
+/**
+ * A hashed timing wheel for the transaction layer timers. The wheel is an
+ * array of buckets, each bucket being a doubly linked list of
+ * {@link SIPStackTimerTask}s. A task that expires after n ticks goes into
+ * bucket (current + n) mod size with n / size remaining rounds, so that
+ * scheduling and cancelling a task are constant time operations and each
+ * tick only looks at the tasks of a single bucket. This replaces the binary
+ * heap of java.util.Timer which has to be re-balanced on every schedule and
+ * cancel and does not scale to tens of thousands of transactions.
+ *
+ * Expired tasks are run from the wheel thread outside of the wheel lock so
+ * that a task can cancel itself or schedule new tasks. Periodic tasks are
+ * re-linked into the wheel before they run (fixed delay semantics, as for
+ * java.util.Timer).
+ *
+ * @version JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+public class TimerWheel implements Runnable {
+
+	/**
+	 * Default tick duration in milliseconds. The shortest timer in the
+	 * stack (the 200 ms delayed 100 Trying) must be a multiple of this.
+	 */
+	public static final int DEFAULT_TICK_INTERVAL =
+		SIPTransactionStack.BASE_TIMER_INTERVAL / 5;
+
+	/**
+	 * Default number of buckets (must be a power of 2).
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private SIPStackTimerTask[] buckets;
+
+	private int mask;
+
+	private long tickInterval;
+
+	// Number of ticks processed since the wheel was started.
+	private long currentTick;
+
+	private long startTime;
+
+	private int taskCount;
+
+	private boolean isStopped;
+
+	private Thread wheelThread;
+
+	private LogWriter logWriter;
+
+	/**
+	 * Create a timer wheel with the default tick and size.
+	 *
+	 * @param logWriter -- where to log exceptions thrown by the tasks.
+	 */
+	public TimerWheel(LogWriter logWriter) {
+		this(logWriter, DEFAULT_TICK_INTERVAL, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Create a timer wheel.
+	 *
+	 * @param logWriter -- where to log exceptions thrown by the tasks.
+	 * @param tickInterval -- duration of a tick in milliseconds.
+	 * @param wheelSize -- number of buckets (rounded up to a power of 2).
+	 */
+	public TimerWheel(LogWriter logWriter, int tickInterval, int wheelSize) {
+		if (tickInterval <= 0)
+			throw new IllegalArgumentException("bad tick interval");
+		int size = 1;
+		while (size < wheelSize)
+			size <<= 1;
+		this.buckets = new SIPStackTimerTask[size];
+		this.mask = size - 1;
+		this.tickInterval = tickInterval;
+		this.logWriter = logWriter;
+	}
+
+	/**
+	 * Start the thread that advances the wheel.
+	 */
+	public synchronized void start() {
+		if (this.wheelThread != null)
+			return;
+		this.startTime = System.currentTimeMillis();
+		this.wheelThread = new Thread(this);
+		this.wheelThread.setDaemon(true);
+		this.wheelThread.setName("TimerWheel");
+		this.wheelThread.start();
+	}
+
+	/**
+	 * Stop the wheel. Pending tasks are discarded.
+	 */
+	public synchronized void stop() {
+		this.isStopped = true;
+		for (int i = 0; i < buckets.length; i++) {
+			SIPStackTimerTask task = buckets[i];
+			while (task != null) {
+				SIPStackTimerTask nextTask = task.next;
+				unlink(task);
+				task.isCancelled = true;
+				task = nextTask;
+			}
+		}
+		this.notifyAll();
+	}
+
+	/**
+	 * Schedule a one shot task.
+	 *
+	 * @param task -- task to run.
+	 * @param delay -- delay in milliseconds before the task runs.
+	 */
+	public void schedule(SIPStackTimerTask task, long delay) {
+		schedule(task, delay, 0);
+	}
+
+	/**
+	 * Schedule a task for repeated fixed delay execution.
+	 *
+	 * @param task -- task to run.
+	 * @param delay -- delay in milliseconds before the first run.
+	 * @param period -- time in milliseconds between successive runs
+	 *   (0 for a one shot task).
+	 */
+	public synchronized void schedule(SIPStackTimerTask task, long delay,
+			long period) {
+		if (delay < 0)
+			throw new IllegalArgumentException("Negative delay.");
+		if (period < 0)
+			throw new IllegalArgumentException("Negative period.");
+		if (this.isStopped)
+			throw new IllegalStateException("Timer already cancelled.");
+		if (task.wheel != null || task.isCancelled)
+			throw new IllegalStateException(
+				"Task already scheduled or cancelled");
+		task.wheel = this;
+		task.periodTicks = period == 0 ? 0 : toTicks(period);
+		link(task, toTicks(delay));
+	}
+
+	/**
+	 * Remove a task from the wheel (invoked by SIPStackTimerTask.cancel).
+	 *
+	 * @return true if the task was pending.
+	 */
+	synchronized boolean cancel(SIPStackTimerTask task) {
+		boolean wasPending = task.bucket != -1;
+		if (wasPending)
+			unlink(task);
+		task.isCancelled = true;
+		return wasPending;
+	}
+
+	/**
+	 * Get the number of tasks linked into the wheel.
+	 */
+	public synchronized int getTaskCount() {
+		return this.taskCount;
+	}
+
+	/**
+	 * Get the tick duration in milliseconds.
+	 */
+	public long getTickInterval() {
+		return this.tickInterval;
+	}
+
+	private long toTicks(long delay) {
+		long ticks = (delay + tickInterval - 1) / tickInterval;
+		return ticks < 1 ? 1 : ticks;
+	}
+
+	private void link(SIPStackTimerTask task, long ticks) {
+		int index = (int) ((currentTick + ticks) & mask);
+		task.remainingRounds = (ticks - 1) / buckets.length;
+		task.bucket = index;
+		task.previous = null;
+		task.next = buckets[index];
+		if (task.next != null)
+			task.next.previous = task;
+		buckets[index] = task;
+		taskCount++;
+	}
+
+	private void unlink(SIPStackTimerTask task) {
+		if (task.previous != null)
+			task.previous.next = task.next;
+		else
+			buckets[task.bucket] = task.next;
+		if (task.next != null)
+			task.next.previous = task.previous;
+		task.next = null;
+		task.previous = null;
+		task.bucket = -1;
+		taskCount--;
+	}
+
+	/**
+	 * Advance the wheel by one tick and move the tasks that expired into
+	 * the given list.
+	 */
+	private synchronized void tick(ArrayList expired) {
+		currentTick++;
+		int index = (int) (currentTick & mask);
+		SIPStackTimerTask task = buckets[index];
+		while (task != null) {
+			SIPStackTimerTask nextTask = task.next;
+			if (task.remainingRounds > 0) {
+				task.remainingRounds--;
+			} else {
+				unlink(task);
+				if (task.periodTicks > 0)
+					link(task, task.periodTicks);
+				else
+					task.wheel = null;
+				expired.add(task);
+			}
+			task = nextTask;
+		}
+	}
+
+	/**
+	 * The wheel thread.
+	 */
+	public void run() {
+		ArrayList expired = new ArrayList();
+		while (true) {
+			synchronized (this) {
+				if (this.isStopped)
+					return;
+				long now = System.currentTimeMillis();
+				long nextTickTime = startTime + (currentTick + 1) * tickInterval;
+				if (nextTickTime > now) {
+					try {
+						this.wait(nextTickTime - now);
+					} catch (InterruptedException ex) {
+						// ignore
+					}
+					continue;
+				}
+				tick(expired);
+			}
+			for (int i = 0; i < expired.size(); i++) {
+				SIPStackTimerTask task = (SIPStackTimerTask) expired.get(i);
+				// The task may have been cancelled by another thread
+				// after it was taken off the wheel.
+				if (task.isCancelled)
+					continue;
+				try {
+					task.run();
+				} catch (RuntimeException ex) {
+					if (LogWriter.needsLogging)
+						logWriter.logException(ex);
+				}
+			}
+			expired.clear();
+		}
+	}
+}
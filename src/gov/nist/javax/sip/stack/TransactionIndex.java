@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).       *
+ *******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.*;
+import gov.nist.javax.sip.message.*;
+import java.util.HashMap;
+
+/**
+ * An index from a transaction matching key to the transactions that were
+ * registered under that key. Several transactions may legitimately share a
+ * key (an INVITE and the CANCEL or ACK server transactions created for it
+ * carry the same branch) so each key maps to a small array of transactions.
+ * The arrays are never modified once they are in the table (a new array is
+ * built on every add and remove) so that lookups can walk them without
+ * holding the lock. The table is split into segments with their own locks,
+ * as in {@link gov.nist.core.StripedHashtable}.
+ *
+ * The key only selects the candidates; a lookup still checks each
+ * candidate with isMessagePartOfTransaction so the index does not change
+ * the transaction matching rules.
+ *
+ * @version JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+class TransactionIndex {
+
+	private HashMap[] segments;
+
+	private int mask;
+
+	TransactionIndex() {
+		int size = 1;
+		while (size < StripedHashtable.DEFAULT_CONCURRENCY_LEVEL)
+			size <<= 1;
+		this.segments = new HashMap[size];
+		for (int i = 0; i < size; i++)
+			this.segments[i] = new HashMap();
+		this.mask = size - 1;
+	}
+
+	private HashMap segmentFor(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return segments[h & mask];
+	}
+
+	/**
+	 * Register a transaction under a key. Adding a transaction that is
+	 * already registered under the key has no effect.
+	 */
+	void add(String key, SIPTransaction transaction) {
+		HashMap segment = segmentFor(key);
+		synchronized (segment) {
+			SIPTransaction[] old = (SIPTransaction[]) segment.get(key);
+			if (old == null) {
+				segment.put(key, new SIPTransaction[] { transaction });
+				return;
+			}
+			for (int i = 0; i < old.length; i++) {
+				if (old[i] == transaction)
+					return;
+			}
+			SIPTransaction[] entries = new SIPTransaction[old.length + 1];
+			// Most recent first, like the single valued table that this
+			// replaces where the last transaction put in hid the others.
+			entries[0] = transaction;
+			System.arraycopy(old, 0, entries, 1, old.length);
+			segment.put(key, entries);
+		}
+	}
+
+	/**
+	 * Remove a transaction from under a key.
+	 *
+	 * @return true if the transaction was registered under the key.
+	 */
+	boolean remove(String key, SIPTransaction transaction) {
+		HashMap segment = segmentFor(key);
+		synchronized (segment) {
+			SIPTransaction[] old = (SIPTransaction[]) segment.get(key);
+			if (old == null)
+				return false;
+			int index = -1;
+			for (int i = 0; i < old.length; i++) {
+				if (old[i] == transaction) {
+					index = i;
+					break;
+				}
+			}
+			if (index == -1)
+				return false;
+			if (old.length == 1) {
+				segment.remove(key);
+			} else {
+				SIPTransaction[] entries = new SIPTransaction[old.length - 1];
+				System.arraycopy(old, 0, entries, 0, index);
+				System.arraycopy(old, index + 1, entries, index,
+						entries.length - index);
+				segment.put(key, entries);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Get the transactions registered under a key.
+	 *
+	 * @return the transactions (must not be modified by the caller) or null
+	 *         if there are none.
+	 */
+	SIPTransaction[] get(String key) {
+		HashMap segment = segmentFor(key);
+		synchronized (segment) {
+			return (SIPTransaction[]) segment.get(key);
+		}
+	}
+
+	/**
+	 * Find the transaction registered under a key that the given message is
+	 * part of.
+	 *
+	 * @return the matching transaction or null if none.
+	 */
+	SIPTransaction find(String key, SIPMessage sipMessage) {
+		SIPTransaction[] candidates = get(key);
+		if (candidates == null)
+			return null;
+		for (int i = 0; i < candidates.length; i++) {
+			if (candidates[i].isMessagePartOfTransaction(sipMessage))
+				return candidates[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Find the transaction that the given message is part of, preferring
+	 * the transaction that was registered under the key first.
+	 *
+	 * @return the matching transaction or null if none.
+	 */
+	SIPTransaction findFirstRegistered(String key, SIPMessage sipMessage) {
+		SIPTransaction[] candidates = get(key);
+		if (candidates == null)
+			return null;
+		for (int i = candidates.length - 1; i >= 0; i--) {
+			if (candidates[i].isMessagePartOfTransaction(sipMessage))
+				return candidates[i];
+		}
+		return null;
+	}
+}
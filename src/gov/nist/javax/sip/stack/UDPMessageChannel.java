@@ -10,7 +10,6 @@ import gov.nist.javax.sip.header.*;
 import gov.nist.javax.sip.parser.*;
 import gov.nist.javax.sip.message.*;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.String;
 import java.text.ParseException;
 
@@ -86,6 +85,11 @@ implements ParseExceptionListener, Runnable {
     
     private long receptionTime;
     
+    /**
+     * The queue a pool thread takes its packets from.
+     */
+    private UDPMessageQueue messageQueue;
+    
     /**
      * Constructor - takes a datagram packet and a stack structure
      * Extracts the address of the other from the datagram packet and
@@ -93,11 +97,14 @@ implements ParseExceptionListener, Runnable {
      * @param packet is the UDP Packet that contains the request.
      * @param stack is the shared SIPStack structure
      * @param notifier Channel notifier (not very useful for UDP).
+     * @param messageQueue the queue to take the packets from.
      */
     protected UDPMessageChannel(
     SIPMessageStack stack,
-    UDPMessageProcessor messageProcessor) {
+    UDPMessageProcessor messageProcessor,
+    UDPMessageQueue messageQueue) {
         super.messageProcessor = messageProcessor;
+        this.messageQueue = messageQueue;
         this.stack = stack;
         Thread mythread = new Thread(this);
 
@@ -169,52 +176,34 @@ implements ParseExceptionListener, Runnable {
     public void run() {
         
         while (true) {
-            // Create a new string message parser to parse the list of messages.
-            // This is a huge performance hit -- need to optimize by pre-create
-            // parser when one is needed....
+            // The string message parser (and the lexer and header parsers
+            // that it holds on to) is created once per thread and reused
+            // for every datagram that this thread handles.
             if (myParser == null) {
                 myParser = new StringMsgParser();
                 myParser.setParseExceptionListener(this);
+                myParser.setLazyParsing(stack.isLazyHeaderParsing());
             }
             // messages that we write out to him.
             DatagramPacket packet;
             
             if (stack.threadPoolSize != -1) {
-                synchronized (
-                ((UDPMessageProcessor) messageProcessor).messageQueue) {
-                    while (((UDPMessageProcessor) messageProcessor)
-                    .messageQueue
-                    .isEmpty()) {
-                        // Check to see if we need to exit.
-                        if (!((UDPMessageProcessor) messageProcessor)
-                        .isRunning)
-                            return;
-                        try {
-                            ((UDPMessageProcessor) messageProcessor).messageQueue.wait();
-                        } catch (InterruptedException ex) {
-                            if (!((UDPMessageProcessor) messageProcessor)
-                            .isRunning)
-                                return;
-                        }
-                    }
-                    packet =
-                    (DatagramPacket)
-                    ((UDPMessageProcessor) messageProcessor)
-                    .messageQueue
-                    .removeFirst();
-                    
-                }
+                packet = this.messageQueue.take();
+                // Null when the processor is stopping.
+                if (packet == null)
+                    return;
                 this.incomingPacket = packet;
             } else {
                 packet = this.incomingPacket;
             }
             
             this.peerAddress = packet.getAddress();
+            int packetPort = packet.getPort();
             int packetLength = packet.getLength();
-            // Read bytes and put it in a eueue.
-            byte[] bytes = packet.getData();
-            byte[] msgBytes = new byte[packetLength];
-            System.arraycopy(bytes, 0, msgBytes, 0, packetLength);
+            // The message is parsed in place, in the buffer it was
+            // received into.
+            byte[] msgBytes = packet.getData();
+            int offset = packet.getOffset();
             
             // Do debug logging.
             if (LogWriter.needsLogging) {
@@ -222,81 +211,81 @@ implements ParseExceptionListener, Runnable {
                 "UDPMessageChannel: peerAddress = "
                 + peerAddress.getHostAddress()
                 + "/"
-                + packet.getPort());
+                + packetPort);
                 this.stack.logWriter.logMessage("Length = " + packetLength);
-                String msgString = new String(msgBytes, 0, packetLength);
+                String msgString = new String(msgBytes, offset, packetLength);
                 this.stack.logWriter.logMessage(msgString);
             }
             
             SIPMessage[] sipMessages = null;
             SIPMessage sipMessage = null;
-            try {
-                
-                this.receptionTime = System.currentTimeMillis();
-                sipMessage = myParser.parseSIPMessage(msgBytes);
-                myParser = null;
-            } catch (ParseException ex) {
-                myParser = null; // let go of the parser reference.
-                if (LogWriter.needsLogging) {
-                    this.stack.logWriter.logMessage(
-                    "Rejecting message !  " + new String(msgBytes));
-                    this.stack.logWriter.logMessage(
-                    "error message " + ex.getMessage());
-                    this.stack.logWriter.logException(ex);
-                }
-                stack.logBadMessage(new String(msgBytes));
-                if (stack.threadPoolSize == -1)
-                    return;
-                else
-                    continue;
-            }
-            // No parse exception but null message - reject it and
-            // march on (or return). Bug report from Peter Parnes.
-            // exit this message processor if the message did not parse.
             
+            // Bad messages are common on the open network so they are
+            // rejected without exceptions (see tryParseSIPMessage).
+            this.receptionTime = System.currentTimeMillis();
+            sipMessage =
+            myParser.tryParseSIPMessage(msgBytes, offset, packetLength);
             if (sipMessage == null) {
+                // Null message - reject it and march on (or return).
+                // Bug report from Peter Parnes.
+                boolean empty =
+                myParser.getErrorStatus() == StringMsgParser.EMPTY_MESSAGE;
                 if (LogWriter.needsLogging) {
                     this.stack.logWriter.logMessage(
-                    "Rejecting message !  " + new String(msgBytes));
-                    this.stack.logWriter.logMessage("Null message parsed.");
+                    "Rejecting message !  "
+                    + new String(msgBytes, offset, packetLength));
+                    if (empty)
+                        this.stack.logWriter.logMessage("Null message parsed.");
+                    else
+                        this.stack.logWriter.logMessage(
+                        "error message " + myParser.getErrorText());
                 }
+                if (!empty)
+                    stack.logBadMessage(msgBytes, offset, packetLength);
+                ((UDPMessageProcessor) messageProcessor).releasePacket(packet);
                 if (stack.threadPoolSize == -1)
                     return;
                 else
                     continue;
             }
-            ViaList viaList = sipMessage.getViaHeaders();
+            ViaList viaList = sipMessage.peekViaHeaders();
             // Check for the required headers.
-            if (sipMessage.getFrom() == null
-            || //sipMessage.getFrom().getTag() == null  ||
-            sipMessage.getTo()
+            if (sipMessage.peekFrom() == null
+            || //sipMessage.peekFrom().getTag() == null  ||
+            sipMessage.peekTo()
             == null
-            || sipMessage.getCallId() == null
-            || sipMessage.getCSeq() == null
-            || sipMessage.getViaHeaders() == null) {
-                String badmsg = new String(msgBytes);
+            || sipMessage.peekCallId() == null
+            || sipMessage.peekCSeq() == null
+            || sipMessage.peekViaHeaders() == null) {
                 if (LogWriter.needsLogging) {
-                    this.stack.logWriter.logMessage("bad message " + badmsg);
+                    this.stack.logWriter.logMessage(
+                    "bad message "
+                    + new String(msgBytes, offset, packetLength));
                     this.stack.logWriter.logMessage(
                     ">>> Dropped Bad Msg "
                     + "From = "
-                    + sipMessage.getFrom()
+                    + sipMessage.peekFrom()
                     + "To = "
-                    + sipMessage.getTo()
+                    + sipMessage.peekTo()
                     + "CallId = "
-                    + sipMessage.getCallId()
+                    + sipMessage.peekCallId()
                     + "CSeq = "
-                    + sipMessage.getCSeq()
+                    + sipMessage.peekCSeq()
                     + "Via = "
-                    + sipMessage.getViaHeaders());
+                    + sipMessage.peekViaHeaders());
                 }
                 
-                stack.logBadMessage(badmsg);
+                stack.logBadMessage(msgBytes, offset, packetLength);
+                ((UDPMessageProcessor) messageProcessor).releasePacket(packet);
                 if (stack.threadPoolSize == -1)
                     return;
                 else
                     continue;
             }
+            // The message has its own copy of everything it needs from
+            // the buffer.
+            ((UDPMessageProcessor) messageProcessor).releasePacket(packet);
+            this.incomingPacket = null;
             // For a request first via header tells where the message
             // is coming from.
             // For response, just get the port from the packet.
@@ -310,17 +299,14 @@ implements ParseExceptionListener, Runnable {
                     this.peerPort = SIPMessageStack.DEFAULT_PORT;
                 this.peerProtocol = v.getTransport();
 
-                this.peerPacketSourceAddress = packet.getAddress();
-                this.peerPacketSourcePort = packet.getPort();
+                this.peerPacketSourceAddress = this.peerAddress;
+                this.peerPacketSourcePort = packetPort;
                 try {
-                    this.peerAddress = packet.getAddress();
                     // Check to see if the received parameter matches
                     // the peer address and tag it appropriately.
                     // Bug fix by viswashanti.kadiyala@antepo.com
-                    if (!v
-                    .getSentBy()
-                    .getInetAddress()
-                    .equals(this.peerAddress)) {
+                    if (!v.getSentByAddress().equals(this.peerAddress)) {
+                        v = sipMessage.getTopmostVia();
                         v.setParameter(
                         Via.RECEIVED,
                         this.peerAddress.getHostName());
@@ -480,7 +466,7 @@ implements ParseExceptionListener, Runnable {
     public void sendMessage(SIPMessage sipMessage) throws IOException {
         if (LogWriter.needsLogging)
             this.stack.logWriter.logStackTrace();
-        byte[] msg = sipMessage.encodeAsBytes();
+        byte[] msg = sipMessage.encodeAsSharedBytes();
         
       	long time = System.currentTimeMillis();
         
@@ -527,29 +513,25 @@ implements ParseExceptionListener, Runnable {
             }
 
         }
-        DatagramPacket reply =
-        new DatagramPacket(msg, msg.length, peerAddress, peerPort);
         try {
-          	DatagramSocket sock;
+            UDPSender sender = ((UDPMessageProcessor) messageProcessor).sender;
             if (stack.udpFlag) {
                 // Use the socket from the message processor (for firewall
                 // support use the same socket as the message processor
                 // socket -- feature request # 18 from java.net). This also
                 // makes the whole thing run faster!
                 
-                sock = ((UDPMessageProcessor) messageProcessor).sock;
+                sender.send(msg, peerAddress, peerPort);
                 
                 // Bind the socket to the stack address in case there
                 // are multiple interfaces on the machine (feature reqeust
                 // by Will Scullin) 0 binds to an ephemeral port.
                 // sock = new DatagramSocket(0,stack.stackInetAddress);
             } else {
-                // bind to any interface and port.
-              	sock = new DatagramSocket();
+                // bind to any interface and port (the sender keeps the
+                // sockets for the next messages).
+                sender.sendUnbound(msg, peerAddress, peerPort);
             }
-            sock.send(reply);
-            if (!stack.udpFlag)
-                sock.close();
         } catch (IOException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -593,21 +575,15 @@ implements ParseExceptionListener, Runnable {
             }
         }
         if (peerProtocol.compareToIgnoreCase("UDP") == 0) {
-            DatagramPacket reply =
-            new DatagramPacket(msg, msg.length, peerAddress, peerPort);
-            
             try {
-                DatagramSocket sock;
+                UDPSender sender =
+                ((UDPMessageProcessor) messageProcessor).sender;
                 if (stack.udpFlag) {
-                    sock = ((UDPMessageProcessor) messageProcessor).sock;
-                    
+                    sender.send(msg, peerAddress, peerPort);
                 } else {
                     // bind to any interface and port.
-                   sock = stack.getNetworkLayer().createDatagramSocket();
+                    sender.sendUnbound(msg, peerAddress, peerPort);
                 }
-                sock.send(reply);
-                if (!stack.udpFlag)
-                    sock.close();
             } catch (IOException ex) {
                 throw ex;
             } catch (Exception ex) {
@@ -615,18 +591,14 @@ implements ParseExceptionListener, Runnable {
             }
             
         } else {
-            // Use TCP to talk back to the sender.
-            Socket outputSocket =
+            // Use TCP to talk back to the sender. sendBytes queues the
+            // message for the connection (which is cached, dont close it!).
             stack.ioHandler.sendBytes(
             peerAddress,
             peerPort,
             "tcp",
             msg,
             retry);
-            OutputStream myOutputStream = outputSocket.getOutputStream();
-            myOutputStream.write(msg, 0, msg.length);
-            myOutputStream.flush();
-	    // The socket is cached (dont close it!);
         }
     }
     
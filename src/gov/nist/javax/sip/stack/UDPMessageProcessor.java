@@ -10,7 +10,13 @@ import java.util.LinkedList;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import gov.nist.core.*;
+import gov.nist.javax.sip.header.RetryAfter;
+import gov.nist.javax.sip.header.To;
+import gov.nist.javax.sip.header.Via;
+import gov.nist.javax.sip.message.*;
+import gov.nist.javax.sip.parser.StringMsgParser;
 import java.lang.reflect.*;
+import javax.sip.message.Response;
 
 
 /**
@@ -29,6 +35,23 @@ import java.lang.reflect.*;
  * </a>
  * 
  *
+ * With a thread pool, the packets are queued for the pool threads. By
+ * default there is one queue that all of them take from. With sharded
+ * queues each pool thread has a queue of its own and a packet goes to
+ * the queue picked by the hash of its Call-ID: the messages of a call
+ * are handled in order by one thread while the calls are spread over all
+ * of them, and the threads do not contend for one lock. Several threads
+ * can receive from the socket (the socket serializes the receives, the
+ * receiver threads share the work that follows them).
+ *
+ * The queues are bounded (see UDPMessageQueue): a packet that finds its
+ * queue full is dropped. Above the high water mark of a queue new INVITEs
+ * are turned away with a stateless 503 (Service Unavailable) and a
+ * Retry-After, while the rest of the traffic (which belongs to calls and
+ * transactions the stack already has) is still queued. The retransmission
+ * of an INVITE that is still in the queue (and has no server transaction
+ * yet) is queued as well: the queue knows the Call-IDs of its INVITEs.
+ *
  * Acknowledgement: Jeff Keyser contributed ideas on
  * starting and stoppping the stack that were incorporated into this code.
  * Niklas Uhrberg suggested that thread pooling be added to limit the number
@@ -48,9 +71,16 @@ public class UDPMessageProcessor extends MessageProcessor {
 	private int mappedPort;
 
 	/**
-	 * Incoming messages are queued here.
+	 * Incoming messages are queued here for the pool threads: one queue
+	 * that all of them share or one queue per thread (picked by the
+	 * Call-ID of the message). Null if there is no thread pool.
 	 */
-	protected LinkedList messageQueue;
+	private UDPMessageQueue[] messageQueues;
+
+	// New INVITEs turned away and packets dropped because of overload.
+	private int shedRequests;
+
+	private int droppedMessages;
 
 
 	/**
@@ -68,6 +98,16 @@ public class UDPMessageProcessor extends MessageProcessor {
 	 */
 	protected static final int MAX_DATAGRAM_SIZE = 8 * 1024;
 
+	/**
+	 * Free packets kept by the packet pool.
+	 */
+	private static final int MAX_FREE_PACKETS = 256;
+
+	/**
+	 * The packets that we receive into (see UDPPacketPool).
+	 */
+	private UDPPacketPool packetPool;
+
 	/**
 	 * Our stack (that created us).
 	 */
@@ -81,6 +121,11 @@ public class UDPMessageProcessor extends MessageProcessor {
 
 	protected DatagramSocket sock;
 
+	/**
+	 * Sends the messages of our channels (see UDPSender).
+	 */
+	protected UDPSender sender;
+
 	/**
 	 * A flag that is set to false to exit the message processor
 	 * (suggestion by Jeff Keyser).
@@ -94,7 +139,6 @@ public class UDPMessageProcessor extends MessageProcessor {
 	protected UDPMessageProcessor(SIPMessageStack sipStack, int port)  
 		throws IOException {
 		this.sipStack = sipStack;
-		this.messageQueue = new LinkedList();
 		this.port = port;
 		this.mappedPort = port;
 		try  {
@@ -104,6 +148,8 @@ public class UDPMessageProcessor extends MessageProcessor {
 		} catch (SocketException ex) {
 			throw new IOException (ex.getMessage());
 		}
+		this.sender =
+			new UDPSender(sipStack, sock, sipStack.udpSendQueueSize);
 	}
 
 	/**
@@ -185,50 +231,90 @@ public class UDPMessageProcessor extends MessageProcessor {
 		}
 
 		this.isRunning = true;
+		// The buffers are as large as the socket receive buffer (and so
+		// hold any datagram that the socket can take).
+		this.packetPool =
+			new UDPPacketPool(sock.getReceiveBufferSize(), MAX_FREE_PACKETS);
+		this.messageChannels = new LinkedList();
+		// start all our messageChannels (unless the thread pool size is
+		// infinity.
+		if (sipStack.threadPoolSize != -1) {
+			this.messageQueues = new UDPMessageQueue[
+				sipStack.udpShardedQueues ? sipStack.threadPoolSize : 1];
+			for (int i = 0; i < messageQueues.length; i++)
+				messageQueues[i] = new UDPMessageQueue(sipStack.udpQueueSize);
+			for (int i = 0; i < sipStack.threadPoolSize; i++) {
+				UDPMessageQueue queue =
+					messageQueues[i % messageQueues.length];
+				UDPMessageChannel channel =
+					new UDPMessageChannel(sipStack, this, queue);
+				this.messageChannels.add(channel);
+
+			}
+		}
+		sender.start("UDPSenderThread-" + port);
 		this.thread = new Thread(this);
 		thread.setDaemon(true);
 		// Issue #32 on java.net
 		thread.setName("UDPMessageProcessorThread");
 		thread.start();
+		for (int i = 1; i < sipStack.udpReceiveThreads; i++) {
+			Thread receiver = new Thread(this);
+			receiver.setDaemon(true);
+			receiver.setName("UDPMessageProcessorThread-" + i);
+			receiver.start();
+		}
 	}
 
 	/**
 	 * Thread main routine.
 	 */
 	public void run() {
-		// Check for running flag.
-		this.messageChannels = new LinkedList();
-		// start all our messageChannels (unless the thread pool size is
-		// infinity.
-		if (sipStack.threadPoolSize != -1) {
-			for (int i = 0; i < sipStack.threadPoolSize; i++) {
-				UDPMessageChannel channel =
-					new UDPMessageChannel(sipStack, this);
-				this.messageChannels.add(channel);
-
-			}
-		}
+		// Parses the INVITEs that come when the queue is above its high
+		// water mark.
+		StringMsgParser parser = null;
 		while (this.isRunning) {
 			// Somebody asked us to exit.
 			try {
-				int bufsize = sock.getReceiveBufferSize();
-				byte message[] = new byte[bufsize];
-				DatagramPacket packet = new DatagramPacket(message, bufsize);
-				// System.out.println("received " + new String(message));
+				DatagramPacket packet = packetPool.get();
 				sock.receive(packet);
+				byte message[] = packet.getData();
 
 				// Count of # of packets in process.
 				// this.useCount++;
-				if (sipStack.threadPoolSize != -1) {
-					// Note: the only condition watched for by threads 
-					// synchronizing on the messageQueue member is that it is 
-					// not empty. As soon as you introduce some other
-					// condition you will have to call notifyAll instead of 
-					// notify below.
-
-					synchronized (this.messageQueue) {
-						this.messageQueue.addLast(packet);
-						this.messageQueue.notify();
+				if (messageQueues != null) {
+					boolean invite = isInvite(message, packet.getLength());
+					int hash = 0;
+					if (invite || messageQueues.length > 1)
+						hash = callIdHash(message, packet.getLength());
+					UDPMessageQueue queue = messageQueues[0];
+					if (messageQueues.length > 1)
+						queue = messageQueues[(hash & 0x7fffffff)
+							% messageQueues.length];
+					// The retransmission of an INVITE that is still queued
+					// goes to the same queue (its Call-ID is the same) and
+					// is left to the transaction of the first one.
+					if (invite
+						&& queue.size() >= sipStack.udpQueueHighWaterMark
+						&& !queue.hasInvite(hash)) {
+						if (parser == null)
+							parser = new StringMsgParser();
+						if (shed(packet, parser)) {
+							releasePacket(packet);
+							continue;
+						}
+					}
+					if (!queue.add(packet, System.currentTimeMillis(), invite,
+						hash)) {
+						synchronized (this) {
+							droppedMessages++;
+						}
+						if (LogWriter.needsLogging)
+							getSIPStack().logWriter.logMessage(
+								"UDPMessageProcessor: queue full, dropping a packet from "
+									+ packet.getAddress().getHostAddress() + ":"
+									+ packet.getPort());
+						releasePacket(packet);
 					}
 				} else {
 					new UDPMessageChannel(sipStack, this, packet);
@@ -240,9 +326,7 @@ public class UDPMessageProcessor extends MessageProcessor {
 				isRunning = false;
 				// The notifyAll should be in a synchronized block.
 				// ( bug report by Niklas Uhrberg ).
-				synchronized (this.messageQueue) {
-					this.messageQueue.notifyAll();
-				}
+				wakeUpChannels();
 			} catch (IOException ex) {
 				isRunning = false;
 				ex.printStackTrace();
@@ -264,14 +348,155 @@ public class UDPMessageProcessor extends MessageProcessor {
 	 * incoming messages.
 	 */
 	public void stop() {
-		synchronized (this.messageQueue) {
-			this.isRunning = false;
-			this.messageQueue.notifyAll();
-			this.listeningPoint = null;
-			sock.close();
+		this.isRunning = false;
+		wakeUpChannels();
+		sender.stop();
+		this.listeningPoint = null;
+		sock.close();
+	}
+
+	/**
+	 * Let the pool threads go (we are stopping).
+	 */
+	private void wakeUpChannels() {
+		if (messageQueues != null) {
+			for (int i = 0; i < messageQueues.length; i++)
+				messageQueues[i].close();
 		}
 	}
 
+	private static final byte[] INVITE = {
+		'I', 'N', 'V', 'I', 'T', 'E', ' ' };
+
+	private static boolean isInvite(byte[] data, int length) {
+		if (length < INVITE.length)
+			return false;
+		for (int i = 0; i < INVITE.length; i++) {
+			if (data[i] != INVITE[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Turn away an INVITE that comes when we are overloaded, unless it
+	 * belongs to a dialog or is the retransmission of an INVITE that we
+	 * have a transaction for (the caller has checked that it is not the
+	 * retransmission of a queued INVITE). The 503 is sent statelessly (so
+	 * the To tag is made from the branch, which the retransmissions of the
+	 * INVITE have as well).
+	 *
+	 * @return true if the INVITE was turned away.
+	 */
+	private boolean shed(DatagramPacket packet, StringMsgParser parser) {
+		SIPMessage message = parser.tryParseSIPMessage(
+			packet.getData(), packet.getOffset(), packet.getLength());
+		// Leave the bad messages to the pool threads.
+		if (!(message instanceof SIPRequest)
+			|| message.getTopmostVia() == null
+			|| message.getTo() == null
+			|| message.getCallId() == null
+			|| message.getCSeq() == null)
+			return false;
+		SIPRequest request = (SIPRequest) message;
+		if (request.hasToTag())
+			return false;
+		if (sipStack instanceof SIPTransactionStack
+			&& ((SIPTransactionStack) sipStack).findTransaction(request, true)
+				!= null)
+			return false;
+		try {
+			SIPResponse response =
+				request.createResponse(Response.SERVICE_UNAVAILABLE);
+			((To) response.getTo()).setTag(
+				Integer.toHexString(request.getTransactionId().hashCode()));
+			RetryAfter retryAfter = new RetryAfter();
+			retryAfter.setRetryAfter(sipStack.overloadRetryAfter);
+			response.setHeader(retryAfter);
+			Via via = request.getTopmostVia();
+			int port;
+			if (via.hasParameter(Via.RPORT))
+				port = packet.getPort();
+			else if (via.hasPort())
+				port = via.getPort();
+			else
+				port = SIPMessageStack.DEFAULT_PORT;
+			byte[] responseBytes = response.encodeAsSharedBytes();
+			sock.send(new DatagramPacket(responseBytes, responseBytes.length,
+				packet.getAddress(), port));
+		} catch (Exception ex) {
+			if (LogWriter.needsLogging)
+				getSIPStack().logWriter.logException(ex);
+		}
+		synchronized (this) {
+			shedRequests++;
+		}
+		if (LogWriter.needsLogging)
+			getSIPStack().logWriter.logMessage(
+				"UDPMessageProcessor: overloaded, rejected INVITE "
+					+ request.getCallId().getCallId());
+		return true;
+	}
+
+	private static final byte[] CALL_ID = {
+		'c', 'a', 'l', 'l', '-', 'i', 'd' };
+
+	/**
+	 * Hash the Call-ID of a message without parsing it (0 if the message
+	 * has no Call-ID header).
+	 *
+	 * @param data the message.
+	 * @param length the length of the message.
+	 */
+	static int callIdHash(byte[] data, int length) {
+		int lineStart = 0;
+		while (lineStart < length) {
+			int lineEnd = lineStart;
+			while (lineEnd < length && data[lineEnd] != '\n')
+				lineEnd++;
+			int end = lineEnd;
+			if (end > lineStart && data[end - 1] == '\r')
+				end--;
+			// An empty line ends the headers.
+			if (end == lineStart)
+				break;
+			int colon = lineStart;
+			while (colon < end && data[colon] != ':')
+				colon++;
+			int nameEnd = colon;
+			while (nameEnd > lineStart
+				&& (data[nameEnd - 1] == ' ' || data[nameEnd - 1] == '\t'))
+				nameEnd--;
+			if (colon < end && isCallId(data, lineStart, nameEnd)) {
+				int p = colon + 1;
+				while (p < end && (data[p] == ' ' || data[p] == '\t'))
+					p++;
+				while (end > p && (data[end - 1] == ' ' || data[end - 1] == '\t'))
+					end--;
+				int hash = 0;
+				for (; p < end; p++)
+					hash = 31 * hash + data[p];
+				return hash;
+			}
+			lineStart = lineEnd + 1;
+		}
+		return 0;
+	}
+
+	// Call-ID or its compact form i (the names are case insensitive).
+	private static boolean isCallId(byte[] data, int start, int end) {
+		int n = end - start;
+		if (n == 1)
+			return (data[start] | 0x20) == 'i';
+		if (n != CALL_ID.length)
+			return false;
+		for (int i = 0; i < n; i++) {
+			if ((data[start + i] | 0x20) != CALL_ID[i])
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Return the transport string.
 	 * @return the transport string
@@ -330,11 +555,71 @@ public class UDPMessageProcessor extends MessageProcessor {
 	 * Return true if there are any messages in use.
 	 */
 	public boolean inUse() {
-		synchronized (messageQueue) {
-		   return messageQueue.size() != 0;
+		return getQueueLength() != 0;
+	}
+
+	/**
+	 * Give back a packet that was received into, once its message has
+	 * been parsed (or dropped).
+	 */
+	protected void releasePacket(DatagramPacket packet) {
+		packetPool.release(packet);
+	}
+
+	/**
+	 * Get the number of datagrams sent and the number of times the
+	 * sender thread woke up to send the queued ones.
+	 */
+	protected void getSenderStats(long[] stats) {
+		stats[0] += sender.getSent();
+		stats[1] += sender.getBatches();
+	}
+
+	/**
+	 * Get the number of receive buffers allocated and the number of
+	 * times a pooled one was reused.
+	 */
+	protected void getPacketPoolStats(long[] stats) {
+		if (packetPool == null)
+			return;
+		stats[0] += packetPool.getAllocated();
+		stats[1] += packetPool.getReused();
+	}
+
+	/**
+	 * Get the number of packets waiting for the pool threads.
+	 */
+	protected int getQueueLength() {
+		int length = 0;
+		if (messageQueues != null) {
+			for (int i = 0; i < messageQueues.length; i++)
+				length += messageQueues[i].size();
+		}
+		return length;
+	}
+
+	/**
+	 * Get the number of packets taken from the queues, the time they
+	 * waited in total and the longest wait (in milliseconds).
+	 */
+	protected void getQueueWaitTimes(long[] stats) {
+		if (messageQueues == null)
+			return;
+		for (int i = 0; i < messageQueues.length; i++) {
+			stats[0] += messageQueues[i].getTaken();
+			stats[1] += messageQueues[i].getTotalWaitTime();
+			stats[2] = Math.max(stats[2], messageQueues[i].getMaxWaitTime());
 		}
 	}
 
+	protected synchronized int getShedRequests() {
+		return shedRequests;
+	}
+
+	protected synchronized int getDroppedMessages() {
+		return droppedMessages;
+	}
+
 }
 /*
  * $Log: UDPMessageProcessor.java,v $
@@ -0,0 +1,147 @@
+/******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).      *
+ ******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import java.net.DatagramPacket;
+
+/**
+ * The UDP packets waiting for the pool threads of a UDPMessageProcessor:
+ * a ring of fixed size, so that a spike of traffic cannot grow the queue
+ * (and the time the packets wait in it) without limit. The queue also
+ * keeps how long the packets waited in it, and the Call-ID hashes of the
+ * INVITEs in it (so that the retransmission of an INVITE that is still
+ * queued can be told from a new one).
+ *
+ * @version  JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+class UDPMessageQueue {
+
+	private DatagramPacket[] packets;
+
+	// When each packet was queued.
+	private long[] queueTimes;
+
+	// Whether each packet is an INVITE and the hash of its Call-ID.
+	private boolean[] invites;
+
+	private int[] callIdHashes;
+
+	// Index of the oldest packet and number of packets.
+	private int head;
+
+	private int count;
+
+	private boolean closed;
+
+	// Statistics of the packets taken from the queue.
+	private int taken;
+
+	private long totalWaitTime;
+
+	private long maxWaitTime;
+
+	protected UDPMessageQueue(int capacity) {
+		this.packets = new DatagramPacket[capacity];
+		this.queueTimes = new long[capacity];
+		this.invites = new boolean[capacity];
+		this.callIdHashes = new int[capacity];
+	}
+
+	/**
+	 * Queue a packet.
+	 *
+	 * @param invite true if the packet is an INVITE.
+	 * @param callIdHash the hash of the Call-ID of an INVITE (see
+	 *	UDPMessageProcessor.callIdHash).
+	 * @return false if the queue is full.
+	 */
+	protected synchronized boolean add(DatagramPacket packet, long time,
+		boolean invite, int callIdHash) {
+		if (count == packets.length)
+			return false;
+		int tail = (head + count) % packets.length;
+		packets[tail] = packet;
+		queueTimes[tail] = time;
+		invites[tail] = invite;
+		callIdHashes[tail] = callIdHash;
+		count++;
+		// Only pool threads wait on the queue and they all wait for
+		// the same thing.
+		this.notify();
+		return true;
+	}
+
+	/**
+	 * Take the oldest packet, waiting for one if need be.
+	 *
+	 * @return null once the queue is closed.
+	 */
+	protected synchronized DatagramPacket take() {
+		while (count == 0) {
+			if (closed)
+				return null;
+			try {
+				this.wait();
+			} catch (InterruptedException ex) {
+				if (closed)
+					return null;
+			}
+		}
+		DatagramPacket packet = packets[head];
+		long waitTime = System.currentTimeMillis() - queueTimes[head];
+		packets[head] = null;
+		invites[head] = false;
+		head = (head + 1) % packets.length;
+		count--;
+		taken++;
+		totalWaitTime += waitTime;
+		if (waitTime > maxWaitTime)
+			maxWaitTime = waitTime;
+		return packet;
+	}
+
+	/**
+	 * Return true if an INVITE with a Call-ID of the given hash is queued.
+	 */
+	protected synchronized boolean hasInvite(int callIdHash) {
+		for (int i = 0; i < count; i++) {
+			int index = (head + i) % packets.length;
+			if (invites[index] && callIdHashes[index] == callIdHash)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Wake up the threads waiting for a packet and let them go.
+	 */
+	protected synchronized void close() {
+		closed = true;
+		this.notifyAll();
+	}
+
+	protected synchronized int size() {
+		return count;
+	}
+
+	protected int capacity() {
+		return packets.length;
+	}
+
+	protected synchronized int getTaken() {
+		return taken;
+	}
+
+	protected synchronized long getTotalWaitTime() {
+		return totalWaitTime;
+	}
+
+	protected synchronized long getMaxWaitTime() {
+		return maxWaitTime;
+	}
+}
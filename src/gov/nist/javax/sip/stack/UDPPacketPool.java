@@ -0,0 +1,81 @@
+/******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).      *
+ ******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import java.net.DatagramPacket;
+
+/**
+ * The packets (and their buffers) that a UDPMessageProcessor receives
+ * into. A packet goes back to the pool once its message is parsed (the
+ * parser copies the body out of the buffer and makes the headers from
+ * their own copy of the text), so under load the same few buffers are
+ * received into over and over instead of a new one for every datagram.
+ * The pool keeps a bounded number of free packets: the ones allocated
+ * for a burst of traffic beyond that are left to the garbage collector.
+ *
+ * @version  JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+class UDPPacketPool {
+
+	private DatagramPacket[] free;
+
+	private int count;
+
+	private int bufferSize;
+
+	// Statistics: packets allocated and packets taken from the pool.
+	private int allocated;
+
+	private int reused;
+
+	/**
+	 * @param bufferSize size of the buffer of each packet (the largest
+	 *	datagram that can be received).
+	 * @param maxFree number of free packets kept.
+	 */
+	protected UDPPacketPool(int bufferSize, int maxFree) {
+		this.bufferSize = bufferSize;
+		this.free = new DatagramPacket[maxFree];
+	}
+
+	/**
+	 * Get a packet ready to receive into.
+	 */
+	protected DatagramPacket get() {
+		DatagramPacket packet = null;
+		synchronized (this) {
+			if (count > 0) {
+				packet = free[--count];
+				free[count] = null;
+				reused++;
+			} else
+				allocated++;
+		}
+		if (packet == null)
+			return new DatagramPacket(new byte[bufferSize], bufferSize);
+		// receive set the length to that of the last datagram.
+		packet.setLength(bufferSize);
+		return packet;
+	}
+
+	/**
+	 * Give back a packet whose message has been parsed (or dropped).
+	 */
+	protected synchronized void release(DatagramPacket packet) {
+		if (count < free.length)
+			free[count++] = packet;
+	}
+
+	protected synchronized int getAllocated() {
+		return allocated;
+	}
+
+	protected synchronized int getReused() {
+		return reused;
+	}
+}
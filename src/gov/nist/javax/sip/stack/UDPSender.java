@@ -0,0 +1,243 @@
+/******************************************************************************
+ * Product of NIST/ITL Advanced Networking Technologies Division (ANTD).      *
+ ******************************************************************************/
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.*;
+import java.io.IOException;
+import java.net.*;
+
+/**
+ * Sends the datagrams of a UDPMessageProcessor. The messages go out of
+ * the socket of the processor (so that the peers, and the firewalls on
+ * the way, see them come from the port that we listen on). If the stack
+ * has a UDP send queue, the threads that send a message only queue it
+ * and a sender thread sends everything that was queued each time it
+ * wakes up, through a single packet that it reuses. Many transactions
+ * sending at once (a burst of NOTIFY or OPTIONS requests, say) then cost
+ * one wake up instead of one socket send each in their own threads. A
+ * message that does not fit in the queue is sent by the thread that
+ * sends it.
+ *
+ * The sender also keeps the sockets for the messages that are sent from
+ * an ephemeral port (rather than from the port of the processor) so that
+ * they are not opened and closed for every message.
+ *
+ * @version  JAIN-SIP-1.1
+ *
+ * @author M. Ranganathan <mranga@nist.gov>  <br/>
+ *
+ * <a href="{@docRoot}/uncopyright.html">This code is in the public domain.</a>
+ */
+class UDPSender implements Runnable {
+
+	// Sockets kept for the sends from an ephemeral port.
+	private static final int MAX_FREE_SOCKETS = 8;
+
+	private SIPMessageStack sipStack;
+
+	private DatagramSocket sock;
+
+	// The queued messages and where they go (null if there is no queue).
+	private byte[][] messages;
+
+	private InetAddress[] addresses;
+
+	private int[] ports;
+
+	private int head;
+
+	private int count;
+
+	private boolean closed;
+
+	private Thread thread;
+
+	private DatagramSocket[] freeSockets;
+
+	private int freeCount;
+
+	// Guarded by freeSockets.
+	private boolean socketsClosed;
+
+	// Statistics: datagrams sent and wake ups of the sender thread.
+	private int sent;
+
+	private int batches;
+
+	/**
+	 * @param sipStack the stack.
+	 * @param sock the socket of the processor.
+	 * @param queueSize number of messages the send queue holds (0 for no
+	 *	queue: every thread sends its own messages).
+	 */
+	protected UDPSender(SIPMessageStack sipStack, DatagramSocket sock,
+		int queueSize) {
+		this.sipStack = sipStack;
+		this.sock = sock;
+		if (queueSize > 0) {
+			this.messages = new byte[queueSize][];
+			this.addresses = new InetAddress[queueSize];
+			this.ports = new int[queueSize];
+		}
+		this.freeSockets = new DatagramSocket[MAX_FREE_SOCKETS];
+	}
+
+	/**
+	 * Start the sender thread (if there is a send queue).
+	 */
+	protected void start(String name) {
+		if (messages == null)
+			return;
+		thread = new Thread(this);
+		thread.setDaemon(true);
+		thread.setName(name);
+		thread.start();
+	}
+
+	/**
+	 * Stop the sender thread (once it has sent what is queued) and close
+	 * the pooled sockets.
+	 */
+	protected void stop() {
+		synchronized (this) {
+			closed = true;
+			this.notify();
+		}
+		synchronized (freeSockets) {
+			socketsClosed = true;
+			for (int i = 0; i < freeCount; i++) {
+				freeSockets[i].close();
+				freeSockets[i] = null;
+			}
+			freeCount = 0;
+		}
+	}
+
+	/**
+	 * Send a message out of the socket of the processor.
+	 */
+	protected void send(byte[] msg, InetAddress address, int port)
+		throws IOException {
+		if (messages != null) {
+			synchronized (this) {
+				if (!closed && count < messages.length) {
+					int tail = (head + count) % messages.length;
+					messages[tail] = msg;
+					addresses[tail] = address;
+					ports[tail] = port;
+					count++;
+					// The sender thread only waits when the queue is
+					// empty.
+					if (count == 1)
+						this.notify();
+					return;
+				}
+			}
+		}
+		sock.send(new DatagramPacket(msg, msg.length, address, port));
+		synchronized (this) {
+			sent++;
+		}
+	}
+
+	/**
+	 * Send a message from an ephemeral port, with one of the pooled
+	 * sockets.
+	 */
+	protected void sendUnbound(byte[] msg, InetAddress address, int port)
+		throws IOException {
+		DatagramSocket socket = null;
+		synchronized (freeSockets) {
+			if (freeCount > 0) {
+				socket = freeSockets[--freeCount];
+				freeSockets[freeCount] = null;
+			}
+		}
+		if (socket == null)
+			socket = sipStack.getNetworkLayer().createDatagramSocket();
+		try {
+			socket.send(new DatagramPacket(msg, msg.length, address, port));
+		} catch (IOException ex) {
+			socket.close();
+			throw ex;
+		}
+		synchronized (freeSockets) {
+			if (!socketsClosed && freeCount < freeSockets.length) {
+				freeSockets[freeCount++] = socket;
+				socket = null;
+			}
+		}
+		if (socket != null)
+			socket.close();
+		synchronized (this) {
+			sent++;
+		}
+	}
+
+	public void run() {
+		int capacity = messages.length;
+		byte[][] batch = new byte[capacity][];
+		InetAddress[] batchAddresses = new InetAddress[capacity];
+		int[] batchPorts = new int[capacity];
+		DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+		while (true) {
+			int n;
+			synchronized (this) {
+				while (count == 0 && !closed) {
+					try {
+						this.wait();
+					} catch (InterruptedException ex) {
+					}
+				}
+				if (count == 0)
+					return;
+				// Take everything that is queued.
+				n = count;
+				for (int i = 0; i < n; i++) {
+					int k = (head + i) % capacity;
+					batch[i] = messages[k];
+					batchAddresses[i] = addresses[k];
+					batchPorts[i] = ports[k];
+					messages[k] = null;
+					addresses[k] = null;
+				}
+				head = (head + n) % capacity;
+				count = 0;
+				batches++;
+			}
+			int done = 0;
+			for (int i = 0; i < n; i++) {
+				packet.setData(batch[i]);
+				packet.setAddress(batchAddresses[i]);
+				packet.setPort(batchPorts[i]);
+				try {
+					sock.send(packet);
+					done++;
+				} catch (IOException ex) {
+					// As for a datagram lost on the way: the transaction
+					// layer retransmits or times out.
+					if (LogWriter.needsLogging)
+						sipStack.logWriter.logException(ex);
+				}
+				batch[i] = null;
+				batchAddresses[i] = null;
+			}
+			synchronized (this) {
+				sent += done;
+			}
+		}
+	}
+
+	protected synchronized int getQueueLength() {
+		return count;
+	}
+
+	protected synchronized int getSent() {
+		return sent;
+	}
+
+	protected synchronized int getBatches() {
+		return batches;
+	}
+}